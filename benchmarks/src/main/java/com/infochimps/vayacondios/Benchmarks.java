@@ -0,0 +1,46 @@
+package com.infochimps.vayacondios;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.Properties;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/** Runs the benchmarks with allocation profiling, saving results for
+ * the version of the client under test.
+ * <p>
+ * Accepts the usual JMH command-line options.  Unless told otherwise,
+ * results are written as JSON to
+ * <code>results/vayacondios-VERSION.json</code> so they can be kept
+ * and compared from one release to the next.
+ */
+public class Benchmarks {
+
+    public static void main(String[] args) throws Exception {
+	CommandLineOptions    cli     = new CommandLineOptions(args);
+	ChainedOptionsBuilder options = new OptionsBuilder()
+	    .parent(cli)
+	    .addProfiler(GCProfiler.class);
+	if (!cli.getResult().hasValue()) {
+	    new File("results").mkdirs();
+	    options.resultFormat(ResultFormatType.JSON).result("results/vayacondios-" + version() + ".json");
+	}
+	new Runner(options.build()).run();
+    }
+
+    private static String version() throws Exception {
+	Properties properties = new Properties();
+	InputStream in = Benchmarks.class.getResourceAsStream("/benchmarks.properties");
+	try {
+	    properties.load(in);
+	} finally {
+	    in.close();
+	}
+	return properties.getProperty("vayacondios.version");
+    }
+}
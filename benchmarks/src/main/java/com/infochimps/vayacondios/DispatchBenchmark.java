@@ -0,0 +1,73 @@
+package com.infochimps.vayacondios;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** The overhead {@link BaseClient} adds around each request: logging,
+ * dry-run and error handling, and the stash cache and metrics when
+ * enabled.  The requests themselves do nothing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+
+    private static class NoopClient extends BaseClient {
+	private final Map<String,Object> stash = Payloads.smallEvent(0);
+
+	NoopClient() {
+	    super("benchmarks");
+	}
+
+	@Override
+	protected void performAnnounce(String topic, Map<String,Object> event) throws IOException {}
+
+	@Override
+	protected Map<String,Object> performGetMap(String topic, String id) throws IOException {
+	    return stash;
+	}
+    }
+
+    @Param({ "false", "true" })
+    public boolean cached;
+
+    @Param({ "false", "true" })
+    public boolean metrics;
+
+    private NoopClient         client;
+    private Map<String,Object> event;
+
+    @Setup
+    public void setup() {
+	client = new NoopClient();
+	event  = Payloads.smallEvent(0);
+	if (cached) client.cache(new StashCache(1000, 60000));
+	if (metrics) client.metrics(new ClientMetrics());
+    }
+
+    @Benchmark
+    public void announce() {
+	client.announce("intrusions", event);
+    }
+
+    @Benchmark
+    public Map<String,Object> getMap() {
+	return client.getMap("firewall", "rules");
+    }
+}
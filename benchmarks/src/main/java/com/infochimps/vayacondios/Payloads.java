@@ -0,0 +1,78 @@
+package com.infochimps.vayacondios;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Realistic shapes of data sent to and read from the server. */
+class Payloads {
+
+    /** Names of the shapes, for <code>@Param</code>. */
+    static final String SMALL_EVENT      = "smallEvent";
+    static final String NESTED_STASH     = "nestedStash";
+    static final String LARGE_EVENT_LIST = "largeEventList";
+
+    static Object of(String shape) {
+	if (SMALL_EVENT.equals(shape))      return smallEvent(0);
+	if (NESTED_STASH.equals(shape))     return nestedStash(5, 4);
+	if (LARGE_EVENT_LIST.equals(shape)) return eventList(1000);
+	throw new IllegalArgumentException("Unknown payload shape: " + shape);
+    }
+
+    static boolean isList(String shape) {
+	return LARGE_EVENT_LIST.equals(shape);
+    }
+
+    /**
+     * A typical announced event: a handful of short strings and
+     * numbers.
+     */
+    static Map<String,Object> smallEvent(int i) {
+	Map<String,Object> event = new HashMap<String,Object>();
+	event.put("ip", "10.0.0." + (i % 256));
+	event.put("port", 8080.0 + (i % 10));
+	event.put("method", "GET");
+	event.put("path", "/api/v1/users/" + i);
+	event.put("status", 200.0);
+	event.put("latency", 12.5 + i);
+	return event;
+    }
+
+    /**
+     * A configuration-style stash: Maps nested <code>depth</code>
+     * deep with <code>fanout</code> keys at each level, mixing in
+     * Lists and scalars.
+     */
+    static Map<String,Object> nestedStash(int depth, int fanout) {
+	Map<String,Object> stash = new HashMap<String,Object>();
+	for (int i = 0; i < fanout; i++) {
+	    if (depth > 1) {
+		stash.put("child" + i, nestedStash(depth - 1, fanout));
+	    } else {
+		List<Object> values = new ArrayList<Object>();
+		values.add("value" + i);
+		values.add((double) i);
+		values.add(i % 2 == 0);
+		stash.put("leaf" + i, values);
+	    }
+	}
+	stash.put("name", "level" + depth);
+	stash.put("weight", depth * 1.5);
+	return stash;
+    }
+
+    /**
+     * A search result of many small events.
+     */
+    static List<Map<String,Object>> eventList(int size) {
+	List<Map<String,Object>> events = new ArrayList<Map<String,Object>>(size);
+	for (int i = 0; i < size; i++) {
+	    Map<String,Object> event = smallEvent(i);
+	    event.put("id", Integer.toHexString(i));
+	    event.put("time", "2013-10-01T12:00:00.000Z");
+	    events.add(event);
+	}
+	return events;
+    }
+}
@@ -0,0 +1,64 @@
+package com.infochimps.vayacondios;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Encoding request bodies and decoding response bodies. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+
+    @Param({ Payloads.SMALL_EVENT, Payloads.NESTED_STASH, Payloads.LARGE_EVENT_LIST })
+    public String shape;
+
+    private HTTPClient client;
+    private Object     value;
+    private String     json;
+
+    @Setup
+    public void setup() {
+	client = new HTTPClient("benchmarks");
+	value  = Payloads.of(shape);
+	json   = client.toJson(value);
+    }
+
+    @TearDown
+    public void tearDown() {
+	client.close();
+    }
+
+    @Benchmark
+    public String toJson() {
+	return client.toJson(value);
+    }
+
+    /** Serializing into a pooled buffer, as writes do. */
+    @Benchmark
+    public int encode() {
+	BufferPool.Buffer buffer = client.encode(value);
+	int length = buffer.length();
+	buffer.release();
+	return length;
+    }
+
+    @Benchmark
+    public Object parse() {
+	return Payloads.isList(shape) ? client.parseList(json) : client.parseMap(json);
+    }
+}
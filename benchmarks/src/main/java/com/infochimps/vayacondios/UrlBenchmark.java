@@ -0,0 +1,47 @@
+package com.infochimps.vayacondios;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Building request URLs, done once per request. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UrlBenchmark {
+
+    private HTTPClient client;
+
+    @Setup
+    public void setup() {
+	client = new HTTPClient("benchmarks");
+    }
+
+    @TearDown
+    public void tearDown() {
+	client.close();
+    }
+
+    @Benchmark
+    public String stashUrl() {
+	return client.url("stash", "firewall", "rules");
+    }
+
+    @Benchmark
+    public String eventsUrl() {
+	return client.url("events", "intrusions");
+    }
+}
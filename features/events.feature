@@ -226,18 +226,36 @@ Feature: Events
     ]
     """
 
-  Scenario: Creating Events
+  Scenario: Creating Events without a Body
     Given there are no Events under topic "topic" in the database
     When  the client sends a POST request to "/v3/organization/events/topic" with no body
-    Then  the response status should be 405
+    Then  the response status should be 400
     And   the response body should be:
     """
     {
-      "error": "Operation create not allowed for Vayacondios::Server::EventsHandler. Valid operations are [\"search\", \"retrieve\", \"delete\"]"
+      "error": "Events must be an Array to create in bulk"
     }
     """
     And   there are no Events under topic "topic" in the database
 
+  Scenario: Creating Events
+    Given there are no Events under topic "topic" in the database
+    When  the client sends a POST request to "/v3/organization/events/topic" with the following body:
+    """
+    [
+      {
+        "foo": "bar",
+        "time": "2012-02-13T12:34:42.452Z"
+      },
+      {
+        "foo": "baz",
+        "time": "2012-02-13T12:34:43.452Z"
+      }
+    ]
+    """
+    Then  the response status should be 200
+    And   there are exactly 2 Events under topic "topic" in the database
+
   Scenario: Updating Events
     Given there are no Events under topic "topic" in the database
     When  the client sends a PUT request to "/v3/organization/events/topic" with no body
@@ -245,7 +263,7 @@ Feature: Events
     And   the response body should be:
     """
     {
-      "error": "Operation update not allowed for Vayacondios::Server::EventsHandler. Valid operations are [\"search\", \"retrieve\", \"delete\"]"
+      "error": "Operation update not allowed for Vayacondios::Server::EventsHandler. Valid operations are [\"search\", \"create\", \"retrieve\", \"delete\"]"
     }
     """
     And   there are no Events under topic "topic" in the database
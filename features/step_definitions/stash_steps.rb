@@ -93,6 +93,10 @@ Then(/^there is exactly one Event under topic "(.*?)" in the database$/) do |top
   database_count(event_location topic).should == 1
 end
 
+Then(/^there are exactly (\d+) Events under topic "(.*?)" in the database$/) do |count, topic|
+  database_count(event_location topic).should == count.to_i
+end
+
 Then(/^the database should have the following Event under topic "(.*?)":$/) do |topic, json|
   db_event = retrieve_record(event_location topic)
   db_event["_t"] = db_event["_t"].iso8601(3)
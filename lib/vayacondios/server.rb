@@ -15,6 +15,8 @@ require 'gorillib/string/constantize'
 require 'gorillib/string/inflections'
 require 'multi_json'
 require 'json'
+require 'zlib'
+require 'stringio'
 
 require 'vayacondios'
 require 'vayacondios/configuration'
@@ -22,6 +24,7 @@ require 'vayacondios/configuration'
 require 'vayacondios/server/api_options'
 require 'vayacondios/server/configuration'
 require 'vayacondios/server/driver'
+require 'vayacondios/server/gzip_encoding'
 require 'vayacondios/server/drivers/mongo'
 
 require 'vayacondios/server/models/document'
@@ -41,6 +41,7 @@ module Vayacondios::Server
     plugin Goliath::Chimp::Plugin::ActivityMonitor, window: 30
 
     use Goliath::Rack::Heartbeat
+    use GzipEncoding
     use Goliath::Chimp::Rack::Formatters::JSON
     use Goliath::Chimp::Rack::ForceContentType,           'application/json'
     use Goliath::Rack::Render
@@ -16,6 +16,7 @@ module Vayacondios::Server
           POST   /v2/ORG/event/TOPIC[/ID]      (announce)
           DELETE /v2/ORG/event/TOPIC/ID
           GET    /v2/ORG/events/TOPIC          (events)
+          POST   /v2/ORG/events/TOPIC          (announce many)
           DELETE /v2/ORG/events/TOPIC
 
         Stashes:
@@ -0,0 +1,75 @@
+module Vayacondios::Server
+
+  # Rack middleware for gzipped request and response bodies.
+  #
+  # Request bodies sent with `Content-Encoding: gzip` are inflated
+  # before Goliath::Rack::Params parses them.  Response bodies of at
+  # least `threshold` bytes are gzipped for clients which send
+  # `Accept-Encoding: gzip`.
+  #
+  # Streaming responses are never compressed since their events are
+  # written to the connection after this middleware has run.
+  #
+  # @example Compress responses of 4kB or more
+  #   use Vayacondios::Server::GzipEncoding, threshold: 4096
+  class GzipEncoding
+    include Goliath::Rack::AsyncMiddleware
+
+    # Default minimum size (in bytes) of a response body to compress.
+    DEFAULT_THRESHOLD = 1024
+
+    attr_reader :threshold
+
+    def initialize(app, options = {})
+      super(app)
+      @threshold = options[:threshold] || DEFAULT_THRESHOLD
+    end
+
+    def call env
+      if gzipped_request?(env)
+        begin
+          inflate_request!(env)
+        rescue Zlib::Error => e
+          return [400, { 'Content-Type' => 'application/json' }, [MultiJson.dump(error: "Invalid gzipped body -- #{e.message}")]]
+        end
+      end
+      super(env)
+    end
+
+    def post_process(env, status, headers, body)
+      return [status, headers, body] if body == Goliath::Response::STREAMING || env[:subscription]
+      return [status, headers, body] unless accepts_gzip?(env)
+      content = ''
+      body.each{ |part| content << part.to_s }
+      return [status, headers, [content]] if content.bytesize < threshold
+      compressed = gzip(content)
+      headers = headers.merge('Content-Encoding' => 'gzip', 'Content-Length' => compressed.bytesize.to_s, 'Vary' => 'Accept-Encoding')
+      [status, headers, [compressed]]
+    end
+
+    def gzipped_request? env
+      env['HTTP_CONTENT_ENCODING'].to_s.strip.downcase == 'gzip'
+    end
+
+    def accepts_gzip? env
+      env['HTTP_ACCEPT_ENCODING'].to_s.split(',').any?{ |coding| coding.split(';').first.strip.downcase == 'gzip' }
+    end
+
+    def inflate_request! env
+      input = env['rack.input']
+      input.rewind
+      inflated = Zlib::GzipReader.new(input).read
+      env['rack.input']     = StringIO.new(inflated)
+      env['CONTENT_LENGTH'] = inflated.bytesize.to_s
+      env.delete 'HTTP_CONTENT_ENCODING'
+    end
+
+    def gzip content
+      io = StringIO.new
+      writer = Zlib::GzipWriter.new io
+      writer.write content
+      writer.close
+      io.string
+    end
+  end
+end
@@ -13,6 +13,23 @@ module Vayacondios::Server
       end
     end
 
+    # Create many events at once.
+    #
+    # Each element of the `documents` Array is created exactly as if
+    # it had been sent to EventHandler#create on its own.
+    #
+    # @param [Hash] params routing information like `organization`, `topic,`, or `id`
+    # @param [Array<Hash>] documents the bodies of the events
+    # @raise [Goliath::Validation::Error] if `documents` is not an Array
+    def create(params, documents)
+      raise Goliath::Validation::BadRequestError.new('Events must be an Array to create in bulk') unless documents.is_a?(Array)
+      documents.map do |document|
+        Event.create(params, document) do |request|
+          database.call(:insert, request)
+        end
+      end
+    end
+
     # FIXME
     # Abstract this into method delegation
     def base_retrieve(params, query)
@@ -109,6 +109,53 @@ describe Vayacondios::Server::Api do
     end
   end
 
+  context 'Rack', 'GzipEncoding' do
+    def gzip(content)
+      io = StringIO.new
+      writer = Zlib::GzipWriter.new io
+      writer.write content
+      writer.close
+      io.string
+    end
+
+    it 'inflates gzipped request bodies' do
+      request = build_request(:post, '/v3/org/event/topic', body: gzip('{"foo":"bar"}'), head: { 'Content-Encoding' => 'gzip' })
+      perform(request) do |server|
+        stub_handler(server, {}) do |action, routes, document|
+          document.should eq('foo' => 'bar')
+        end
+      end
+    end
+
+    it 'rejects corrupt gzipped request bodies' do
+      response = perform build_request(:post, '/v3/org/event/topic', body: 'not gzip', head: { 'Content-Encoding' => 'gzip' })
+      response.status.should eq(400)
+    end
+
+    it 'gzips large responses when accepted' do
+      large = { 'foo' => 'bar' * 1000 }
+      response = perform build_request(:get, '/v3/org/event/topic', head: { 'Accept-Encoding' => 'gzip' }) do |server|
+        stub_handler(server, large)
+      end
+      response.headers['CONTENT_ENCODING'].should eq('gzip')
+      response.parsed_body.should eq(large)
+    end
+
+    it 'leaves small responses uncompressed' do
+      response = perform build_request(:get, '/v3/org/event/topic', head: { 'Accept-Encoding' => 'gzip' }) do |server|
+        stub_handler(server, { foo: 'bar' })
+      end
+      response.headers['CONTENT_ENCODING'].should be_nil
+    end
+
+    it 'leaves responses uncompressed when not accepted' do
+      response = perform build_request(:get, '/v3/org/event/topic') do |server|
+        stub_handler(server, { 'foo' => 'bar' * 1000 })
+      end
+      response.headers['CONTENT_ENCODING'].should be_nil
+    end
+  end
+
   context 'Rack', 'Params' do
     it 'provides parsed params to the response method' do
       request = build_request(:post, '/v3/org/event/topic', body: '{"foo":"bar"}')
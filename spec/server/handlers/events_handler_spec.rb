@@ -6,9 +6,22 @@ describe Vayacondios::Server::EventsHandler, behaves_like: 'handler' do
   let(:query)      { { foo: 'bar' } }
   let(:model_class){ Vayacondios::Server::Event }
 
-  context '#create' do
+  context '#create', 'when given a Hash' do
     it 'raises a validation error' do
-      expect{ handler.create(params, query) }.to raise_error(validation_error, /create/)
+      expect{ handler.create(params, query) }.to raise_error(validation_error, /Array/)
+    end
+  end
+
+  context '#create', 'when given an Array' do
+    let(:documents){ [{ foo: 'bar', time: '2013-01-01T10:23:10.432Z' }, { foo: 'baz', time: '2013-01-01T10:23:11.432Z' }] }
+
+    it 'returns the created events' do
+      model_class.should_receive(:create).twice.and_call_original
+      driver.should_receive(:insert).and_return({ _id: 'abc123' }, { _id: 'def456' })
+      handler.create(params, documents).should eq([
+                                                   { id: 'abc123', foo: 'bar', time: '2013-01-01T10:23:10.432Z' },
+                                                   { id: 'def456', foo: 'baz', time: '2013-01-01T10:23:11.432Z' },
+                                                  ])
     end
   end
 
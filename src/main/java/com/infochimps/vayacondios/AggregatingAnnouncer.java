@@ -0,0 +1,393 @@
+package com.infochimps.vayacondios;
+
+import java.io.Closeable;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Aggregates metric-style events into one summary event per topic
+ * per time bucket before announcing them.
+ * <p>
+ * Announcing an event such as <code>{"impressions": 1, "errors":
+ * 0}</code> for every request served fills the server with millions
+ * of tiny events.  An aggregating announcer instead accumulates each
+ * numeric field of the events added to a topic and, once per bucket,
+ * announces a single event summarizing them:
+ *
+ * <blockquote><pre>{@code
+ * AggregatingAnnouncer metrics = new AggregatingAnnouncer(client, 60000);
+ * metrics.add("webserver", event);                  // {"impressions": 1, "latency": {"db": 12}}
+ * metrics.add("webserver", "latency.render", 31.5); // a single field, without a Map
+ * ...
+ * metrics.close();                                  // announces what's left
+ * }</pre></blockquote>
+ *
+ * Each summary keeps the shape of the events it summarizes, with
+ * every numeric field replaced by its <code>count</code>,
+ * <code>sum</code>, <code>min</code>, and <code>max</code> over the
+ * bucket.  The summary's <code>time</code> is the start of the
+ * bucket, <code>events</code> is the number of events added during
+ * it, and <code>bucket</code> is its length in seconds:
+ *
+ * <blockquote><pre>{@code
+ * {
+ *   "time":        "2013-06-20T14:31:00.000Z",
+ *   "bucket":      60.0,
+ *   "events":      1872,
+ *   "impressions": {"count": 1872, "sum": 1872.0, "min": 1.0, "max": 1.0},
+ *   "latency":     {"db": {"count": 1872, "sum": 20113.0, "min": 2.0, "max": 304.0}, ...}
+ * }
+ * }</pre></blockquote>
+ *
+ * Fields which aren't numbers are ignored, as are fields named
+ * <code>time</code>, <code>bucket</code>, or <code>events</code> at
+ * the top level.  Buckets start on multiples of their length since
+ * the epoch, so summaries from many processes line up.
+ * <p>
+ * Adding is safe from any number of threads.  Each thread
+ * accumulates into one of several lock-striped accumulators, so
+ * threads rarely contend, and the stripes are combined only when the
+ * bucket is announced.
+ */
+public class AggregatingAnnouncer implements Closeable {
+
+    /** Default number of stripes each bucket's accumulators are split across. */
+    public static int DEFAULT_STRIPES = 16;
+
+    private static Logger LOG = LoggerFactory.getLogger(AggregatingAnnouncer.class);
+
+    private static final DateTimeFormatter ISO8601 = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'").withZone(ZoneOffset.UTC);
+
+    /** Field paths are joined with periods, which field names cannot contain. */
+    private static final char SEPARATOR = '.';
+
+    /** Running statistics of one field. */
+    private static class Accumulator {
+	private long   count;
+	private double sum;
+	private double min = Double.POSITIVE_INFINITY;
+	private double max = Double.NEGATIVE_INFINITY;
+
+	void add(double value) {
+	    count += 1;
+	    sum   += value;
+	    if (value < min) min = value;
+	    if (value > max) max = value;
+	}
+
+	void add(Accumulator other) {
+	    count += other.count;
+	    sum   += other.sum;
+	    if (other.min < min) min = other.min;
+	    if (other.max > max) max = other.max;
+	}
+    }
+
+    /** The accumulators some of the threads adding to a bucket use.
+     * Once sealed for announcing, it refuses further additions. */
+    private static class Stripe {
+	private Map<String,Accumulator> fields;
+	private long                    events;
+	private boolean                 sealed;
+
+	synchronized boolean add(Map<String,?> event) {
+	    if (sealed) return false;
+	    if (fields == null) fields = new HashMap<String,Accumulator>();
+	    accumulate(fields, null, event, true);
+	    events += 1;
+	    return true;
+	}
+
+	synchronized boolean add(String field, double value) {
+	    if (sealed) return false;
+	    if (fields == null) fields = new HashMap<String,Accumulator>();
+	    accumulator(fields, field).add(value);
+	    events += 1;
+	    return true;
+	}
+
+	synchronized void sealInto(Bucket bucket) {
+	    sealed = true;
+	    if (fields == null) return;
+	    bucket.events += events;
+	    for (Map.Entry<String,Accumulator> entry : fields.entrySet()) accumulator(bucket.fields, entry.getKey()).add(entry.getValue());
+	}
+    }
+
+    /** One topic's accumulators for one bucket. */
+    private static class Bucket {
+	private final long                    start;
+	private final Stripe[]                stripes;
+	private final Map<String,Accumulator> fields = new HashMap<String,Accumulator>();
+	private long                          events;
+
+	Bucket(long start, int stripes) {
+	    this.start   = start;
+	    this.stripes = new Stripe[stripes];
+	    for (int i = 0; i < stripes; i++) this.stripes[i] = new Stripe();
+	}
+
+	Stripe stripe() {
+	    return stripes[(int) (Thread.currentThread().getId() & (stripes.length - 1))];
+	}
+
+	void seal() {
+	    for (Stripe stripe : stripes) stripe.sealInto(this);
+	}
+    }
+
+    /** One topic's current bucket and those waiting to be announced. */
+    private class Topic {
+	private final String                  name;
+	private final AtomicReference<Bucket> current = new AtomicReference<Bucket>();
+	private final Queue<Bucket>           finished = new ConcurrentLinkedQueue<Bucket>();
+
+	Topic(String name) {
+	    this.name = name;
+	}
+
+	/** The bucket for the given time, finishing the current one if it has ended. */
+	Bucket bucket(long now) {
+	    while (true) {
+		Bucket bucket = current.get();
+		if (bucket != null && now < bucket.start + bucketMillis) return bucket;
+		Bucket next = new Bucket(now - Math.floorMod(now, bucketMillis), stripes);
+		if (bucket != null && next.start < bucket.start) return bucket;
+		if (current.compareAndSet(bucket, next)) {
+		    if (bucket != null) finished.add(bucket);
+		    return next;
+		}
+	    }
+	}
+
+	/** Finish the current bucket, whether or not it has ended. */
+	void finish() {
+	    Bucket bucket = current.getAndSet(null);
+	    if (bucket != null) finished.add(bucket);
+	}
+
+	void announce() {
+	    for (Bucket bucket = finished.poll(); bucket != null; bucket = finished.poll()) {
+		bucket.seal();
+		if (bucket.events == 0) continue;
+		try {
+		    client.announce(name, summary(bucket));
+		} catch (RuntimeException e) {
+		    LOG.error("Announcing aggregated <" + name + ">", e);
+		}
+	    }
+	}
+    }
+
+    private final VayacondiosClient           client;
+    private final long                        bucketMillis;
+    private final int                         stripes;
+    private final ConcurrentMap<String,Topic> topics = new ConcurrentHashMap<String,Topic>();
+    private final ScheduledExecutorService    timer;
+
+    /**
+     * Create an announcer which summarizes events over buckets of the
+     * given length.
+     *
+     * @param client the client to announce summaries with
+     * @param bucketMillis length of each bucket in milliseconds
+     */
+    public AggregatingAnnouncer(VayacondiosClient client, long bucketMillis) {
+	this(client, bucketMillis, DEFAULT_STRIPES);
+    }
+
+    /**
+     * Create an announcer which summarizes events over buckets of the
+     * given length, splitting its accumulators across the given
+     * number of stripes.
+     *
+     * @param client the client to announce summaries with
+     * @param bucketMillis length of each bucket in milliseconds
+     * @param stripes number of stripes, rounded up to a power of two
+     */
+    public AggregatingAnnouncer(VayacondiosClient client, long bucketMillis, int stripes) {
+	this(client, bucketMillis, stripes, true);
+    }
+
+    AggregatingAnnouncer(VayacondiosClient client, long bucketMillis, int stripes, boolean scheduled) {
+	if (bucketMillis <= 0) throw new IllegalArgumentException("Buckets must be at least 1ms long: " + bucketMillis);
+	this.client       = client;
+	this.bucketMillis = bucketMillis;
+	int n = 1;
+	while (n < stripes) n <<= 1;
+	this.stripes      = n;
+	if (!scheduled) {
+	    this.timer = null;
+	    return;
+	}
+	this.timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+		    Thread t = new Thread(r, "vayacondios-aggregator");
+		    t.setDaemon(true);
+		    return t;
+		}
+	    });
+	long now = System.currentTimeMillis();
+	this.timer.scheduleAtFixedRate(new Runnable() {
+		public void run() {
+		    announce(System.currentTimeMillis(), false);
+		}
+	    }, bucketMillis - Math.floorMod(now, bucketMillis), bucketMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Length of each bucket.
+     *
+     * @return the length in milliseconds
+     */
+    public long bucketMillis() { return bucketMillis; }
+
+    /**
+     * Add an event's numeric fields, including those of nested Maps,
+     * to the current bucket of its topic.
+     *
+     * @param topic the topic the summary will be announced on
+     * @param event the event
+     */
+    public void add(String topic, Map<String,?> event) {
+	add(topic, event, System.currentTimeMillis());
+    }
+
+    /**
+     * Add a single value to the current bucket of its topic, as if an
+     * event with only that field were added.
+     *
+     * @param topic the topic the summary will be announced on
+     * @param field the field, with the names of nested fields separated by periods
+     * @param value the value
+     */
+    public void add(String topic, String field, double value) {
+	add(topic, field, value, System.currentTimeMillis());
+    }
+
+    /**
+     * Announce the summary of every bucket which has ended.
+     */
+    public void flush() {
+	announce(System.currentTimeMillis(), false);
+    }
+
+    /**
+     * Stop aggregating and announce the summary of every bucket,
+     * including those which haven't ended yet.
+     */
+    @Override
+    public void close() {
+	if (timer != null) timer.shutdownNow();
+	announce(System.currentTimeMillis(), true);
+    }
+
+    void add(String topic, Map<String,?> event, long now) {
+	Topic aggregate = topicFor(topic);
+	while (!aggregate.bucket(now).stripe().add(event)) {
+	    // sealed as we added: try the next bucket
+	}
+    }
+
+    void add(String topic, String field, double value, long now) {
+	Topic aggregate = topicFor(topic);
+	while (!aggregate.bucket(now).stripe().add(field, value)) {
+	    // sealed as we added: try the next bucket
+	}
+    }
+
+    /**
+     * Announce every bucket which has ended by the given time, or
+     * every bucket if <code>all</code>.
+     */
+    void announce(long now, boolean all) {
+	for (Topic topic : topics.values()) {
+	    if (all) {
+		topic.finish();
+	    } else {
+		topic.bucket(now);
+	    }
+	    topic.announce();
+	}
+    }
+
+    private Topic topicFor(String name) {
+	Topic topic = topics.get(name);
+	if (topic != null) return topic;
+	Topic created  = new Topic(name);
+	Topic existing = topics.putIfAbsent(name, created);
+	return (existing == null) ? created : existing;
+    }
+
+    /** The event summarizing a sealed bucket. */
+    @SuppressWarnings("unchecked")
+    private Map<String,Object> summary(Bucket bucket) {
+	Map<String,Object> summary = new LinkedHashMap<String,Object>();
+	summary.put("time",   ISO8601.format(Instant.ofEpochMilli(bucket.start)));
+	summary.put("bucket", bucketMillis / 1000.0);
+	summary.put("events", bucket.events);
+	for (Map.Entry<String,Accumulator> entry : bucket.fields.entrySet()) {
+	    String              path   = entry.getKey();
+	    Map<String,Object>  parent = summary;
+	    int                 from   = 0;
+	    for (int dot = path.indexOf(SEPARATOR); dot >= 0; dot = path.indexOf(SEPARATOR, from)) {
+		String name  = path.substring(from, dot);
+		Object child = parent.get(name);
+		if (!(child instanceof Map)) {
+		    child = new LinkedHashMap<String,Object>();
+		    parent.put(name, child);
+		}
+		parent = (Map<String,Object>) child;
+		from   = dot + 1;
+	    }
+	    Accumulator         stats = entry.getValue();
+	    Map<String,Object>  field = new LinkedHashMap<String,Object>();
+	    field.put("count", stats.count);
+	    field.put("sum",   stats.sum);
+	    field.put("min",   stats.min);
+	    field.put("max",   stats.max);
+	    parent.put(path.substring(from), field);
+	}
+	return summary;
+    }
+
+    private static void accumulate(Map<String,Accumulator> fields, String prefix, Map<String,?> event, boolean top) {
+	for (Map.Entry<String,?> entry : event.entrySet()) {
+	    String name = entry.getKey();
+	    if (top && ("time".equals(name) || "bucket".equals(name) || "events".equals(name))) continue;
+	    String path  = (prefix == null) ? name : prefix + SEPARATOR + name;
+	    Object value = entry.getValue();
+	    if (value instanceof Number) {
+		accumulator(fields, path).add(((Number) value).doubleValue());
+	    } else if (value instanceof Map) {
+		@SuppressWarnings("unchecked")
+		Map<String,?> nested = (Map<String,?>) value;
+		accumulate(fields, path, nested, false);
+	    }
+	}
+    }
+
+    private static Accumulator accumulator(Map<String,Accumulator> fields, String path) {
+	Accumulator accumulator = fields.get(path);
+	if (accumulator == null) {
+	    accumulator = new Accumulator();
+	    fields.put(path, accumulator);
+	}
+	return accumulator;
+    }
+}
@@ -0,0 +1,175 @@
+package com.infochimps.vayacondios;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.Gson;
+
+/** Buffers announced events per topic and hands each topic's buffer
+ * off as a single JSON array once it grows large or old enough.
+ * <p>
+ * Events are serialized straight into a pooled buffer holding their
+ * topic's batch, so its size is known as it grows and the batch body
+ * is sent without ever being copied.
+ */
+class AnnounceBatcher {
+
+    /** Receives each batch once it is ready to be sent.  The sink
+     * owns the body and must release it once sent. */
+    interface Sink {
+	void send(String topic, BufferPool.Buffer body) throws IOException;
+    }
+
+    private class Batch {
+	private final String      topic;
+	private BufferPool.Buffer body;
+	private int               size = 0;
+	private long              generation = 0;
+
+	Batch(String topic) {
+	    this.topic = topic;
+	}
+
+	/** Append an event, returning the finished body if the batch is now full. */
+	synchronized BufferPool.Buffer add(Object event) {
+	    if (body == null) {
+		body = buffers.acquire();
+		body.write('[');
+	    }
+	    int mark = body.length();
+	    if (size > 0) body.write(',');
+	    try {
+		serializer.toJson(event, body);
+	    } catch (RuntimeException e) {
+		body.truncate(mark);
+		throw e;
+	    }
+	    size += 1;
+	    if (size == 1) scheduleFlush(this, generation);
+	    if (size >= maxSize || body.length() >= maxBytes) return take();
+	    return null;
+	}
+
+	/** Take the batch's body if it is still the given generation. */
+	synchronized BufferPool.Buffer takeIf(long expected) {
+	    return (expected == generation) ? take() : null;
+	}
+
+	synchronized BufferPool.Buffer take() {
+	    if (size == 0) return null;
+	    BufferPool.Buffer finished = body;
+	    finished.write(']');
+	    body        = null;
+	    size        = 0;
+	    generation += 1;
+	    return finished;
+	}
+    }
+
+    private static Logger LOG = LoggerFactory.getLogger(AnnounceBatcher.class);
+
+    private final Sink                         sink;
+    private final BufferPool                   buffers;
+    private final Gson                         serializer;
+    private final int                          maxSize;
+    private final int                          maxBytes;
+    private final long                         maxDelay;
+    private final ConcurrentMap<String,Batch>  batches = new ConcurrentHashMap<String,Batch>();
+    private final ScheduledExecutorService     timer;
+    private final boolean                      ownsTimer;
+    private volatile boolean                   closed;
+
+    AnnounceBatcher(Sink sink, BufferPool buffers, Gson serializer, int maxSize, int maxBytes, long maxDelay) {
+	this(sink, buffers, serializer, maxSize, maxBytes, maxDelay, null);
+    }
+
+    /**
+     * Create a batcher which flushes on the given timer, leaving it
+     * running when closed, or on a timer of its own if
+     * <code>timer</code> is <code>null</code>.
+     */
+    AnnounceBatcher(Sink sink, BufferPool buffers, Gson serializer, int maxSize, int maxBytes, long maxDelay, ScheduledExecutorService timer) {
+	this.sink       = sink;
+	this.buffers    = buffers;
+	this.serializer = serializer;
+	this.maxSize    = maxSize;
+	this.maxBytes   = maxBytes;
+	this.maxDelay   = maxDelay;
+	this.ownsTimer  = (timer == null);
+	this.timer      = ownsTimer ? Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+		    Thread t = new Thread(r, "vayacondios-batcher");
+		    t.setDaemon(true);
+		    return t;
+		}
+	    }) : timer;
+    }
+
+    /**
+     * Serialize an event into its topic's batch, sending the batch if
+     * this event filled it.
+     */
+    void add(String topic, Object event) throws IOException {
+	send(topic, batchFor(topic).add(event));
+    }
+
+    /**
+     * Send every pending batch, regardless of its size or age.
+     */
+    void flush() {
+	for (Batch batch : batches.values()) {
+	    sendQuietly(batch.topic, batch.take());
+	}
+    }
+
+    /**
+     * Send every pending batch and stop scheduling flushes.
+     */
+    void close() {
+	closed = true;
+	if (ownsTimer) timer.shutdownNow();
+	flush();
+    }
+
+    private Batch batchFor(String topic) {
+	Batch batch = batches.get(topic);
+	if (batch != null) return batch;
+	Batch created  = new Batch(topic);
+	Batch existing = batches.putIfAbsent(topic, created);
+	return (existing == null) ? created : existing;
+    }
+
+    private void scheduleFlush(final Batch batch, final long generation) {
+	if (closed) return;
+	try {
+	    timer.schedule(new Runnable() {
+		    public void run() {
+			sendQuietly(batch.topic, batch.takeIf(generation));
+		    }
+		}, maxDelay, TimeUnit.MILLISECONDS);
+	} catch (RejectedExecutionException e) {
+	    // closing: the final flush will pick this batch up
+	}
+    }
+
+    private void send(String topic, BufferPool.Buffer body) throws IOException {
+	if (body != null) sink.send(topic, body);
+    }
+
+    private void sendQuietly(String topic, BufferPool.Buffer body) {
+	try {
+	    send(topic, body);
+	} catch (IOException | WriteRejectedException e) {
+	    LOG.error("Announcing batch <" + topic + ">", e);
+	}
+    }
+}
@@ -0,0 +1,127 @@
+package com.infochimps.vayacondios;
+
+import java.util.Map;
+import java.util.List;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+
+/** Non-blocking counterparts to the read methods of {@link
+ * VayacondiosClient}.
+ * <p>
+ * Each method returns immediately with a future which completes once
+ * the server has responded and the response has been parsed.  Many
+ * reads can be in flight at once without tying up a thread for each:
+ *
+ * <blockquote><pre>
+ * {@code
+ * AsyncVayacondiosClient client = new HTTPClient("my_organization");
+ * List<CompletableFuture<Map<String,Object>>> pages = new ArrayList();
+ * for (String id : ids) {
+ *   pages.add(client.getMapAsync("dashboards", id));
+ * }
+ * for (CompletableFuture<Map<String,Object>> page : pages) {
+ *   render(page.join());
+ * }
+ * }</pre></blockquote>
+ *
+ * Futures complete with the same values the blocking methods would
+ * return, including <code>null</code> when a request fails.
+ */
+public interface AsyncVayacondiosClient {
+
+    /**
+     * Search for events.
+     *
+     * @param topic the topic to search
+     * @param query the query
+     * @return the future matching events
+     * @see VayacondiosClient#events(String, Map)
+     */
+    CompletableFuture<List<Map<String,Object>>> eventsAsync(String topic, Map<String,Object> query);
+
+    /**
+     * Search for events over a wide time window, searching several
+     * sub-windows at once.
+     * <p>
+     * By default, the whole window is searched at once, as by {@link
+     * #eventsAsync(String, Map)}.
+     *
+     * @param topic the topic to search
+     * @param query the query
+     * @param windows the number of sub-windows to split the time window into
+     * @param parallelism the most sub-windows to search at once
+     * @return the future matching events
+     * @see VayacondiosClient#eventsParallel(String, Map, int, int)
+     */
+    default CompletableFuture<List<Map<String,Object>>> eventsParallelAsync(String topic, Map<String,Object> query, int windows, int parallelism) {
+	return eventsAsync(topic, query);
+    }
+
+    /**
+     * Retrieve a stash.
+     *
+     * @param topic the topic of the stash
+     * @return the future stash
+     * @see VayacondiosClient#get(String)
+     */
+    CompletableFuture<Map<String,Object>> getAsync(String topic);
+
+    /**
+     * Retrieve a Map stored within a stash.
+     *
+     * @param topic the topic of the stash
+     * @param id the ID within the stash
+     * @return the future value
+     * @see VayacondiosClient#getMap(String, String)
+     */
+    CompletableFuture<Map<String,Object>> getMapAsync(String topic, String id);
+
+    /**
+     * Retrieve many Maps stored within one stash.
+     *
+     * @param topic the topic of the stash
+     * @param ids the IDs within the stash
+     * @return the future values, and which IDs were missing or failed
+     * @see VayacondiosClient#getMany(String, Collection)
+     */
+    CompletableFuture<GetManyResult> getManyAsync(String topic, Collection<String> ids);
+
+    /**
+     * Retrieve a List stored within a stash.
+     *
+     * @param topic the topic of the stash
+     * @param id the ID within the stash
+     * @return the future value
+     * @see VayacondiosClient#getList(String, String)
+     */
+    CompletableFuture<List> getListAsync(String topic, String id);
+
+    /**
+     * Retrieve a String stored within a stash.
+     *
+     * @param topic the topic of the stash
+     * @param id the ID within the stash
+     * @return the future value
+     * @see VayacondiosClient#getString(String, String)
+     */
+    CompletableFuture<String> getStringAsync(String topic, String id);
+
+    /**
+     * Retrieve a Double stored within a stash.
+     *
+     * @param topic the topic of the stash
+     * @param id the ID within the stash
+     * @return the future value
+     * @see VayacondiosClient#getDouble(String, String)
+     */
+    CompletableFuture<Double> getDoubleAsync(String topic, String id);
+
+    /**
+     * Search for stashes.
+     *
+     * @param query the query
+     * @return the future matching stashes
+     * @see VayacondiosClient#stashes(Map)
+     */
+    CompletableFuture<List<Map<String,Object>>> stashesAsync(Map<String,Object> query);
+}
@@ -2,7 +2,16 @@ package com.infochimps.vayacondios;
 
 import java.util.Map;
 import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -25,19 +34,38 @@ import org.slf4j.LoggerFactory;
  * BaseClient#performAnnounce(String topic, Map event)}).  Subclasses
  * should override these methods to provide a concrete implementation
  * of a Vayacondios client.
+ * <p>
+ * The non-blocking reads of {@link AsyncVayacondiosClient} are
+ * wrapped the same way, delegating to (protected) methods like {@link
+ * BaseClient#performEventsAsync(String topic, Map query)}, which by
+ * default call their synchronous counterparts.
+ * <p>
+ * Each request is reported to the client's {@link RequestListener}s,
+ * including its {@link ClientMetrics}, through a {@link
+ * RequestContext} which subclasses advance as the request progresses
+ * (see {@link #currentRequest()}).
  */
-public class BaseClient implements VayacondiosClient {
+public class BaseClient implements VayacondiosClient, AsyncVayacondiosClient {
 
   //----------------------------------------------------------------------------
   // Initialization & Properties
   //----------------------------------------------------------------------------
 
     public static String VERSION = "v2";
+
+    /** Default number of values fetched at once by {@link
+     * #getMany(String, Collection)}. */
+    public static int DEFAULT_FETCH_PARALLELISM = 16;
     
     private static Logger LOG = LoggerFactory.getLogger(BaseClient.class);
 
     private String  _organization;
     private Boolean _dryRun;
+    private volatile StashCache _cache;
+    private volatile int _fetchParallelism = DEFAULT_FETCH_PARALLELISM;
+    private volatile ClientMetrics _metrics;
+    private volatile RequestListener[] _listeners = new RequestListener[0];
+    private final ThreadLocal<RequestContext> current = new ThreadLocal<RequestContext>();
 
     /**
      * Create a new BaseClient instance for the given
@@ -85,6 +113,122 @@ public class BaseClient implements VayacondiosClient {
 	return _organization;
     }
 
+    /**
+     * The cache stashed values are read through, if any.
+     *
+     * @return the cache or <code>null</code>
+     */
+    public StashCache cache() {
+	return _cache;
+    }
+
+    /**
+     * Read stashed values through the given cache.
+     *
+     * <blockquote><pre>{@code
+     * client.cache(new StashCache(1000, 5000));
+     * }</pre></blockquote>
+     *
+     * @param cache the cache or <code>null</code> to stop caching
+     * @see StashCache
+     */
+    public void cache(StashCache cache) {
+	this._cache = cache;
+    }
+
+    /**
+     * The most values {@link #getMany(String, Collection)} fetches at
+     * once.
+     *
+     * @return the most values fetched at once
+     */
+    public int fetchParallelism() {
+	return _fetchParallelism;
+    }
+
+    /**
+     * Fetch at most this many values at once.
+     *
+     * @param parallelism the most values to fetch at once
+     */
+    public void fetchParallelism(int parallelism) {
+	if (parallelism < 1) throw new IllegalArgumentException("Must fetch at least one value at a time: " + parallelism);
+	this._fetchParallelism = parallelism;
+    }
+
+    /**
+     * The metrics requests are recorded into, if any.
+     *
+     * @return the metrics or <code>null</code>
+     */
+    public ClientMetrics metrics() {
+	return _metrics;
+    }
+
+    /**
+     * Record the latency and outcome of each request into the given
+     * metrics.  Requests are not recorded in "dry-run" mode, nor are
+     * reads answered from the {@link #cache()}.
+     *
+     * <blockquote><pre>{@code
+     * client.metrics(new ClientMetrics());
+     * }</pre></blockquote>
+     *
+     * @param metrics the metrics or <code>null</code> to stop recording
+     * @see ClientMetrics
+     */
+    public synchronized void metrics(ClientMetrics metrics) {
+	if (_metrics != null) removeListener(_metrics);
+	this._metrics = metrics;
+	if (metrics != null) addListener(metrics);
+    }
+
+    /**
+     * The listeners told about each request.
+     *
+     * @return the listeners, including the {@link #metrics()}
+     */
+    public List<RequestListener> listeners() {
+	return Collections.unmodifiableList(Arrays.asList(_listeners));
+    }
+
+    /**
+     * Tell the given listener about each request this client makes
+     * from now on.  As with {@link #metrics(ClientMetrics)}, requests
+     * are not reported in "dry-run" mode, nor are reads answered from
+     * the {@link #cache()}.
+     *
+     * <blockquote><pre>{@code
+     * client.addListener(new RequestListener() {
+     *   public void requestFailed(RequestContext request, Throwable failure) {
+     *     alerts.send(request + " failed: " + failure);
+     *   }
+     * });
+     * }</pre></blockquote>
+     *
+     * A client without listeners (or metrics) doesn't track its
+     * requests at all.
+     *
+     * @param listener the listener
+     * @see RequestListener
+     */
+    public synchronized void addListener(RequestListener listener) {
+	RequestListener[] listeners = Arrays.copyOf(_listeners, _listeners.length + 1);
+	listeners[listeners.length - 1] = listener;
+	this._listeners = listeners;
+    }
+
+    /**
+     * Stop telling the given listener about requests.  Requests
+     * already under way may still report to it.
+     *
+     * @param listener the listener
+     */
+    public synchronized void removeListener(RequestListener listener) {
+	List<RequestListener> listeners = new ArrayList<RequestListener>(Arrays.asList(_listeners));
+	if (listeners.remove(listener)) this._listeners = listeners.toArray(new RequestListener[listeners.size()]);
+    }
+
   //----------------------------------------------------------------------------
   // Public API 
   //----------------------------------------------------------------------------
@@ -96,10 +240,16 @@ public class BaseClient implements VayacondiosClient {
     public void announce(String topic, Map<String,Object> event) {
 	logRequest("Announcing <" + topic + ">");
 	if (dryRun()) return;
+	RequestContext request = started(Operation.ANNOUNCE, topic, null);
 	try {
 	    performAnnounce(topic, event);
+	    written(request);
 	} catch (IOException e) {
+	    failed(request, e);
 	    LOG.error("Announcing <" + topic + ">", e);
+	} catch (RuntimeException e) {
+	    failed(request, e);
+	    throw e;
 	}
     }
     /**
@@ -109,10 +259,16 @@ public class BaseClient implements VayacondiosClient {
     public void announce(String topic, Map<String,Object> event, String id) {
 	logRequest("Announcing <" + topic + "/" + id + ">");
 	if (dryRun()) return;
+	RequestContext request = started(Operation.ANNOUNCE, topic, id);
 	try {
 	    performAnnounce(topic, event, id);
+	    written(request);
 	} catch (IOException e) {
+	    failed(request, e);
 	    LOG.error("Announcing <" + topic + "/" + id + ">", e);
+	} catch (RuntimeException e) {
+	    failed(request, e);
+	    throw e;
 	}
     }
 
@@ -123,26 +279,105 @@ public class BaseClient implements VayacondiosClient {
     public List<Map<String,Object>> events(String topic, Map<String,Object> query) {
 	logRequest("Searching events <" + topic + ">");
 	if (dryRun()) return null;
-	try { 
-	    return performEvents(topic, query);
+	RequestContext request = started(Operation.EVENTS, topic, null);
+	try {
+	    return completed(request, performEvents(topic, query));
+	} catch (IOException e) {
+	    failed(request, e);
+	    LOG.error("Searching events <" + topic + ">", e);
+	    return null;
+	} catch (RuntimeException e) {
+	    failed(request, e);
+	    throw e;
+	}
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <T> List<T> events(String topic, Map<String,Object> query, Class<T> type) {
+	logRequest("Searching events <" + topic + ">");
+	if (dryRun()) return null;
+	RequestContext request = started(Operation.EVENTS, topic, null);
+	try {
+	    return completed(request, performEvents(topic, query, type));
 	} catch (IOException e) {
+	    failed(request, e);
 	    LOG.error("Searching events <" + topic + ">", e);
 	    return null;
+	} catch (RuntimeException e) {
+	    failed(request, e);
+	    throw e;
 	}
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ResultIterator<Map<String,Object>> eventsIterator(String topic, Map<String,Object> query) {
+	logRequest("Searching events <" + topic + ">");
+	if (dryRun()) return null;
+	RequestContext request = started(Operation.EVENTS, topic, null);
+	try {
+	    return completed(request, performEventsIterator(topic, query));
+	} catch (IOException e) {
+	    failed(request, e);
+	    LOG.error("Searching events <" + topic + ">", e);
+	    return null;
+	} catch (RuntimeException e) {
+	    failed(request, e);
+	    throw e;
+	}
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public EventPager eventsPager(String topic, Map<String,Object> query, int pageSize) {
+	logRequest("Paging events <" + topic + ">");
+	if (dryRun()) return null;
+	return new EventPager(searcher(topic), query, pageSize);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public EventPager eventsPager(String topic, Map<String,Object> query) {
+	return eventsPager(topic, query, EventPager.DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Map<String,Object>> eventsParallel(String topic, Map<String,Object> query, int windows, int parallelism) {
+	return eventsParallelAsync(topic, query, windows, parallelism).join();
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public Map<String,Object> get(String topic) {
+	Object cached = cached("Stash", topic, null);
+	if (cached != StashCache.MISS) return (Map<String,Object>) cached;
 	logRequest("Fetching <" + topic + ">");
 	if (dryRun()) return null;
+	long generation = generation(topic, null);
+	RequestContext request = started(Operation.GET, topic, null);
 	try {
-	    return performGet(topic);
+	    return remember("Stash", topic, null, completed(request, performGet(topic)), generation);
 	} catch (IOException e) {
+	    failed(request, e);
 	    LOG.error("Fetching <" + topic + ">");
 	    return null;
+	} catch (RuntimeException e) {
+	    failed(request, e);
+	    throw e;
 	}
     }
     
@@ -151,13 +386,52 @@ public class BaseClient implements VayacondiosClient {
      */
     @Override
     public Map<String,Object> getMap(String topic, String id) {
+	Object cached = cached("Map", topic, id);
+	if (cached != StashCache.MISS) return (Map<String,Object>) cached;
 	logRequest("Fetching Map <" + topic + "/" + id + ">");
 	if (dryRun()) return null;
+	long generation = generation(topic, id);
+	RequestContext request = started(Operation.GET, topic, id);
 	try {
-	    return performGetMap(topic, id);
+	    return remember("Map", topic, id, completed(request, performGetMap(topic, id)), generation);
 	} catch (IOException e) {
+	    failed(request, e);
 	    LOG.error("Fetching Map <" + topic + "/" + id + ">", e);
 	    return null;
+	} catch (RuntimeException e) {
+	    failed(request, e);
+	    throw e;
+	}
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public GetManyResult getMany(String topic, Collection<String> ids) {
+	return getManyAsync(topic, ids).join();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <T> T getMap(String topic, String id, Class<T> type) {
+	Object cached = cached(type.getName(), topic, id);
+	if (cached != StashCache.MISS) return type.cast(cached);
+	logRequest("Fetching Map <" + topic + "/" + id + ">");
+	if (dryRun()) return null;
+	long generation = generation(topic, id);
+	RequestContext request = started(Operation.GET, topic, id);
+	try {
+	    return remember(type.getName(), topic, id, completed(request, performGetMap(topic, id, type)), generation);
+	} catch (IOException e) {
+	    failed(request, e);
+	    LOG.error("Fetching Map <" + topic + "/" + id + ">", e);
+	    return null;
+	} catch (RuntimeException e) {
+	    failed(request, e);
+	    throw e;
 	}
     }
     /**
@@ -165,13 +439,21 @@ public class BaseClient implements VayacondiosClient {
      */
     @Override
     public List getList(String topic, String id) {
+	Object cached = cached("List", topic, id);
+	if (cached != StashCache.MISS) return (List) cached;
 	logRequest("Fetching List <" + topic + "/" + id + ">");
 	if (dryRun()) return null;
+	long generation = generation(topic, id);
+	RequestContext request = started(Operation.GET, topic, id);
 	try {
-	    return performGetList(topic, id);
+	    return remember("List", topic, id, completed(request, performGetList(topic, id)), generation);
 	} catch (IOException e) {
+	    failed(request, e);
 	    LOG.error("Fetching List <" + topic + "/" + id + ">", e);
 	    return null;
+	} catch (RuntimeException e) {
+	    failed(request, e);
+	    throw e;
 	}
     }
     /**
@@ -179,13 +461,21 @@ public class BaseClient implements VayacondiosClient {
      */
     @Override
     public String getString(String topic, String id) {
+	Object cached = cached("String", topic, id);
+	if (cached != StashCache.MISS) return (String) cached;
 	logRequest("Fetching String <" + topic + "/" + id + ">");
 	if (dryRun()) return null;
+	long generation = generation(topic, id);
+	RequestContext request = started(Operation.GET, topic, id);
 	try {
-	    return performGetString(topic, id);
+	    return remember("String", topic, id, completed(request, performGetString(topic, id)), generation);
 	} catch (IOException e) {
+	    failed(request, e);
 	    LOG.error("Fetching String <" + topic + "/" + id + ">", e);
 	    return null;
+	} catch (RuntimeException e) {
+	    failed(request, e);
+	    throw e;
 	}
     }
     /**
@@ -193,13 +483,72 @@ public class BaseClient implements VayacondiosClient {
      */
     @Override
     public Double getDouble(String topic, String id) {
+	Object cached = cached("Double", topic, id);
+	if (cached != StashCache.MISS) return (Double) cached;
 	logRequest("Fetching Double <" + topic + "/" + id + ">");
 	if (dryRun()) return null;
+	long generation = generation(topic, id);
+	RequestContext request = started(Operation.GET, topic, id);
 	try {
-	    return performGetDouble(topic, id);
+	    return remember("Double", topic, id, completed(request, performGetDouble(topic, id)), generation);
 	} catch (IOException e) {
+	    failed(request, e);
 	    LOG.error("Fetching Double <" + topic + "/" + id + ">", e);
 	    return null;
+	} catch (RuntimeException e) {
+	    failed(request, e);
+	    throw e;
+	}
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getDoubleValue(String topic, String id, double defaultValue) {
+	Object cached = cached("Double", topic, id);
+	if (cached != StashCache.MISS) return (cached == null) ? defaultValue : (Double) cached;
+	logRequest("Fetching Double <" + topic + "/" + id + ">");
+	if (dryRun()) return defaultValue;
+	long generation = generation(topic, id);
+	RequestContext request = started(Operation.GET, topic, id);
+	try {
+	    double value = completed(request, performGetDoubleValue(topic, id, defaultValue));
+	    // the default might be a stored value or none at all
+	    if (Double.compare(value, defaultValue) != 0) remember("Double", topic, id, value, generation);
+	    return value;
+	} catch (IOException e) {
+	    failed(request, e);
+	    LOG.error("Fetching Double <" + topic + "/" + id + ">", e);
+	    return defaultValue;
+	} catch (RuntimeException e) {
+	    failed(request, e);
+	    throw e;
+	}
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getLongValue(String topic, String id, long defaultValue) {
+	Object cached = cached("Long", topic, id);
+	if (cached != StashCache.MISS) return (Long) cached;
+	logRequest("Fetching Long <" + topic + "/" + id + ">");
+	if (dryRun()) return defaultValue;
+	long generation = generation(topic, id);
+	RequestContext request = started(Operation.GET, topic, id);
+	try {
+	    long value = completed(request, performGetLongValue(topic, id, defaultValue));
+	    if (value != defaultValue) remember("Long", topic, id, value, generation);
+	    return value;
+	} catch (IOException e) {
+	    failed(request, e);
+	    LOG.error("Fetching Long <" + topic + "/" + id + ">", e);
+	    return defaultValue;
+	} catch (RuntimeException e) {
+	    failed(request, e);
+	    throw e;
 	}
     }
 
@@ -210,11 +559,56 @@ public class BaseClient implements VayacondiosClient {
     public List<Map<String,Object>> stashes(Map<String,Object> query) {
 	logRequest("Searching stashes");
 	if (dryRun()) return null;
-	try { 
-	    return performStashes(query);
+	RequestContext request = started(Operation.STASHES, null, null);
+	try {
+	    return completed(request, performStashes(query));
+	} catch (IOException e) {
+	    failed(request, e);
+	    LOG.error("Searching stashes", e);
+	    return null;
+	} catch (RuntimeException e) {
+	    failed(request, e);
+	    throw e;
+	}
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <T> List<T> stashes(Map<String,Object> query, Class<T> type) {
+	logRequest("Searching stashes");
+	if (dryRun()) return null;
+	RequestContext request = started(Operation.STASHES, null, null);
+	try {
+	    return completed(request, performStashes(query, type));
+	} catch (IOException e) {
+	    failed(request, e);
+	    LOG.error("Searching stashes", e);
+	    return null;
+	} catch (RuntimeException e) {
+	    failed(request, e);
+	    throw e;
+	}
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ResultIterator<Map<String,Object>> stashesIterator(Map<String,Object> query) {
+	logRequest("Searching stashes");
+	if (dryRun()) return null;
+	RequestContext request = started(Operation.STASHES, null, null);
+	try {
+	    return completed(request, performStashesIterator(query));
 	} catch (IOException e) {
+	    failed(request, e);
 	    LOG.error("Searching stashes", e);
 	    return null;
+	} catch (RuntimeException e) {
+	    failed(request, e);
+	    throw e;
 	}
     }
 
@@ -223,12 +617,19 @@ public class BaseClient implements VayacondiosClient {
      */
     @Override
     public void set(String topic, Map<String,Object> value) {
+	invalidate(topic);
 	logRequest("Replacing <" + topic + ">");
 	if (dryRun()) return;
+	RequestContext request = started(Operation.SET, topic, null);
 	try {
 	    performSet(topic, value);
+	    written(request);
 	} catch (IOException e) {
+	    failed(request, e);
 	    LOG.error("Replacing <" + topic + ">", e);
+	} catch (RuntimeException e) {
+	    failed(request, e);
+	    throw e;
 	}
     }
     /**
@@ -236,12 +637,19 @@ public class BaseClient implements VayacondiosClient {
      */
     @Override
     public void set(String topic, String id, Object value) {
+	invalidate(topic, id);
 	logRequest("Replacing <" + topic + "/" + id + ">");
 	if (dryRun()) return;
+	RequestContext request = started(Operation.SET, topic, id);
 	try {
 	    performSet(topic, id, value);
+	    written(request);
 	} catch (IOException e) {
+	    failed(request, e);
 	    LOG.error("Replacing <" + topic + "/" + id + ">", e);
+	} catch (RuntimeException e) {
+	    failed(request, e);
+	    throw e;
 	}
     }
     
@@ -250,12 +658,19 @@ public class BaseClient implements VayacondiosClient {
      */
     @Override
     public void merge(String topic, Map<String,Object> value) {
+	invalidate(topic);
 	logRequest("Merging <" + topic + ">");
 	if (dryRun()) return;
+	RequestContext request = started(Operation.MERGE, topic, null);
 	try {
 	    performMerge(topic, value);
+	    written(request);
 	} catch (IOException e) {
+	    failed(request, e);
 	    LOG.error("Merging <" + topic + ">", e);
+	} catch (RuntimeException e) {
+	    failed(request, e);
+	    throw e;
 	}
     }
     /**
@@ -263,12 +678,19 @@ public class BaseClient implements VayacondiosClient {
      */
     @Override
     public void merge(String topic, String id, Object value) {
+	invalidate(topic, id);
 	logRequest("Merging <" + topic + "/" + id + ">");
 	if (dryRun()) return;
+	RequestContext request = started(Operation.MERGE, topic, id);
 	try {
 	    performMerge(topic, id, value);
+	    written(request);
 	} catch (IOException e) {
+	    failed(request, e);
 	    LOG.error("Merging <" + topic + "/" + id + ">", e);
+	} catch (RuntimeException e) {
+	    failed(request, e);
+	    throw e;
 	}
     }
 
@@ -277,12 +699,19 @@ public class BaseClient implements VayacondiosClient {
      */
     @Override
     public void delete(String topic) {
+	invalidate(topic);
 	logRequest("Deleting <" + topic + ">");
 	if (dryRun()) return;
+	RequestContext request = started(Operation.DELETE, topic, null);
 	try {
 	    performDelete(topic);
+	    written(request);
 	} catch (IOException e) {
+	    failed(request, e);
 	    LOG.error("Deleting <" + topic + ">");
+	} catch (RuntimeException e) {
+	    failed(request, e);
+	    throw e;
 	}
     }
     /**
@@ -290,15 +719,138 @@ public class BaseClient implements VayacondiosClient {
      */
     @Override
     public void delete(String topic, String id) {
+	invalidate(topic, id);
 	logRequest("Deleting <" + topic + "/" + id + ">");
 	if (dryRun()) return;
+	RequestContext request = started(Operation.DELETE, topic, id);
 	try {
 	    performDelete(topic, id);
+	    written(request);
 	} catch (IOException e) {
+	    failed(request, e);
 	    LOG.error("Deleting <" + topic + "/" + id + ">");
+	} catch (RuntimeException e) {
+	    failed(request, e);
+	    throw e;
 	}
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<List<Map<String,Object>>> eventsAsync(String topic, Map<String,Object> query) {
+	logRequest("Searching events <" + topic + ">");
+	if (dryRun()) return CompletableFuture.completedFuture(null);
+	RequestContext request = started(Operation.EVENTS, topic, null);
+	return recover(completing(request, performEventsAsync(topic, query)), "Searching events <" + topic + ">");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<List<Map<String,Object>>> eventsParallelAsync(String topic, Map<String,Object> query, int windows, int parallelism) {
+	logRequest("Searching events <" + topic + "> in " + windows + " windows");
+	if (dryRun()) return CompletableFuture.completedFuture(null);
+	ScatterGather search = new ScatterGather(searcher(topic), query, windows, parallelism, System.currentTimeMillis());
+	return recover(search.start(), "Searching events <" + topic + "> in " + windows + " windows");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<Map<String,Object>> getAsync(String topic) {
+	logRequest("Fetching <" + topic + ">");
+	if (dryRun()) return CompletableFuture.completedFuture(null);
+	RequestContext request = started(Operation.GET, topic, null);
+	return recover(completing(request, performGetAsync(topic)), "Fetching <" + topic + ">");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<Map<String,Object>> getMapAsync(String topic, String id) {
+	logRequest("Fetching Map <" + topic + "/" + id + ">");
+	if (dryRun()) return CompletableFuture.completedFuture(null);
+	RequestContext request = started(Operation.GET, topic, id);
+	return recover(completing(request, performGetMapAsync(topic, id)), "Fetching Map <" + topic + "/" + id + ">");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<GetManyResult> getManyAsync(final String topic, Collection<String> ids) {
+	logRequest("Fetching " + ids.size() + " Maps <" + topic + ">");
+	if (dryRun()) return CompletableFuture.completedFuture(null);
+	final Map<String,Map<String,Object>> hits = new LinkedHashMap<String,Map<String,Object>>();
+	List<String> misses = new ArrayList<String>();
+	for (String id : ids) {
+	    Object cached = cached("Map", topic, id);
+	    if (cached == StashCache.MISS || cached == null) {
+		misses.add(id);
+	    } else {
+		hits.put(id, (Map<String,Object>) cached);
+	    }
+	}
+	ManyGetter getter = new ManyGetter(misses, _fetchParallelism,
+	    id -> {
+		long generation = generation(topic, id);
+		RequestContext request = started(Operation.GET, topic, id);
+		return completing(request, performGetMapAsync(topic, id)).thenApply(value -> remember("Map", topic, id, value, generation));
+	    });
+	return getter.start().thenApply(result -> {
+		if (hits.isEmpty()) return result;
+		Map<String,Map<String,Object>> values = new LinkedHashMap<String,Map<String,Object>>(hits);
+		values.putAll(result.values());
+		return new GetManyResult(values, result.missing(), result.errors());
+	    });
+    }
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<List> getListAsync(String topic, String id) {
+	logRequest("Fetching List <" + topic + "/" + id + ">");
+	if (dryRun()) return CompletableFuture.completedFuture(null);
+	RequestContext request = started(Operation.GET, topic, id);
+	return recover(completing(request, performGetListAsync(topic, id)), "Fetching List <" + topic + "/" + id + ">");
+    }
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<String> getStringAsync(String topic, String id) {
+	logRequest("Fetching String <" + topic + "/" + id + ">");
+	if (dryRun()) return CompletableFuture.completedFuture(null);
+	RequestContext request = started(Operation.GET, topic, id);
+	return recover(completing(request, performGetStringAsync(topic, id)), "Fetching String <" + topic + "/" + id + ">");
+    }
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<Double> getDoubleAsync(String topic, String id) {
+	logRequest("Fetching Double <" + topic + "/" + id + ">");
+	if (dryRun()) return CompletableFuture.completedFuture(null);
+	RequestContext request = started(Operation.GET, topic, id);
+	return recover(completing(request, performGetDoubleAsync(topic, id)), "Fetching Double <" + topic + "/" + id + ">");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<List<Map<String,Object>>> stashesAsync(Map<String,Object> query) {
+	logRequest("Searching stashes");
+	if (dryRun()) return CompletableFuture.completedFuture(null);
+	RequestContext request = started(Operation.STASHES, null, null);
+	return recover(completing(request, performStashesAsync(query)), "Searching stashes");
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -313,15 +865,22 @@ public class BaseClient implements VayacondiosClient {
     protected void performAnnounce(String topic, Map<String,Object> event) throws IOException {}
     
     protected List<Map<String,Object>> performEvents(String topic, Map<String,Object> query) throws IOException { return null; }
+    protected <T> List<T> performEvents(String topic, Map<String,Object> query, Class<T> type) throws IOException { return null; }
+    protected ResultIterator<Map<String,Object>> performEventsIterator(String topic, Map<String,Object> query) throws IOException { return null; }
 
     protected Map<String,Object> performGet(String topic) throws IOException { return null; }
     
     protected Map<String,Object> performGetMap(String topic, String id) throws IOException { return null; }
+    protected <T> T performGetMap(String topic, String id, Class<T> type) throws IOException { return null; }
     protected List performGetList(String topic, String id) throws IOException { return null; }
     protected String performGetString(String topic, String id) throws IOException { return null; }
     protected Double performGetDouble(String topic, String id) throws IOException { return null; }
+    protected double performGetDoubleValue(String topic, String id, double defaultValue) throws IOException { return defaultValue; }
+    protected long performGetLongValue(String topic, String id, long defaultValue) throws IOException { return defaultValue; }
 
     protected List<Map<String,Object>> performStashes(Map<String,Object> query) throws IOException { return null; }
+    protected <T> List<T> performStashes(Map<String,Object> query, Class<T> type) throws IOException { return null; }
+    protected ResultIterator<Map<String,Object>> performStashesIterator(Map<String,Object> query) throws IOException { return null; }
 
     protected void performMerge(String topic, String id, Object value) throws IOException {}
     protected void performMerge(String topic, Map<String,Object> value) throws IOException {}
@@ -332,6 +891,175 @@ public class BaseClient implements VayacondiosClient {
     protected void performDelete(String topic, String id) throws IOException {}
     protected void performDelete(String topic) throws IOException {}
 
+    protected CompletableFuture<List<Map<String,Object>>> performEventsAsync(String topic, Map<String,Object> query) { return performed(() -> performEvents(topic, query)); }
+
+    protected CompletableFuture<Map<String,Object>> performGetAsync(String topic) { return performed(() -> performGet(topic)); }
+
+    protected CompletableFuture<Map<String,Object>> performGetMapAsync(String topic, String id) { return performed(() -> performGetMap(topic, id)); }
+    protected CompletableFuture<List> performGetListAsync(String topic, String id) { return performed(() -> performGetList(topic, id)); }
+    protected CompletableFuture<String> performGetStringAsync(String topic, String id) { return performed(() -> performGetString(topic, id)); }
+    protected CompletableFuture<Double> performGetDoubleAsync(String topic, String id) { return performed(() -> performGetDouble(topic, id)); }
+
+    protected CompletableFuture<List<Map<String,Object>>> performStashesAsync(Map<String,Object> query) { return performed(() -> performStashes(query)); }
+
+    /**
+     * A read performed by one of the synchronous <code>perform</code>
+     * methods, on the calling thread, as a future.  The asynchronous
+     * <code>perform</code> methods use this unless overridden, so a
+     * subclass implementing only the synchronous ones still answers
+     * every read.
+     */
+    private static <T> CompletableFuture<T> performed(Callable<T> read) {
+	CompletableFuture<T> future = new CompletableFuture<T>();
+	try {
+	    future.complete(read.call());
+	} catch (Exception e) {
+	    future.completeExceptionally(e);
+	}
+	return future;
+    }
+
+    /**
+     * Whether this client completes its own writes.  Subclasses whose
+     * <code>perform</code> methods return before a write has actually
+     * completed should return <code>true</code> and complete or fail
+     * each write's {@link #currentRequest()} themselves once it does.
+     *
+     * @return whether writes are completed by the subclass
+     */
+    protected boolean completesWrites() {
+	return false;
+    }
+
+    /**
+     * The request being performed by the calling thread.  Only valid
+     * within a <code>perform</code> method, before it returns: a
+     * subclass which carries on with a request asynchronously must
+     * hold on to its context itself.
+     *
+     * @return the request or <code>null</code> if there are no {@link #listeners()}
+     */
+    protected RequestContext currentRequest() {
+	return current.get();
+    }
+
+    /**
+     * Start a request which doesn't correspond to any single call of
+     * the public API, e.g. - one sending a batch of earlier calls.
+     * The caller must complete or fail it.
+     *
+     * @param operation the kind of request
+     * @param topic the topic of the request, or <code>null</code> for none
+     * @param id the ID of the request, or <code>null</code> for none
+     * @return the request or <code>null</code> if there are no {@link #listeners()}
+     */
+    protected RequestContext startRequest(Operation operation, String topic, String id) {
+	RequestListener[] listeners = _listeners;
+	return (listeners.length == 0) ? null : new RequestContext(listeners, operation, topic, id);
+    }
+
+    private RequestContext started(Operation operation, String topic, String id) {
+	RequestContext request = startRequest(operation, topic, id);
+	if (request != null) current.set(request);
+	return request;
+    }
+
+    private void written(RequestContext request) {
+	if (request == null) return;
+	current.remove();
+	if (!completesWrites()) request.completed();
+    }
+
+    private void completed(RequestContext request) {
+	if (request == null) return;
+	current.remove();
+	request.completed();
+    }
+
+    private <T> T completed(RequestContext request, T value) {
+	completed(request);
+	return value;
+    }
+
+    private double completed(RequestContext request, double value) {
+	completed(request);
+	return value;
+    }
+
+    private long completed(RequestContext request, long value) {
+	completed(request);
+	return value;
+    }
+
+    private void failed(RequestContext request, Throwable failure) {
+	if (request == null) return;
+	current.remove();
+	request.failed(failure);
+    }
+
+    private <T> CompletableFuture<T> completing(final RequestContext request, CompletableFuture<T> future) {
+	if (request == null) return future;
+	current.remove();
+	return future.whenComplete((value, failure) -> {
+		if (failure == null) {
+		    request.completed();
+		} else {
+		    request.failed((failure instanceof CompletionException) ? failure.getCause() : failure);
+		}
+	    });
+    }
+
+    /**
+     * Send searches for events on a topic, each its own request,
+     * failing rather than recovering so the caller sees errors.
+     * Cancelling a search abandons the request itself.
+     */
+    private Function<Map<String,Object>,CompletableFuture<List<Map<String,Object>>>> searcher(final String topic) {
+	return query -> {
+	    RequestContext request = started(Operation.EVENTS, topic, null);
+	    CompletableFuture<List<Map<String,Object>>> search = performEventsAsync(topic, query);
+	    CompletableFuture<List<Map<String,Object>>> answer = completing(request, search);
+	    answer.whenComplete((events, failure) -> { if (answer.isCancelled()) search.cancel(false); });
+	    return answer;
+	};
+    }
+
+    private <T> CompletableFuture<T> recover(CompletableFuture<T> future, String message) {
+	return future.exceptionally(e -> {
+		LOG.error(message, (e instanceof CompletionException) ? e.getCause() : e);
+		return null;
+	    });
+    }
+
+    private Object cached(String kind, String topic, String id) {
+	StashCache cache = _cache;
+	return (cache == null) ? StashCache.MISS : cache.lookup(kind, topic, id);
+    }
+
+    private long generation(String topic, String id) {
+	StashCache cache = _cache;
+	return (cache == null) ? 0 : cache.generation(topic, id);
+    }
+
+    private <T> T remember(String kind, String topic, String id, T value, long generation) {
+	StashCache cache = _cache;
+	if (cache != null) cache.store(kind, topic, id, value, generation);
+	return value;
+    }
+
+    /** Drop what's cached for a stash, for writes sent later than
+     * they were made. */
+    void invalidate(String topic) {
+	StashCache cache = _cache;
+	if (cache != null) cache.invalidate(topic);
+    }
+
+    /** Drop what's cached for a value within a stash. */
+    void invalidate(String topic, String id) {
+	StashCache cache = _cache;
+	if (cache != null) cache.invalidate(topic, id);
+    }
+
     private void logRequest(String message) {
 	if (dryRun()) {
 	    LOG.info(message);
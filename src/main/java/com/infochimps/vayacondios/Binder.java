@@ -0,0 +1,39 @@
+package com.infochimps.vayacondios;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.Gson;
+
+/** Binds Maps which have already been parsed into caller classes,
+ * for clients which can only fetch Maps.
+ */
+class Binder {
+
+    private static final Gson SERIALIZER = new Gson();
+
+    private Binder() {}
+
+    /**
+     * Bind a Map into an instance of a class.
+     *
+     * @return the instance, or <code>null</code> if the Map is <code>null</code>
+     */
+    static <T> T bind(Map<String,Object> value, Class<T> type) {
+	if (value == null) return null;
+	return SERIALIZER.fromJson(SERIALIZER.toJsonTree(value), type);
+    }
+
+    /**
+     * Bind each of a List of Maps into an instance of a class.
+     *
+     * @return the instances, or <code>null</code> if the List is <code>null</code>
+     */
+    static <T> List<T> bind(List<Map<String,Object>> values, Class<T> type) {
+	if (values == null) return null;
+	List<T> bound = new ArrayList<T>(values.size());
+	for (Map<String,Object> value : values) bound.add(bind(value, type));
+	return bound;
+    }
+}
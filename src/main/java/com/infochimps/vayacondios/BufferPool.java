@@ -0,0 +1,234 @@
+package com.infochimps.vayacondios;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import com.ning.http.client.Request;
+
+/** A pool of reusable buffers which request bodies are serialized
+ * straight into.
+ * <p>
+ * Each {@link Buffer} is a {@link Writer} which encodes characters
+ * as UTF-8 directly into a growable byte array, so a body never
+ * exists as a <code>String</code> or as a separately encoded copy.
+ * Buffers are also {@link Request.EntityWriter}s and are streamed to
+ * the network as they are.
+ * <p>
+ * A buffer must be {@link Buffer#release() released} once its
+ * request has completed and must not be touched afterwards.  At most
+ * <code>maxBuffers</code> buffers are kept between uses, and buffers
+ * which grew beyond <code>maxRetainedSize</code> bytes are dropped
+ * rather than pinning a large array forever.
+ */
+class BufferPool {
+
+    /** A gzip member header: no name, no timestamp, unknown OS. */
+    private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+    /** Deflaters hold native memory, so each thread reuses its own. */
+    private static final ThreadLocal<Deflater> DEFLATERS = ThreadLocal.withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+
+    /** A reusable UTF-8 body. */
+    static class Buffer extends Writer implements Request.EntityWriter {
+
+	private final BufferPool pool;
+	private byte[]           bytes;
+	private int              length;
+	private char             highSurrogate;
+	private boolean          idle;
+
+	private Buffer(BufferPool pool, int capacity) {
+	    this.pool  = pool;
+	    this.bytes = new byte[capacity];
+	}
+
+	/**
+	 * The encoded bytes, valid up to {@link #length()}.
+	 */
+	byte[] bytes() { return bytes; }
+
+	/**
+	 * Number of bytes written so far.
+	 */
+	int length() { return length; }
+
+	/**
+	 * Discard everything written after the first <code>length</code>
+	 * bytes, e.g. - to undo a partially serialized value.
+	 */
+	void truncate(int length) {
+	    this.length        = length;
+	    this.highSurrogate = 0;
+	}
+
+	/**
+	 * Return this buffer to its pool.
+	 */
+	void release() {
+	    pool.release(this);
+	}
+
+	/**
+	 * Append this buffer's contents, gzipped, to another buffer.
+	 */
+	void gzipInto(Buffer target) {
+	    CRC32 crc = new CRC32();
+	    crc.update(bytes, 0, length);
+	    target.put(GZIP_HEADER, 0, GZIP_HEADER.length);
+	    Deflater deflater = DEFLATERS.get();
+	    deflater.reset();
+	    deflater.setInput(bytes, 0, length);
+	    deflater.finish();
+	    while (!deflater.finished()) {
+		target.ensure(Math.max(256, length / 4));
+		target.length += deflater.deflate(target.bytes, target.length, target.bytes.length - target.length);
+	    }
+	    target.putIntLE((int) crc.getValue());
+	    target.putIntLE(length);
+	}
+
+	/**
+	 * Append raw bytes, bypassing character encoding.
+	 */
+	void put(byte[] source, int offset, int count) {
+	    ensure(count);
+	    System.arraycopy(source, offset, bytes, length, count);
+	    length += count;
+	}
+
+	private void putIntLE(int value) {
+	    ensure(4);
+	    bytes[length++] = (byte) value;
+	    bytes[length++] = (byte) (value >> 8);
+	    bytes[length++] = (byte) (value >> 16);
+	    bytes[length++] = (byte) (value >> 24);
+	}
+
+	@Override
+	public void writeEntity(OutputStream out) throws IOException {
+	    out.write(bytes, 0, length);
+	}
+
+	@Override
+	public void write(int c) {
+	    encode((char) c);
+	}
+
+	@Override
+	public void write(char[] chars, int offset, int count) {
+	    for (int i = offset, end = offset + count; i < end; i++) encode(chars[i]);
+	}
+
+	@Override
+	public void write(String string, int offset, int count) {
+	    for (int i = offset, end = offset + count; i < end; i++) encode(string.charAt(i));
+	}
+
+	@Override
+	public Writer append(CharSequence chars) {
+	    for (int i = 0, end = chars.length(); i < end; i++) encode(chars.charAt(i));
+	    return this;
+	}
+
+	@Override
+	public void flush() {}
+
+	@Override
+	public void close() {}
+
+	@Override
+	public String toString() {
+	    return new String(bytes, 0, length, HTTPClient.UTF8);
+	}
+
+	private void encode(char c) {
+	    if (highSurrogate != 0) {
+		char high = highSurrogate;
+		highSurrogate = 0;
+		if (Character.isLowSurrogate(c)) {
+		    int point = Character.toCodePoint(high, c);
+		    ensure(4);
+		    bytes[length++] = (byte) (0xf0 | (point >> 18));
+		    bytes[length++] = (byte) (0x80 | ((point >> 12) & 0x3f));
+		    bytes[length++] = (byte) (0x80 | ((point >> 6) & 0x3f));
+		    bytes[length++] = (byte) (0x80 | (point & 0x3f));
+		    return;
+		}
+		unpaired();
+	    }
+	    if (c < 0x80) {
+		ensure(1);
+		bytes[length++] = (byte) c;
+	    } else if (c < 0x800) {
+		ensure(2);
+		bytes[length++] = (byte) (0xc0 | (c >> 6));
+		bytes[length++] = (byte) (0x80 | (c & 0x3f));
+	    } else if (Character.isHighSurrogate(c)) {
+		highSurrogate = c;
+	    } else if (Character.isLowSurrogate(c)) {
+		unpaired();
+	    } else {
+		ensure(3);
+		bytes[length++] = (byte) (0xe0 | (c >> 12));
+		bytes[length++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+		bytes[length++] = (byte) (0x80 | (c & 0x3f));
+	    }
+	}
+
+	/** Encode an unpaired surrogate as '?', as String.getBytes does. */
+	private void unpaired() {
+	    ensure(1);
+	    bytes[length++] = (byte) '?';
+	}
+
+	private void ensure(int count) {
+	    if (length + count > bytes.length) bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + count));
+	}
+    }
+
+    private final BlockingQueue<Buffer> free;
+    private final int                   initialSize;
+    private final int                   maxRetainedSize;
+
+    /**
+     * @param maxBuffers maximum number of idle buffers to keep
+     * @param initialSize size (in bytes) of newly created buffers
+     * @param maxRetainedSize buffers which grew larger than this are not kept
+     */
+    BufferPool(int maxBuffers, int initialSize, int maxRetainedSize) {
+	this.free            = new ArrayBlockingQueue<Buffer>(maxBuffers);
+	this.initialSize     = initialSize;
+	this.maxRetainedSize = maxRetainedSize;
+    }
+
+    /**
+     * Take an empty buffer from the pool, creating one if none are
+     * idle.
+     */
+    Buffer acquire() {
+	Buffer buffer = free.poll();
+	if (buffer == null) return new Buffer(this, initialSize);
+	buffer.idle = false;
+	return buffer;
+    }
+
+    /**
+     * Number of idle buffers in the pool.
+     */
+    int idle() {
+	return free.size();
+    }
+
+    private void release(Buffer buffer) {
+	if (buffer.idle || buffer.bytes.length > maxRetainedSize) return;
+	buffer.truncate(0);
+	buffer.idle = true;
+	if (!free.offer(buffer)) buffer.idle = false;
+    }
+}
@@ -0,0 +1,156 @@
+package com.infochimps.vayacondios;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Stops a client from sending requests to a server which keeps
+ * failing, so that an outage costs callers a quick {@link
+ * CircuitOpenException} rather than a connect timeout each.
+ * <p>
+ * The breaker starts <b>closed</b>, letting every request through.
+ * After <code>failureThreshold</code> consecutive transient failures
+ * (see {@link RetryPolicy#isTransient(Throwable)}) it <b>opens</b> and
+ * refuses every request for <code>openTime</code> milliseconds.  It
+ * then goes <b>half-open</b> and lets a single probe through: if the
+ * probe succeeds the breaker closes again, otherwise it re-opens for
+ * another <code>openTime</code>.
+ * <p>
+ * Each request {@link #allowRequest() let through} must be followed
+ * by a call to {@link #succeeded()} or {@link #failed()}.  A probe
+ * which never reports back is given up on after
+ * <code>openTime</code> and another is let through.
+ */
+public class CircuitBreaker {
+
+    /** Default number of consecutive failures which open a breaker. */
+    public static int  DEFAULT_FAILURE_THRESHOLD = 5;
+
+    /** Default time a breaker stays open before probing, in milliseconds. */
+    public static long DEFAULT_OPEN_TIME = 5000;
+
+    /** The states of a breaker. */
+    public enum State {
+	/** Requests are let through. */
+	CLOSED,
+	/** Requests are refused. */
+	OPEN,
+	/** A single probe is let through. */
+	HALF_OPEN
+    }
+
+    private final int           failureThreshold;
+    private final long          openNanos;
+    private final AtomicInteger failures = new AtomicInteger();
+    private volatile State      state    = State.CLOSED;
+    private long                openedAt;
+    private long                probedAt;
+
+    /**
+     * Create a new, closed breaker.
+     *
+     * @param failureThreshold number of consecutive failures which open the breaker
+     * @param openTime time (in milliseconds) the breaker stays open before probing
+     */
+    public CircuitBreaker(int failureThreshold, long openTime) {
+	this.failureThreshold = failureThreshold;
+	this.openNanos        = openTime * 1000000L;
+    }
+
+    /**
+     * Create a new, closed breaker with the default threshold and
+     * open time.
+     */
+    public CircuitBreaker() {
+	this(DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_TIME);
+    }
+
+    /**
+     * The state of this breaker.
+     *
+     * @return the state
+     */
+    public State state() { return state; }
+
+    /**
+     * Whether {@link #allowRequest()} would let a request through now,
+     * without counting as one.
+     *
+     * @return whether requests are being let through
+     */
+    public boolean allowsRequests() {
+	if (state == State.CLOSED) return true;
+	synchronized (this) {
+	    long now = System.nanoTime();
+	    switch (state) {
+	    case CLOSED:
+		return true;
+	    case OPEN:
+		return now - openedAt >= openNanos;
+	    default:
+		return now - probedAt >= openNanos;
+	    }
+	}
+    }
+
+    /**
+     * Whether a request may be sent now.
+     *
+     * @return whether to send the request
+     */
+    public boolean allowRequest() {
+	if (state == State.CLOSED) return true;
+	synchronized (this) {
+	    long now = System.nanoTime();
+	    switch (state) {
+	    case CLOSED:
+		return true;
+	    case OPEN:
+		if (now - openedAt < openNanos) return false;
+		state = State.HALF_OPEN;
+		probedAt = now;
+		return true;
+	    default:
+		if (now - probedAt < openNanos) return false;
+		probedAt = now;
+		return true;
+	    }
+	}
+    }
+
+    /**
+     * Record that a request let through succeeded, or failed for a
+     * reason which says nothing about the server's health.
+     */
+    public void succeeded() {
+	if (failures.get() != 0) failures.set(0);
+	if (state == State.CLOSED) return;
+	synchronized (this) {
+	    state = State.CLOSED;
+	}
+    }
+
+    /**
+     * Record that a request let through failed transiently.
+     */
+    public void failed() {
+	if (state == State.CLOSED && failures.incrementAndGet() < failureThreshold) return;
+	synchronized (this) {
+	    if (state == State.OPEN) return;
+	    state    = State.OPEN;
+	    openedAt = System.nanoTime();
+	    failures.set(0);
+	}
+    }
+
+    /**
+     * Record the outcome of a request let through.
+     *
+     * @param failure why the request failed, or <code>null</code> if it succeeded
+     */
+    public void record(Throwable failure) {
+	if (failure != null && RetryPolicy.isTransient(failure)) {
+	    failed();
+	} else {
+	    succeeded();
+	}
+    }
+}
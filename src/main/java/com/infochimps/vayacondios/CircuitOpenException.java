@@ -0,0 +1,14 @@
+package com.infochimps.vayacondios;
+
+import java.io.IOException;
+
+/** Thrown when a request is refused without being sent because the
+ * client's {@link CircuitBreaker} is open: the server has been
+ * failing and is being given time to recover.
+ */
+public class CircuitOpenException extends IOException {
+
+    public CircuitOpenException(String message) {
+	super(message);
+    }
+}
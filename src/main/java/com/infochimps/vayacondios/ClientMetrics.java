@@ -0,0 +1,267 @@
+package com.infochimps.vayacondios;
+
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.TimeoutException;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Latencies and outcomes of the requests a client makes, per {@link
+ * Operation} and per topic.
+ * <p>
+ * Metrics are a {@link RequestListener}: a {@link BaseClient}
+ * records each request it makes into its metrics, if it has any:
+ *
+ * <blockquote><pre>{@code
+ * client.metrics(new ClientMetrics());
+ * ...
+ * OperationStats searches = client.metrics().stats(Operation.EVENTS);
+ * System.out.println(searches.get99thPercentileLatency() + "ms");
+ * }</pre></blockquote>
+ *
+ * Every {@link OperationStats} can also be published as an MXBean
+ * with {@link #register(String)}, or handed to a {@link
+ * MetricsReporter}.
+ * <p>
+ * Only the first <code>maxTopics</code> topics seen are tracked
+ * individually so that a client writing to an unbounded number of
+ * topics doesn't grow without bound.  Requests in further topics
+ * still count towards the totals for their operation.
+ * <p>
+ * Each {@link OperationStats} holds a {@link LatencyHistogram} of
+ * about 16 kilobytes, so a topic's statistics for an operation are
+ * only created once a request for that operation is made in that
+ * topic: a topic which is only announced to costs one histogram, not
+ * one for every operation.
+ */
+public class ClientMetrics implements RequestListener {
+
+    /** Default maximum number of topics tracked individually. */
+    public static int DEFAULT_MAX_TOPICS = 1000;
+
+    /** JMX domain MXBeans are registered under. */
+    public static String DOMAIN = "com.infochimps.vayacondios";
+
+    private static Logger LOG = LoggerFactory.getLogger(ClientMetrics.class);
+
+    private static final Operation[] OPERATIONS = Operation.values();
+
+    private final int                                  maxTopics;
+    private final OperationStats[]                     totals = new OperationStats[OPERATIONS.length];
+    private final ConcurrentMap<String,AtomicReferenceArray<OperationStats>> topics = new ConcurrentHashMap<String,AtomicReferenceArray<OperationStats>>();
+    private volatile String                            name;
+
+    /**
+     * Create new, empty metrics.
+     *
+     * @param maxTopics maximum number of topics to track individually
+     */
+    public ClientMetrics(int maxTopics) {
+	this.maxTopics = maxTopics;
+	for (Operation operation : OPERATIONS) totals[operation.ordinal()] = new OperationStats();
+    }
+
+    /**
+     * Create new, empty metrics, tracking up to {@link
+     * #DEFAULT_MAX_TOPICS} topics individually.
+     */
+    public ClientMetrics() {
+	this(DEFAULT_MAX_TOPICS);
+    }
+
+    /**
+     * Statistics for an operation across all topics.
+     *
+     * @param operation the operation
+     * @return the statistics
+     */
+    public OperationStats stats(Operation operation) {
+	return totals[operation.ordinal()];
+    }
+
+    /**
+     * Statistics for an operation within a single topic.
+     *
+     * @param operation the operation
+     * @param topic the topic
+     * @return the statistics, or <code>null</code> if the topic isn't tracked or has seen no such request
+     */
+    public OperationStats stats(Operation operation, String topic) {
+	AtomicReferenceArray<OperationStats> stats = topics.get(topic);
+	return (stats == null) ? null : stats.get(operation.ordinal());
+    }
+
+    /**
+     * The topics tracked individually.
+     *
+     * @return the topics
+     */
+    public Set<String> topics() {
+	return Collections.unmodifiableSet(topics.keySet());
+    }
+
+    /**
+     * Record the start of a request.
+     *
+     * @param operation the kind of request
+     * @param topic the topic of the request, or <code>null</code> for none
+     * @return a token to pass to {@link #finish(Operation, String, long, Throwable)}
+     */
+    public long start(Operation operation, String topic) {
+	totals[operation.ordinal()].started();
+	OperationStats stats = forTopic(operation, topic);
+	if (stats != null) stats.started();
+	return System.nanoTime();
+    }
+
+    /**
+     * Record the end of a request.  Every call to {@link
+     * #start(Operation, String)} must be matched by exactly one call
+     * to this method.
+     *
+     * @param operation the kind of request
+     * @param topic the topic of the request, or <code>null</code> for none
+     * @param start the result of {@link #start(Operation, String)}
+     * @param failure why the request failed, or <code>null</code> if it succeeded
+     */
+    public void finish(Operation operation, String topic, long start, Throwable failure) {
+	long micros = (System.nanoTime() - start) / 1000;
+	finish(totals[operation.ordinal()], micros, failure);
+	OperationStats stats = (topic == null) ? null : stats(operation, topic);
+	if (stats != null) finish(stats, micros, failure);
+    }
+
+    @Override
+    public void requestStarted(RequestContext request) {
+	start(request.operation(), request.topic());
+    }
+
+    @Override
+    public void requestCompleted(RequestContext request) {
+	finish(request.operation(), request.topic(), request.startNanos(), null);
+    }
+
+    @Override
+    public void requestFailed(RequestContext request, Throwable failure) {
+	finish(request.operation(), request.topic(), request.startNanos(), failure);
+    }
+
+    private static void finish(OperationStats stats, long micros, Throwable failure) {
+	if (failure == null) {
+	    stats.succeeded(micros);
+	} else if (isTimeout(failure)) {
+	    stats.timedOut(micros);
+	} else {
+	    stats.failed(micros);
+	}
+    }
+
+    private OperationStats forTopic(Operation operation, String topic) {
+	if (topic == null) return null;
+	AtomicReferenceArray<OperationStats> stats = topics.get(topic);
+	if (stats == null) {
+	    if (topics.size() >= maxTopics) return null;
+	    AtomicReferenceArray<OperationStats> created  = new AtomicReferenceArray<OperationStats>(OPERATIONS.length);
+	    AtomicReferenceArray<OperationStats> existing = topics.putIfAbsent(topic, created);
+	    stats = (existing == null) ? created : existing;
+	}
+	OperationStats found = stats.get(operation.ordinal());
+	if (found != null) return found;
+	OperationStats created = new OperationStats();
+	if (!stats.compareAndSet(operation.ordinal(), null, created)) return stats.get(operation.ordinal());
+	String registered = name;
+	if (registered != null) register(objectName(registered, operation, topic), created);
+	return created;
+    }
+
+    /**
+     * Whether a failure, or anything that caused it, was a timeout.
+     */
+    static boolean isTimeout(Throwable failure) {
+	for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+	    if (cause instanceof TimeoutException) return true;
+	    if (cause instanceof InterruptedIOException && cause.getClass().getSimpleName().endsWith("TimeoutException")) return true;
+	}
+	return false;
+    }
+
+  //----------------------------------------------------------------------------
+  // JMX
+  //----------------------------------------------------------------------------
+
+    /**
+     * Publish every {@link OperationStats} as an MXBean in the
+     * platform MBean server, named for example
+     *
+     * <blockquote><pre>{@code
+     * com.infochimps.vayacondios:type=ClientMetrics,client="website",operation=EVENTS
+     * com.infochimps.vayacondios:type=ClientMetrics,client="website",operation=EVENTS,topic="intrusions"
+     * }</pre></blockquote>
+     *
+     * Topics seen later are published as they appear.  Failures to
+     * register are logged rather than thrown.
+     *
+     * @param name distinguishes this client's MXBeans from those of others in the same JVM
+     */
+    public synchronized void register(String name) {
+	if (this.name != null) unregister();
+	this.name = name;
+	for (Operation operation : OPERATIONS) register(objectName(name, operation, null), totals[operation.ordinal()]);
+	for (Map.Entry<String,AtomicReferenceArray<OperationStats>> entry : topics.entrySet()) register(name, entry.getKey(), entry.getValue());
+    }
+
+    /**
+     * Remove every MXBean published by {@link #register(String)}.
+     */
+    public synchronized void unregister() {
+	String registered = name;
+	if (registered == null) return;
+	name = null;
+	MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+	try {
+	    for (ObjectName bean : server.queryNames(new ObjectName(DOMAIN + ":type=ClientMetrics,client=" + ObjectName.quote(registered) + ",*"), null)) {
+		server.unregisterMBean(bean);
+	    }
+	} catch (JMException e) {
+	    LOG.warn("Unregistering metrics for <" + registered + ">", e);
+	}
+    }
+
+    private void register(String name, String topic, AtomicReferenceArray<OperationStats> stats) {
+	for (Operation operation : OPERATIONS) {
+	    OperationStats found = stats.get(operation.ordinal());
+	    if (found != null) register(objectName(name, operation, topic), found);
+	}
+    }
+
+    private static void register(ObjectName bean, OperationStats stats) {
+	if (bean == null) return;
+	try {
+	    ManagementFactory.getPlatformMBeanServer().registerMBean(stats, bean);
+	} catch (JMException e) {
+	    LOG.warn("Registering " + bean, e);
+	}
+    }
+
+    private static ObjectName objectName(String name, Operation operation, String topic) {
+	String bean = DOMAIN + ":type=ClientMetrics,client=" + ObjectName.quote(name) + ",operation=" + operation;
+	if (topic != null) bean += ",topic=" + ObjectName.quote(topic);
+	try {
+	    return new ObjectName(bean);
+	} catch (JMException e) {
+	    LOG.warn("Naming metrics " + bean, e);
+	    return null;
+	}
+    }
+}
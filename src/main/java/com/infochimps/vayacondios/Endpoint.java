@@ -0,0 +1,122 @@
+package com.infochimps.vayacondios;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** One of the Vayacondios servers an {@link HTTPClient} sends
+ * requests to.
+ * <p>
+ * Tracks what the client needs to spread requests across servers:
+ * how many requests are outstanding on the server, whether its last
+ * health check passed, and the {@link CircuitBreaker} guarding it.
+ *
+ * @see LoadBalancing
+ */
+public class Endpoint {
+
+    private final String         _host;
+    private final int            _port;
+    private final String         base;
+    private final CircuitBreaker breaker;
+    private final AtomicInteger  outstanding = new AtomicInteger();
+    private volatile boolean     healthy     = true;
+
+    Endpoint(String host, int port, CircuitBreaker breaker) {
+	this._host   = host;
+	this._port   = port;
+	this.base    = "http://" + ((host.indexOf(':') >= 0) ? "[" + host + "]" : host) + ":" + port;
+	this.breaker = breaker;
+    }
+
+    /**
+     * Parse an endpoint written as <code>host</code>,
+     * <code>host:port</code>, or <code>[IPv6 address]:port</code>.
+     *
+     * @param endpoint the endpoint
+     * @param defaultPort the port if none is given
+     * @param breaker the endpoint's circuit breaker or <code>null</code>
+     */
+    static Endpoint parse(String endpoint, int defaultPort, CircuitBreaker breaker) {
+	String host = endpoint.trim();
+	int    port = defaultPort;
+	int    colon = host.lastIndexOf(':');
+	if (host.startsWith("[")) {
+	    int bracket = host.indexOf(']');
+	    if (bracket < 0) throw new IllegalArgumentException("Invalid endpoint: " + endpoint);
+	    if (colon > bracket) port = Integer.parseInt(host.substring(colon + 1));
+	    host = host.substring(1, bracket);
+	} else if (colon >= 0 && colon == host.indexOf(':')) {
+	    port = Integer.parseInt(host.substring(colon + 1));
+	    host = host.substring(0, colon);
+	}
+	return new Endpoint(host, port, breaker);
+    }
+
+    /**
+     * Host of the server.
+     *
+     * @return the hostname
+     */
+    public String host() { return _host; }
+
+    /**
+     * Port of the server.
+     *
+     * @return the port number
+     */
+    public int port() { return _port; }
+
+    /**
+     * Number of requests sent to the server which it hasn't yet
+     * answered.
+     *
+     * @return the number of requests
+     */
+    public int outstanding() { return outstanding.get(); }
+
+    /**
+     * Whether the server passed its last health check.  Servers are
+     * presumed healthy until checked.
+     *
+     * @return whether the server is healthy
+     */
+    public boolean isHealthy() { return healthy; }
+
+    /**
+     * The circuit breaker guarding the server, if any.
+     *
+     * @return the breaker or <code>null</code>
+     */
+    public CircuitBreaker circuitBreaker() { return breaker; }
+
+    /**
+     * Whether requests should be sent to the server: it is healthy
+     * and its circuit breaker would let them through.
+     *
+     * @return whether the server is available
+     */
+    public boolean isAvailable() {
+	return healthy && (breaker == null || breaker.allowsRequests());
+    }
+
+    @Override
+    public String toString() {
+	return base;
+    }
+
+    /** The URL of a path on this server. */
+    String url(String path) {
+	return base + path;
+    }
+
+    void healthy(boolean healthy) {
+	this.healthy = healthy;
+    }
+
+    void sending() {
+	outstanding.incrementAndGet();
+    }
+
+    void answered() {
+	outstanding.decrementAndGet();
+    }
+}
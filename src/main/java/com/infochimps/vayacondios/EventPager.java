@@ -0,0 +1,203 @@
+package com.infochimps.vayacondios;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+
+/** Walks every event matching a query, oldest first, a page at a
+ * time, fetching the next page while the caller works through the
+ * current one.
+ * <p>
+ * The server returns at most a page of events per search (50 unless
+ * a <code>limit</code> is given), so scanning a long time range
+ * means searching again and again, each search picking up where the
+ * last left off.  A pager does this itself, using the time of the
+ * last event of each page as the cursor for the next, and sends each
+ * search as soon as the previous page arrives so that a long scan is
+ * limited by bandwidth rather than by round trips:
+ *
+ * <blockquote><pre>{@code
+ * Map query = new HashMap();
+ * query.put("from", "2013-06-20T00:00:00Z");
+ * query.put("upto", "2013-06-21T00:00:00Z");
+ * EventPager events = client.eventsPager("intrusions", query, 1000);
+ * try {
+ *   while (events.hasNext()) {
+ *     Map<String,Object> event = events.next();
+ *     // do stuff...
+ *   }
+ * } finally {
+ *   events.close();
+ * }
+ * }</pre></blockquote>
+ *
+ * The query is interpreted as by {@link VayacondiosClient#events(String,
+ * Map)}, except that its <code>limit</code>, <code>sort</code>, and
+ * <code>order</code> are replaced: events come back in ascending
+ * order of time.  Events sharing a timestamp across a page boundary
+ * are neither skipped nor repeated.  Paging needs each event's
+ * <code>time</code> and <code>id</code>, so a query asking for only
+ * some <code>fields</code> gets those two as well.
+ * <p>
+ * A search which fails is thrown from {@link #hasNext()}, wrapped in
+ * an <code>UncheckedIOException</code> if it failed to be sent or
+ * answered.
+ */
+public class EventPager implements Iterator<Map<String,Object>>, Closeable {
+
+    /** Default number of events fetched per search. */
+    public static int DEFAULT_PAGE_SIZE = 500;
+
+    private final Function<Map<String,Object>,CompletableFuture<List<Map<String,Object>>>> search;
+    private final Map<String,Object> query;
+    private final int                pageSize;
+    private List<Map<String,Object>> page  = Collections.emptyList();
+    private int                      index = 0;
+    private CompletableFuture<List<Map<String,Object>>> next;
+    private int                      limit;
+    private String                   boundary;
+    private final Set<Object>        seen = new HashSet<Object>();
+    private long                     pages;
+
+    /**
+     * @param search sends a search with the given query
+     * @param query the query events must match
+     * @param pageSize number of events fetched per search
+     */
+    EventPager(Function<Map<String,Object>,CompletableFuture<List<Map<String,Object>>>> search, Map<String,Object> query, int pageSize) {
+	if (pageSize < 1) throw new IllegalArgumentException("Pages must hold at least one event: " + pageSize);
+	this.search   = search;
+	this.query    = (query == null) ? new HashMap<String,Object>() : new HashMap<String,Object>(query);
+	this.pageSize = pageSize;
+	this.limit    = pageSize;
+	this.query.remove("limit");
+	this.query.remove("sort");
+	this.query.remove("order");
+	Object fields = this.query.get("fields");
+	if (fields != null) {
+	    Set<Object> projected = new LinkedHashSet<Object>((fields instanceof Collection) ? (Collection<?>) fields : Collections.singletonList(fields));
+	    projected.add("time");
+	    projected.add("id");
+	    this.query.put("fields", new ArrayList<Object>(projected));
+	}
+	this.next     = fetch();
+    }
+
+    /**
+     * Whether there is another event, waiting for the next page to
+     * arrive if the current one is used up.
+     *
+     * @return whether there is another event
+     */
+    @Override
+    public boolean hasNext() {
+	while (index >= page.size()) {
+	    if (next == null) return false;
+	    List<Map<String,Object>> fetched;
+	    try {
+		fetched = next.join();
+	    } catch (CompletionException e) {
+		next = null;
+		Throwable cause = (e.getCause() == null) ? e : e.getCause();
+		if (cause instanceof IOException) throw new UncheckedIOException((IOException) cause);
+		if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+		throw e;
+	    }
+	    pages += 1;
+	    page  = turn((fetched == null) ? Collections.<Map<String,Object>>emptyList() : fetched);
+	    index = 0;
+	}
+	return true;
+    }
+
+    @Override
+    public Map<String,Object> next() {
+	if (!hasNext()) throw new NoSuchElementException();
+	return page.get(index++);
+    }
+
+    /**
+     * Number of pages fetched so far.
+     *
+     * @return the number of pages
+     */
+    public long pages() { return pages; }
+
+    /**
+     * Stop paging, abandoning any search still in flight.
+     */
+    @Override
+    public void close() {
+	if (next != null) next.cancel(false);
+	next  = null;
+	page  = Collections.emptyList();
+	index = 0;
+    }
+
+    /**
+     * Move the cursor past a page which just arrived, sending the
+     * search for the next page if there may be one, and return the
+     * page's events which haven't been seen on an earlier page.
+     */
+    private List<Map<String,Object>> turn(List<Map<String,Object>> fetched) {
+	List<Map<String,Object>> fresh = fetched;
+	if (boundary != null) {
+	    fresh = new ArrayList<Map<String,Object>>(fetched.size());
+	    for (Map<String,Object> event : fetched) {
+		if (boundary.equals(time(event)) && seen.contains(event.get("id"))) continue;
+		fresh.add(event);
+	    }
+	}
+	String last = fetched.isEmpty() ? null : time(fetched.get(fetched.size() - 1));
+	if (fetched.size() < limit || last == null) {
+	    next = null;
+	    return fresh;
+	}
+	if (!last.equals(boundary)) {
+	    boundary = last;
+	    seen.clear();
+	}
+	boolean tied = true;
+	for (Map<String,Object> event : fetched) {
+	    if (!last.equals(time(event))) {
+		tied = false;
+		continue;
+	    }
+	    seen.add(event.get("id"));
+	}
+	// a page of nothing but one timestamp: ask for more at once
+	// so the next page gets past it
+	limit = tied ? 2 * limit : pageSize;
+	query.remove("after");
+	query.put("from", boundary);
+	next = fetch();
+	return fresh;
+    }
+
+    private CompletableFuture<List<Map<String,Object>>> fetch() {
+	Map<String,Object> search = new HashMap<String,Object>(query);
+	search.put("limit", limit);
+	search.put("sort",  "time");
+	search.put("order", "asc");
+	return this.search.apply(search);
+    }
+
+    private static String time(Map<String,Object> event) {
+	Object time = event.get("time");
+	return (time == null) ? null : time.toString();
+    }
+}
@@ -0,0 +1,311 @@
+package com.infochimps.vayacondios;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.Gson;
+import com.ning.http.client.AsyncHandler;
+import com.ning.http.client.HttpResponseBodyPart;
+import com.ning.http.client.HttpResponseHeaders;
+import com.ning.http.client.HttpResponseStatus;
+
+/** A live subscription to the events announced on a topic.
+ * <p>
+ * The server pushes each new event down a single long-lived response
+ * as a line of JSON.  Lines are parsed as they arrive and delivered
+ * either to a {@link Listener} or, when no listener is given, through
+ * this stream's blocking {@link Iterator} interface:
+ *
+ * <blockquote><pre>{@code
+ * EventStream stream = client.stream("intrusions", new HashMap());
+ * while (stream.hasNext()) {
+ *   Map<String,Object> event = stream.next();
+ *   // do stuff...
+ * }
+ * }</pre></blockquote>
+ *
+ * If the connection drops, the stream reconnects on its own, asking
+ * only for events after the time of the last event it delivered.
+ * Events which share a timestamp with that last event may be missed
+ * across a reconnect.  A stream the server refuses with a 4xx status
+ * is closed rather than retried.
+ * <p>
+ * An iterator which falls behind doesn't hold up the HTTP client's
+ * IO thread: once 10000 events are waiting to be read, the stream
+ * disconnects, and reconnects from the last event queued once half
+ * of them have been read.
+ * <p>
+ * Obtain streams from {@link HTTPClient#stream(String, Map)} or
+ * {@link HTTPClient#stream(String, Map, EventStream.Listener)}.
+ */
+public class EventStream implements Iterator<Map<String,Object>>, Closeable {
+
+    /** Receives each event as it arrives.
+     * <p>
+     * Listeners are called on the HTTP client's IO thread and should
+     * return quickly.
+     */
+    public interface Listener {
+	void onEvent(Map<String,Object> event);
+    }
+
+    /** Opens the underlying HTTP request for a stream. */
+    interface Connector {
+	Future connect(Map<String,Object> query, AsyncHandler handler) throws IOException;
+    }
+
+    private static Logger LOG = LoggerFactory.getLogger(EventStream.class);
+
+    private static final Map<String,Object> CLOSED      = new HashMap<String,Object>();
+    private static final long               MIN_BACKOFF = 100;
+    private static final long               MAX_BACKOFF = 30000;
+    private static final int                CAPACITY    = 10000;
+
+    private final String                           topic;
+    private final Map<String,Object>               query;
+    private final Connector                        connector;
+    private final Gson                             serializer;
+    private final ScheduledExecutorService         scheduler;
+    private final Listener                         listener;
+    private final BlockingQueue<Map<String,Object>> events;
+
+    private volatile boolean  closed  = false;
+    private volatile boolean  paused  = false;
+    private volatile Future   request;
+    private volatile Handler  handler;
+    private volatile Object   lastTime;
+    private volatile long     backoff = MIN_BACKOFF;
+    private Map<String,Object> peeked;
+
+    EventStream(String topic, Map<String,Object> query, Connector connector, Gson serializer, ScheduledExecutorService scheduler, Listener listener) {
+	this.topic      = topic;
+	this.query      = (query == null) ? new HashMap<String,Object>() : new HashMap<String,Object>(query);
+	this.connector  = connector;
+	this.serializer = serializer;
+	this.scheduler  = scheduler;
+	this.listener   = listener;
+	this.events     = (listener == null) ? new LinkedBlockingQueue<Map<String,Object>>(CAPACITY) : null;
+    }
+
+    /**
+     * Open the first connection.
+     */
+    void start() {
+	connect();
+    }
+
+    /**
+     * The topic this stream is subscribed to.
+     *
+     * @return the topic
+     */
+    public String topic() { return topic; }
+
+    /**
+     * Block until the next event arrives or the stream is closed.
+     *
+     * @return whether there is another event
+     */
+    @Override
+    public boolean hasNext() {
+	if (events == null) throw new IllegalStateException("Events from this stream are delivered to its listener");
+	if (peeked == null) {
+	    try {
+		peeked = events.take();
+	    } catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+		return false;
+	    }
+	    if (paused && events.size() <= CAPACITY / 2) resume();
+	}
+	if (peeked == CLOSED) {
+	    events.offer(CLOSED);
+	    return false;
+	}
+	return true;
+    }
+
+    /**
+     * Block until the next event arrives.
+     *
+     * @return the event
+     * @throws NoSuchElementException if the stream has been closed
+     */
+    @Override
+    public Map<String,Object> next() {
+	if (!hasNext()) throw new NoSuchElementException("Stream <" + topic + "> is closed");
+	Map<String,Object> event = peeked;
+	peeked = null;
+	return event;
+    }
+
+    @Override
+    public void remove() {
+	throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Stop streaming.  Blocked iterators return.
+     */
+    @Override
+    public void close() {
+	closed = true;
+	Future current = request;
+	if (current != null) current.cancel(true);
+	if (events != null) {
+	    events.clear();
+	    events.offer(CLOSED);
+	}
+    }
+
+    private synchronized void connect() {
+	if (closed || paused) return;
+	Map<String,Object> resumed = new HashMap<String,Object>(query);
+	if (lastTime != null) {
+	    resumed.remove("from");
+	    resumed.put("after", lastTime);
+	}
+	handler = new Handler();
+	try {
+	    request = connector.connect(resumed, handler);
+	} catch (IOException e) {
+	    reconnect(e);
+	}
+    }
+
+    /**
+     * Reconnect once the iterator has caught up.
+     */
+    private synchronized void resume() {
+	if (!paused) return;
+	paused = false;
+	LOG.debug("Stream <" + topic + "> caught up, reconnecting");
+	connect();
+    }
+
+    /**
+     * A connection has ended, so open another, unless it was
+     * superseded, or the stream is closed or waiting for its iterator
+     * to catch up.
+     */
+    private synchronized void disconnected(Handler ended, Throwable cause) {
+	if (ended != handler || paused) return;
+	reconnect(cause);
+    }
+
+    private void reconnect(Throwable cause) {
+	if (closed) return;
+	LOG.debug("Stream <" + topic + "> disconnected, reconnecting in " + backoff + "ms", cause);
+	try {
+	    scheduler.schedule(new Runnable() {
+		    public void run() {
+			connect();
+		    }
+		}, backoff, TimeUnit.MILLISECONDS);
+	} catch (RejectedExecutionException e) {
+	    close();
+	}
+	backoff = Math.min(backoff * 2, MAX_BACKOFF);
+    }
+
+    /**
+     * Hand an event to the listener or queue it for the iterator.
+     *
+     * @return whether it was delivered, or the queue was full
+     */
+    private boolean deliver(byte[] line, int length) {
+	if (length == 0) return true;
+	Map<String,Object> event = serializer.fromJson(new String(line, 0, length, HTTPClient.UTF8), Map.class);
+	if (event == null) return true;
+	if (listener != null) {
+	    listener.onEvent(event);
+	} else if (!events.offer(event)) {
+	    // never block the IO thread: stop reading, and resume
+	    // after the last event queued once the iterator catches up
+	    synchronized (this) {
+		paused = true;
+		if (events.size() <= CAPACITY / 2) resume();
+	    }
+	    LOG.warn("Stream <" + topic + "> is " + CAPACITY + " events behind, disconnecting until they are read");
+	    return false;
+	}
+	if (event.containsKey("time")) lastTime = event.get("time");
+	backoff = MIN_BACKOFF;
+	return true;
+    }
+
+    /** Splits the chunked response body into lines as it arrives. */
+    class Handler implements AsyncHandler<Object> {
+
+	private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+
+	@Override
+	public STATE onStatusReceived(HttpResponseStatus status) {
+	    return status(status.getStatusCode());
+	}
+
+	@Override
+	public STATE onHeadersReceived(HttpResponseHeaders headers) {
+	    return closed ? STATE.ABORT : STATE.CONTINUE;
+	}
+
+	@Override
+	public STATE onBodyPartReceived(HttpResponseBodyPart part) throws Exception {
+	    return received(part.getBodyPartBytes());
+	}
+
+	STATE status(int code) {
+	    if (code >= 400 && code < 500) {
+		// asking again won't help
+		LOG.error("Stream <" + topic + "> refused with status " + code + ", closing it");
+		close();
+		return STATE.ABORT;
+	    }
+	    if (code >= 300) {
+		LOG.error("Stream <" + topic + "> refused with status " + code);
+		return STATE.ABORT;
+	    }
+	    return closed ? STATE.ABORT : STATE.CONTINUE;
+	}
+
+	STATE received(byte[] bytes) {
+	    if (closed) return STATE.ABORT;
+	    int start = 0;
+	    for (int i = 0; i < bytes.length; i++) {
+		if (bytes[i] != '\n') continue;
+		pending.write(bytes, start, i - start);
+		boolean delivered = deliver(pending.toByteArray(), pending.size());
+		pending.reset();
+		if (!delivered) return STATE.ABORT;
+		start = i + 1;
+	    }
+	    pending.write(bytes, start, bytes.length - start);
+	    return STATE.CONTINUE;
+	}
+
+	@Override
+	public Object onCompleted() {
+	    disconnected(this, null);
+	    return null;
+	}
+
+	@Override
+	public void onThrowable(Throwable t) {
+	    disconnected(this, t);
+	}
+    }
+}
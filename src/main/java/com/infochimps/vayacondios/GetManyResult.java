@@ -0,0 +1,78 @@
+package com.infochimps.vayacondios;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/** What came back from fetching many values from one stash at once.
+ * <p>
+ * Each ID asked for is in exactly one of {@link #values()}, {@link
+ * #missing()}, or {@link #errors()}: a value was found for it, the
+ * stash has no value for it, or fetching it failed.
+ *
+ * <blockquote><pre>{@code
+ * GetManyResult screens = client.getMany("screens", ids);
+ * for (String id : ids) {
+ *   Map<String,Object> screen = screens.get(id);
+ *   // ...
+ * }
+ * if (!screens.errors().isEmpty()) {
+ *   // retry, or show what couldn't be loaded
+ * }
+ * }</pre></blockquote>
+ *
+ * @see VayacondiosClient#getMany(String, java.util.Collection)
+ */
+public class GetManyResult {
+
+    private final Map<String,Map<String,Object>> values;
+    private final Set<String>                    missing;
+    private final Map<String,Throwable>          errors;
+
+    GetManyResult(Map<String,Map<String,Object>> values, Set<String> missing, Map<String,Throwable> errors) {
+	this.values  = Collections.unmodifiableMap(values);
+	this.missing = Collections.unmodifiableSet(missing);
+	this.errors  = Collections.unmodifiableMap(errors);
+    }
+
+    /**
+     * The values found, by ID.
+     *
+     * @return the values
+     */
+    public Map<String,Map<String,Object>> values() { return values; }
+
+    /**
+     * The IDs the stash has no value for.
+     *
+     * @return the missing IDs
+     */
+    public Set<String> missing() { return missing; }
+
+    /**
+     * Why fetching each ID which failed, failed.
+     *
+     * @return the failures, by ID
+     */
+    public Map<String,Throwable> errors() { return errors; }
+
+    /**
+     * The value found for an ID.
+     *
+     * @param id the ID
+     * @return the value, or <code>null</code> if none was found
+     */
+    public Map<String,Object> get(String id) { return values.get(id); }
+
+    /**
+     * Whether every ID was either found or is known to be missing.
+     *
+     * @return whether nothing failed
+     */
+    public boolean complete() { return errors.isEmpty(); }
+
+    @Override
+    public String toString() {
+	return "GetManyResult(" + values.size() + " found, " + missing.size() + " missing, " + errors.size() + " failed)";
+    }
+}
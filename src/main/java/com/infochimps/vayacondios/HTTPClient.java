@@ -2,12 +2,16 @@ package com.infochimps.vayacondios;
 
 import java.util.Map;
 import java.util.List;
-import java.util.Arrays;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
-import java.net.URISyntaxException;
+import java.nio.charset.Charset;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.ArrayUtils;
@@ -17,19 +21,39 @@ import org.slf4j.LoggerFactory;
 
 import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpResponseException;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.impl.client.BasicResponseHandler;
+import org.apache.http.util.EntityUtils;
 
+import com.ning.http.client.AsyncHandler;
 import com.ning.http.client.AsyncHttpClient;
 import com.ning.http.client.AsyncCompletionHandler;
+import com.ning.http.client.ListenableFuture;
+import com.ning.http.client.PerRequestConfig;
 import com.ning.http.client.Response;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
 /** A Vayacondios client which communicates with the Vayacondios
  * server via HTTP requests.
@@ -55,6 +79,13 @@ import com.google.gson.JsonParseException;
  *   <li>get, getMap, getList, getString, getDouble</li>
  * </ul>
  *
+ * Each of these reads also has a non-blocking counterpart from
+ * {@link AsyncVayacondiosClient} (e.g. - <code>eventsAsync</code>)
+ * which is sent with the asynchronous client and returns a
+ * <code>CompletableFuture</code>.  Responses are parsed on a small
+ * pool of parser threads rather than on the asynchronous client's IO
+ * threads.
+ *
  * Each Vayacondios HTTPClient instance exposes two HTTP client objects:
  * 
  * <ul>
@@ -64,6 +95,14 @@ import com.google.gson.JsonParseException;
  *
  * You can use these objects directly to do make raw HTTP requests
  * against the Vayacondios server in whichever mode you prefer.
+ *
+ * Additional behavior, such as batching announcements, caching stash
+ * reads, or spooling writes to disk while the server is unreachable,
+ * can be turned on by passing {@link HTTPClientOptions} when creating
+ * the client.
+ *
+ * Clients for many organizations can share their HTTP clients and
+ * threads by being created with an {@link HTTPClientFactory}.
  * 
  */
 public class HTTPClient extends BaseClient {
@@ -72,8 +111,7 @@ public class HTTPClient extends BaseClient {
 	
 	public final static String METHOD_NAME = "GET";
 
-	HttpGetWithBody(String uri, String body) throws URISyntaxException, UnsupportedEncodingException {
-	    setURI(new URI(uri));
+	HttpGetWithBody(String body) throws UnsupportedEncodingException {
 	    setEntity(new StringEntity(body));
 	}
 	
@@ -83,11 +121,150 @@ public class HTTPClient extends BaseClient {
 	}
     }
 
+    /** Tracks a write from the moment it is made until the server
+     * responds: retries it if it failed transiently, spools it if
+     * that failed too, then releases its body and its slot, and
+     * completes its request.  Each attempt gets a handler of its
+     * own. */
     private class AsyncResponseHandler extends AsyncCompletionHandler {
+
+	private final RequestContext   request;
+	private final AtomicBoolean    done;
+	private final CompletableFuture<Void> outcome;
+	private final AtomicBoolean    answered = new AtomicBoolean();
+	private final int              attempt;
+	private BufferPool.Buffer      body;
+	private BufferPool.Buffer      raw;
+	private boolean                gzipped;
+	private boolean                spooled;
+	private String                 method;
+	private String                 path;
+	private String                 relative;
+	private WriteLimiter.Slot      slot;
+	private Endpoint               endpoint;
+	private Endpoint               avoid;
+
+	AsyncResponseHandler(RequestContext request, BufferPool.Buffer body) {
+	    this.request = request;
+	    this.body    = body;
+	    this.done    = new AtomicBoolean();
+	    this.outcome = new CompletableFuture<Void>();
+	    this.attempt = 1;
+	}
+
+	/** The handler for the next attempt at the same write. */
+	AsyncResponseHandler(AsyncResponseHandler previous) {
+	    this.request = previous.request;
+	    this.body    = previous.body;
+	    this.raw     = previous.raw;
+	    this.gzipped = previous.gzipped;
+	    this.method  = previous.method;
+	    this.path    = previous.path;
+	    this.relative = previous.relative;
+	    this.slot    = previous.slot;
+	    this.avoid   = previous.endpoint;
+	    this.done    = previous.done;
+	    this.outcome = previous.outcome;
+	    this.attempt = previous.attempt + 1;
+	}
+	
 	@Override
 	public Response onCompleted(Response response) throws Exception {
+	    if (request != null) request.received(response.getStatusCode(), contentLength(response));
+	    Throwable failure = (response.getStatusCode() >= 400) ? new HttpResponseException(response.getStatusCode(), response.getStatusText()) : null;
+	    if (answered(failure) && !retried(failure)) finished(failure);
 	    return response;
 	}
+
+	@Override
+	public void onThrowable(Throwable t) {
+	    if (!answered(t)) return;
+	    if (t instanceof CancellationException) {
+		finished(t);
+		return;
+	    }
+	    if (retried(t)) return;
+	    finished(t);
+	    LOG.error("Asynchronous request failed", t);
+	}
+
+	/**
+	 * Record the outcome of this attempt against the server it was
+	 * sent to, once.
+	 *
+	 * @return whether this was the attempt's first outcome
+	 */
+	boolean answered(Throwable failure) {
+	    if (!answered.compareAndSet(false, true)) return false;
+	    if (endpoint == null) return true;
+	    endpoint.answered();
+	    if (!(failure instanceof CancellationException)) attempted(endpoint, failure);
+	    return true;
+	}
+
+	/**
+	 * Schedule another attempt, if the failure and the write retry
+	 * policy allow.
+	 */
+	private boolean retried(Throwable failure) {
+	    if (failure == null || done.get() || attempt >= writeRetries.maxAttempts() || !writeRetries.retries(failure)) return false;
+	    final AsyncResponseHandler next = new AsyncResponseHandler(this);
+	    try {
+		scheduler.schedule(new Runnable() {
+			public void run() {
+			    resend(next);
+			}
+		    }, writeRetries.delay(attempt), TimeUnit.MILLISECONDS);
+	    } catch (RejectedExecutionException e) {
+		return false;
+	    }
+	    return true;
+	}
+
+	void finished(Throwable failure) {
+	    if (!done.compareAndSet(false, true)) return;
+	    if (failure != null && spool(failure)) failure = null;
+	    if (slot != null) limiter.release(slot);
+	    if (body != null) body.release();
+	    if (raw != null) raw.release();
+	    if (request != null) {
+		if (failure == null) {
+		    request.completed();
+		} else {
+		    request.failed(failure);
+		}
+	    }
+	    if (failure == null) {
+		outcome.complete(null);
+	    } else {
+		outcome.completeExceptionally(failure);
+	    }
+	}
+
+	/**
+	 * Spool a write which couldn't reach the server, so that it is
+	 * replayed once the server is back rather than lost.
+	 *
+	 * @return whether the write was spooled
+	 */
+	private boolean spool(Throwable failure) {
+	    if (spool == null || relative == null || failure instanceof CancellationException) return false;
+	    if (!(failure instanceof CircuitOpenException) && !RetryPolicy.isTransient(failure)) return false;
+	    BufferPool.Buffer unzipped = gzipped ? raw : body;
+	    try {
+		if (unzipped == null) {
+		    spool.append(method, relative, null);
+		} else {
+		    spool.append(method, relative, unzipped.bytes(), unzipped.length());
+		}
+	    } catch (IOException e) {
+		LOG.error("Could not spool " + method + " <" + relative + "> after it failed with " + failure, e);
+		return false;
+	    }
+	    LOG.debug("Spooled " + method + " <" + relative + "> after it failed with " + failure);
+	    spooled = true;
+	    return true;
+	}
     }
     
     //----------------------------------------------------------------------------
@@ -96,19 +273,152 @@ public class HTTPClient extends BaseClient {
 
     private static Logger LOG = LoggerFactory.getLogger(HTTPClient.class);
     
+    static final Charset UTF8 = Charset.forName("UTF-8");
+    
     /** Default Vayacondios server host. */
     public static String  DEFAULT_HOST = "localhost";
     
     /** Default Vayacondios server port. */
     public static Integer DEFAULT_PORT = 9000;
-    
-    private String     _host;
-    private Integer    _port;
+
+    private HTTPTransport     transport;
+    private HTTPClientFactory factory;
+    private Endpoint[]    endpoints;
+    private LoadBalancing balancing;
+    private String        prefix;
 
     private DefaultHttpClient sync;
     private AsyncHttpClient   async;
     private Gson              serializer;
+    private AnnounceBatcher   batcher;
+    private WriteCoalescer    coalescer;
+    private BufferPool        buffers;
+    private int               compressionThreshold;
+    private WriteLimiter      limiter;
+    private WriteSpool        spool;
+    private RetryPolicy       readRetries;
+    private RetryPolicy       writeRetries;
+    private ExecutorService   parser;
+    private ScheduledExecutorService scheduler;
+    private ConcurrentMap<Class<?>,TypeAdapter<?>> adapters;
+    private long              closeTimeout;
+    private MetricsReporter   reporter;
+    private Future<?>         reporting;
+
+    private static final AtomicInteger CLIENTS = new AtomicInteger();
     
+    /**
+     * Create a new HTTPClient which spreads its requests across
+     * several Vayacondios servers sharing the same database.
+     *
+     * <blockquote><pre>{@code
+     * HTTPClientOptions options = new HTTPClientOptions().loadBalancing(LoadBalancing.POWER_OF_TWO_CHOICES);
+     * VayacondiosClient client = new HTTPClient(Arrays.asList("vcd1.example.com:9000", "vcd2.example.com:9000"), "website", false, options);
+     * }</pre></blockquote>
+     *
+     * Each server is health-checked in the background (see {@link
+     * HTTPClientOptions#healthCheckInterval(long)}) and has a circuit
+     * breaker of its own.  Reads which fail transiently are retried
+     * on another server.
+     *
+     * @param endpoints each server as <code>host</code> or <code>host:port</code>
+     * @param organization name of the organization to read/write data for
+     * @param shouldDryRun whether or not to be in "dry-run" mode
+     * @param options tuning options for the client
+     * @see LoadBalancing
+     */
+    public HTTPClient(List<String> endpoints, String organization, Boolean shouldDryRun, HTTPClientOptions options) {
+	this(new HTTPTransport(endpoints, options), null, organization, shouldDryRun, options);
+    }
+
+    /**
+     * Create a new HTTPClient on the given transport.  Unless the
+     * client was created by a <code>factory</code>, it owns the
+     * transport and closes it when closed.
+     */
+    HTTPClient(HTTPTransport transport, HTTPClientFactory factory, String organization, Boolean shouldDryRun, HTTPClientOptions options) {
+	super(organization, shouldDryRun);
+	this.transport    = transport;
+	this.factory      = factory;
+	this.prefix       = "/" + BaseClient.VERSION + "/" + organization;
+	this.endpoints    = transport.endpoints;
+	this.balancing    = transport.balancing;
+	this.sync         = transport.sync;
+	this.async        = transport.async;
+	this.serializer   = transport.serializer;
+	this.adapters     = transport.adapters;
+	this.parser       = transport.parser;
+	this.scheduler    = transport.scheduler;
+	this.buffers      = transport.buffers;
+	this.compressionThreshold = transport.compressionThreshold;
+	this.limiter      = transport.limiter;
+	this.readRetries  = transport.readRetries;
+	this.writeRetries = transport.writeRetries;
+	this.closeTimeout = transport.closeTimeout;
+	if (options.spoolDirectory() != null && !shouldDryRun) {
+	    // clients sharing a transport each spool to a directory of
+	    // their own; dry-run clients send nothing, so need none
+	    File directory = (factory == null) ? options.spoolDirectory() : new File(options.spoolDirectory(), organization);
+	    try {
+		this.spool = new WriteSpool(directory, options.spoolSegmentSize(), options.spoolMaxBytes(), new WriteSpool.Sender() {
+			public CompletableFuture<Void> send(WriteSpool.Record record) {
+			    return replay(record);
+			}
+		    });
+	    } catch (IOException e) {
+		throw new IllegalStateException("Could not open spool in " + directory, e);
+	    }
+	}
+	if (options.stashCacheSize() > 0) {
+	    StashCache cache = new StashCache(options.stashCacheSize(), options.stashCacheTtl());
+	    for (Map.Entry<String,Long> ttl : options.stashCacheTtls().entrySet()) cache.ttl(ttl.getKey(), ttl.getValue());
+	    cache(cache);
+	}
+	if (options.recordMetrics() || options.registerMBeans() || options.metricsReporter() != null) {
+	    ClientMetrics metrics = new ClientMetrics(options.metricsMaxTopics());
+	    if (options.registerMBeans()) metrics.register(organization + "-" + CLIENTS.incrementAndGet());
+	    metrics(metrics);
+	    this.reporter = options.metricsReporter();
+	    if (reporter != null) {
+		long interval = options.metricsReportInterval();
+		this.reporting = this.scheduler.scheduleAtFixedRate(this::report, interval, interval, TimeUnit.MILLISECONDS);
+	    }
+	}
+	if (options.batchAnnouncements()) {
+	    this.batcher = new AnnounceBatcher(new AnnounceBatcher.Sink() {
+		    public void send(String topic, BufferPool.Buffer body) throws IOException {
+			performAnnounceBatch(topic, body);
+		    }
+		}, buffers, serializer, options.batchSize(), options.batchBytes(), options.batchDelay(), transport.batchTimer());
+	}
+	if (options.coalesceWindow() > 0) {
+	    this.coalescer = new WriteCoalescer(new WriteCoalescer.Sink() {
+		    public CompletableFuture<?> send(String topic, String id, String method, Object value) throws IOException {
+			return performCoalesced(topic, id, method, value);
+		    }
+		}, serializer, options.coalesceWindow(), transport.batchTimer());
+	}
+    }
+
+    /**
+     * Create a new HTTPClient specifying all options, including
+     * tuning options.
+     *
+     * <blockquote><pre>{@code
+     * HTTPClientOptions options = new HTTPClientOptions().batchAnnouncements(true);
+     * VayacondiosClient client = new HTTPClient("example.com", 1234, "website", false, options);
+     * }</pre></blockquote>
+     * 
+     * @param host host of Vayacondios server
+     * @param port port of Vayacondios server
+     * @param organization name of the organization to read/write data for
+     * @param shouldDryRun whether or not to be in "dry-run" mode
+     * @param options tuning options for the client
+     */
+    public HTTPClient(String host, Integer port, String organization, Boolean shouldDryRun, HTTPClientOptions options) {
+	this(Collections.singletonList(((host.indexOf(':') >= 0) ? "[" + host + "]" : host) + ":" + port), organization, shouldDryRun, options);
+    }
+
     /**
      * Create a new HTTPClient specifying all options.
      *
@@ -126,15 +436,7 @@ public class HTTPClient extends BaseClient {
      * @param shouldDryRun whether or not to be in "dry-run" mode
      */
     public HTTPClient(String host, Integer port, String organization, Boolean shouldDryRun) {
-	super(organization, shouldDryRun);
-	this._host       = host;
-	this._port       = port;
-	this.sync        = new DefaultHttpClient();
-	this.async       = new AsyncHttpClient();
-	this.serializer  = new GsonBuilder()
-	    .disableHtmlEscaping()
-	    .serializeNulls()
-	    .create();
+	this(host, port, organization, shouldDryRun, new HTTPClientOptions());
     }
 
     /**
@@ -152,7 +454,7 @@ public class HTTPClient extends BaseClient {
      * @param organization name of the organization to read/write data for
      */
     public HTTPClient(String host, Integer port, String organization) {
-	this(host, DEFAULT_PORT, organization, false);
+	this(host, port, organization, false);
     }
 
     /**
@@ -191,20 +493,28 @@ public class HTTPClient extends BaseClient {
     }
 
     /**
-     * Host of the Vayacondios server this client will send requests
-     * to.
+     * Host of the (first) Vayacondios server this client will send
+     * requests to.
      * 
      * @return the hostname
      */
-    public String  host() { return _host; }
+    public String  host() { return endpoints[0].host(); }
     
     /**
-     * Port of the Vayacondios server this client will send requests
-     * to.
+     * Port of the (first) Vayacondios server this client will send
+     * requests to.
      *
      * @return the port number
      */
-    public Integer port() { return _port; }
+    public Integer port() { return endpoints[0].port(); }
+
+    /**
+     * The Vayacondios servers this client spreads its requests
+     * across.
+     *
+     * @return the servers
+     */
+    public List<Endpoint> endpoints() { return Collections.unmodifiableList(Arrays.asList(endpoints)); }
 
     /**
      * The HTTP client used for making synchronous HTTP requests.
@@ -212,6 +522,12 @@ public class HTTPClient extends BaseClient {
      * Requests made with this client will block until a response
      * comes back from the server.
      * <p>
+     * The client draws its connections from a thread-safe pool (see
+     * {@link HTTPClientOptions#maxConnections(Integer)}) so a single
+     * instance can be shared by many threads.  Be sure to consume or
+     * release each response entity so its connection returns to the
+     * pool.
+     * <p>
      * Here's an example of how to retrieve an event with a a given ID
      * (something that's not wrapped with a method in the {@link
      * VayacondiosClient} class):
@@ -252,38 +568,163 @@ public class HTTPClient extends BaseClient {
      * @return the client
      */
     public AsyncHttpClient asynchronousClient() { return async; }
+
+    /**
+     * Send any announcements still waiting in a batch and any sets
+     * and merges still being coalesced.
+     * <p>
+     * Does nothing unless the client was created with {@link
+     * HTTPClientOptions#batchAnnouncements(Boolean)} or {@link
+     * HTTPClientOptions#coalesceWindow(long)} turned on.
+     */
+    public void flush() {
+	if (batcher != null) batcher.flush();
+	if (coalescer != null) coalescer.flush();
+    }
+    
+    /**
+     * Subscribe to the events announced on a topic, delivering them
+     * through the returned stream's blocking iterator.
+     *
+     * <blockquote><pre>{@code
+     * EventStream stream = client.stream("intrusions", new HashMap());
+     * for (Map<String,Object> event = stream.next(); ; event = stream.next()) {
+     *   // do stuff...
+     * }
+     * }</pre></blockquote>
+     *
+     * The query is interpreted as by {@link #events(String, Map)}.
+     * Without a <code>from</code> or <code>after</code> time the server
+     * begins with the oldest matching event.
+     *
+     * @param topic the topic to subscribe to
+     * @param query the query events must match
+     * @return the stream, which should be closed when no longer needed
+     */
+    public EventStream stream(String topic, Map<String,Object> query) {
+	return stream(topic, query, null);
+    }
+
+    /**
+     * Subscribe to the events announced on a topic, delivering each
+     * to the given listener as it arrives.
+     *
+     * @param topic the topic to subscribe to
+     * @param query the query events must match
+     * @param listener receives each event
+     * @return the stream, which should be closed when no longer needed
+     * @see #stream(String, Map)
+     */
+    public EventStream stream(final String topic, Map<String,Object> query, EventStream.Listener listener) {
+	EventStream stream = new EventStream(topic, query, new EventStream.Connector() {
+		public Future connect(Map<String,Object> resumed, AsyncHandler handler) throws IOException {
+		    PerRequestConfig unlimited = new PerRequestConfig();
+		    unlimited.setRequestTimeoutInMs(-1);
+		    return async.prepareGet(url("stream", topic)).setBody(toJson(resumed)).setPerRequestConfig(unlimited).execute(handler);
+		}
+	    }, serializer, scheduler, listener);
+	if (dryRun()) {
+	    LOG.info("Streaming <" + topic + ">");
+	    stream.close();
+	} else {
+	    LOG.debug("Streaming <" + topic + ">");
+	    stream.start();
+	}
+	return stream;
+    }
+
+    /**
+     * Number of asynchronous writes currently in flight, including
+     * those waiting to be retried.  Clients created by an {@link
+     * HTTPClientFactory} count each other's writes too.
+     *
+     * @return the number of writes
+     */
+    public Integer inFlightWrites() { return limiter.inFlight(); }
+
+    /**
+     * Number of writes dropped so far because too many writes were
+     * in flight.
+     *
+     * @return the number of writes
+     * @see HTTPClientOptions#overflowPolicy(OverflowPolicy)
+     */
+    public Long droppedWrites() { return limiter.dropped(); }
+
+    /**
+     * Number of writes rejected so far because too many writes were
+     * in flight.
+     *
+     * @return the number of writes
+     * @see HTTPClientOptions#overflowPolicy(OverflowPolicy)
+     */
+    public Long rejectedWrites() { return limiter.rejected(); }
     
     /** Close any open connections to the Vayacondios server.
      *
-     * Take caution calling this method immediately after asynchronous
-     * calls by the client.  The following code would cause an error
-     * and is <b>not</b> the preferred way to use a
-     * <code>VayacondiosClient</code> instance:
+     * Any announcements still waiting in a batch are sent first.
+     * The client then waits up to {@link
+     * HTTPClientOptions#closeTimeout()} milliseconds in all for its
+     * spool, if it is spooling writes, to be replayed (leaving
+     * anything unsent on disk) and for in-flight writes to finish
+     * before closing its connections, so it is safe to close the
+     * client right after writing:
      *
      * <blockquote><pre>{@code
-     * // Do NOT do this
      * private void incrementTotal(Integer n) {
-     *   VayacondiosClient client = new HttpClient("my_organization");
+     *   VayacondiosClient client = new HTTPClient("my_organization");
      *   client.set("project", "counter", n);
      *   client.close();
      * }
      * }</pre></blockquote>
      *
-     * because the call to <code>client.close()</code> will occur
-     * before the HTTP request started by the call to
-     * <code>client.set</code> finishes.
-     *
-     * The proper way to use a <code>VayacondiosClient</code> is to
-     * set up the client during initialization of your appilcation and
-     * only close it at the end -- when you can afford to throw in a
-     * call to {@link Thread#sleep(long millis)} if you need to.
+     * Creating a client is still relatively expensive, so the proper
+     * way to use a <code>VayacondiosClient</code> is to set up the
+     * client during initialization of your application and only close
+     * it at the end.  Applications working with many organizations
+     * should create their clients with an {@link HTTPClientFactory}.
+     * <p>
+     * A client created by a factory only sends its batched
+     * announcements and spooled writes: the connections it shares
+     * stay open until the factory is closed.
      * 
      * */
     @Override
     public void close() {
-	async.close();
+	close(closeTimeout);
     };
 
+    /** Close any open connections to the Vayacondios server, waiting
+     * up to the given time for in-flight writes to finish.
+     *
+     * @param timeout maximum time to wait in milliseconds
+     * @see #close()
+     */
+    public void close(long timeout) {
+	// the spool and the in-flight writes share one timeout
+	long deadline = System.currentTimeMillis() + timeout;
+	if (batcher != null) batcher.close();
+	if (coalescer != null) coalescer.close();
+	try {
+	    if (spool != null) {
+		// writes in flight may yet fail and need spooling
+		limiter.drain(timeout);
+		spool.close(Math.max(0, deadline - System.currentTimeMillis()));
+	    }
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	}
+	if (reporting != null) reporting.cancel(false);
+	if (factory == null) {
+	    transport.close(Math.max(0, deadline - System.currentTimeMillis()));
+	} else {
+	    factory.closed(this);
+	}
+	report();
+	ClientMetrics metrics = metrics();
+	if (metrics != null) metrics.unregister();
+    }
+
     /**
      * The URL this client will use to make a query to the given path
      * segments.  This method is not required during "normal" usage of
@@ -296,17 +737,28 @@ public class HTTPClient extends BaseClient {
      * client.url("event", "transactions", "9783") // URL for retrieving and event by ID
      * client.url("foo", "bar", "baz", "boof")     // garbage URL...
      * }</pre></blockquote>
+     *
+     * When the client has several {@link #endpoints()}, the URL is on
+     * whichever server a request would be sent to now.
      * 
      * @param pathSegments each path segment
      * @return the URL for the given path segments, including domain, version, and organization
      */
     public String url(String... pathSegments) {
-	ArrayList urlSegments = new ArrayList();
-	urlSegments.add("http://" + _host + ":" + _port);
-	urlSegments.add(BaseClient.VERSION);
-	urlSegments.add(organization());
-	urlSegments.addAll(Arrays.asList(pathSegments));
-	return StringUtils.join(urlSegments, "/");
+	return balancing.select(endpoints, null).url(path(pathSegments));
+    }
+
+    /**
+     * The path part of {@link #url(String...)}, the same on every
+     * server.
+     */
+    String path(String... pathSegments) {
+	StringBuilder path = new StringBuilder(prefix.length() + 64).append(prefix);
+	for (String segment : pathSegments) {
+	    path.append('/');
+	    if (segment != null) path.append(segment);
+	}
+	return path.toString();
     }
     
     //----------------------------------------------------------------------------
@@ -315,103 +767,774 @@ public class HTTPClient extends BaseClient {
 
     @Override
     protected void performAnnounce(String topic, Map<String,Object> event, String id) throws IOException {
-	async.preparePost(url("event", topic, id)).setBody(toJson(event)).execute(asyncResponseHandler());
+	write(currentRequest(), "POST", encode(event), "event", topic, id);
     }
     @Override
     protected void performAnnounce(String topic, Map<String,Object> event) throws IOException {
-	async.preparePost(url("event", topic)).setBody(toJson(event)).execute(asyncResponseHandler());
+	if (batcher != null) {
+	    RequestContext request = currentRequest();
+	    batcher.add(topic, event);
+	    if (request != null) request.completed();
+	} else {
+	    write(currentRequest(), "POST", encode(event), "event", topic);
+	}
     }
     
     @Override
     protected List<Map<String,Object>> performEvents(String topic, Map<String,Object> query) throws IOException {
-	try {
-	    return parseList(sync.execute(new HttpGetWithBody(url("events", topic), toJson(query)), syncResponseHandler()));
-	} catch (URISyntaxException e) {
-	    LOG.error("Failed to search events <" + topic + ">", e);
-	    return new ArrayList();
-	}
+	return parsed(parseList(fetch(new HttpGetWithBody(toJson(query)), path("events", topic))));
+    }
+
+    @Override
+    protected <T> List<T> performEvents(String topic, Map<String,Object> query, Class<T> type) throws IOException {
+	return decodeList(new HttpGetWithBody(toJson(query)), path("events", topic), type);
+    }
+
+    @Override
+    protected ResultIterator<Map<String,Object>> performEventsIterator(String topic, Map<String,Object> query) throws IOException {
+	return iterate(new HttpGetWithBody(toJson(query)), path("events", topic));
     }
 
     @Override
     protected Map<String,Object> performGet(String topic) throws IOException {
-	return parseMap(sync.execute(new HttpGet(url("stash", topic)), syncResponseHandler()));
+	return parsed(parseMap(fetch(new HttpGet(), path("stash", topic))));
     }
     
     @Override
     protected Map<String,Object> performGetMap(String topic, String id) throws IOException {
-	return parseMap(sync.execute(new HttpGet(url("stash", topic, id)), syncResponseHandler()));
+	return parsed(parseMap(fetch(new HttpGet(), path("stash", topic, id))));
+    }
+    @Override
+    protected <T> T performGetMap(String topic, String id, Class<T> type) throws IOException {
+	return decode(new HttpGet(), path("stash", topic, id), type);
     }
     @Override
     protected List<Object> performGetList(String topic, String id) throws IOException {
-	return parseList(sync.execute(new HttpGet(url("stash", topic, id)), syncResponseHandler()));
+	return parsed(parseList(fetch(new HttpGet(), path("stash", topic, id))));
     }
     @Override
     protected String performGetString(String topic, String id) throws IOException {
-	return parseString(sync.execute(new HttpGet(url("stash", topic, id)), syncResponseHandler()));
+	return parsed(parseString(fetch(new HttpGet(), path("stash", topic, id))));
     }
     @Override
     protected Double performGetDouble(String topic, String id) throws IOException {
-	return parseDouble(sync.execute(new HttpGet(url("stash", topic, id)), syncResponseHandler()));
+	return parsed(parseDouble(fetch(new HttpGet(), path("stash", topic, id))));
     }
-
     @Override
-    protected List<Map<String,Object>> performStashes(Map<String,Object> query) throws IOException {
+    protected double performGetDoubleValue(String topic, String id, double defaultValue) throws IOException {
+	JsonReader reader = open(new HttpGet(), path("stash", topic, id));
+	if (reader == null) return defaultValue;
+	try {
+	    double value = (reader.peek() == JsonToken.NUMBER) ? reader.nextDouble() : defaultValue;
+	    parsed();
+	    return value;
+	} finally {
+	    reader.close();
+	}
+    }
+    @Override
+    protected long performGetLongValue(String topic, String id, long defaultValue) throws IOException {
+	JsonReader reader = open(new HttpGet(), path("stash", topic, id));
+	if (reader == null) return defaultValue;
 	try {
-	    return parseList(sync.execute(new HttpGetWithBody(url("stashes"), toJson(query)), syncResponseHandler()));
-	} catch (URISyntaxException e) {
-	    LOG.error("Failed to search stashes", e);
-	    return new ArrayList();
+	    long value = (reader.peek() == JsonToken.NUMBER) ? reader.nextLong() : defaultValue;
+	    parsed();
+	    return value;
+	} catch (NumberFormatException e) {
+	    return defaultValue;
+	} finally {
+	    reader.close();
 	}
     }
 
+    @Override
+    protected List<Map<String,Object>> performStashes(Map<String,Object> query) throws IOException {
+	return parsed(parseList(fetch(new HttpGetWithBody(toJson(query)), path("stashes"))));
+    }
+
+    @Override
+    protected <T> List<T> performStashes(Map<String,Object> query, Class<T> type) throws IOException {
+	return decodeList(new HttpGetWithBody(toJson(query)), path("stashes"), type);
+    }
+
+    @Override
+    protected ResultIterator<Map<String,Object>> performStashesIterator(Map<String,Object> query) throws IOException {
+	return iterate(new HttpGetWithBody(toJson(query)), path("stashes"));
+    }
+
+    @Override
+    protected CompletableFuture<List<Map<String,Object>>> performEventsAsync(String topic, Map<String,Object> query) {
+	return read(path("events", topic), toJson(query).getBytes(UTF8), body -> (List<Map<String,Object>>) parseList(body));
+    }
+
+    @Override
+    protected CompletableFuture<Map<String,Object>> performGetAsync(String topic) {
+	return read(path("stash", topic), null, this::parseMap);
+    }
+
+    @Override
+    protected CompletableFuture<Map<String,Object>> performGetMapAsync(String topic, String id) {
+	return read(path("stash", topic, id), null, this::parseMap);
+    }
+    @Override
+    protected CompletableFuture<List> performGetListAsync(String topic, String id) {
+	return read(path("stash", topic, id), null, this::parseList);
+    }
+    @Override
+    protected CompletableFuture<String> performGetStringAsync(String topic, String id) {
+	return read(path("stash", topic, id), null, this::parseString);
+    }
+    @Override
+    protected CompletableFuture<Double> performGetDoubleAsync(String topic, String id) {
+	return read(path("stash", topic, id), null, this::parseDouble);
+    }
+
+    @Override
+    protected CompletableFuture<List<Map<String,Object>>> performStashesAsync(Map<String,Object> query) {
+	return read(path("stashes"), toJson(query).getBytes(UTF8), body -> (List<Map<String,Object>>) parseList(body));
+    }
+
     @Override
     protected void performMerge(String topic, String id, Object value) throws IOException {
-	async.preparePut(url("stash", topic, id)).setBody(toJson(value)).execute(asyncResponseHandler());
+	if (coalescer != null) {
+	    RequestContext request = currentRequest();
+	    coalescer.merge(topic, id, value);
+	    if (request != null) request.completed();
+	} else {
+	    write(currentRequest(), "PUT", encode(value), "stash", topic, id);
+	}
     }
     @Override
     protected void performMerge(String topic, Map<String,Object> value) throws IOException {
-	async.preparePut(url("stash", topic)).setBody(toJson(value)).execute(asyncResponseHandler());
+	if (coalescer != null) {
+	    RequestContext request = currentRequest();
+	    coalescer.merge(topic, null, value);
+	    if (request != null) request.completed();
+	} else {
+	    write(currentRequest(), "PUT", encode(value), "stash", topic);
+	}
     }
     
     @Override
     protected void performSet(String topic, String id, Object value) throws IOException {
-	async.preparePost(url("stash", topic, id)).setBody(toJson(value)).execute(asyncResponseHandler());
+	if (coalescer != null) {
+	    RequestContext request = currentRequest();
+	    coalescer.set(topic, id, value);
+	    if (request != null) request.completed();
+	} else {
+	    write(currentRequest(), "POST", encode(value), "stash", topic, id);
+	}
     }
     @Override
     protected void performSet(String topic, Map<String,Object> value) throws IOException {
-	async.preparePost(url("stash", topic)).setBody(toJson(value)).execute(asyncResponseHandler());
+	if (coalescer != null) {
+	    RequestContext request = currentRequest();
+	    coalescer.set(topic, null, value);
+	    if (request != null) request.completed();
+	} else {
+	    write(currentRequest(), "POST", encode(value), "stash", topic);
+	}
     }
 
     @Override
     protected void performDelete(String topic, String id) throws IOException {
-	async.prepareDelete(url("stash", topic, id)).execute(asyncResponseHandler());
+	RequestContext request = currentRequest();
+	flushBeforeDelete(topic);
+	write(request, "DELETE", null, "stash", topic, id);
     }
     @Override
     protected void performDelete(String topic) throws IOException {
-	async.prepareDelete(url("stash", topic)).execute(asyncResponseHandler());
+	RequestContext request = currentRequest();
+	flushBeforeDelete(topic);
+	write(request, "DELETE", null, "stash", topic);
     }
 
     //----------------------------------------------------------------------------
     // Private Methods
     //----------------------------------------------------------------------------
 
-    private String toJson(Object object) {
+    /**
+     * Writes are sent asynchronously, so each completes once the
+     * server has responded to it.  Batched announcements complete
+     * once queued, and each batch is a request of its own.
+     */
+    @Override
+    protected boolean completesWrites() {
+	return true;
+    }
+
+    private void report() {
+	ClientMetrics metrics = metrics();
+	if (reporter == null || metrics == null) return;
+	try {
+	    reporter.report(metrics);
+	} catch (RuntimeException e) {
+	    LOG.error("Reporting metrics", e);
+	}
+    }
+
+    private void performAnnounceBatch(String topic, BufferPool.Buffer events) throws IOException {
+	write(startRequest(Operation.BATCH, topic, null), "POST", events, "events", topic);
+    }
+
+    private CompletableFuture<Void> performCoalesced(final String topic, final String id, String method, Object value) throws IOException {
+	RequestContext request = startRequest(Operation.COALESCED, topic, id);
+	// reads made while the write waited, or while it's in flight,
+	// may have cached what the server had before it
+	invalidateCoalesced(topic, id);
+	CompletableFuture<Void> answered;
+	if (id == null) {
+	    answered = write(request, method, encode(value), "stash", topic);
+	} else {
+	    answered = write(request, method, encode(value), "stash", topic, id);
+	}
+	answered.whenComplete((nothing, failure) -> invalidateCoalesced(topic, id));
+	return answered;
+    }
+
+    private void invalidateCoalesced(String topic, String id) {
+	if (id == null) {
+	    invalidate(topic);
+	} else {
+	    invalidate(topic, id);
+	}
+    }
+
+    /**
+     * Send whatever is coalescing for a stash and wait for the server
+     * to answer it, so that a delete which follows can't overtake it.
+     */
+    private void flushBeforeDelete(String topic) throws IOException {
+	if (coalescer == null) return;
+	try {
+	    coalescer.flush(topic).get();
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    throw new InterruptedIOException("Interrupted waiting for writes to <" + topic + "> before deleting it");
+	} catch (ExecutionException e) {
+	    // answered is all that matters; failures were reported as they happened
+	}
+    }
+
+    String toJson(Object object) {
+	if (object instanceof Query) return ((Query) object).json(serializer);
 	return serializer.toJson(object);
     }
 
-    private BasicResponseHandler syncResponseHandler() {
-	return new BasicResponseHandler();
+    /**
+     * Serialize a request body into a pooled buffer.  The buffer is
+     * released once its request completes.
+     */
+    BufferPool.Buffer encode(Object object) {
+	BufferPool.Buffer buffer = buffers.acquire();
+	try {
+	    serializer.toJson(object, buffer);
+	} catch (RuntimeException e) {
+	    buffer.release();
+	    throw e;
+	}
+	return buffer;
+    }
+
+    /**
+     * Send a read with the asynchronous client.  The returned future
+     * completes on a parser thread with the parsed response body,
+     * failing for any non-2xx response just as {@link
+     * #execute(HttpRequestBase, String)} does for synchronous reads.
+     * Cancelling it aborts the request in flight and any retries.
+     */
+    private <T> CompletableFuture<T> read(String path, byte[] body, final Function<String,T> parse) {
+	final RequestContext context = currentRequest();
+	final CompletableFuture<Response> response = new CompletableFuture<Response>();
+	attemptRead(path, body, context, 1, null, response);
+	final CompletableFuture<T> parsed = response.thenApplyAsync(r -> {
+		T value;
+		try {
+		    value = parse.apply(r.getResponseBody("UTF-8"));
+		} catch (IOException e) {
+		    throw new UncheckedIOException(e);
+		}
+		if (context != null) context.parsed();
+		return value;
+	    }, parser);
+	parsed.whenComplete((value, failure) -> {
+		if (parsed.isCancelled()) response.cancel(false);
+	    });
+	return parsed;
+    }
+
+    /**
+     * Make an attempt at an asynchronous read, scheduling another (on
+     * another server, if there is one) if it fails transiently and
+     * the read retry policy allows.
+     */
+    private void attemptRead(final String path, final byte[] body, final RequestContext context, final int attempt, Endpoint avoid, final CompletableFuture<Response> response) {
+	if (response.isDone()) return;
+	final Endpoint endpoint = balancing.select(endpoints, avoid);
+	try {
+	    admit(endpoint);
+	} catch (CircuitOpenException e) {
+	    response.completeExceptionally(e);
+	    return;
+	}
+	AsyncHttpClient.BoundRequestBuilder request = async.prepareGet(endpoint.url(path));
+	if (body != null) request.setBody(body);
+	if (context != null) context.sent((body == null) ? 0 : body.length);
+	final AtomicBoolean answered = new AtomicBoolean();
+	endpoint.sending();
+	try {
+	    final ListenableFuture<Response> sent = request.execute(new AsyncCompletionHandler<Response>() {
+		    @Override
+		    public Response onCompleted(Response r) throws Exception {
+			if (context != null) context.received(r.getStatusCode(), contentLength(r));
+			if (r.getStatusCode() >= 300) {
+			    onThrowable(new HttpResponseException(r.getStatusCode(), r.getStatusText()));
+			} else if (answered.compareAndSet(false, true)) {
+			    endpoint.answered();
+			    attempted(endpoint, null);
+			    response.complete(r);
+			}
+			return r;
+		    }
+
+		    @Override
+		    public void onThrowable(Throwable failure) {
+			if (!answered.compareAndSet(false, true)) return;
+			endpoint.answered();
+			if (response.isCancelled()) return;
+			attempted(endpoint, failure);
+			retryRead(path, body, context, attempt, endpoint, response, failure);
+		    }
+		});
+	    response.whenComplete((r, failure) -> {
+		    if (response.isCancelled()) sent.cancel(true);
+		});
+	} catch (IOException | RuntimeException e) {
+	    if (!answered.compareAndSet(false, true)) return;
+	    endpoint.answered();
+	    attempted(endpoint, e);
+	    retryRead(path, body, context, attempt, endpoint, response, e);
+	}
+    }
+
+    private void retryRead(final String path, final byte[] body, final RequestContext context, final int attempt, final Endpoint failed, final CompletableFuture<Response> response, Throwable failure) {
+	if (response.isDone()) return;
+	if (attempt < readRetries.maxAttempts() && readRetries.retries(failure)) {
+	    try {
+		scheduler.schedule(new Runnable() {
+			public void run() {
+			    attemptRead(path, body, context, attempt + 1, failed, response);
+			}
+		    }, readRetries.delay(attempt), TimeUnit.MILLISECONDS);
+		return;
+	    } catch (RejectedExecutionException e) {
+		// closed, so give up
+	    }
+	}
+	response.completeExceptionally(failure);
+    }
+
+    /**
+     * Send a write.  Its request, and the returned future, complete
+     * once the server responds or, when spooling, once it is spooled.
+     */
+    private CompletableFuture<Void> write(RequestContext request, String method, BufferPool.Buffer body, String... path) throws IOException {
+	AsyncResponseHandler handler = new AsyncResponseHandler(request, body);
+	try {
+	    // while earlier writes wait in the spool, or no server will
+	    // take a request, later writes wait behind them
+	    if (spool != null && (spool.pending() > 0 || !reachable())) {
+		if (body == null) {
+		    spool.append(method, StringUtils.join(path, "/"), null);
+		} else {
+		    spool.append(method, StringUtils.join(path, "/"), body.bytes(), body.length());
+		}
+		handler.finished(null);
+		return handler.outcome;
+	    }
+	    handler.gzipped = shouldCompress(body);
+	    if (handler.gzipped) {
+		handler.body = compress(body);
+		if (spool == null) {
+		    body.release();
+		} else {
+		    handler.raw = body;
+		}
+	    }
+	    handler.method   = method;
+	    handler.path     = path(path);
+	    handler.relative = StringUtils.join(path, "/");
+	    dispatch(handler);
+	} catch (IOException | RuntimeException e) {
+	    handler.finished(e);
+	    if (!handler.spooled) throw e;
+	}
+	return handler.outcome;
+    }
+
+    private AsyncHttpClient.BoundRequestBuilder prepare(String method, String url, BufferPool.Buffer body, boolean gzipped) {
+	AsyncHttpClient.BoundRequestBuilder request = prepare(method, url);
+	if (body == null) return request;
+	if (gzipped) request.setHeader("Content-Encoding", "gzip");
+	return request.setBody(body, body.length());
+    }
+
+    private boolean shouldCompress(BufferPool.Buffer body) {
+	return body != null && compressionThreshold >= 0 && body.length() >= compressionThreshold;
+    }
+
+    /**
+     * Gzip a body into a new buffer, releasing the original.
+     */
+    private BufferPool.Buffer gzip(BufferPool.Buffer body) {
+	BufferPool.Buffer gzipped = compress(body);
+	body.release();
+	return gzipped;
+    }
+
+    /**
+     * Gzip a body into a new buffer, keeping the original.
+     */
+    private BufferPool.Buffer compress(BufferPool.Buffer body) {
+	BufferPool.Buffer gzipped = buffers.acquire();
+	body.gzipInto(gzipped);
+	return gzipped;
+    }
+
+    /**
+     * Whether any server's circuit breaker would let a request
+     * through now.
+     */
+    private boolean reachable() {
+	for (Endpoint endpoint : endpoints) {
+	    CircuitBreaker breaker = endpoint.circuitBreaker();
+	    if (breaker == null || breaker.allowsRequests()) return true;
+	}
+	return false;
+    }
+
+    private AsyncHttpClient.BoundRequestBuilder prepare(String method, String url) {
+	AsyncHttpClient.BoundRequestBuilder request;
+	if ("PUT".equals(method)) {
+	    request = async.preparePut(url);
+	} else if ("DELETE".equals(method)) {
+	    request = async.prepareDelete(url);
+	} else {
+	    request = async.preparePost(url);
+	}
+	return request;
+    }
+
+    /**
+     * Send a spooled write, to whichever server a write would be sent
+     * to, completing once the server has answered.  A write the
+     * server refuses with a 4xx response is dropped: sending it again
+     * won't help.
+     */
+    private CompletableFuture<Void> replay(final WriteSpool.Record record) {
+	final CompletableFuture<Void> outcome  = new CompletableFuture<Void>();
+	final Endpoint                endpoint = balancing.select(endpoints, null);
+	try {
+	    admit(endpoint);
+	} catch (CircuitOpenException e) {
+	    outcome.completeExceptionally(e);
+	    return outcome;
+	}
+	BufferPool.Buffer raw = null;
+	if (record.body != null) {
+	    raw = buffers.acquire();
+	    try {
+		raw.write(record.body);
+	    } catch (IOException e) {
+		raw.release();
+		outcome.completeExceptionally(e);
+		return outcome;
+	    }
+	}
+	boolean gzip = shouldCompress(raw);
+	final BufferPool.Buffer body = gzip ? gzip(raw) : raw;
+	final AtomicBoolean answered = new AtomicBoolean();
+	endpoint.sending();
+	try {
+	    prepare(record.method, endpoint.url(path(record.path)), body, gzip).execute(new AsyncCompletionHandler<Response>() {
+		    @Override
+		    public Response onCompleted(Response response) throws Exception {
+			int status = response.getStatusCode();
+			Throwable failure = (status >= 500) ? new HttpResponseException(status, "Server responded with status " + status) : null;
+			if (!answered(failure)) return response;
+			if (status >= 400 && status < 500) LOG.error("Dropping spooled " + record.method + " <" + record.path + ">, server responded with status " + status);
+			if (failure == null) {
+			    outcome.complete(null);
+			} else {
+			    outcome.completeExceptionally(failure);
+			}
+			return response;
+		    }
+
+		    @Override
+		    public void onThrowable(Throwable failure) {
+			if (answered(failure)) outcome.completeExceptionally(failure);
+		    }
+
+		    private boolean answered(Throwable failure) {
+			if (!answered.compareAndSet(false, true)) return false;
+			endpoint.answered();
+			attempted(endpoint, failure);
+			if (body != null) body.release();
+			return true;
+		    }
+		});
+	} catch (IOException | RuntimeException e) {
+	    if (answered.compareAndSet(false, true)) {
+		endpoint.answered();
+		attempted(endpoint, e);
+		if (body != null) body.release();
+		outcome.completeExceptionally(e);
+	    }
+	}
+	return outcome;
     }
     
-    private AsyncResponseHandler asyncResponseHandler() {
-	return new AsyncResponseHandler();
+    private void dispatch(AsyncResponseHandler handler) throws IOException {
+	WriteLimiter.Slot slot = limiter.acquire();
+	if (slot == null) {
+	    LOG.debug("Dropped write, too many writes in flight");
+	    handler.finished(new CancellationException("Dropped, too many writes in flight"));
+	    return;
+	}
+	handler.slot = slot;
+	send(handler);
+    }
+
+    private void send(AsyncResponseHandler handler) throws IOException {
+	Endpoint endpoint = balancing.select(endpoints, handler.avoid);
+	admit(endpoint);
+	AsyncHttpClient.BoundRequestBuilder request = prepare(handler.method, endpoint.url(handler.path), handler.body, handler.gzipped);
+	if (handler.request != null) handler.request.sent((handler.body == null) ? 0 : handler.body.length());
+	handler.endpoint = endpoint;
+	endpoint.sending();
+	try {
+	    limiter.started(handler.slot, request.execute(handler));
+	} catch (IOException | RuntimeException e) {
+	    if (!handler.answered(e)) return;
+	    throw e;
+	}
+    }
+
+    /**
+     * Make another attempt at a write, unless it was dropped to make
+     * room for newer writes while it waited.
+     */
+    private void resend(AsyncResponseHandler handler) {
+	if (handler.slot.isReleased()) {
+	    handler.finished(new CancellationException("Dropped, too many writes in flight"));
+	    return;
+	}
+	try {
+	    send(handler);
+	} catch (IOException | RuntimeException e) {
+	    handler.finished(e);
+	    LOG.error("Retrying asynchronous request failed", e);
+	}
+    }
+
+    /**
+     * Fail fast, without sending anything, while a server's circuit
+     * breaker is open.  Every request admitted must report its
+     * outcome via {@link #attempted(Endpoint, Throwable)}.
+     */
+    private void admit(Endpoint endpoint) throws CircuitOpenException {
+	CircuitBreaker breaker = endpoint.circuitBreaker();
+	if (breaker != null && !breaker.allowRequest()) throw new CircuitOpenException("Server " + endpoint + " unavailable, not sending requests for now");
+    }
+
+    private void attempted(Endpoint endpoint, Throwable failure) {
+	CircuitBreaker breaker = endpoint.circuitBreaker();
+	if (breaker != null) breaker.record(failure);
+    }
+
+    /**
+     * Wait before retrying a synchronous read.
+     *
+     * @return whether to retry
+     */
+    private boolean backoff(int attempt, IOException failure) throws InterruptedIOException {
+	if (attempt >= readRetries.maxAttempts() || !readRetries.retries(failure)) return false;
+	LOG.debug("Retrying after attempt " + attempt + " failed: " + failure);
+	try {
+	    Thread.sleep(readRetries.delay(attempt));
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    throw new InterruptedIOException("Interrupted waiting to retry");
+	}
+	return true;
+    }
+
+    /**
+     * Execute a synchronous search, leaving its response open to be
+     * parsed one element at a time.  Abandoning the iterator aborts
+     * the request rather than reading the rest of the response just
+     * to return the connection to the pool.
+     */
+    private ResultIterator<Map<String,Object>> iterate(final HttpRequestBase request, String path) throws IOException {
+	HttpEntity entity = execute(request, path);
+	if (entity == null) return ResultIterator.empty();
+	try {
+	    return new ResultIterator<Map<String,Object>>(entity.getContent(), serializer, Map.class, request::abort);
+	} catch (IOException | RuntimeException e) {
+	    request.abort();
+	    throw e;
+	}
+    }
+
+    /**
+     * Execute a synchronous request for a path, returning its
+     * (unread) response body or failing if the response is not a
+     * success.  Attempts which fail transiently are retried on
+     * another server, if there is one, as the read retry policy
+     * allows.
+     */
+    private HttpEntity execute(HttpRequestBase request, String path) throws IOException {
+	RequestContext context  = currentRequest();
+	Endpoint       endpoint = null;
+	for (int attempt = 1; ; attempt++) {
+	    endpoint = balancing.select(endpoints, endpoint);
+	    try {
+		return attempt(request, endpoint, path, context);
+	    } catch (IOException e) {
+		if (!backoff(attempt, e)) throw e;
+		request.reset();
+	    }
+	}
+    }
+
+    private HttpEntity attempt(HttpRequestBase request, Endpoint endpoint, String path, RequestContext context) throws IOException {
+	try {
+	    request.setURI(URI.create(endpoint.url(path)));
+	} catch (IllegalArgumentException e) {
+	    throw new IOException("Invalid URL for " + path, e);
+	}
+	admit(endpoint);
+	if (context != null) context.sent((request instanceof HttpEntityEnclosingRequestBase) ? ((HttpEntityEnclosingRequestBase) request).getEntity().getContentLength() : 0);
+	HttpResponse response;
+	endpoint.sending();
+	try {
+	    response = sync.execute(request);
+	} catch (IOException | RuntimeException e) {
+	    attempted(endpoint, e);
+	    throw e;
+	} finally {
+	    endpoint.answered();
+	}
+	HttpEntity   entity   = response.getEntity();
+	int          status   = response.getStatusLine().getStatusCode();
+	if (context != null) context.received(status, (entity == null) ? 0 : entity.getContentLength());
+	if (status >= 300) {
+	    EntityUtils.consume(entity);
+	    HttpResponseException failure = new HttpResponseException(status, response.getStatusLine().getReasonPhrase());
+	    attempted(endpoint, failure);
+	    throw failure;
+	}
+	attempted(endpoint, null);
+	return entity;
+    }
+
+    /**
+     * Execute a synchronous request and read its whole response body.
+     */
+    private String fetch(HttpRequestBase request, String path) throws IOException {
+	HttpEntity entity = execute(request, path);
+	return (entity == null) ? null : EntityUtils.toString(entity, UTF8);
+    }
+
+    /**
+     * Execute a synchronous request and open a reader on its response
+     * body.  Closing the reader releases the connection.
+     */
+    private JsonReader open(HttpRequestBase request, String path) throws IOException {
+	HttpEntity entity = execute(request, path);
+	if (entity == null) return null;
+	JsonReader reader = new JsonReader(new InputStreamReader(entity.getContent(), UTF8));
+	reader.setLenient(true);
+	return reader;
+    }
+
+    /**
+     * Bind a response body straight into the given class without
+     * first buffering it as a <code>String</code>.
+     */
+    private <T> T decode(HttpRequestBase request, String path, Class<T> type) throws IOException {
+	JsonReader reader = open(request, path);
+	if (reader == null) return null;
+	try {
+	    return parsed(adapter(type).read(reader));
+	} catch (IllegalStateException e) {
+	    throw new JsonParseException(e);
+	} finally {
+	    reader.close();
+	}
+    }
+
+    private <T> List<T> decodeList(HttpRequestBase request, String path, Class<T> type) throws IOException {
+	JsonReader reader = open(request, path);
+	if (reader == null) return null;
+	try {
+	    if (reader.peek() == JsonToken.NULL) return null;
+	    TypeAdapter<T> adapter = adapter(type);
+	    List<T>        decoded = new ArrayList<T>();
+	    reader.beginArray();
+	    while (reader.hasNext()) decoded.add(adapter.read(reader));
+	    reader.endArray();
+	    return parsed(decoded);
+	} catch (IllegalStateException e) {
+	    throw new JsonParseException(e);
+	} finally {
+	    reader.close();
+	}
+    }
+
+    /**
+     * The type adapter for a class, built once and cached for the
+     * life of this client.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> TypeAdapter<T> adapter(Class<T> type) {
+	TypeAdapter<T> adapter = (TypeAdapter<T>) adapters.get(type);
+	if (adapter == null) {
+	    adapter = serializer.getAdapter(type);
+	    adapters.putIfAbsent(type, adapter);
+	}
+	return adapter;
+    }
+
+    /**
+     * Mark the current request's response as parsed.
+     */
+    private void parsed() {
+	RequestContext request = currentRequest();
+	if (request != null) request.parsed();
+    }
+
+    private <T> T parsed(T value) {
+	parsed();
+	return value;
+    }
+
+    private static long contentLength(Response response) {
+	String length = response.getHeader("Content-Length");
+	if (length == null) return -1;
+	try {
+	    return Long.parseLong(length.trim());
+	} catch (NumberFormatException e) {
+	    return -1;
+	}
     }
 
-    private Map<String,Object> parseMap(String json) throws JsonParseException {
+    Map<String,Object> parseMap(String json) throws JsonParseException {
 	return serializer.fromJson(json, Map.class);
     }
     
-    private List parseList(String json) throws JsonParseException {
+    List parseList(String json) throws JsonParseException {
 	return serializer.fromJson(json, List.class);
     }
 
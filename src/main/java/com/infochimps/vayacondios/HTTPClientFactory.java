@@ -0,0 +1,175 @@
+package com.infochimps.vayacondios;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.http.impl.client.DefaultHttpClient;
+
+import com.ning.http.client.AsyncHttpClient;
+
+/** Creates {@link HTTPClient}s for many organizations which share a
+ * single transport.
+ * <p>
+ * Each <code>HTTPClient</code> created directly has connection pools,
+ * IO threads, parser threads, and a serializer of its own, which adds
+ * up quickly for a service reading and writing data on behalf of
+ * hundreds of organizations.  The clients a factory creates share
+ * all of these, along with the servers' health and circuit breakers
+ * and the limit on in-flight writes.  Each client keeps only what is
+ * particular to its organization: its URLs, batched announcements,
+ * cached stashes, metrics, and listeners.
+ *
+ * <blockquote><pre>{@code
+ * HTTPClientFactory clients = new HTTPClientFactory("vcd.example.com", 9000, new HTTPClientOptions().maxConnections(100));
+ * clients.client("website").announce("intrusions", event);
+ * clients.client("billing").set("invoices", "latest", invoice);
+ * ...
+ * clients.close();
+ * }</pre></blockquote>
+ *
+ * Every client is created with the factory's options.  Clients which
+ * spool writes each spool to a subdirectory of {@link
+ * HTTPClientOptions#spoolDirectory()} named for their organization.
+ * <p>
+ * Closing a client sends its batched announcements and leaves the
+ * transport open for the rest.  Closing the factory closes every
+ * client and then the transport, waiting for in-flight writes as
+ * {@link HTTPClient#close()} does.
+ */
+public class HTTPClientFactory implements Closeable {
+
+    private final HTTPTransport                    transport;
+    private final HTTPClientOptions                options;
+    private final ConcurrentMap<String,HTTPClient> clients = new ConcurrentHashMap<String,HTTPClient>();
+
+    /**
+     * Create a factory for clients which spread their requests across
+     * several Vayacondios servers.
+     *
+     * @param endpoints each server as <code>host</code> or <code>host:port</code>
+     * @param options options for the transport and every client
+     * @see HTTPClient#HTTPClient(List, String, Boolean, HTTPClientOptions)
+     */
+    public HTTPClientFactory(List<String> endpoints, HTTPClientOptions options) {
+	this.transport = new HTTPTransport(endpoints, options);
+	this.options   = options;
+    }
+
+    /**
+     * Create a factory for clients of the given Vayacondios server.
+     *
+     * @param host host of Vayacondios server
+     * @param port port of Vayacondios server
+     * @param options options for the transport and every client
+     */
+    public HTTPClientFactory(String host, Integer port, HTTPClientOptions options) {
+	this(Collections.singletonList(((host.indexOf(':') >= 0) ? "[" + host + "]" : host) + ":" + port), options);
+    }
+
+    /**
+     * Create a factory for clients of the given Vayacondios server
+     * with the default options.
+     *
+     * @param host host of Vayacondios server
+     * @param port port of Vayacondios server
+     */
+    public HTTPClientFactory(String host, Integer port) {
+	this(host, port, new HTTPClientOptions());
+    }
+
+    /**
+     * The client for the given organization, creating it the first
+     * time it is asked for.  The same client is returned until it is
+     * closed.
+     *
+     * @param organization name of the organization to read/write data for
+     * @return the client
+     */
+    public HTTPClient client(String organization) {
+	return clients.computeIfAbsent(organization, org -> new HTTPClient(transport, this, org, false, options));
+    }
+
+    /**
+     * Create a client for the given organization in "dry-run" mode.
+     * Dry-run clients are not reused; close each when done with it.
+     *
+     * @param organization name of the organization to read/write data for
+     * @return the client
+     */
+    public HTTPClient dryRunClient(String organization) {
+	return new HTTPClient(transport, this, organization, true, options);
+    }
+
+    /**
+     * The clients created so far which haven't been closed.
+     *
+     * @return the clients
+     */
+    public List<HTTPClient> clients() {
+	return Collections.unmodifiableList(new ArrayList<HTTPClient>(clients.values()));
+    }
+
+    /**
+     * The Vayacondios servers every client spreads its requests
+     * across.
+     *
+     * @return the servers
+     */
+    public List<Endpoint> endpoints() { return Collections.unmodifiableList(Arrays.asList(transport.endpoints)); }
+
+    /**
+     * The HTTP client every client makes synchronous requests with.
+     *
+     * @return the client
+     * @see HTTPClient#synchronousClient()
+     */
+    public DefaultHttpClient synchronousClient() { return transport.sync; }
+
+    /**
+     * The HTTP client every client makes asynchronous requests with.
+     *
+     * @return the client
+     * @see HTTPClient#asynchronousClient()
+     */
+    public AsyncHttpClient asynchronousClient() { return transport.async; }
+
+    /**
+     * Number of asynchronous writes currently in flight across every
+     * client.
+     *
+     * @return the number of writes
+     */
+    public Integer inFlightWrites() { return transport.limiter.inFlight(); }
+
+    /**
+     * Close every client, then the transport, waiting up to {@link
+     * HTTPClientOptions#closeTimeout()} milliseconds for in-flight
+     * writes to finish.
+     */
+    @Override
+    public void close() {
+	close(transport.closeTimeout);
+    }
+
+    /**
+     * Close every client, then the transport, waiting up to the given
+     * time for in-flight writes to finish.
+     *
+     * @param timeout maximum time to wait in milliseconds
+     */
+    public void close(long timeout) {
+	long deadline = System.currentTimeMillis() + timeout;
+	for (HTTPClient client : clients()) client.close(Math.max(0, deadline - System.currentTimeMillis()));
+	transport.close(Math.max(0, deadline - System.currentTimeMillis()));
+    }
+
+    /** Forget a client once it is closed. */
+    void closed(HTTPClient client) {
+	clients.remove(client.organization(), client);
+    }
+}
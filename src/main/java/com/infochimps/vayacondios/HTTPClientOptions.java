@@ -0,0 +1,879 @@
+package com.infochimps.vayacondios;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+/** Tuning options for an {@link HTTPClient}.
+ * <p>
+ * Each option has a getter and a setter of the same name.  Setters
+ * return the options themselves so they can be chained:
+ *
+ * <blockquote><pre>{@code
+ * HTTPClientOptions options = new HTTPClientOptions()
+ *   .batchAnnouncements(true)
+ *   .batchSize(500)
+ *   .batchDelay(250);
+ * VayacondiosClient client = new HTTPClient("example.com", 9000, "website", false, options);
+ * }</pre></blockquote>
+ *
+ * Options are read once, when the client is created.  Changing them
+ * afterwards has no effect on existing clients.
+ */
+public class HTTPClientOptions {
+
+    /** Default maximum number of pooled connections. */
+    public static int  DEFAULT_MAX_CONNECTIONS = 20;
+
+    /** Default maximum number of pooled connections to a single server. */
+    public static int  DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 20;
+
+    /** Default time (in milliseconds) to wait for a connection to open. */
+    public static int  DEFAULT_CONNECT_TIMEOUT = 5000;
+
+    /** Default time (in milliseconds) to wait for data on an open connection. */
+    public static int  DEFAULT_SOCKET_TIMEOUT = 60000;
+
+    /** Default time (in milliseconds) a pooled connection may sit idle before it is closed. */
+    public static long DEFAULT_IDLE_CONNECTION_TIMEOUT = 30000;
+
+    /** Default time (in milliseconds) between health checks of each server. */
+    public static long DEFAULT_HEALTH_CHECK_INTERVAL = 5000;
+
+    /** Default maximum number of events in a single batch. */
+    public static int  DEFAULT_BATCH_SIZE  = 1000;
+
+    /** Default maximum size (in bytes) of a single batch. */
+    public static int  DEFAULT_BATCH_BYTES = 1024 * 1024;
+
+    /** Default maximum time (in milliseconds) an event waits in a batch. */
+    public static long DEFAULT_BATCH_DELAY = 1000;
+
+    /** Default time (in milliseconds) a cached stash value is held for. */
+    public static long DEFAULT_STASH_CACHE_TTL = 1000;
+
+    /** Default maximum time (in milliseconds) to wait for in-flight writes when closing. */
+    public static long DEFAULT_CLOSE_TIMEOUT = 5000;
+
+    /** Default minimum size (in bytes) of a request body to compress. */
+    public static int  DEFAULT_COMPRESSION_THRESHOLD = 1024;
+
+    /** Default time (in milliseconds) between reports of the client's metrics. */
+    public static long DEFAULT_METRICS_REPORT_INTERVAL = 60000;
+
+    /** Default size (in bytes) of each spool segment file. */
+    public static int  DEFAULT_SPOOL_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    /** Default maximum disk space (in bytes) used by the spool. */
+    public static long DEFAULT_SPOOL_MAX_BYTES = 1024L * 1024 * 1024;
+
+    private Integer _maxConnections         = DEFAULT_MAX_CONNECTIONS;
+    private Integer _maxConnectionsPerRoute = DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+    private Integer _connectTimeout         = DEFAULT_CONNECT_TIMEOUT;
+    private Integer _socketTimeout          = DEFAULT_SOCKET_TIMEOUT;
+    private Long    _idleConnectionTimeout  = DEFAULT_IDLE_CONNECTION_TIMEOUT;
+
+    private LoadBalancing _loadBalancing       = LoadBalancing.LEAST_OUTSTANDING;
+    private Long          _healthCheckInterval = DEFAULT_HEALTH_CHECK_INTERVAL;
+
+    private Boolean _batchAnnouncements = false;
+    private Integer _batchSize          = DEFAULT_BATCH_SIZE;
+    private Integer _batchBytes         = DEFAULT_BATCH_BYTES;
+    private Long    _batchDelay         = DEFAULT_BATCH_DELAY;
+
+    private Long    _coalesceWindow     = 0L;
+
+    private Integer        _maxInFlightWrites = 0;
+    private OverflowPolicy _overflowPolicy    = OverflowPolicy.BLOCK;
+    private Long           _closeTimeout      = DEFAULT_CLOSE_TIMEOUT;
+
+    private Integer _parseThreads = Runtime.getRuntime().availableProcessors();
+
+    private File    _spoolDirectory   = null;
+    private Integer _spoolSegmentSize = DEFAULT_SPOOL_SEGMENT_SIZE;
+    private Long    _spoolMaxBytes    = DEFAULT_SPOOL_MAX_BYTES;
+
+    private Boolean _compressRequests          = false;
+    private Integer _compressionThreshold      = DEFAULT_COMPRESSION_THRESHOLD;
+    private Boolean _acceptCompressedResponses = true;
+
+    private RetryPolicy _readRetryPolicy         = new RetryPolicy();
+    private RetryPolicy _writeRetryPolicy        = RetryPolicy.none();
+    private Integer     _circuitBreakerThreshold = CircuitBreaker.DEFAULT_FAILURE_THRESHOLD;
+    private Long        _circuitBreakerOpenTime  = CircuitBreaker.DEFAULT_OPEN_TIME;
+
+    private Boolean         _recordMetrics         = false;
+    private Integer         _metricsMaxTopics      = ClientMetrics.DEFAULT_MAX_TOPICS;
+    private Boolean         _registerMBeans        = false;
+    private MetricsReporter _metricsReporter       = null;
+    private Long            _metricsReportInterval = DEFAULT_METRICS_REPORT_INTERVAL;
+
+    private Integer          _stashCacheSize = 0;
+    private Long             _stashCacheTtl  = DEFAULT_STASH_CACHE_TTL;
+    private Map<String,Long> _stashCacheTtls = new HashMap<String,Long>();
+
+  //----------------------------------------------------------------------------
+  // Connections
+  //----------------------------------------------------------------------------
+
+    /**
+     * Maximum number of connections pooled by the synchronous client
+     * across all servers.
+     *
+     * @return the number of connections
+     */
+    public Integer maxConnections() { return _maxConnections; }
+
+    /**
+     * Set the maximum number of connections pooled by the synchronous
+     * client across all servers.
+     *
+     * @param max the number of connections
+     * @return these options
+     */
+    public HTTPClientOptions maxConnections(Integer max) {
+	this._maxConnections = max;
+	return this;
+    }
+
+    /**
+     * Maximum number of connections pooled by the synchronous client
+     * for a single server.  Threads reading concurrently beyond this
+     * limit wait for a connection to be returned to the pool.
+     *
+     * @return the number of connections
+     */
+    public Integer maxConnectionsPerRoute() { return _maxConnectionsPerRoute; }
+
+    /**
+     * Set the maximum number of connections pooled by the synchronous
+     * client for a single server.
+     *
+     * @param max the number of connections
+     * @return these options
+     */
+    public HTTPClientOptions maxConnectionsPerRoute(Integer max) {
+	this._maxConnectionsPerRoute = max;
+	return this;
+    }
+
+    /**
+     * Time to wait for a connection to the server to open.  Zero
+     * means wait forever.
+     *
+     * @return the timeout in milliseconds
+     */
+    public Integer connectTimeout() { return _connectTimeout; }
+
+    /**
+     * Set the time to wait for a connection to the server to open.
+     *
+     * @param millis the timeout in milliseconds
+     * @return these options
+     */
+    public HTTPClientOptions connectTimeout(Integer millis) {
+	this._connectTimeout = millis;
+	return this;
+    }
+
+    /**
+     * Time to wait for data on an open connection.  Zero means wait
+     * forever.
+     *
+     * @return the timeout in milliseconds
+     */
+    public Integer socketTimeout() { return _socketTimeout; }
+
+    /**
+     * Set the time to wait for data on an open connection.
+     *
+     * @param millis the timeout in milliseconds
+     * @return these options
+     */
+    public HTTPClientOptions socketTimeout(Integer millis) {
+	this._socketTimeout = millis;
+	return this;
+    }
+
+    /**
+     * Time a pooled connection may sit idle before it is closed.
+     * Idle and expired connections are evicted by a background task.
+     *
+     * @return the timeout in milliseconds
+     */
+    public Long idleConnectionTimeout() { return _idleConnectionTimeout; }
+
+    /**
+     * Set the time a pooled connection may sit idle before it is
+     * closed.
+     *
+     * @param millis the timeout in milliseconds
+     * @return these options
+     */
+    public HTTPClientOptions idleConnectionTimeout(long millis) {
+	this._idleConnectionTimeout = millis;
+	return this;
+    }
+
+  //----------------------------------------------------------------------------
+  // Load balancing
+  //----------------------------------------------------------------------------
+
+    /**
+     * How a client with several servers chooses which to send each
+     * request to.  {@link LoadBalancing#LEAST_OUTSTANDING} by default.
+     *
+     * @return the strategy
+     */
+    public LoadBalancing loadBalancing() { return _loadBalancing; }
+
+    /**
+     * Set how a client with several servers chooses which to send
+     * each request to.
+     *
+     * @param balancing the strategy
+     * @return these options
+     */
+    public HTTPClientOptions loadBalancing(LoadBalancing balancing) {
+	this._loadBalancing = balancing;
+	return this;
+    }
+
+    /**
+     * Time between health checks of each server, when a client has
+     * several.
+     *
+     * @return the interval in milliseconds
+     */
+    public Long healthCheckInterval() { return _healthCheckInterval; }
+
+    /**
+     * Set the time between health checks of each server, when a
+     * client has several.  Each check asks a server for its
+     * <code>/status</code>: servers which don't answer, or answer
+     * with a 5xx, are passed over until they pass a check again.  0
+     * turns health checks off.
+     *
+     * @param millis the interval in milliseconds
+     * @return these options
+     */
+    public HTTPClientOptions healthCheckInterval(long millis) {
+	this._healthCheckInterval = millis;
+	return this;
+    }
+
+  //----------------------------------------------------------------------------
+  // Batching
+  //----------------------------------------------------------------------------
+
+    /**
+     * Whether announcements are buffered per topic and sent to the
+     * server in bulk.
+     * <p>
+     * A topic's batch is sent as soon as it holds {@link #batchSize()}
+     * events or {@link #batchBytes()} bytes, or {@link #batchDelay()}
+     * milliseconds after its first event arrived, whichever comes
+     * first.  Events announced with an explicit ID are never batched.
+     *
+     * @return whether or not announcements are batched
+     */
+    public Boolean batchAnnouncements() { return _batchAnnouncements; }
+
+    /**
+     * Turn batching of announcements on or off.
+     *
+     * @param shouldBatch whether or not to batch announcements
+     * @return these options
+     * @see #batchAnnouncements()
+     */
+    public HTTPClientOptions batchAnnouncements(Boolean shouldBatch) {
+	this._batchAnnouncements = shouldBatch;
+	return this;
+    }
+
+    /**
+     * Maximum number of events in a single batch.
+     *
+     * @return the number of events
+     */
+    public Integer batchSize() { return _batchSize; }
+
+    /**
+     * Set the maximum number of events in a single batch.
+     *
+     * @param size the number of events
+     * @return these options
+     */
+    public HTTPClientOptions batchSize(Integer size) {
+	this._batchSize = size;
+	return this;
+    }
+
+    /**
+     * Maximum size of a single batch, measured in bytes of serialized
+     * JSON.
+     *
+     * @return the number of bytes
+     */
+    public Integer batchBytes() { return _batchBytes; }
+
+    /**
+     * Set the maximum size of a single batch.
+     *
+     * @param bytes the number of bytes
+     * @return these options
+     */
+    public HTTPClientOptions batchBytes(Integer bytes) {
+	this._batchBytes = bytes;
+	return this;
+    }
+
+    /**
+     * Maximum time an event will wait in a batch before being sent.
+     *
+     * @return the delay in milliseconds
+     */
+    public Long batchDelay() { return _batchDelay; }
+
+    /**
+     * Set the maximum time an event will wait in a batch before being
+     * sent.
+     *
+     * @param millis the delay in milliseconds
+     * @return these options
+     */
+    public HTTPClientOptions batchDelay(long millis) {
+	this._batchDelay = millis;
+	return this;
+    }
+
+  //----------------------------------------------------------------------------
+  // Coalescing
+  //----------------------------------------------------------------------------
+
+    /**
+     * Time sets and merges of a stashed value are held before being
+     * sent, so that repeated writes to the same value are sent as one.
+     * <p>
+     * Within the window, sets of a value collapse to the last one and
+     * merges into it are merged locally the way the server would
+     * merge them, so at most one request per value is sent each
+     * window.  Deleting a stash, or a value within it, first sends
+     * whatever is pending for the stash.  0, the default, sends every
+     * write at once.
+     *
+     * @return the window in milliseconds
+     */
+    public Long coalesceWindow() { return _coalesceWindow; }
+
+    /**
+     * Set the time sets and merges of a stashed value are held
+     * before being sent.
+     *
+     * @param millis the window in milliseconds, or 0 to send every write at once
+     * @return these options
+     * @see #coalesceWindow()
+     */
+    public HTTPClientOptions coalesceWindow(long millis) {
+	this._coalesceWindow = millis;
+	return this;
+    }
+
+  //----------------------------------------------------------------------------
+  // Non-blocking reads
+  //----------------------------------------------------------------------------
+
+    /**
+     * Number of threads used to parse the responses of non-blocking
+     * reads.  Defaults to the number of available processors.
+     *
+     * @return the number of threads
+     * @see AsyncVayacondiosClient
+     */
+    public Integer parseThreads() { return _parseThreads; }
+
+    /**
+     * Set the number of threads used to parse the responses of
+     * non-blocking reads.
+     *
+     * @param threads the number of threads
+     * @return these options
+     */
+    public HTTPClientOptions parseThreads(Integer threads) {
+	this._parseThreads = threads;
+	return this;
+    }
+
+  //----------------------------------------------------------------------------
+  // In-flight writes
+  //----------------------------------------------------------------------------
+
+    /**
+     * Maximum number of asynchronous writes (announce, set, merge,
+     * delete) the client will have in flight at once.  Zero, the
+     * default, means no limit.
+     * <p>
+     * What happens to a write which would exceed this limit is decided
+     * by the {@link #overflowPolicy()}.
+     *
+     * @return the number of writes
+     */
+    public Integer maxInFlightWrites() { return _maxInFlightWrites; }
+
+    /**
+     * Set the maximum number of asynchronous writes the client will
+     * have in flight at once.
+     *
+     * @param max the number of writes, or zero for no limit
+     * @return these options
+     */
+    public HTTPClientOptions maxInFlightWrites(Integer max) {
+	this._maxInFlightWrites = max;
+	return this;
+    }
+
+    /**
+     * What to do with a write which would exceed {@link
+     * #maxInFlightWrites()}.  Defaults to {@link OverflowPolicy#BLOCK}.
+     *
+     * @return the policy
+     */
+    public OverflowPolicy overflowPolicy() { return _overflowPolicy; }
+
+    /**
+     * Set what to do with a write which would exceed {@link
+     * #maxInFlightWrites()}.
+     *
+     * @param policy the policy
+     * @return these options
+     */
+    public HTTPClientOptions overflowPolicy(OverflowPolicy policy) {
+	this._overflowPolicy = policy;
+	return this;
+    }
+
+    /**
+     * Maximum time {@link HTTPClient#close()} will wait for in-flight
+     * writes to finish before closing connections.
+     *
+     * @return the timeout in milliseconds
+     */
+    public Long closeTimeout() { return _closeTimeout; }
+
+    /**
+     * Set the maximum time {@link HTTPClient#close()} will wait for
+     * in-flight writes to finish.
+     *
+     * @param millis the timeout in milliseconds
+     * @return these options
+     */
+    public HTTPClientOptions closeTimeout(long millis) {
+	this._closeTimeout = millis;
+	return this;
+    }
+
+  //----------------------------------------------------------------------------
+  // Spooling
+  //----------------------------------------------------------------------------
+
+    /**
+     * Directory in which writes are spooled, or <code>null</code>, the
+     * default, if writes are sent straight to the server.
+     * <p>
+     * When spooling, a write (announce, set, merge, delete) which
+     * can't reach the server, because it failed transiently (after any
+     * retries) or every server's circuit breaker is open, is appended
+     * to a log of memory-mapped segment files in this directory
+     * instead of failing.  Writes made while earlier ones wait in the
+     * log are appended behind them.  A background thread replays the
+     * log against the server, several writes at a time, retrying with
+     * backoff while the server is unreachable, and deletes segments
+     * once every write in them has been sent.  While the server is
+     * healthy and the log is empty, writes are sent directly.  Writes left unsent when the client is closed are
+     * sent by the next client spooling to the same directory.  A
+     * write the server keeps answering with an error is given up on
+     * after a few attempts and appended to a
+     * <code>dead-letters</code> file in the directory instead.
+     * <p>
+     * Only one client at a time may spool to a given directory.
+     *
+     * @return the directory
+     */
+    public File spoolDirectory() { return _spoolDirectory; }
+
+    /**
+     * Spool writes in the given directory.
+     *
+     * @param directory the directory, created if it does not exist
+     * @return these options
+     * @see #spoolDirectory()
+     */
+    public HTTPClientOptions spoolDirectory(File directory) {
+	this._spoolDirectory = directory;
+	return this;
+    }
+
+    /**
+     * Size of each spool segment file.  No single write can be larger
+     * than this.
+     *
+     * @return the size in bytes
+     */
+    public Integer spoolSegmentSize() { return _spoolSegmentSize; }
+
+    /**
+     * Set the size of each spool segment file.
+     *
+     * @param bytes the size in bytes
+     * @return these options
+     */
+    public HTTPClientOptions spoolSegmentSize(Integer bytes) {
+	this._spoolSegmentSize = bytes;
+	return this;
+    }
+
+    /**
+     * Maximum disk space used by the spool.  Writes fail once the
+     * spool is full.
+     *
+     * @return the size in bytes
+     */
+    public Long spoolMaxBytes() { return _spoolMaxBytes; }
+
+    /**
+     * Set the maximum disk space used by the spool.
+     *
+     * @param bytes the size in bytes
+     * @return these options
+     */
+    public HTTPClientOptions spoolMaxBytes(long bytes) {
+	this._spoolMaxBytes = bytes;
+	return this;
+    }
+
+  //----------------------------------------------------------------------------
+  // Compression
+  //----------------------------------------------------------------------------
+
+    /**
+     * Whether large write bodies are gzipped.  Off by default since
+     * the server must be recent enough to inflate them.
+     *
+     * @return whether to compress
+     * @see #compressionThreshold()
+     */
+    public Boolean compressRequests() { return _compressRequests; }
+
+    /**
+     * Set whether large write bodies are gzipped.
+     *
+     * @param compress whether to compress
+     * @return these options
+     */
+    public HTTPClientOptions compressRequests(Boolean compress) {
+	this._compressRequests = compress;
+	return this;
+    }
+
+    /**
+     * Minimum size of a write body for it to be gzipped.  Smaller
+     * bodies are not worth the time spent compressing them.
+     *
+     * @return the size in bytes
+     */
+    public Integer compressionThreshold() { return _compressionThreshold; }
+
+    /**
+     * Set the minimum size of a write body for it to be gzipped.
+     *
+     * @param bytes the size in bytes
+     * @return these options
+     */
+    public HTTPClientOptions compressionThreshold(Integer bytes) {
+	this._compressionThreshold = bytes;
+	return this;
+    }
+
+    /**
+     * Whether reads ask the server for gzipped responses, which are
+     * inflated as they are read.  On by default; servers which
+     * cannot compress simply ignore the request.
+     *
+     * @return whether to accept compressed responses
+     */
+    public Boolean acceptCompressedResponses() { return _acceptCompressedResponses; }
+
+    /**
+     * Set whether reads ask the server for gzipped responses.
+     *
+     * @param accept whether to accept compressed responses
+     * @return these options
+     */
+    public HTTPClientOptions acceptCompressedResponses(Boolean accept) {
+	this._acceptCompressedResponses = accept;
+	return this;
+    }
+
+  //----------------------------------------------------------------------------
+  // Retries
+  //----------------------------------------------------------------------------
+
+    /**
+     * How reads which failed transiently are retried.  By default, up
+     * to {@link RetryPolicy#DEFAULT_MAX_ATTEMPTS} attempts are made.
+     *
+     * @return the policy
+     */
+    public RetryPolicy readRetryPolicy() { return _readRetryPolicy; }
+
+    /**
+     * Set how reads which failed transiently are retried.  Reads are
+     * idempotent so they are always safe to retry.
+     *
+     * @param policy the policy
+     * @return these options
+     */
+    public HTTPClientOptions readRetryPolicy(RetryPolicy policy) {
+	this._readRetryPolicy = policy;
+	return this;
+    }
+
+    /**
+     * How writes which failed transiently are retried.  By default
+     * they are not.
+     *
+     * @return the policy
+     */
+    public RetryPolicy writeRetryPolicy() { return _writeRetryPolicy; }
+
+    /**
+     * Set how writes which failed transiently are retried.  Writes
+     * keep their in-flight slot (see {@link #maxInFlightWrites()})
+     * while waiting to be retried.
+     * <p>
+     * Replacing, merging, and deleting are idempotent, as is
+     * announcing an event with an ID, but a retried announcement
+     * without an ID may be stored twice if the server received the
+     * first attempt and only its response was lost.
+     *
+     * @param policy the policy
+     * @return these options
+     */
+    public HTTPClientOptions writeRetryPolicy(RetryPolicy policy) {
+	this._writeRetryPolicy = policy;
+	return this;
+    }
+
+    /**
+     * Number of consecutive transient failures after which the client
+     * stops sending requests for {@link #circuitBreakerOpenTime()}.
+     *
+     * @return the number of failures, 0 if the client never stops
+     * @see CircuitBreaker
+     */
+    public Integer circuitBreakerThreshold() { return _circuitBreakerThreshold; }
+
+    /**
+     * Set the number of consecutive transient failures after which
+     * the client stops sending requests.  0 turns the circuit breaker
+     * off.
+     *
+     * @param failures the number of failures
+     * @return these options
+     */
+    public HTTPClientOptions circuitBreakerThreshold(Integer failures) {
+	this._circuitBreakerThreshold = failures;
+	return this;
+    }
+
+    /**
+     * Time the client stops sending requests for once its circuit
+     * breaker opens, before probing whether the server has recovered.
+     *
+     * @return the time in milliseconds
+     */
+    public Long circuitBreakerOpenTime() { return _circuitBreakerOpenTime; }
+
+    /**
+     * Set the time the client stops sending requests for once its
+     * circuit breaker opens.
+     *
+     * @param millis the time in milliseconds
+     * @return these options
+     */
+    public HTTPClientOptions circuitBreakerOpenTime(long millis) {
+	this._circuitBreakerOpenTime = millis;
+	return this;
+    }
+
+  //----------------------------------------------------------------------------
+  // Metrics
+  //----------------------------------------------------------------------------
+
+    /**
+     * Whether the client records the latency and outcome of each
+     * request into its {@link BaseClient#metrics()}.  Off by default,
+     * unless MXBeans or a reporter are asked for: recording is cheap,
+     * but each operation's latencies, in total and in each topic it is
+     * used in, take a {@link LatencyHistogram} of about 16 kilobytes.
+     *
+     * @return whether to record metrics
+     */
+    public Boolean recordMetrics() { return _recordMetrics; }
+
+    /**
+     * Set whether the client records the latency and outcome of each
+     * request.
+     *
+     * @param record whether to record metrics
+     * @return these options
+     */
+    public HTTPClientOptions recordMetrics(Boolean record) {
+	this._recordMetrics = record;
+	return this;
+    }
+
+    /**
+     * Maximum number of topics whose metrics are recorded
+     * individually.
+     *
+     * @return the number of topics
+     * @see ClientMetrics
+     */
+    public Integer metricsMaxTopics() { return _metricsMaxTopics; }
+
+    /**
+     * Set the maximum number of topics whose metrics are recorded
+     * individually.
+     *
+     * @param max the number of topics
+     * @return these options
+     */
+    public HTTPClientOptions metricsMaxTopics(Integer max) {
+	this._metricsMaxTopics = max;
+	return this;
+    }
+
+    /**
+     * Whether the client's metrics are published as MXBeans, from
+     * creation until the client is closed.  Off by default; turning
+     * this on also records metrics.
+     *
+     * @return whether to register MXBeans
+     * @see ClientMetrics#register(String)
+     */
+    public Boolean registerMBeans() { return _registerMBeans; }
+
+    /**
+     * Set whether the client's metrics are published as MXBeans.
+     *
+     * @param register whether to register MXBeans
+     * @return these options
+     */
+    public HTTPClientOptions registerMBeans(Boolean register) {
+	this._registerMBeans = register;
+	return this;
+    }
+
+    /**
+     * The reporter the client's metrics are periodically handed to,
+     * if any.
+     *
+     * @return the reporter or <code>null</code>
+     */
+    public MetricsReporter metricsReporter() { return _metricsReporter; }
+
+    /**
+     * Hand the client's metrics to the given reporter every {@link
+     * #metricsReportInterval()} and once more when the client is
+     * closed.  Setting a reporter also records metrics.
+     *
+     * @param reporter the reporter
+     * @return these options
+     */
+    public HTTPClientOptions metricsReporter(MetricsReporter reporter) {
+	this._metricsReporter = reporter;
+	return this;
+    }
+
+    /**
+     * Time between reports of the client's metrics.
+     *
+     * @return the time in milliseconds
+     */
+    public Long metricsReportInterval() { return _metricsReportInterval; }
+
+    /**
+     * Set the time between reports of the client's metrics.
+     *
+     * @param millis the time in milliseconds
+     * @return these options
+     */
+    public HTTPClientOptions metricsReportInterval(long millis) {
+	this._metricsReportInterval = millis;
+	return this;
+    }
+
+  //----------------------------------------------------------------------------
+  // Caching
+  //----------------------------------------------------------------------------
+
+    /**
+     * Maximum number of stashed values cached by the client.  Zero,
+     * the default, disables caching.
+     *
+     * @return the number of values
+     * @see StashCache
+     */
+    public Integer stashCacheSize() { return _stashCacheSize; }
+
+    /**
+     * Cache up to the given number of stashed values.
+     *
+     * @param size the number of values
+     * @return these options
+     */
+    public HTTPClientOptions stashCacheSize(Integer size) {
+	this._stashCacheSize = size;
+	return this;
+    }
+
+    /**
+     * Time a cached stash value is held for, unless overridden for
+     * its topic.
+     *
+     * @return the time in milliseconds
+     */
+    public Long stashCacheTtl() { return _stashCacheTtl; }
+
+    /**
+     * Set the time a cached stash value is held for.
+     *
+     * @param millis the time in milliseconds
+     * @return these options
+     */
+    public HTTPClientOptions stashCacheTtl(long millis) {
+	this._stashCacheTtl = millis;
+	return this;
+    }
+
+    /**
+     * Times cached stash values are held for in particular topics.
+     *
+     * @return the time in milliseconds for each topic
+     */
+    public Map<String,Long> stashCacheTtls() { return _stashCacheTtls; }
+
+    /**
+     * Set the time cached stash values in the given topic are held
+     * for.  A time of 0 disables caching for the topic.
+     *
+     * @param topic the topic
+     * @param millis the time in milliseconds
+     * @return these options
+     */
+    public HTTPClientOptions stashCacheTtl(String topic, long millis) {
+	this._stashCacheTtls.put(topic, millis);
+	return this;
+    }
+}
@@ -0,0 +1,208 @@
+package com.infochimps.vayacondios;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.http.client.protocol.RequestAcceptEncoding;
+import org.apache.http.client.protocol.ResponseContentEncoding;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+
+import com.ning.http.client.AsyncCompletionHandler;
+import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.AsyncHttpClientConfig;
+import com.ning.http.client.Response;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+
+/** Everything an {@link HTTPClient} needs to talk to the Vayacondios
+ * servers which doesn't depend on its organization: the servers
+ * themselves, the synchronous and asynchronous HTTP clients with
+ * their connection pools and IO threads, the serializer, request
+ * body buffers, the in-flight write limit, and the threads which
+ * parse responses and run background tasks.
+ * <p>
+ * A standalone client owns a transport of its own.  An {@link
+ * HTTPClientFactory} shares one among the clients it creates.
+ */
+class HTTPTransport {
+
+    private static Logger LOG = LoggerFactory.getLogger(HTTPTransport.class);
+
+    /** Idle request body buffers kept for reuse. */
+    static final int BUFFER_POOL_SIZE         = 64;
+    static final int BUFFER_SIZE              = 1024;
+    static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+
+    final Endpoint[]               endpoints;
+    final LoadBalancing            balancing;
+    final DefaultHttpClient        sync;
+    final AsyncHttpClient          async;
+    final Gson                     serializer;
+    final ConcurrentMap<Class<?>,TypeAdapter<?>> adapters = new ConcurrentHashMap<Class<?>,TypeAdapter<?>>();
+    final BufferPool               buffers;
+    final int                      compressionThreshold;
+    final WriteLimiter             limiter;
+    final RetryPolicy              readRetries;
+    final RetryPolicy              writeRetries;
+    final long                     closeTimeout;
+    final ExecutorService          parser;
+    final ScheduledExecutorService scheduler;
+    private ScheduledExecutorService batchTimer;
+
+    HTTPTransport(List<String> endpoints, HTTPClientOptions options) {
+	if (endpoints.isEmpty()) throw new IllegalArgumentException("Need at least one endpoint");
+	this.endpoints   = new Endpoint[endpoints.size()];
+	for (int i = 0; i < this.endpoints.length; i++) {
+	    CircuitBreaker breaker = (options.circuitBreakerThreshold() > 0) ? new CircuitBreaker(options.circuitBreakerThreshold(), options.circuitBreakerOpenTime()) : null;
+	    this.endpoints[i] = Endpoint.parse(endpoints.get(i), HTTPClient.DEFAULT_PORT, breaker);
+	}
+	this.balancing   = options.loadBalancing();
+	this.sync        = synchronousClient(options);
+	this.async       = new AsyncHttpClient(new AsyncHttpClientConfig.Builder()
+					       .setConnectionTimeoutInMs(options.connectTimeout())
+					       .setIdleConnectionTimeoutInMs(options.socketTimeout())
+					       .setIdleConnectionInPoolTimeoutInMs(options.idleConnectionTimeout().intValue())
+					       .setCompressionEnabled(options.acceptCompressedResponses())
+					       .build());
+	this.scheduler   = Executors.newSingleThreadScheduledExecutor(daemonThreads("vayacondios-scheduler"));
+	final ClientConnectionManager connections = sync.getConnectionManager();
+	final long idleTimeout = options.idleConnectionTimeout();
+	this.scheduler.scheduleWithFixedDelay(new Runnable() {
+		public void run() {
+		    connections.closeExpiredConnections();
+		    connections.closeIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
+		}
+	    }, idleTimeout, Math.max(1000, idleTimeout / 2), TimeUnit.MILLISECONDS);
+	this.serializer  = new GsonBuilder()
+	    .disableHtmlEscaping()
+	    .serializeNulls()
+	    .create();
+	this.parser       = Executors.newFixedThreadPool(options.parseThreads(), daemonThreads("vayacondios-parser"));
+	this.buffers      = new BufferPool(BUFFER_POOL_SIZE, BUFFER_SIZE, options.batchAnnouncements() ? Math.max(MAX_RETAINED_BUFFER_SIZE, 2 * options.batchBytes()) : MAX_RETAINED_BUFFER_SIZE);
+	this.compressionThreshold = options.compressRequests() ? options.compressionThreshold() : -1;
+	this.limiter      = new WriteLimiter(options.maxInFlightWrites(), options.overflowPolicy());
+	this.readRetries  = options.readRetryPolicy();
+	this.writeRetries = options.writeRetryPolicy();
+	this.closeTimeout = options.closeTimeout();
+	if (this.endpoints.length > 1 && options.healthCheckInterval() > 0) {
+	    long interval = options.healthCheckInterval();
+	    this.scheduler.scheduleWithFixedDelay(this::checkHealth, interval, interval, TimeUnit.MILLISECONDS);
+	}
+    }
+
+    /**
+     * The timer which flushes batched announcements, shared by every
+     * client on this transport.  Kept apart from the {@link
+     * #scheduler} because sending a batch may block waiting for room
+     * among the in-flight writes, which the scheduler frees by
+     * running retries.
+     */
+    synchronized ScheduledExecutorService batchTimer() {
+	if (batchTimer == null) batchTimer = Executors.newSingleThreadScheduledExecutor(daemonThreads("vayacondios-batcher"));
+	return batchTimer;
+    }
+
+    /**
+     * Wait up to the given time for in-flight writes to finish, then
+     * close the HTTP clients and stop every thread.
+     *
+     * @param timeout maximum time to wait in milliseconds
+     */
+    void close(long timeout) {
+	try {
+	    if (!limiter.drain(timeout)) {
+		LOG.warn("Closing with " + limiter.inFlight() + " writes still in flight after " + timeout + "ms");
+	    }
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	}
+	async.close();
+	parser.shutdown();
+	scheduler.shutdownNow();
+	synchronized (this) {
+	    if (batchTimer != null) batchTimer.shutdownNow();
+	}
+	sync.getConnectionManager().shutdown();
+    }
+
+    //----------------------------------------------------------------------------
+    // Health checks
+    //----------------------------------------------------------------------------
+
+    /**
+     * Check whether each server is healthy, passing over those which
+     * don't answer their <code>/status</code> or answer with a 5xx
+     * until they pass a later check.
+     */
+    private void checkHealth() {
+	for (final Endpoint endpoint : endpoints) {
+	    try {
+		async.prepareGet(endpoint.url("/status")).execute(new AsyncCompletionHandler<Response>() {
+			@Override
+			public Response onCompleted(Response r) {
+			    healthy(endpoint, r.getStatusCode() < 500, "status " + r.getStatusCode());
+			    return r;
+			}
+
+			@Override
+			public void onThrowable(Throwable t) {
+			    healthy(endpoint, false, t.toString());
+			}
+		    });
+	    } catch (IOException | RuntimeException e) {
+		healthy(endpoint, false, e.toString());
+	    }
+	}
+    }
+
+    private void healthy(Endpoint endpoint, boolean healthy, String outcome) {
+	if (healthy == endpoint.isHealthy()) return;
+	endpoint.healthy(healthy);
+	if (healthy) {
+	    LOG.info("Health check of " + endpoint + " passed, sending it requests again");
+	} else {
+	    LOG.warn("Health check of " + endpoint + " failed (" + outcome + "), passing it over");
+	}
+    }
+
+    private static DefaultHttpClient synchronousClient(HTTPClientOptions options) {
+	PoolingClientConnectionManager connections = new PoolingClientConnectionManager();
+	connections.setMaxTotal(options.maxConnections());
+	connections.setDefaultMaxPerRoute(options.maxConnectionsPerRoute());
+	DefaultHttpClient client = new DefaultHttpClient(connections);
+	if (options.acceptCompressedResponses()) {
+	    client.addRequestInterceptor(new RequestAcceptEncoding());
+	    client.addResponseInterceptor(new ResponseContentEncoding());
+	}
+	HttpParams params = client.getParams();
+	HttpConnectionParams.setConnectionTimeout(params, options.connectTimeout());
+	HttpConnectionParams.setSoTimeout(params, options.socketTimeout());
+	return client;
+    }
+
+    static ThreadFactory daemonThreads(final String name) {
+	return new ThreadFactory() {
+	    public Thread newThread(Runnable r) {
+		Thread t = new Thread(r, name);
+		t.setDaemon(true);
+		return t;
+	    }
+	};
+    }
+}
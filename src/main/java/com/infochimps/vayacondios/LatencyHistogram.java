@@ -0,0 +1,108 @@
+package com.infochimps.vayacondios;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/** A lock-free histogram of latencies in microseconds.
+ * <p>
+ * Values are counted in log-linear buckets: exactly below 128, and
+ * to within 1/64th (about 1.5%) above, up to 2<sup>36</sup>
+ * microseconds (about 19 hours), so percentiles are accurate to about
+ * two significant figures across any realistic range of latencies.
+ * Latencies beyond that share the last bucket.  The histogram holds
+ * 1984 counts, about 16 kilobytes.  Any number of threads may record
+ * at once.
+ * <p>
+ * {@link #record(long, long)} corrects for coordinated omission: when
+ * a request that should have been sent every <code>interval</code>
+ * microseconds stalls, the requests which would have been sent (and
+ * stalled) in the meantime are recorded too.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKETS = 64;
+    private static final int LINEAR     = 2 * SUB_BUCKETS;
+    static final int         BUCKETS    = LINEAR + 29 * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder       total  = new LongAdder();
+    private final LongAdder       sum    = new LongAdder();
+    private final AtomicLong      max    = new AtomicLong();
+
+    /**
+     * Record a latency.
+     *
+     * @param micros the latency in microseconds
+     */
+    public void record(long micros) {
+	if (micros < 0) micros = 0;
+	counts.incrementAndGet(Math.min(index(micros), BUCKETS - 1));
+	total.increment();
+	sum.add(micros);
+	long current;
+	while (micros > (current = max.get()) && !max.compareAndSet(current, micros)) {}
+    }
+
+    /**
+     * Record a latency, along with the latencies of the requests
+     * which would have been sent while it was outstanding.
+     *
+     * @param micros the latency in microseconds
+     * @param interval the expected time between requests in microseconds, or 0 for none
+     */
+    public void record(long micros, long interval) {
+	record(micros);
+	if (interval <= 0) return;
+	for (long missed = micros - interval; missed >= interval; missed -= interval) record(missed);
+    }
+
+    /**
+     * Number of latencies recorded.
+     */
+    public long count() { return total.sum(); }
+
+    /**
+     * Largest latency recorded, in microseconds.
+     */
+    public long max() { return max.get(); }
+
+    /**
+     * Mean latency recorded, in microseconds.
+     */
+    public double mean() {
+	long count = total.sum();
+	return (count == 0) ? 0 : (double) sum.sum() / count;
+    }
+
+    /**
+     * The latency below which the given fraction of latencies fall.
+     *
+     * @param fraction between 0 and 1, e.g. - 0.99 for the 99th percentile
+     * @return the latency in microseconds
+     */
+    public long percentile(double fraction) {
+	long count = total.sum();
+	if (count == 0) return 0;
+	long rank = Math.max(1, (long) Math.ceil(fraction * count));
+	long seen = 0;
+	for (int i = 0; i < BUCKETS; i++) {
+	    seen += counts.get(i);
+	    if (seen >= rank) return (i == BUCKETS - 1) ? max.get() : Math.min(highest(i), max.get());
+	}
+	return max.get();
+    }
+
+    static int index(long value) {
+	if (value < LINEAR) return (int) value;
+	int shift = 57 - Long.numberOfLeadingZeros(value);
+	return LINEAR + (shift - 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    static long highest(int index) {
+	if (index < LINEAR) return index;
+	int  shift = (index - LINEAR) / SUB_BUCKETS + 1;
+	long top   = (index - LINEAR) % SUB_BUCKETS + SUB_BUCKETS;
+	return ((top + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,76 @@
+package com.infochimps.vayacondios;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/** How an {@link HTTPClient} with several {@link Endpoint}s chooses
+ * which to send each request to.
+ * <p>
+ * Either way, servers which failed their last health check or whose
+ * circuit breaker is open are passed over while any others remain,
+ * and a retried request goes to a different server than the attempt
+ * which failed, if there is one.
+ *
+ * @see HTTPClientOptions#loadBalancing(LoadBalancing)
+ */
+public enum LoadBalancing {
+
+    /** Send each request to the server with the fewest outstanding
+     * requests, breaking ties at random. */
+    LEAST_OUTSTANDING {
+	Endpoint choose(Endpoint[] endpoints, Endpoint avoid) {
+	    int      n     = endpoints.length;
+	    int      start = ThreadLocalRandom.current().nextInt(n);
+	    Endpoint best  = null;
+	    for (int i = 0; i < n; i++) {
+		Endpoint endpoint = endpoints[(start + i) % n];
+		if (endpoint == avoid || !endpoint.isAvailable()) continue;
+		if (best == null || endpoint.outstanding() < best.outstanding()) best = endpoint;
+	    }
+	    return best;
+	}
+    },
+
+    /** Pick two servers at random and send each request to the one
+     * with fewer outstanding requests.  Nearly as even as {@link
+     * #LEAST_OUTSTANDING} while looking at only two servers, and less
+     * prone to many clients piling onto the same idle server. */
+    POWER_OF_TWO_CHOICES {
+	Endpoint choose(Endpoint[] endpoints, Endpoint avoid) {
+	    Endpoint first  = sample(endpoints, avoid, null);
+	    Endpoint second = (first == null) ? null : sample(endpoints, avoid, first);
+	    if (first == null) return LEAST_OUTSTANDING.choose(endpoints, avoid);
+	    if (second == null) return first;
+	    return (second.outstanding() < first.outstanding()) ? second : first;
+	}
+
+	/** A random available endpoint, giving up after a few misses. */
+	private Endpoint sample(Endpoint[] endpoints, Endpoint avoid, Endpoint other) {
+	    ThreadLocalRandom random = ThreadLocalRandom.current();
+	    for (int tries = 0; tries < 2 * endpoints.length; tries++) {
+		Endpoint endpoint = endpoints[random.nextInt(endpoints.length)];
+		if (endpoint != avoid && endpoint != other && endpoint.isAvailable()) return endpoint;
+	    }
+	    return null;
+	}
+    };
+
+    /**
+     * Choose an available endpoint other than <code>avoid</code>.
+     *
+     * @return the endpoint or <code>null</code> if none is available
+     */
+    abstract Endpoint choose(Endpoint[] endpoints, Endpoint avoid);
+
+    /**
+     * Choose the endpoint for a request, preferring available
+     * endpoints other than <code>avoid</code>, then
+     * <code>avoid</code> itself, then any endpoint at all.
+     */
+    Endpoint select(Endpoint[] endpoints, Endpoint avoid) {
+	if (endpoints.length == 1) return endpoints[0];
+	Endpoint endpoint = choose(endpoints, avoid);
+	if (endpoint != null) return endpoint;
+	if (avoid != null && avoid.isAvailable()) return avoid;
+	return endpoints[ThreadLocalRandom.current().nextInt(endpoints.length)];
+    }
+}
@@ -0,0 +1,121 @@
+package com.infochimps.vayacondios;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+
+import org.apache.http.client.HttpResponseException;
+
+/** Fetches many values from one stash.
+ * <p>
+ * Each value is fetched by its ID, several at once, and as each
+ * fetch finishes the next waiting ID is fetched in its place.  A
+ * value the server answers 404 for is missing; any other failure is
+ * an error for that ID alone.
+ */
+class ManyGetter {
+
+    private final List<String> ids;
+    private final int parallelism;
+    private final Function<String,CompletableFuture<Map<String,Object>>> fetch;
+
+    private final Map<String,Map<String,Object>> values  = new LinkedHashMap<String,Map<String,Object>>();
+    private final Set<String>                    missing = new LinkedHashSet<String>();
+    private final Map<String,Throwable>          errors  = new LinkedHashMap<String,Throwable>();
+    private final CompletableFuture<GetManyResult> result = new CompletableFuture<GetManyResult>();
+    private final Deque<String>                  queued  = new ArrayDeque<String>();
+    private int                                  outstanding;
+
+    /**
+     * @param ids the IDs of the values to fetch
+     * @param parallelism the most values to fetch at once
+     * @param fetch fetches the Map stored at an ID within the stash
+     */
+    ManyGetter(Collection<String> ids, int parallelism,
+	       Function<String,CompletableFuture<Map<String,Object>>> fetch) {
+	if (parallelism < 1) throw new IllegalArgumentException("Must fetch at least one value at a time: " + parallelism);
+	this.ids         = new ArrayList<String>(new LinkedHashSet<String>(ids));
+	this.parallelism = parallelism;
+	this.fetch       = fetch;
+    }
+
+    /**
+     * Start fetching.
+     *
+     * @return the future result, which never fails
+     */
+    CompletableFuture<GetManyResult> start() {
+	if (ids.isEmpty()) {
+	    finish();
+	} else {
+	    fetchEach(ids);
+	}
+	return result;
+    }
+
+    private void fetchEach(List<String> ids) {
+	synchronized (this) {
+	    queued.addAll(ids);
+	}
+	for (int i = 0; i < parallelism; i++) fetchNext();
+    }
+
+    private void fetchNext() {
+	final String id;
+	synchronized (this) {
+	    id = queued.poll();
+	    if (id == null) return;
+	    outstanding += 1;
+	}
+	CompletableFuture<Map<String,Object>> value;
+	try {
+	    value = fetch.apply(id);
+	} catch (RuntimeException e) {
+	    value = new CompletableFuture<Map<String,Object>>();
+	    value.completeExceptionally(e);
+	}
+	value.whenComplete((map, failure) -> fetched(id, map, failure));
+    }
+
+    private void fetched(String id, Map<String,Object> value, Throwable failure) {
+	boolean done;
+	synchronized (this) {
+	    if (failure instanceof CompletionException && failure.getCause() != null) failure = failure.getCause();
+	    if (failure == null && value != null) {
+		values.put(id, value);
+	    } else if (failure == null || (failure instanceof HttpResponseException && ((HttpResponseException) failure).getStatusCode() == 404)) {
+		missing.add(id);
+	    } else {
+		errors.put(id, failure);
+	    }
+	    outstanding -= 1;
+	    done = (outstanding == 0 && queued.isEmpty());
+	}
+	if (done) {
+	    finish();
+	} else {
+	    fetchNext();
+	}
+    }
+
+    private void finish() {
+	Map<String,Map<String,Object>> found;
+	Set<String>                    absent;
+	Map<String,Throwable>          failed;
+	synchronized (this) {
+	    found  = new LinkedHashMap<String,Map<String,Object>>(values);
+	    absent = new LinkedHashSet<String>(missing);
+	    failed = new LinkedHashMap<String,Throwable>(errors);
+	}
+	result.complete(new GetManyResult(found, absent, failed));
+    }
+}
@@ -0,0 +1,29 @@
+package com.infochimps.vayacondios;
+
+/** Publishes a client's metrics somewhere, e.g. - a log or a
+ * monitoring system.
+ * <p>
+ * An {@link HTTPClient} calls its reporter periodically on a
+ * background thread, and once more when it is closed:
+ *
+ * <blockquote><pre>{@code
+ * HTTPClientOptions options = new HTTPClientOptions()
+ *   .metricsReporter(metrics -> {
+ *     OperationStats announces = metrics.stats(Operation.ANNOUNCE);
+ *     graphite.send("vcd.announce.p99", announces.get99thPercentileLatency());
+ *   })
+ *   .metricsReportInterval(10000);
+ * }</pre></blockquote>
+ *
+ * @see HTTPClientOptions#metricsReporter(MetricsReporter)
+ */
+public interface MetricsReporter {
+
+    /**
+     * Publish the current metrics.  Counts and latencies are
+     * cumulative since the client was created.
+     *
+     * @param metrics the client's metrics
+     */
+    void report(ClientMetrics metrics);
+}
@@ -0,0 +1,37 @@
+package com.infochimps.vayacondios;
+
+/** The kinds of request a client makes, as reported to {@link
+ * RequestListener}s and recorded by {@link ClientMetrics}.
+ */
+public enum Operation {
+
+    /** Announcing an event.  Batched announcements complete once queued. */
+    ANNOUNCE,
+
+    /** Sending a batch of announced events. */
+    BATCH,
+
+    /** Searching events. */
+    EVENTS,
+
+    /** Fetching a stash or a value within one. */
+    GET,
+
+    /** Searching stashes. */
+    STASHES,
+
+    /** Replacing a stash or a value within one.  Coalesced writes
+     * complete once queued. */
+    SET,
+
+    /** Merging into a stash or a value within one.  Coalesced writes
+     * complete once queued. */
+    MERGE,
+
+    /** Sending the sets and merges of a stashed value coalesced over
+     * a window. */
+    COALESCED,
+
+    /** Deleting a stash or a value within one. */
+    DELETE
+}
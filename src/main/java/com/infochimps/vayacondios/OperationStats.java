@@ -0,0 +1,80 @@
+package com.infochimps.vayacondios;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/** Counts and latencies of one {@link Operation}, either across all
+ * topics or within a single topic, since the client was created.
+ * <p>
+ * Recording takes a handful of uncontended atomic increments, so
+ * any number of threads can record at once without locking.  Every
+ * finished request contributes its latency, whatever its outcome.
+ */
+public class OperationStats implements OperationStatsMXBean {
+
+    private final LatencyHistogram latency   = new LatencyHistogram();
+    private final LongAdder        successes = new LongAdder();
+    private final LongAdder        failures  = new LongAdder();
+    private final LongAdder        timeouts  = new LongAdder();
+    private final LongAdder        inFlight  = new LongAdder();
+
+    void started() {
+	inFlight.increment();
+    }
+
+    void succeeded(long micros) {
+	finished(micros);
+	successes.increment();
+    }
+
+    void failed(long micros) {
+	finished(micros);
+	failures.increment();
+    }
+
+    void timedOut(long micros) {
+	finished(micros);
+	timeouts.increment();
+    }
+
+    private void finished(long micros) {
+	inFlight.decrement();
+	latency.record(micros);
+    }
+
+    /**
+     * The latencies of every finished request.
+     *
+     * @return the histogram, in microseconds
+     */
+    public LatencyHistogram latency() { return latency; }
+
+    @Override
+    public long getRequests() { return latency.count(); }
+
+    @Override
+    public long getSuccesses() { return successes.sum(); }
+
+    @Override
+    public long getFailures() { return failures.sum(); }
+
+    @Override
+    public long getTimeouts() { return timeouts.sum(); }
+
+    @Override
+    public long getInFlight() { return inFlight.sum(); }
+
+    @Override
+    public double getMeanLatency() { return latency.mean() / 1000.0; }
+
+    @Override
+    public double getMedianLatency() { return latency.percentile(0.5) / 1000.0; }
+
+    @Override
+    public double get99thPercentileLatency() { return latency.percentile(0.99) / 1000.0; }
+
+    @Override
+    public double get999thPercentileLatency() { return latency.percentile(0.999) / 1000.0; }
+
+    @Override
+    public double getMaxLatency() { return latency.max() / 1000.0; }
+}
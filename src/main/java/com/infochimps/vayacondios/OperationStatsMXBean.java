@@ -0,0 +1,28 @@
+package com.infochimps.vayacondios;
+
+/** The JMX view of an {@link OperationStats}.  Latencies are in
+ * milliseconds.
+ */
+public interface OperationStatsMXBean {
+
+    /** Number of finished requests. */
+    long getRequests();
+
+    /** Number of requests which succeeded. */
+    long getSuccesses();
+
+    /** Number of requests which failed, other than by timing out. */
+    long getFailures();
+
+    /** Number of requests which timed out. */
+    long getTimeouts();
+
+    /** Number of requests started but not yet finished. */
+    long getInFlight();
+
+    double getMeanLatency();
+    double getMedianLatency();
+    double get99thPercentileLatency();
+    double get999thPercentileLatency();
+    double getMaxLatency();
+}
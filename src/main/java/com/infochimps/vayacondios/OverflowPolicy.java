@@ -0,0 +1,22 @@
+package com.infochimps.vayacondios;
+
+/** What an {@link HTTPClient} does with a new write when it already
+ * has as many writes in flight as it is allowed.
+ *
+ * @see HTTPClientOptions#maxInFlightWrites(Integer)
+ */
+public enum OverflowPolicy {
+
+    /** Block the calling thread until an in-flight write finishes. */
+    BLOCK,
+
+    /** Discard the new write. */
+    DROP_NEWEST,
+
+    /** Cancel the oldest in-flight write to make room for the new one. */
+    DROP_OLDEST,
+
+    /** Reject the new write by throwing a {@link WriteRejectedException}
+     * to its caller. */
+    FAIL
+}
@@ -0,0 +1,233 @@
+package com.infochimps.vayacondios;
+
+import java.time.Instant;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.gson.Gson;
+
+/** An immutable query for events or stashes, built up fluently.
+ * <p>
+ * Every search method takes a query as a Map, and a Query is one:
+ * each method below returns a new Query with one more condition or
+ * option, leaving the original untouched, so a Query can be built
+ * once, shared between threads, and reused or extended freely:
+ *
+ * <blockquote><pre>{@code
+ * Query recent = new Query()
+ *   .where("ip", "10.123.123.123")
+ *   .from("2013-06-09T00:00:00Z")
+ *   .fields("type", "priority")
+ *   .sort("priority").ascending()
+ *   .limit(1000);
+ * List<Map<String,Object>> events = client.events("intrusions", recent);
+ * List<Map<String,Object>> alerts = client.events("alerts", recent.where("level", "high"));
+ * }</pre></blockquote>
+ *
+ * Asking for only the <code>fields</code> you need keeps the rest of
+ * each event or stash off the wire.  The JSON body of a query is
+ * built the first time it is sent and reused each time after.
+ * <p>
+ * The time window (<code>from</code>, <code>after</code>,
+ * <code>upto</code>, and <code>before</code>) applies only to
+ * events.  Values passed to {@link #where(String, Object)} should
+ * not be changed once they are part of a query.
+ */
+public class Query extends AbstractMap<String,Object> {
+
+    private final Map<String,Object> terms;
+
+    /** The JSON body last built, and the serializer which built it. */
+    private volatile Object[] json;
+
+    /**
+     * Create a query which matches everything.
+     */
+    public Query() {
+	this(Collections.<String,Object>emptyMap());
+    }
+
+    private Query(Map<String,Object> terms) {
+	this.terms = Collections.unmodifiableMap(terms);
+    }
+
+  //----------------------------------------------------------------------------
+  // Conditions
+  //----------------------------------------------------------------------------
+
+    /**
+     * Match only documents whose field has the given value.
+     * Periods in the field name reach into nested fields.
+     *
+     * @param field the field to match
+     * @param value the value it must have
+     * @return a new query
+     */
+    public Query where(String field, Object value) {
+	return with(field, value);
+    }
+
+    /**
+     * Match only events which occurred at or after the given time.
+     *
+     * @param time a timestamp, a number of seconds since the epoch, a Date, or an Instant
+     * @return a new query
+     */
+    public Query from(Object time) {
+	return with("from", timestamp(time), "after");
+    }
+
+    /**
+     * Match only events which occurred after the given time.
+     *
+     * @param time a timestamp, a number of seconds since the epoch, a Date, or an Instant
+     * @return a new query
+     */
+    public Query after(Object time) {
+	return with("after", timestamp(time), "from");
+    }
+
+    /**
+     * Match only events which occurred at or before the given time.
+     *
+     * @param time a timestamp, a number of seconds since the epoch, a Date, or an Instant
+     * @return a new query
+     */
+    public Query upto(Object time) {
+	return with("upto", timestamp(time), "before");
+    }
+
+    /**
+     * Match only events which occurred before the given time.
+     *
+     * @param time a timestamp, a number of seconds since the epoch, a Date, or an Instant
+     * @return a new query
+     */
+    public Query before(Object time) {
+	return with("before", timestamp(time), "upto");
+    }
+
+  //----------------------------------------------------------------------------
+  // Options
+  //----------------------------------------------------------------------------
+
+    /**
+     * Return only these fields of each document.
+     *
+     * @param fields the fields to return
+     * @return a new query
+     */
+    public Query fields(String... fields) {
+	return fields(Arrays.asList(fields));
+    }
+
+    /**
+     * Return only these fields of each document.
+     *
+     * @param fields the fields to return
+     * @return a new query
+     */
+    public Query fields(List<String> fields) {
+	return with("fields", Collections.unmodifiableList(new ArrayList<String>(fields)));
+    }
+
+    /**
+     * Sort documents by this field.  Periods in the field name reach
+     * into nested fields.
+     *
+     * @param field the field to sort by
+     * @return a new query
+     */
+    public Query sort(String field) {
+	return with("sort", field);
+    }
+
+    /**
+     * Return documents in ascending order.
+     *
+     * @return a new query
+     */
+    public Query ascending() {
+	return with("order", "asc");
+    }
+
+    /**
+     * Return documents in descending order.
+     *
+     * @return a new query
+     */
+    public Query descending() {
+	return with("order", "desc");
+    }
+
+    /**
+     * Return at most this many documents.
+     *
+     * @param limit the most documents to return
+     * @return a new query
+     */
+    public Query limit(int limit) {
+	if (limit < 1) throw new IllegalArgumentException("Limit must be positive: " + limit);
+	return with("limit", limit);
+    }
+
+  //----------------------------------------------------------------------------
+  // Map
+  //----------------------------------------------------------------------------
+
+    @Override
+    public Set<Map.Entry<String,Object>> entrySet() {
+	return terms.entrySet();
+    }
+
+    @Override
+    public Object get(Object key) {
+	return terms.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+	return terms.containsKey(key);
+    }
+
+    @Override
+    public int size() {
+	return terms.size();
+    }
+
+    /**
+     * The JSON body of this query, built by the given serializer the
+     * first time and reused after.
+     */
+    String json(Gson serializer) {
+	Object[] built = json;
+	if (built != null && built[0] == serializer) return (String) built[1];
+	String body = serializer.toJson(terms);
+	json = new Object[] { serializer, body };
+	return body;
+    }
+
+    private Query with(String key, Object value, String... without) {
+	Map<String,Object> terms = new LinkedHashMap<String,Object>(this.terms);
+	for (String other : without) terms.remove(other);
+	terms.put(key, value);
+	return new Query(terms);
+    }
+
+    /**
+     * Times which Gson wouldn't serialize as the server expects are
+     * sent as ISO 8601 timestamps.
+     */
+    private static Object timestamp(Object time) {
+	if (time instanceof Date)    return ((Date) time).toInstant().toString();
+	if (time instanceof Instant) return time.toString();
+	return time;
+    }
+}
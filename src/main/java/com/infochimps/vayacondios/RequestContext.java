@@ -0,0 +1,264 @@
+package com.infochimps.vayacondios;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** A single request made by a client, as seen by its {@link
+ * RequestListener}s.
+ * <p>
+ * Describes what the request is (its {@link Operation}, topic, and
+ * ID), how large it was, and when it reached each stage.  Times are
+ * {@link System#nanoTime()} readings, 0 for stages not (yet) reached:
+ *
+ * <blockquote><pre>{@code
+ * long waiting = request.receivedNanos() - request.sentNanos();
+ * long parsing = request.parsedNanos()   - request.receivedNanos();
+ * }</pre></blockquote>
+ *
+ * Contexts are created by {@link BaseClient} and advanced by its
+ * subclasses, which call {@link #sent(long)}, {@link #received(int,
+ * long)}, and {@link #parsed()} as a request progresses.  Listeners
+ * can hang state of their own (e.g. - a tracing span) off a context
+ * with {@link #attribute(String, Object)}.
+ */
+public class RequestContext {
+
+    private static Logger LOG = LoggerFactory.getLogger(RequestContext.class);
+
+    private final RequestListener[] listeners;
+    private final Operation         operation;
+    private final String            topic;
+    private final String            id;
+    private final long              startNanos;
+    private final AtomicBoolean     finished = new AtomicBoolean();
+
+    private volatile long sentNanos;
+    private volatile long receivedNanos;
+    private volatile long parsedNanos;
+    private volatile long finishedNanos;
+    private volatile long bytesSent     = -1;
+    private volatile long bytesReceived = -1;
+    private volatile int  status;
+
+    private Map<String,Object> attributes;
+
+    RequestContext(RequestListener[] listeners, Operation operation, String topic, String id) {
+	this.listeners  = listeners;
+	this.operation  = operation;
+	this.topic      = topic;
+	this.id         = id;
+	this.startNanos = System.nanoTime();
+	for (RequestListener listener : listeners) {
+	    try {
+		listener.requestStarted(this);
+	    } catch (RuntimeException e) {
+		LOG.error("Request listener failed", e);
+	    }
+	}
+    }
+
+    /**
+     * The kind of request.
+     *
+     * @return the operation
+     */
+    public Operation operation() { return operation; }
+
+    /**
+     * The topic of the request.
+     *
+     * @return the topic or <code>null</code> for requests across topics
+     */
+    public String topic() { return topic; }
+
+    /**
+     * The ID within the topic the request is for.
+     *
+     * @return the ID or <code>null</code> for requests for a whole topic
+     */
+    public String id() { return id; }
+
+    /**
+     * When the request started.
+     *
+     * @return the time in nanoseconds
+     */
+    public long startNanos() { return startNanos; }
+
+    /**
+     * When the request's body was handed to the network.
+     *
+     * @return the time in nanoseconds or 0
+     */
+    public long sentNanos() { return sentNanos; }
+
+    /**
+     * When the server's response arrived.
+     *
+     * @return the time in nanoseconds or 0
+     */
+    public long receivedNanos() { return receivedNanos; }
+
+    /**
+     * When the response finished being parsed.
+     *
+     * @return the time in nanoseconds or 0
+     */
+    public long parsedNanos() { return parsedNanos; }
+
+    /**
+     * When the request completed or failed.
+     *
+     * @return the time in nanoseconds or 0
+     */
+    public long finishedNanos() { return finishedNanos; }
+
+    /**
+     * Size of the request body as sent, after any compression.
+     *
+     * @return the number of bytes or -1 if not (yet) known
+     */
+    public long bytesSent() { return bytesSent; }
+
+    /**
+     * Size of the response body as reported by the server.
+     *
+     * @return the number of bytes or -1 if not (yet) known
+     */
+    public long bytesReceived() { return bytesReceived; }
+
+    /**
+     * HTTP status of the server's response.
+     *
+     * @return the status or 0 if there has been no response (yet)
+     */
+    public int status() { return status; }
+
+    /**
+     * Whether the request has completed or failed.
+     *
+     * @return whether the request is finished
+     */
+    public boolean isFinished() { return finished.get(); }
+
+    /**
+     * A value previously attached to this request.
+     *
+     * @param name the name of the value
+     * @return the value or <code>null</code>
+     */
+    public synchronized Object attribute(String name) {
+	return (attributes == null) ? null : attributes.get(name);
+    }
+
+    /**
+     * Attach a value to this request, e.g. - so a listener can find
+     * it again at a later stage.
+     *
+     * @param name the name of the value
+     * @param value the value
+     */
+    public synchronized void attribute(String name, Object value) {
+	if (attributes == null) attributes = new HashMap<String,Object>(4);
+	attributes.put(name, value);
+    }
+
+  //----------------------------------------------------------------------------
+  // Stages
+  //----------------------------------------------------------------------------
+
+    /**
+     * Record that the request's body has been handed to the network.
+     *
+     * @param bytes size of the body as sent
+     */
+    public void sent(long bytes) {
+	this.bytesSent = bytes;
+	this.sentNanos = System.nanoTime();
+	for (RequestListener listener : listeners) {
+	    try {
+		listener.requestSent(this);
+	    } catch (RuntimeException e) {
+		LOG.error("Request listener failed", e);
+	    }
+	}
+    }
+
+    /**
+     * Record that the server has responded.
+     *
+     * @param status the HTTP status of the response
+     * @param bytes size of the response body or -1 if not known
+     */
+    public void received(int status, long bytes) {
+	this.status        = status;
+	this.bytesReceived = bytes;
+	this.receivedNanos = System.nanoTime();
+	for (RequestListener listener : listeners) {
+	    try {
+		listener.responseReceived(this);
+	    } catch (RuntimeException e) {
+		LOG.error("Request listener failed", e);
+	    }
+	}
+    }
+
+    /**
+     * Record that the response has been parsed.
+     */
+    public void parsed() {
+	this.parsedNanos = System.nanoTime();
+	for (RequestListener listener : listeners) {
+	    try {
+		listener.responseParsed(this);
+	    } catch (RuntimeException e) {
+		LOG.error("Request listener failed", e);
+	    }
+	}
+    }
+
+    /**
+     * Record that the request succeeded.  Does nothing if the request
+     * has already finished.
+     */
+    public void completed() {
+	if (!finished.compareAndSet(false, true)) return;
+	this.finishedNanos = System.nanoTime();
+	for (RequestListener listener : listeners) {
+	    try {
+		listener.requestCompleted(this);
+	    } catch (RuntimeException e) {
+		LOG.error("Request listener failed", e);
+	    }
+	}
+    }
+
+    /**
+     * Record that the request failed.  Does nothing if the request has
+     * already finished.
+     *
+     * @param failure why the request failed
+     */
+    public void failed(Throwable failure) {
+	if (!finished.compareAndSet(false, true)) return;
+	this.finishedNanos = System.nanoTime();
+	for (RequestListener listener : listeners) {
+	    try {
+		listener.requestFailed(this, failure);
+	    } catch (RuntimeException e) {
+		LOG.error("Request listener failed", e);
+	    }
+	}
+    }
+
+    @Override
+    public String toString() {
+	StringBuilder string = new StringBuilder().append(operation);
+	if (topic != null) string.append(" <").append(topic).append((id == null) ? "" : "/" + id).append('>');
+	return string.toString();
+    }
+}
@@ -0,0 +1,79 @@
+package com.infochimps.vayacondios;
+
+/** Observes the requests a client makes, e.g. - to trace them or to
+ * feed telemetry of your own.
+ * <p>
+ * Each request a {@link BaseClient} makes is described by a {@link
+ * RequestContext} which is handed to every listener at each stage of
+ * its life:
+ *
+ * <blockquote><pre>{@code
+ * client.addListener(new RequestListener() {
+ *   public void requestStarted(RequestContext request) {
+ *     request.attribute("span", tracer.start(request.operation() + " " + request.topic()));
+ *   }
+ *   public void requestCompleted(RequestContext request) {
+ *     ((Span) request.attribute("span")).finish();
+ *   }
+ *   public void requestFailed(RequestContext request, Throwable failure) {
+ *     ((Span) request.attribute("span")).error(failure).finish();
+ *   }
+ * });
+ * }</pre></blockquote>
+ *
+ * Every request which starts is either completed or failed exactly
+ * once.  The stages in between are reported when a client knows of
+ * them: reads answered from a cache, writes which are queued in a
+ * batch or spooled to disk, and results which are parsed lazily by an
+ * iterator skip some or all of them.
+ * <p>
+ * Listeners are called on whichever thread reaches each stage,
+ * including the asynchronous client's IO threads, so they must be
+ * thread-safe and quick.  Exceptions thrown by a listener are logged
+ * and otherwise ignored.  Every method does nothing by default.
+ */
+public interface RequestListener {
+
+    /**
+     * A request is about to be made.
+     *
+     * @param request the request
+     */
+    default void requestStarted(RequestContext request) {}
+
+    /**
+     * A request's body has been handed to the network.
+     *
+     * @param request the request, with its {@link RequestContext#bytesSent()}
+     */
+    default void requestSent(RequestContext request) {}
+
+    /**
+     * The server has responded to a request.
+     *
+     * @param request the request, with its {@link RequestContext#status()}
+     */
+    default void responseReceived(RequestContext request) {}
+
+    /**
+     * The response to a request has been parsed.
+     *
+     * @param request the request
+     */
+    default void responseParsed(RequestContext request) {}
+
+    /**
+     * A request has succeeded.
+     *
+     * @param request the request
+     */
+    default void requestCompleted(RequestContext request) {}
+
+    /**
+     * A request has failed.
+     *
+     * @param request the request
+     * @param failure why it failed
+     */
+    default void requestFailed(RequestContext request, Throwable failure) {}
+}
@@ -0,0 +1,150 @@
+package com.infochimps.vayacondios;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.reflect.Type;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/** Iterates over a JSON Array in a response body, parsing one element
+ * at a time as it is read from the network.
+ * <p>
+ * Only a single element is held in memory at once, however large the
+ * response, and the first element is available before the last byte
+ * of the response has arrived.
+ * <p>
+ * The iterator closes the underlying response when it is exhausted.
+ * Callers which stop early should {@link #close()} it themselves so
+ * its connection can be reused:
+ *
+ * <blockquote><pre>{@code
+ * ResultIterator<Map<String,Object>> events = client.eventsIterator("intrusions", query);
+ * try {
+ *   while (events.hasNext()) {
+ *     Map<String,Object> event = events.next();
+ *     // do stuff...
+ *   }
+ * } finally {
+ *   events.close();
+ * }
+ * }</pre></blockquote>
+ */
+public class ResultIterator<T> implements Iterator<T>, Closeable {
+
+    private final JsonReader reader;
+    private final Gson       serializer;
+    private final Type       type;
+    private final Runnable   abort;
+    private final Iterator<T> elements;
+    private boolean          open;
+
+    /**
+     * @param body the response body
+     * @param serializer parses each element
+     * @param type the type of each element
+     * @param abort called when the iterator is closed before being exhausted
+     */
+    ResultIterator(InputStream body, Gson serializer, Type type, Runnable abort) throws IOException {
+	this.reader     = new JsonReader(new InputStreamReader(body, HTTPClient.UTF8));
+	this.serializer = serializer;
+	this.type       = type;
+	this.abort      = abort;
+	this.elements   = null;
+	this.open       = true;
+	if (reader.peek() == JsonToken.NULL) {
+	    close();
+	} else {
+	    reader.beginArray();
+	}
+    }
+
+    /**
+     * An iterator over no elements.
+     *
+     * @return the iterator
+     */
+    static <T> ResultIterator<T> empty() {
+	return of(Collections.<T>emptyList());
+    }
+
+    /**
+     * An iterator over elements already read.
+     *
+     * @param elements the elements, or <code>null</code> for none
+     * @return the iterator
+     */
+    static <T> ResultIterator<T> of(List<T> elements) {
+	return new ResultIterator<T>((elements == null) ? Collections.<T>emptyList() : elements);
+    }
+
+    private ResultIterator(List<T> elements) {
+	this.reader     = null;
+	this.serializer = null;
+	this.type       = null;
+	this.abort      = null;
+	this.elements   = elements.iterator();
+	this.open       = false;
+    }
+
+    @Override
+    public boolean hasNext() {
+	if (elements != null) return elements.hasNext();
+	if (!open) return false;
+	try {
+	    if (reader.hasNext()) return true;
+	    reader.endArray();
+	    open = false;
+	    reader.close();
+	    return false;
+	} catch (IOException e) {
+	    closeQuietly();
+	    throw new JsonIOException(e);
+	}
+    }
+
+    @Override
+    public T next() {
+	if (elements != null) return elements.next();
+	if (!hasNext()) throw new NoSuchElementException();
+	try {
+	    return serializer.fromJson(reader, type);
+	} catch (RuntimeException e) {
+	    closeQuietly();
+	    throw e;
+	}
+    }
+
+    @Override
+    public void remove() {
+	throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Close the underlying response, abandoning any elements not yet
+     * read.
+     */
+    @Override
+    public void close() throws IOException {
+	if (!open) return;
+	open = false;
+	if (abort != null) abort.run();
+	reader.close();
+    }
+
+    private void closeQuietly() {
+	try {
+	    close();
+	} catch (IOException e) {
+	    // already failing
+	}
+    }
+}
@@ -0,0 +1,196 @@
+package com.infochimps.vayacondios;
+
+import java.io.InterruptedIOException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.http.client.HttpResponseException;
+
+/** How often, and how patiently, a client retries requests which
+ * failed for reasons which may well go away by themselves.
+ * <p>
+ * A failed attempt is retried after a delay which grows
+ * exponentially from the <code>initialBackoff</code> up to the
+ * <code>maxBackoff</code>.  Each delay is shortened by a random
+ * fraction of up to <code>jitter</code> so that many clients failing
+ * at once don't retry in lockstep:
+ *
+ * <blockquote><pre>{@code
+ * new RetryPolicy()
+ *   .maxAttempts(5)        // the first attempt and up to 4 retries...
+ *   .backoff(50, 5000)     // ...after 50ms, 100ms, 200ms, 400ms, up to 5s...
+ *   .jitter(0.5);          // ...each shortened by up to half
+ * }</pre></blockquote>
+ *
+ * Only {@link #isTransient(Throwable) transient} failures are
+ * retried: connection failures, timeouts, and 5xx or 429 responses.
+ * Subclasses may override {@link #retries(Throwable)} to choose
+ * differently.
+ */
+public class RetryPolicy {
+
+    /** Default number of attempts, including the first. */
+    public static int    DEFAULT_MAX_ATTEMPTS = 3;
+
+    /** Default delay before the first retry, in milliseconds. */
+    public static long   DEFAULT_INITIAL_BACKOFF = 100;
+
+    /** Default longest delay between retries, in milliseconds. */
+    public static long   DEFAULT_MAX_BACKOFF = 2000;
+
+    /** Default factor each delay grows by. */
+    public static double DEFAULT_MULTIPLIER = 2.0;
+
+    /** Default fraction of each delay which is random. */
+    public static double DEFAULT_JITTER = 1.0;
+
+    private int    _maxAttempts    = DEFAULT_MAX_ATTEMPTS;
+    private long   _initialBackoff = DEFAULT_INITIAL_BACKOFF;
+    private long   _maxBackoff     = DEFAULT_MAX_BACKOFF;
+    private double _multiplier     = DEFAULT_MULTIPLIER;
+    private double _jitter         = DEFAULT_JITTER;
+
+    /**
+     * A policy which never retries.
+     *
+     * @return the policy
+     */
+    public static RetryPolicy none() {
+	return new RetryPolicy().maxAttempts(1);
+    }
+
+    /**
+     * Number of attempts made at a request, including the first.
+     *
+     * @return the number of attempts
+     */
+    public int maxAttempts() { return _maxAttempts; }
+
+    /**
+     * Set the number of attempts made at a request, including the
+     * first.  1 disables retries.
+     *
+     * @param attempts the number of attempts
+     * @return this policy
+     */
+    public RetryPolicy maxAttempts(int attempts) {
+	if (attempts < 1) throw new IllegalArgumentException("Must make at least one attempt: " + attempts);
+	this._maxAttempts = attempts;
+	return this;
+    }
+
+    /**
+     * Delay before the first retry.
+     *
+     * @return the delay in milliseconds
+     */
+    public long initialBackoff() { return _initialBackoff; }
+
+    /**
+     * Longest delay between retries.
+     *
+     * @return the delay in milliseconds
+     */
+    public long maxBackoff() { return _maxBackoff; }
+
+    /**
+     * Set the delay before the first retry and the longest delay
+     * between retries.
+     *
+     * @param initial the first delay in milliseconds
+     * @param max the longest delay in milliseconds
+     * @return this policy
+     */
+    public RetryPolicy backoff(long initial, long max) {
+	this._initialBackoff = initial;
+	this._maxBackoff     = Math.max(initial, max);
+	return this;
+    }
+
+    /**
+     * Factor each delay grows by.
+     *
+     * @return the factor
+     */
+    public double multiplier() { return _multiplier; }
+
+    /**
+     * Set the factor each delay grows by.
+     *
+     * @param multiplier the factor, at least 1
+     * @return this policy
+     */
+    public RetryPolicy multiplier(double multiplier) {
+	this._multiplier = Math.max(1.0, multiplier);
+	return this;
+    }
+
+    /**
+     * Fraction of each delay which is random.
+     *
+     * @return the fraction between 0 and 1
+     */
+    public double jitter() { return _jitter; }
+
+    /**
+     * Set the fraction of each delay which is random.  0 retries
+     * after exactly the computed delay, 1 after anything up to it.
+     *
+     * @param jitter the fraction between 0 and 1
+     * @return this policy
+     */
+    public RetryPolicy jitter(double jitter) {
+	this._jitter = Math.min(1.0, Math.max(0.0, jitter));
+	return this;
+    }
+
+    /**
+     * Time to wait before the given retry.
+     *
+     * @param retry the number of the retry, starting from 1
+     * @return the delay in milliseconds
+     */
+    public long delay(int retry) {
+	double backoff = Math.min(_maxBackoff, _initialBackoff * Math.pow(_multiplier, retry - 1));
+	return (long) (backoff * (1.0 - _jitter * ThreadLocalRandom.current().nextDouble()));
+    }
+
+    /**
+     * Whether the given failed attempt should be retried, attempts
+     * permitting.
+     *
+     * @param failure why the attempt failed
+     * @return whether to retry
+     */
+    public boolean retries(Throwable failure) {
+	return isTransient(failure);
+    }
+
+    /**
+     * Whether a failure is likely to go away by itself: the server
+     * couldn't be reached, took too long, or answered with a 5xx or
+     * 429 response.  Client errors, cancellations, interruptions, and
+     * an open {@link CircuitBreaker} are not.
+     *
+     * @param failure the failure
+     * @return whether it is transient
+     */
+    public static boolean isTransient(Throwable failure) {
+	Throwable cause = failure;
+	while ((cause instanceof CompletionException || cause instanceof ExecutionException || cause instanceof UncheckedIOException) && cause.getCause() != null) {
+	    cause = cause.getCause();
+	}
+	if (cause instanceof HttpResponseException) {
+	    int status = ((HttpResponseException) cause).getStatusCode();
+	    return status >= 500 || status == 429;
+	}
+	if (cause instanceof CircuitOpenException || cause instanceof WriteRejectedException) return false;
+	if (cause != null && cause.getClass() == InterruptedIOException.class) return false;
+	return cause instanceof IOException || cause instanceof TimeoutException;
+    }
+}
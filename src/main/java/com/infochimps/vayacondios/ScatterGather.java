@@ -0,0 +1,301 @@
+package com.infochimps.vayacondios;
+
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/** Searches for events by splitting the query's time window into
+ * sub-windows, searching several of them at once, and merging what
+ * comes back into the order the query asked for.
+ * <p>
+ * The server scans a window sequentially, so a search over weeks of
+ * events is one long scan.  The same search split into sub-windows
+ * can be scanned concurrently.  Each sub-window is searched with the
+ * query's own <code>limit</code>, since any one of them might hold
+ * every event the whole search would return, and the results are
+ * merged and trimmed back down to that limit.
+ * <p>
+ * When events are sorted by time (the default) the sub-windows are
+ * searched in the order their events will be returned.  Once the
+ * sub-windows at the front have returned the limit between them the
+ * search is done, and sub-windows still being searched are
+ * abandoned.  Sorted by anything else, every sub-window must be
+ * searched.
+ */
+class ScatterGather {
+
+    /** Events a search returns when it sets no limit. */
+    static final int  LIMIT  = 50;
+
+    /** How far back a search looks when it sets no start, in
+     * milliseconds. */
+    static final long WINDOW = 3600 * 1000;
+
+    private final Function<Map<String,Object>,CompletableFuture<List<Map<String,Object>>>> search;
+    private final List<Map<String,Object>> windows;
+    private final int                      parallelism;
+    private final int                      limit;
+    private final boolean                  byTime;
+    private final Comparator<Map<String,Object>> order;
+
+    private final List<List<Map<String,Object>>>                     results;
+    private final Map<Integer,CompletableFuture<List<Map<String,Object>>>> searching = new HashMap<Integer,CompletableFuture<List<Map<String,Object>>>>();
+    private final CompletableFuture<List<Map<String,Object>>>        gathered  = new CompletableFuture<List<Map<String,Object>>>();
+    private int                                                      sent;  // -1 once done
+
+    /**
+     * @param search sends a search with the given query
+     * @param query the query events must match
+     * @param windows the number of sub-windows to split the query's time window into
+     * @param parallelism the most sub-windows to search at once
+     * @param now the current time, in milliseconds since the epoch
+     */
+    ScatterGather(Function<Map<String,Object>,CompletableFuture<List<Map<String,Object>>>> search, Map<String,Object> query, int windows, int parallelism, long now) {
+	if (windows < 1)     throw new IllegalArgumentException("Must search at least one window: " + windows);
+	if (parallelism < 1) throw new IllegalArgumentException("Must search at least one window at a time: " + parallelism);
+	Map<String,Object> base = (query == null) ? new HashMap<String,Object>() : new HashMap<String,Object>(query);
+	Object limit = base.get("limit");
+	Object sort  = base.get("sort");
+	Object order = base.get("order");
+	if (sort instanceof List) sort = ((List) sort).isEmpty() ? null : ((List) sort).get(0);
+	String  field     = (sort == null) ? "time" : sort.toString();
+	boolean ascending = "asc".equals((order == null) ? "desc" : order.toString());
+	this.search      = search;
+	this.parallelism = parallelism;
+	this.limit       = (limit instanceof Number) ? ((Number) limit).intValue() : LIMIT;
+	this.byTime      = "time".equals(field);
+	this.order       = comparing(field, ascending);
+	base.put("limit", this.limit);
+	this.windows     = split(base, windows, now);
+	if (byTime && !ascending) Collections.reverse(this.windows);
+	this.results     = new ArrayList<List<Map<String,Object>>>(Collections.<List<Map<String,Object>>>nCopies(this.windows.size(), null));
+    }
+
+    /**
+     * Start searching.
+     *
+     * @return the future matching events, failing if any sub-window's search fails
+     */
+    CompletableFuture<List<Map<String,Object>>> start() {
+	for (int i = 0; i < parallelism; i++) sendNext();
+	return gathered;
+    }
+
+    /**
+     * The queries for each sub-window, in the order they will be
+     * searched.
+     */
+    List<Map<String,Object>> windows() {
+	return Collections.unmodifiableList(windows);
+    }
+
+    private void sendNext() {
+	final int window;
+	synchronized (this) {
+	    if (sent < 0 || sent == windows.size()) return;
+	    window = sent++;
+	}
+	CompletableFuture<List<Map<String,Object>>> future;
+	try {
+	    future = search.apply(windows.get(window));
+	} catch (RuntimeException e) {
+	    arrived(window, null, e);
+	    return;
+	}
+	boolean abandoned;
+	synchronized (this) {
+	    abandoned = (sent < 0);
+	    if (!abandoned) searching.put(window, future);
+	}
+	if (abandoned) {
+	    future.cancel(false);
+	    return;
+	}
+	future.whenComplete((events, failure) -> arrived(window, events, failure));
+    }
+
+    private void arrived(int window, List<Map<String,Object>> events, Throwable failure) {
+	List<CompletableFuture<List<Map<String,Object>>>> abandoned;
+	List<Map<String,Object>> found = null;
+	synchronized (this) {
+	    searching.remove(window);
+	    if (gathered.isDone() || sent < 0) return;
+	    if (failure == null) {
+		results.set(window, (events == null) ? Collections.<Map<String,Object>>emptyList() : events);
+		int ready = enough();
+		if (ready < 0) {
+		    abandoned = null;
+		} else {
+		    found     = merged(results.subList(0, ready));
+		    abandoned = abandon();
+		}
+	    } else {
+		abandoned = abandon();
+	    }
+	}
+	if (abandoned == null) {
+	    sendNext();
+	    return;
+	}
+	for (CompletableFuture<List<Map<String,Object>>> future : abandoned) future.cancel(false);
+	if (failure == null) {
+	    gathered.complete(found);
+	} else {
+	    gathered.completeExceptionally(failure);
+	}
+    }
+
+    /**
+     * How many sub-windows, from the front, hold every event the
+     * search will return, or -1 if it isn't known yet.
+     */
+    private int enough() {
+	int found = 0;
+	for (int i = 0; i < results.size(); i++) {
+	    List<Map<String,Object>> events = results.get(i);
+	    if (events == null) return -1;
+	    found += events.size();
+	    // sorted by time, nothing past the front can make the cut
+	    if (byTime && found >= limit) return i + 1;
+	}
+	return results.size();
+    }
+
+    /** Send no more searches, returning those outstanding to be
+     * cancelled. */
+    private List<CompletableFuture<List<Map<String,Object>>>> abandon() {
+	sent = -1;
+	List<CompletableFuture<List<Map<String,Object>>>> outstanding = new ArrayList<CompletableFuture<List<Map<String,Object>>>>(searching.values());
+	searching.clear();
+	return outstanding;
+    }
+
+    /**
+     * Merge each sub-window's events, already sorted, into one list
+     * sorted the same way.  Events which compare equal keep the
+     * order of their sub-windows.
+     */
+    private List<Map<String,Object>> merged(final List<List<Map<String,Object>>> lists) {
+	PriorityQueue<int[]> heads = new PriorityQueue<int[]>(Math.max(1, lists.size()), new Comparator<int[]>() {
+		public int compare(int[] a, int[] b) {
+		    int c = order.compare(lists.get(a[0]).get(a[1]), lists.get(b[0]).get(b[1]));
+		    return (c != 0) ? c : Integer.compare(a[0], b[0]);
+		}
+	    });
+	for (int i = 0; i < lists.size(); i++) {
+	    if (!lists.get(i).isEmpty()) heads.add(new int[] { i, 0 });
+	}
+	List<Map<String,Object>> merged = new ArrayList<Map<String,Object>>();
+	while (!heads.isEmpty() && merged.size() < limit) {
+	    int[] head = heads.poll();
+	    List<Map<String,Object>> events = lists.get(head[0]);
+	    merged.add(events.get(head[1]));
+	    if (++head[1] < events.size()) heads.add(head);
+	}
+	return merged;
+    }
+
+    /**
+     * Split a query's time window into up to <code>count</code>
+     * sub-windows of equal length, returning a query for each in
+     * ascending order of time.  Each sub-window starts where the
+     * previous one ends, so no event falls in two of them.
+     */
+    private static List<Map<String,Object>> split(Map<String,Object> query, int count, long now) {
+	String lowerKey = query.containsKey("after")  ? "after"  : "from";
+	String upperKey = query.containsKey("before") ? "before" : "upto";
+	Object lower    = query.remove(lowerKey);
+	Object upper    = query.remove(upperKey);
+	query.remove("from");
+	query.remove("after");
+	query.remove("upto");
+	query.remove("before");
+	long start = (lower == null) ? now - WINDOW : millis(lower);
+	long end   = (upper == null) ? now          : millis(upper);
+	if (lower == null) lower = format(start);
+	if (upper == null) upper = format(end);
+	long length = end - start;
+	long width  = (length <= 0) ? 1 : Math.max(1, (length + count - 1) / count);
+	List<Map<String,Object>> windows = new ArrayList<Map<String,Object>>();
+	for (long from = start; windows.isEmpty() || from < end; from += width) {
+	    Map<String,Object> window = new HashMap<String,Object>(query);
+	    if (from == start) {
+		window.put(lowerKey, lower);
+	    } else {
+		window.put("from", format(from));
+	    }
+	    if (from + width >= end) {
+		window.put(upperKey, upper);
+	    } else {
+		window.put("before", format(from + width));
+	    }
+	    windows.add(window);
+	}
+	return windows;
+    }
+
+    /**
+     * Read a time the way the server does: a number of seconds since
+     * the epoch, or an ISO 8601 timestamp.
+     */
+    static long millis(Object time) {
+	if (time instanceof Number)  return (long) (((Number) time).doubleValue() * 1000);
+	if (time instanceof Date)    return ((Date) time).getTime();
+	if (time instanceof Instant) return ((Instant) time).toEpochMilli();
+	if (time instanceof String) {
+	    try {
+		return OffsetDateTime.parse((String) time).toInstant().toEpochMilli();
+	    } catch (DateTimeParseException e) {
+		// fall through
+	    }
+	}
+	throw new IllegalArgumentException("Can't split a search at a time of <" + time + ">");
+    }
+
+    private static String format(long millis) {
+	return Instant.ofEpochMilli(millis).toString();
+    }
+
+    /**
+     * Compare events by a field the way the server sorts them.  A
+     * dotted field (e.g. - <code>geo.country</code>) names a field
+     * within nested objects.
+     */
+    private static Comparator<Map<String,Object>> comparing(final String field, final boolean ascending) {
+	return new Comparator<Map<String,Object>>() {
+	    @SuppressWarnings("unchecked")
+	    public int compare(Map<String,Object> a, Map<String,Object> b) {
+		Object x = resolve(a, field);
+		Object y = resolve(b, field);
+		int c;
+		if (x == null || y == null) {
+		    c = (x == null ? 0 : 1) - (y == null ? 0 : 1);
+		} else if (x instanceof Comparable && x.getClass() == y.getClass()) {
+		    c = ((Comparable) x).compareTo(y);
+		} else {
+		    c = x.toString().compareTo(y.toString());
+		}
+		return ascending ? c : -c;
+	    }
+	};
+    }
+
+    private static Object resolve(Map<String,Object> event, String field) {
+	Object value = event;
+	for (String key : field.split("\\.")) {
+	    if (!(value instanceof Map)) return null;
+	    value = ((Map) value).get(key);
+	}
+	return value;
+    }
+}
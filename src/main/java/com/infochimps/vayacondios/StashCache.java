@@ -0,0 +1,322 @@
+package com.infochimps.vayacondios;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/** An in-process cache of stashed values read through a {@link
+ * BaseClient}.
+ * <p>
+ * Caches the results of {@link VayacondiosClient#get(String)} and the
+ * <code>getMap</code>, <code>getList</code>, <code>getString</code>,
+ * and <code>getDouble</code> lookups, including values which were not
+ * found.  <code>getDoubleValue</code> shares <code>getDouble</code>'s
+ * entries, and <code>getLongValue</code> has its own; neither caches
+ * a result equal to the default it was given, since that may mean
+ * there was no value.  Entries expire after a time-to-live which can be set per
+ * topic, and the least recently used entry is evicted once the cache
+ * is full:
+ *
+ * <blockquote><pre>{@code
+ * StashCache cache = new StashCache(1000, 5000)   // 1000 entries for 5 seconds...
+ *   .ttl("firewall", 60000)                       // ...but firewall rules for a minute
+ *   .ttl("deploys", 0);                           // ...and never deploys
+ * client.cache(cache);
+ * }</pre></blockquote>
+ *
+ * Calls to <code>set</code>, <code>merge</code>, and
+ * <code>delete</code> through the same client invalidate the affected
+ * entries.  Writes are sent asynchronously, so a read immediately
+ * following a write may still see (and cache) the old value; writes
+ * from other clients are only seen once entries expire.
+ * <p>
+ * Invalidating a value only affects reads of its own stash: reads
+ * of other values racing the invalidation are still cached, and
+ * only the entries of the affected stash are visited.
+ * <p>
+ * Cached values are shared between callers and must not be modified.
+ */
+public class StashCache {
+
+    /** Returned by {@link #lookup(String, String, String)} when there is no entry. */
+    static final Object MISS = new Object();
+
+    private static final Object NOT_FOUND = new Object();
+
+    /** Invalidations are counted in this many slots, each shared by
+     * the topics, or values, which hash to it. */
+    private static final int STRIPES = 1024;
+
+    private static class Key {
+	final String kind;
+	final String topic;
+	final String id;
+
+	Key(String kind, String topic, String id) {
+	    this.kind  = kind;
+	    this.topic = topic;
+	    this.id    = id;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+	    if (!(other instanceof Key)) return false;
+	    Key key = (Key) other;
+	    return kind.equals(key.kind) && topic.equals(key.topic) && (id == null ? key.id == null : id.equals(key.id));
+	}
+
+	@Override
+	public int hashCode() {
+	    return 31 * (31 * kind.hashCode() + topic.hashCode()) + (id == null ? 0 : id.hashCode());
+	}
+    }
+
+    private static class Entry {
+	final Object value;
+	final long   expires;
+
+	Entry(Object value, long expires) {
+	    this.value   = value;
+	    this.expires = expires;
+	}
+    }
+
+    private final int                 _maxEntries;
+    private final long                _ttl;
+    private final Map<String,Long>    _topicTtls = new HashMap<String,Long>();
+    private final LinkedHashMap<Key,Entry> entries;
+
+    /** The keys of the entries held, by topic and then by ID. */
+    private final Map<String,Map<String,Set<Key>>> index = new HashMap<String,Map<String,Set<Key>>>();
+
+    /** Invalidation counts, whose sum for a value changes whenever a
+     * read of it must not be cached. */
+    private final AtomicLong      cleared     = new AtomicLong();
+    private final AtomicLongArray topicCounts = new AtomicLongArray(STRIPES);
+    private final AtomicLongArray valueCounts = new AtomicLongArray(STRIPES);
+
+    private long hits        = 0;
+    private long misses      = 0;
+    private long evictions   = 0;
+    private long expirations = 0;
+
+    /**
+     * Create a new cache.
+     *
+     * @param maxEntries maximum number of values to hold
+     * @param ttl time (in milliseconds) each value is held for, unless overridden for its topic
+     */
+    public StashCache(final int maxEntries, long ttl) {
+	this._maxEntries = maxEntries;
+	this._ttl        = ttl;
+	this.entries     = new LinkedHashMap<Key,Entry>(16, 0.75f, true) {
+	    @Override
+	    protected boolean removeEldestEntry(Map.Entry<Key,Entry> eldest) {
+		if (size() <= maxEntries) return false;
+		evictions += 1;
+		unindex(eldest.getKey());
+		return true;
+	    }
+	};
+    }
+
+    /**
+     * Maximum number of values held.
+     *
+     * @return the number of values
+     */
+    public int maxEntries() { return _maxEntries; }
+
+    /**
+     * Time each value is held for, unless overridden for its topic.
+     *
+     * @return the time in milliseconds
+     */
+    public long ttl() { return _ttl; }
+
+    /**
+     * Time each value in the given topic is held for.
+     *
+     * @param topic the topic
+     * @return the time in milliseconds
+     */
+    public synchronized long ttl(String topic) {
+	Long ttl = _topicTtls.get(topic);
+	return (ttl == null) ? _ttl : ttl;
+    }
+
+    /**
+     * Set the time each value in the given topic is held for.  A time
+     * of 0 disables caching for the topic.
+     *
+     * @param topic the topic
+     * @param ttl the time in milliseconds
+     * @return this cache
+     */
+    public synchronized StashCache ttl(String topic, long ttl) {
+	_topicTtls.put(topic, ttl);
+	invalidate(topic);
+	return this;
+    }
+
+    /**
+     * Number of lookups answered from the cache.
+     *
+     * @return the number of hits
+     */
+    public synchronized long hits() { return hits; }
+
+    /**
+     * Number of lookups which had to go to the server.
+     *
+     * @return the number of misses
+     */
+    public synchronized long misses() { return misses; }
+
+    /**
+     * Number of values evicted to make room for others before they
+     * expired.  A high count relative to {@link #misses()} suggests
+     * the cache is too small.
+     *
+     * @return the number of evictions
+     */
+    public synchronized long evictions() { return evictions; }
+
+    /**
+     * Number of values found to have expired when looked up.
+     *
+     * @return the number of expirations
+     */
+    public synchronized long expirations() { return expirations; }
+
+    /**
+     * Number of values currently held.
+     *
+     * @return the number of values
+     */
+    public synchronized int size() { return entries.size(); }
+
+    /**
+     * Discard every value.
+     */
+    public synchronized void clear() {
+	cleared.incrementAndGet();
+	entries.clear();
+	index.clear();
+    }
+
+    /**
+     * Look up a cached value.
+     *
+     * @param kind the kind of lookup (e.g. - <code>"Map"</code>)
+     * @param topic the topic of the value
+     * @param id the ID of the value, or <code>null</code> for the whole stash
+     * @return the value (possibly <code>null</code>) or {@link #MISS}
+     */
+    synchronized Object lookup(String kind, String topic, String id) {
+	Key   key   = new Key(kind, topic, id);
+	Entry entry = entries.get(key);
+	if (entry != null && entry.expires - System.nanoTime() <= 0) {
+	    entries.remove(key);
+	    unindex(key);
+	    expirations += 1;
+	    entry = null;
+	}
+	if (entry == null) {
+	    misses += 1;
+	    return MISS;
+	}
+	hits += 1;
+	return (entry.value == NOT_FOUND) ? null : entry.value;
+    }
+
+    /**
+     * Mark the start of a read of a value from the server.
+     *
+     * @param topic the topic of the value
+     * @param id the ID of the value, or <code>null</code> for the whole stash
+     * @return a token to pass to {@link #store(String, String, String, Object, long)}
+     */
+    long generation(String topic, String id) {
+	return cleared.get() + topicCounts.get(stripe(topic)) + valueCounts.get(stripe(topic, id));
+    }
+
+    /**
+     * Cache a value read from the server, unless it was invalidated
+     * since the read began.
+     *
+     * @param generation the result of {@link #generation(String, String)} before the read began
+     */
+    synchronized void store(String kind, String topic, String id, Object value, long generation) {
+	if (generation != generation(topic, id)) return;
+	long ttl = ttl(topic);
+	if (ttl <= 0) return;
+	Key key = new Key(kind, topic, id);
+	entries.put(key, new Entry((value == null) ? NOT_FOUND : value, System.nanoTime() + ttl * 1000000L));
+	Map<String,Set<Key>> ids = index.get(topic);
+	if (ids == null) index.put(topic, ids = new HashMap<String,Set<Key>>());
+	Set<Key> keys = ids.get(id);
+	if (keys == null) ids.put(id, keys = new HashSet<Key>());
+	keys.add(key);
+    }
+
+    /**
+     * Discard every value in a topic.
+     *
+     * @param topic the topic
+     */
+    void invalidate(String topic) {
+	// count first, so that reads stored from here on are refused
+	topicCounts.incrementAndGet(stripe(topic));
+	synchronized (this) {
+	    Map<String,Set<Key>> ids = index.remove(topic);
+	    if (ids == null) return;
+	    for (Set<Key> keys : ids.values()) entries.keySet().removeAll(keys);
+	}
+    }
+
+    /**
+     * Discard a single value, along with the whole stash containing
+     * it.
+     *
+     * @param topic the topic
+     * @param id the ID
+     */
+    void invalidate(String topic, String id) {
+	valueCounts.incrementAndGet(stripe(topic, id));
+	valueCounts.incrementAndGet(stripe(topic, null));
+	synchronized (this) {
+	    Map<String,Set<Key>> ids = index.get(topic);
+	    if (ids == null) return;
+	    for (String affected : new String[] { id, null }) {
+		Set<Key> keys = ids.remove(affected);
+		if (keys != null) entries.keySet().removeAll(keys);
+	    }
+	    if (ids.isEmpty()) index.remove(topic);
+	}
+    }
+
+    /** Forget an entry which has been removed. */
+    private void unindex(Key key) {
+	Map<String,Set<Key>> ids = index.get(key.topic);
+	if (ids == null) return;
+	Set<Key> keys = ids.get(key.id);
+	if (keys == null) return;
+	keys.remove(key);
+	if (keys.isEmpty()) ids.remove(key.id);
+	if (ids.isEmpty()) index.remove(key.topic);
+    }
+
+    private static int stripe(String topic) {
+	return (topic.hashCode() & 0x7fffffff) % STRIPES;
+    }
+
+    private static int stripe(String topic, String id) {
+	int hash = 31 * topic.hashCode() + ((id == null) ? 0 : id.hashCode());
+	return (hash & 0x7fffffff) % STRIPES;
+    }
+}
@@ -1,7 +1,13 @@
 package com.infochimps.vayacondios;
 
 import java.util.Map;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 /** This is interface all concrete Vayacondios client classes
  * implement.
@@ -20,8 +26,7 @@ import java.util.List;
  *     
  *     // do stuff...
  *     
- *     Thread.sleep(1000);	// ensure all HTTP requests have been sent before closing the client
- *     client.close()
+ *     client.close();	// waits for outstanding HTTP requests before closing
  *   }
  * }
  * }</pre></blockquote>
@@ -149,6 +154,9 @@ public interface VayacondiosClient {
      * List<Map> events = client.events("intrusions", query);
      * }</pre></blockquote>
      *
+     * A {@link Query} builds the same query fluently, and can be
+     * reused without being serialized again.
+     *
      * This method blocks until a response comes back from the server.
      * 
      * @param topic the topic within which to search
@@ -157,6 +165,165 @@ public interface VayacondiosClient {
      */
     List<Map<String,Object>> events(String topic, Map<String,Object> query);
 
+    /**
+     * Search for events, binding each one directly into an instance
+     * of the given class.
+     * <p>
+     * Avoids building an intermediate <code>Map</code> for each event
+     * (with every number boxed as a <code>Double</code>) when the
+     * caller would only copy it into its own objects anyway:
+     *
+     * <blockquote><pre>{@code
+     * public class Intrusion {
+     *   String ip;
+     *   int    port;
+     * }
+     * List<Intrusion> intrusions = client.events("intrusions", query, Intrusion.class);
+     * }</pre></blockquote>
+     *
+     * Fields of the class are matched to keys of each event by name.
+     * <p>
+     * By default, events are searched for as Maps and then bound.
+     *
+     * @param topic the topic within which to search
+     * @param query a query to match events
+     * @param type the class to bind each event into
+     * @return the matched events
+     * @see VayacondiosClient#events(String, Map)
+     */
+    default <T> List<T> events(String topic, Map<String,Object> query, Class<T> type) {
+	return Binder.bind(events(topic, query), type);
+    }
+
+    /**
+     * Search for events, reading them one at a time as the response
+     * arrives.
+     * <p>
+     * Takes the same query as {@link VayacondiosClient#events(String,
+     * Map)} but never holds more than a single event in memory, so
+     * very large result sets can be walked without first buffering
+     * and parsing the whole response:
+     *
+     * <blockquote><pre>{@code
+     * Map query = new HashMap();
+     * query.put("limit", 1000000);
+     * ResultIterator<Map<String,Object>> events = client.eventsIterator("intrusions", query);
+     * try {
+     *   while (events.hasNext()) {
+     *     Map<String,Object> event = events.next();
+     *     // do stuff...
+     *   }
+     * } finally {
+     *   events.close();
+     * }
+     * }</pre></blockquote>
+     *
+     * This method blocks until the server begins responding.
+     * <p>
+     * By default, every event is read before the iterator is returned.
+     *
+     * @param topic the topic within which to search
+     * @param query a query to match events
+     * @return an iterator over the matched events
+     * @see ResultIterator
+     */
+    default ResultIterator<Map<String,Object>> eventsIterator(String topic, Map<String,Object> query) {
+	List<Map<String,Object>> events = events(topic, query);
+	return (events == null) ? null : ResultIterator.of(events);
+    }
+
+    /**
+     * Search for every event matching a query, oldest first, paging
+     * through them in as many searches as it takes.
+     * <p>
+     * The server answers each search with at most a page of events,
+     * so a query over a long time range would otherwise have to be
+     * split up by hand.  The returned pager searches again from the
+     * time of the last event it received, sending each search as
+     * soon as the previous page arrives:
+     *
+     * <blockquote><pre>{@code
+     * Map query = new HashMap();
+     * query.put("from", "2013-06-20T00:00:00Z");
+     * EventPager events = client.eventsPager("intrusions", query, 1000);
+     * try {
+     *   while (events.hasNext()) {
+     *     Map<String,Object> event = events.next();
+     *     // do stuff...
+     *   }
+     * } finally {
+     *   events.close();
+     * }
+     * }</pre></blockquote>
+     *
+     * Any <code>limit</code>, <code>sort</code>, or <code>order</code>
+     * in the query is ignored.
+     * <p>
+     * By default, pages are searched for one at a time, on the
+     * thread reading them.
+     *
+     * @param topic the topic within which to search
+     * @param query a query to match events
+     * @param pageSize the number of events to fetch per search
+     * @return a pager over the matched events
+     * @see EventPager
+     */
+    default EventPager eventsPager(String topic, Map<String,Object> query, int pageSize) {
+	return new EventPager(page -> CompletableFuture.completedFuture(events(topic, page)), query, pageSize);
+    }
+
+    /**
+     * Search for every event matching a query, fetching {@link
+     * EventPager#DEFAULT_PAGE_SIZE} events per search.
+     * <p>
+     * By default, this calls {@link #eventsPager(String, Map, int)}.
+     *
+     * @param topic the topic within which to search
+     * @param query a query to match events
+     * @return a pager over the matched events
+     * @see VayacondiosClient#eventsPager(String, Map, int)
+     */
+    default EventPager eventsPager(String topic, Map<String,Object> query) {
+	return eventsPager(topic, query, EventPager.DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * Search for events over a wide time window by splitting it into
+     * sub-windows and searching several of them at once.
+     * <p>
+     * Takes the same query, and returns the same events in the same
+     * order, as {@link VayacondiosClient#events(String, Map)}, but the
+     * server scans each sub-window concurrently instead of the whole
+     * window in one sequential scan:
+     *
+     * <blockquote><pre>{@code
+     * Map query = new HashMap();
+     * query.put("from", "2013-06-01T00:00:00Z");
+     * query.put("upto", "2013-06-29T00:00:00Z");
+     * query.put("limit", 100000);
+     * List<Map<String,Object>> events = client.eventsParallel("intrusions", query, 28, 4);
+     * }</pre></blockquote>
+     *
+     * The time window is split at whole milliseconds, so
+     * <code>from</code>, <code>after</code>, <code>upto</code>, and
+     * <code>before</code> must be numbers of seconds since the epoch
+     * or ISO 8601 timestamps.  When sorted by time, sub-windows past
+     * those which between them hold <code>limit</code> events are
+     * never searched.
+     * <p>
+     * By default, the whole window is searched at once, as by {@link
+     * #events(String, Map)}.
+     *
+     * @param topic the topic within which to search
+     * @param query a query to match events
+     * @param windows the number of sub-windows to split the time window into
+     * @param parallelism the most sub-windows to search at once
+     * @return the matched events
+     */
+    default List<Map<String,Object>> eventsParallel(String topic, Map<String,Object> query, int windows, int parallelism) {
+	return events(topic, query);
+    }
+
     /**
      * Lookup a stashed value.
      * <p>
@@ -210,6 +377,64 @@ public interface VayacondiosClient {
      */
     Map<String,Object> getMap(String topic, String id);
 
+    /**
+     * Retrieve many Maps stored within one stash at once.
+     * <p>
+     * Fetching values one by one waits on a round trip each.  This
+     * method fetches them concurrently, a bounded number at once:
+     *
+     * <blockquote><pre>{@code
+     * GetManyResult screens = client.getMany("screens", ids);
+     * render(screens.values());
+     * }</pre></blockquote>
+     *
+     * IDs the stash has no value for are reported apart from IDs
+     * which couldn't be fetched.
+     * <p>
+     * By default, each Map is fetched in turn by {@link
+     * #getMap(String, String)}, and any which can't be fetched are
+     * reported missing.
+     *
+     * @param topic the topic of the stash
+     * @param ids the IDs of the stashed values
+     * @return the stashed values, and which IDs were missing or failed
+     * @see VayacondiosClient#getMap(String topic, String id)
+     * @see GetManyResult
+     */
+    default GetManyResult getMany(String topic, Collection<String> ids) {
+	Map<String,Map<String,Object>> values  = new LinkedHashMap<String,Map<String,Object>>();
+	Set<String>                    missing = new LinkedHashSet<String>();
+	for (String id : new LinkedHashSet<String>(ids)) {
+	    Map<String,Object> value = getMap(topic, id);
+	    if (value == null) {
+		missing.add(id);
+	    } else {
+		values.put(id, value);
+	    }
+	}
+	return new GetManyResult(values, missing, Collections.<String,Throwable>emptyMap());
+    }
+
+    /**
+     * Lookup a stashed value that is a <code>Map</code>, binding it
+     * directly into an instance of the given class.
+     *
+     * <blockquote><pre>{@code
+     * FirewallRules rules = getMap("firewall", "rules", FirewallRules.class);
+     * }</pre></blockquote>
+     * <p>
+     * By default, the value is fetched as a Map and then bound.
+     *
+     * @param topic the topic of the stashed value
+     * @param id the ID of the stashed value
+     * @param type the class to bind the stashed value into
+     * @return the stashed value or <code>null</code> if it is not found
+     * @see VayacondiosClient#getMap(String topic, String id)
+     */
+    default <T> T getMap(String topic, String id, Class<T> type) {
+	return Binder.bind(getMap(topic, id), type);
+    }
+
     /**
      * Lookup a stashed value that is a <code>List</code>.
      * <p>
@@ -314,6 +539,46 @@ public interface VayacondiosClient {
      * @see VayacondiosClient#getString(String topic, String id)
      */
     Double getDouble(String topic, String id);
+
+    /**
+     * Lookup a stashed number as a primitive <code>double</code>.
+     * <p>
+     * Unlike {@link VayacondiosClient#getDouble(String, String)} the
+     * value is never boxed, so a default must be given for when the
+     * value is not found, is not a number, or cannot be fetched:
+     *
+     * <blockquote><pre>{@code
+     * double threshold = client.getDoubleValue("firewall", "threshold", 0.5);
+     * }</pre></blockquote>
+     * <p>
+     * By default, this unboxes {@link #getDouble(String, String)}.
+     *
+     * @param topic the topic of the stashed value
+     * @param id the ID of the stashed value
+     * @param defaultValue returned when there is no numeric value
+     * @return the stashed value or <code>defaultValue</code>
+     */
+    default double getDoubleValue(String topic, String id, double defaultValue) {
+	Double value = getDouble(topic, id);
+	return (value == null) ? defaultValue : value;
+    }
+
+    /**
+     * Lookup a stashed integer as a primitive <code>long</code>.
+     * <p>
+     * By default, this truncates {@link #getDouble(String, String)},
+     * so values beyond 2<sup>53</sup> may lose precision.
+     *
+     * @param topic the topic of the stashed value
+     * @param id the ID of the stashed value
+     * @param defaultValue returned when there is no integral value
+     * @return the stashed value or <code>defaultValue</code>
+     * @see VayacondiosClient#getDoubleValue(String, String, double)
+     */
+    default long getLongValue(String topic, String id, long defaultValue) {
+	Double value = getDouble(topic, id);
+	return (value == null) ? defaultValue : value.longValue();
+    }
     
     /**
      * Search for stashed values matching a query.
@@ -367,6 +632,38 @@ public interface VayacondiosClient {
      * @return the matched stashed values
      */
     List<Map<String,Object>> stashes(Map<String,Object> query);
+
+    /**
+     * Search for stashed values, binding each one directly into an
+     * instance of the given class.
+     * <p>
+     * By default, stashes are searched for as Maps and then bound.
+     *
+     * @param query a query to match stashed values
+     * @param type the class to bind each stashed value into
+     * @return the matched stashed values
+     * @see VayacondiosClient#events(String, Map, Class)
+     */
+    default <T> List<T> stashes(Map<String,Object> query, Class<T> type) {
+	return Binder.bind(stashes(query), type);
+    }
+
+    /**
+     * Search for stashed values, reading them one at a time as the
+     * response arrives.
+     * <p>
+     * Takes the same query as {@link VayacondiosClient#stashes(Map)}.
+     * <p>
+     * By default, every stash is read before the iterator is returned.
+     *
+     * @param query a query to match stashed values
+     * @return an iterator over the matched stashed values
+     * @see VayacondiosClient#eventsIterator(String, Map)
+     */
+    default ResultIterator<Map<String,Object>> stashesIterator(Map<String,Object> query) {
+	List<Map<String,Object>> stashes = stashes(query);
+	return (stashes == null) ? null : ResultIterator.of(stashes);
+    }
     
     /**
      * Stash the given value for the given topic.
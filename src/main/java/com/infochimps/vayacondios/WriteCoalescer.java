@@ -0,0 +1,360 @@
+package com.infochimps.vayacondios;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.Gson;
+
+/** Holds sets and merges of stashed values for a short window,
+ * collapsing repeated writes to the same value so that at most one
+ * request per value is sent each window.
+ * <p>
+ * A set replaces whatever is pending for its value.  A merge is
+ * merged into what is pending the way the server would merge it.
+ * Merged into a whole stash, a Map is laid on top of it, replacing
+ * the fields it has.  Merged into a value within a stash, Maps are
+ * merged recursively, Lists and Strings concatenated, and numbers
+ * added.  A set followed by merges is sent as a single set of the
+ * merged value, consecutive merges as a single merge.  Merges which
+ * can't be combined without knowing what's on the server (a String
+ * merged after a number, say) send what's pending first.
+ * <p>
+ * Writes to a whole stash and to values within it are never
+ * reordered: each sends whatever is pending for the other first.
+ * Neither are deletes, which must wait for {@link #flush(String)} to
+ * send everything pending for their stash, and for the server to
+ * answer it, before they are sent themselves.
+ */
+class WriteCoalescer {
+
+    /** Receives each write once its window has passed. */
+    interface Sink {
+	/**
+	 * Send a write.
+	 *
+	 * @return a future which completes once the server has answered
+	 */
+	CompletableFuture<?> send(String topic, String id, String method, Object value) throws IOException;
+    }
+
+    /** The method a pending write will be sent with. */
+    static final String SET   = "POST";
+    static final String MERGE = "PUT";
+
+    /** Returned by {@link #combined(Object, Object)} for merges which
+     * can't be combined. */
+    private static final Object CONFLICT = new Object();
+
+    private static class Write {
+	private final String method;
+	private final Object value;
+
+	Write(String method, Object value) {
+	    this.method = method;
+	    this.value  = value;
+	}
+    }
+
+    /** The writes pending for one stash, whole (keyed by
+     * <code>null</code>) or by ID. */
+    private class Pending {
+	private final String             topic;
+	private final Map<String,Write>  writes = new LinkedHashMap<String,Write>();
+	private final Set<CompletableFuture<?>> sending = new HashSet<CompletableFuture<?>>();
+	private long                     generation = 0;
+
+	Pending(String topic) {
+	    this.topic = topic;
+	}
+
+	synchronized void add(String id, String method, Object value) throws IOException {
+	    boolean whole = (id == null);
+	    if (!writes.isEmpty() && whole != writes.containsKey(null)) send();
+	    Write pending = writes.get(id);
+	    Write next;
+	    if (pending == null || SET.equals(method)) {
+		next = new Write(method, value);
+	    } else {
+		Object combined;
+		if (whole) {
+		    combined = onTop(pending.value, value);
+		} else if (SET.equals(pending.method)) {
+		    combined = merged(pending.value, value);
+		} else {
+		    combined = combined(pending.value, value);
+		}
+		if (combined == CONFLICT) {
+		    send(id);
+		    next = new Write(MERGE, value);
+		} else {
+		    next = new Write(pending.method, combined);
+		}
+	    }
+	    if (writes.isEmpty()) scheduleFlush(this, generation);
+	    writes.put(id, next);
+	}
+
+	synchronized void sendIf(long expected) throws IOException {
+	    if (expected == generation) send();
+	}
+
+	/** Send every pending write. */
+	synchronized void send() throws IOException {
+	    if (writes.isEmpty()) return;
+	    List<Map.Entry<String,Write>> taken = new ArrayList<Map.Entry<String,Write>>(writes.entrySet());
+	    writes.clear();
+	    generation += 1;
+	    IOException            failure  = null;
+	    WriteRejectedException rejected = null;
+	    for (Map.Entry<String,Write> entry : taken) {
+		try {
+		    sent(sink.send(topic, entry.getKey(), entry.getValue().method, entry.getValue().value));
+		} catch (IOException e) {
+		    if (failure == null) failure = e;
+		} catch (WriteRejectedException e) {
+		    if (rejected == null) rejected = e;
+		}
+	    }
+	    if (failure != null) throw failure;
+	    if (rejected != null) throw rejected;
+	}
+
+	/** Send the pending write to one value, leaving the rest. */
+	private void send(String id) throws IOException {
+	    Write write = writes.remove(id);
+	    if (write != null) sent(sink.send(topic, id, write.method, write.value));
+	}
+
+	/** Track a write until the server has answered it. */
+	private void sent(final CompletableFuture<?> answered) {
+	    if (answered == null || answered.isDone()) return;
+	    sending.add(answered);
+	    answered.whenComplete((value, failure) -> {
+		    synchronized (Pending.this) { sending.remove(answered); }
+		});
+	}
+
+	/** A future which completes once every write sent so far has
+	 * been answered, successfully or not. */
+	synchronized CompletableFuture<Void> answered() {
+	    if (sending.isEmpty()) return CompletableFuture.completedFuture(null);
+	    List<CompletableFuture<?>> settled = new ArrayList<CompletableFuture<?>>();
+	    for (CompletableFuture<?> write : sending) settled.add(write.handle((value, failure) -> null));
+	    return CompletableFuture.allOf(settled.toArray(new CompletableFuture<?>[settled.size()]));
+	}
+    }
+
+    private static Logger LOG = LoggerFactory.getLogger(WriteCoalescer.class);
+
+    private final Sink                          sink;
+    private final Gson                          serializer;
+    private final long                          window;
+    private final ScheduledExecutorService      timer;
+    private final ConcurrentMap<String,Pending> pending = new ConcurrentHashMap<String,Pending>();
+    private volatile boolean                    closed;
+
+    WriteCoalescer(Sink sink, Gson serializer, long window, ScheduledExecutorService timer) {
+	this.sink       = sink;
+	this.serializer = serializer;
+	this.window     = window;
+	this.timer      = timer;
+    }
+
+    /**
+     * Replace a stash, or a value within one, once the window passes.
+     */
+    void set(String topic, String id, Object value) throws IOException {
+	pendingFor(topic).add(id, SET, snapshot(value));
+    }
+
+    /**
+     * Merge into a stash, or a value within one, once the window
+     * passes.
+     */
+    void merge(String topic, String id, Object value) throws IOException {
+	pendingFor(topic).add(id, MERGE, snapshot(value));
+    }
+
+    /**
+     * Send everything pending for a stash, as must be done before it
+     * is deleted.
+     *
+     * @return a future which completes once the server has answered
+     * every write sent to the stash, successfully or not
+     */
+    CompletableFuture<Void> flush(String topic) throws IOException {
+	Pending stash = pending.get(topic);
+	if (stash == null) return CompletableFuture.completedFuture(null);
+	stash.send();
+	return stash.answered();
+    }
+
+    /**
+     * Send every pending write.
+     */
+    void flush() {
+	for (Pending stash : pending.values()) sendQuietly(stash);
+    }
+
+    /**
+     * Send every pending write and stop scheduling flushes.
+     */
+    void close() {
+	closed = true;
+	flush();
+    }
+
+    private Pending pendingFor(String topic) {
+	Pending stash = pending.get(topic);
+	if (stash != null) return stash;
+	Pending created  = new Pending(topic);
+	Pending existing = pending.putIfAbsent(topic, created);
+	return (existing == null) ? created : existing;
+    }
+
+    private void scheduleFlush(final Pending stash, final long generation) {
+	if (closed) return;
+	try {
+	    timer.schedule(new Runnable() {
+		    public void run() {
+			try {
+			    stash.sendIf(generation);
+			} catch (IOException | WriteRejectedException e) {
+			    LOG.error("Sending coalesced writes to <" + stash.topic + ">", e);
+			}
+		    }
+		}, window, TimeUnit.MILLISECONDS);
+	} catch (RejectedExecutionException e) {
+	    // closing: the final flush will pick these writes up
+	}
+    }
+
+    private void sendQuietly(Pending stash) {
+	try {
+	    stash.send();
+	} catch (IOException | WriteRejectedException e) {
+	    LOG.error("Sending coalesced writes to <" + stash.topic + ">", e);
+	}
+    }
+
+    /**
+     * Copy a value as the JSON it would be sent as, so that it can be
+     * merged into and isn't changed by its caller while pending.
+     */
+    @SuppressWarnings("unchecked")
+    private Object snapshot(Object value) {
+	if (value == null || value instanceof String || value instanceof Number || value instanceof Boolean) {
+	    return value;
+	} else if (value instanceof Map) {
+	    Map<String,Object> copy = new LinkedHashMap<String,Object>();
+	    for (Map.Entry<?,?> entry : ((Map<?,?>) value).entrySet()) copy.put(String.valueOf(entry.getKey()), snapshot(entry.getValue()));
+	    return copy;
+	} else if (value instanceof Collection) {
+	    List<Object> copy = new ArrayList<Object>();
+	    for (Object element : (Collection<?>) value) copy.add(snapshot(element));
+	    return copy;
+	}
+	return serializer.fromJson(serializer.toJsonTree(value), Object.class);
+    }
+
+    /**
+     * Merge an update into a whole stash the way the server does,
+     * laying it on top of the stash, or {@link #CONFLICT} if either
+     * isn't a Map.
+     */
+    @SuppressWarnings("unchecked")
+    static Object onTop(Object current, Object update) {
+	if (!(current instanceof Map && update instanceof Map)) return CONFLICT;
+	Map<String,Object> merged = new LinkedHashMap<String,Object>((Map<String,Object>) current);
+	merged.putAll((Map<String,Object>) update);
+	return merged;
+    }
+
+    /**
+     * Merge an update into a value within a stash the way the server
+     * does: Maps are merged recursively, Lists and Strings are
+     * concatenated, and numbers are added.  Anything else is
+     * replaced.
+     */
+    @SuppressWarnings("unchecked")
+    static Object merged(Object current, Object update) {
+	if (current instanceof Map && update instanceof Map) {
+	    Map<String,Object> merged = new LinkedHashMap<String,Object>((Map<String,Object>) current);
+	    for (Map.Entry<String,Object> entry : ((Map<String,Object>) update).entrySet()) {
+		merged.put(entry.getKey(), merged(merged.get(entry.getKey()), entry.getValue()));
+	    }
+	    return merged;
+	} else if (current instanceof List && update instanceof List) {
+	    List<Object> merged = new ArrayList<Object>((List<Object>) current);
+	    merged.addAll((List<Object>) update);
+	    return merged;
+	} else if (current instanceof String && update instanceof String) {
+	    return (String) current + update;
+	} else if (current instanceof Number && update instanceof Number) {
+	    return sum((Number) current, (Number) update);
+	}
+	return update;
+    }
+
+    /**
+     * Add two numbers, keeping integers integral so counters aren't
+     * sent as floats.
+     */
+    static Number sum(Number a, Number b) {
+	if (integral(a) && integral(b)) {
+	    try {
+		return Math.addExact(a.longValue(), b.longValue());
+	    } catch (ArithmeticException e) {
+		// overflowed: fall through to floating point
+	    }
+	}
+	return a.doubleValue() + b.doubleValue();
+    }
+
+    private static boolean integral(Number n) {
+	return n instanceof Long || n instanceof Integer || n instanceof Short || n instanceof Byte;
+    }
+
+    /**
+     * Combine two merges into one which the server would merge to
+     * the same result as the two in turn, or {@link #CONFLICT} if
+     * that depends on what the server has.
+     */
+    @SuppressWarnings("unchecked")
+    static Object combined(Object first, Object second) {
+	if (first instanceof Map && second instanceof Map) {
+	    Map<String,Object> combined = new LinkedHashMap<String,Object>((Map<String,Object>) first);
+	    for (Map.Entry<String,Object> entry : ((Map<String,Object>) second).entrySet()) {
+		if (!combined.containsKey(entry.getKey())) {
+		    combined.put(entry.getKey(), entry.getValue());
+		    continue;
+		}
+		Object value = combined(combined.get(entry.getKey()), entry.getValue());
+		if (value == CONFLICT) return CONFLICT;
+		combined.put(entry.getKey(), value);
+	    }
+	    return combined;
+	} else if ((first instanceof List && second instanceof List) || (first instanceof String && second instanceof String) || (first instanceof Number && second instanceof Number)) {
+	    return merged(first, second);
+	} else if (!(second instanceof Map || second instanceof List || second instanceof String || second instanceof Number)) {
+	    // replaces whatever is there either way
+	    return second;
+	}
+	return CONFLICT;
+    }
+}
@@ -0,0 +1,161 @@
+package com.infochimps.vayacondios;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Caps the number of asynchronous writes a client has in flight and
+ * applies an {@link OverflowPolicy} when the cap is reached.
+ * <p>
+ * A caller asks for a {@link Slot} before sending a write and hands
+ * it back via {@link #release(Slot)} once the write has completed or
+ * failed.  A cap of zero means no cap, though in-flight writes are
+ * still counted so that {@link #drain(long)} can wait for them.
+ */
+class WriteLimiter {
+
+    /** One in-flight write. */
+    static class Slot {
+	private final AtomicBoolean released = new AtomicBoolean(false);
+	private volatile Future     future;
+
+	/** Whether this slot was handed back, or taken over by a newer write. */
+	boolean isReleased() { return released.get(); }
+    }
+
+    private final int            maxInFlight;
+    private final OverflowPolicy policy;
+    private final Semaphore      permits;
+    private final Queue<Slot>    inFlightSlots = new ConcurrentLinkedQueue<Slot>();
+    private final AtomicInteger  inFlight      = new AtomicInteger();
+    private final AtomicLong     dropped       = new AtomicLong();
+    private final AtomicLong     rejected      = new AtomicLong();
+
+    WriteLimiter(int maxInFlight, OverflowPolicy policy) {
+	this.maxInFlight = maxInFlight;
+	this.policy      = policy;
+	this.permits     = (maxInFlight > 0) ? new Semaphore(maxInFlight) : null;
+    }
+
+    /**
+     * Claim room for a new write.
+     *
+     * @return the slot for the write or <code>null</code> if the write should be dropped
+     * @throws WriteRejectedException if the policy is {@link OverflowPolicy#FAIL} and there is no room
+     * @throws InterruptedIOException if interrupted while blocking for room
+     */
+    Slot acquire() throws IOException {
+	if (permits != null && !permits.tryAcquire()) {
+	    switch (policy) {
+	    case BLOCK:
+		try {
+		    permits.acquire();
+		} catch (InterruptedException e) {
+		    Thread.currentThread().interrupt();
+		    throw new InterruptedIOException("Interrupted waiting for an in-flight write to finish");
+		}
+		break;
+	    case DROP_NEWEST:
+		dropped.incrementAndGet();
+		return null;
+	    case DROP_OLDEST:
+		if (!evictOldest()) {
+		    dropped.incrementAndGet();
+		    return null;
+		}
+		break;
+	    case FAIL:
+		rejected.incrementAndGet();
+		throw new WriteRejectedException("Too many writes in flight (" + maxInFlight + ")");
+	    }
+	}
+	inFlight.incrementAndGet();
+	return new Slot();
+    }
+
+    /**
+     * Record the request sending a write so it can be cancelled to
+     * make room for newer writes.  A retried write records each of
+     * its requests in turn.
+     */
+    void started(Slot slot, Future future) {
+	if (policy != OverflowPolicy.DROP_OLDEST || permits == null) return;
+	boolean retried = (slot.future != null);
+	slot.future = future;
+	if (retried) return;
+	inFlightSlots.add(slot);
+	if (slot.released.get()) inFlightSlots.remove(slot);
+    }
+
+    /**
+     * Hand back the slot of a write which has completed or failed.
+     * Releasing the same slot more than once has no effect.
+     */
+    void release(Slot slot) {
+	if (slot.released.compareAndSet(false, true)) {
+	    if (slot.future != null) inFlightSlots.remove(slot);
+	    // count the write out before its permit lets another in
+	    finished();
+	    if (permits != null) permits.release();
+	}
+    }
+
+    /**
+     * Wait for all in-flight writes to finish.
+     *
+     * @param timeout maximum time to wait in milliseconds
+     * @return whether all writes finished before the timeout
+     */
+    boolean drain(long timeout) throws InterruptedException {
+	long deadline = System.currentTimeMillis() + timeout;
+	synchronized (this) {
+	    while (inFlight.get() > 0) {
+		long remaining = deadline - System.currentTimeMillis();
+		if (remaining <= 0) return false;
+		wait(remaining);
+	    }
+	}
+	return true;
+    }
+
+    /** @return the number of writes currently in flight */
+    int inFlight() { return inFlight.get(); }
+
+    /** @return the number of writes dropped so far */
+    long dropped() { return dropped.get(); }
+
+    /** @return the number of writes rejected so far */
+    long rejected() { return rejected.get(); }
+
+    /**
+     * Cancel the oldest in-flight write, taking over its permit.
+     *
+     * @return whether a write was cancelled
+     */
+    private boolean evictOldest() {
+	Slot oldest;
+	while ((oldest = inFlightSlots.poll()) != null) {
+	    if (oldest.released.compareAndSet(false, true)) {
+		oldest.future.cancel(true);
+		dropped.incrementAndGet();
+		finished();
+		return true;
+	    }
+	}
+	return false;
+    }
+
+    private void finished() {
+	if (inFlight.decrementAndGet() == 0) {
+	    synchronized (this) {
+		notifyAll();
+	    }
+	}
+    }
+}
@@ -0,0 +1,15 @@
+package com.infochimps.vayacondios;
+
+/** Thrown when a write is refused because the client already has as
+ * many writes in flight as it is allowed and its {@link
+ * OverflowPolicy} is {@link OverflowPolicy#FAIL}.
+ * <p>
+ * Unlike the IOExceptions a failing write logs and swallows, this
+ * reaches the caller of the write, so it can shed load or back off.
+ */
+public class WriteRejectedException extends RuntimeException {
+
+    public WriteRejectedException(String message) {
+	super(message);
+    }
+}
@@ -0,0 +1,545 @@
+package com.infochimps.vayacondios;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import org.apache.http.client.HttpResponseException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** A durable, ordered log of write requests kept in a directory on
+ * local disk, along with a background thread which replays it
+ * against the server.
+ * <p>
+ * The log is split into fixed-size segment files which are
+ * memory-mapped while in use.  Each segment begins with a header
+ *
+ * <blockquote><pre>
+ * int magic | int write position | int acknowledged position
+ * </pre></blockquote>
+ *
+ * followed by records of the form
+ *
+ * <blockquote><pre>
+ * int length | byte method | int path length | path | body
+ * </pre></blockquote>
+ *
+ * where the path is relative to the organization (e.g. -
+ * <code>stash/topic/id</code>) and the body is UTF-8 encoded JSON.
+ * <p>
+ * Records are replayed in order, up to {@link #REPLAY_WINDOW} at a
+ * time, and acknowledged strictly in order: a record is only
+ * acknowledged once it and every record before it have been sent.
+ * Records which can't be sent because the server is unreachable are
+ * retried with exponential backoff until they succeed, and no newer
+ * records are sent until the oldest has been.  A record the
+ * server keeps answering with an error ({@link
+ * HttpResponseException}) is given up on after {@link
+ * #MAX_REJECTIONS} attempts and appended to a dead letter file,
+ * <code>dead-letters</code> in the same directory, so that it can't
+ * hold up the records behind it:
+ *
+ * <blockquote><pre>
+ * METHOD path body
+ * </pre></blockquote>
+ *
+ * Once every record in a segment has been acknowledged the segment
+ * is unmapped and its file deleted.  The number of segments, and
+ * therefore the disk space used, is bounded; appends to a full spool
+ * fail.
+ * <p>
+ * A spool holds a lock on the <code>lock</code> file in its directory
+ * until it is closed, so a second spool opened on the same directory,
+ * in this process or another, fails rather than replaying the same
+ * records.
+ */
+class WriteSpool {
+
+    /** A single spooled write. */
+    static class Record {
+	final String method;
+	final String path;
+	final String body;
+
+	Record(String method, String path, String body) {
+	    this.method = method;
+	    this.path   = path;
+	    this.body   = body;
+	}
+    }
+
+    /** Sends spooled writes to the server. */
+    interface Sender {
+	/**
+	 * Send a record, returning a future which completes once it
+	 * should be acknowledged, or fails if it should be retried.
+	 * Fail with an {@link HttpResponseException} if the server
+	 * answered with an error.
+	 */
+	CompletableFuture<Void> send(Record record);
+    }
+
+    /** A record read from the log and sent, but not yet acknowledged. */
+    private static class Replay {
+	final Record                     record;
+	final int                        length;
+	volatile CompletableFuture<Void> sent;
+	int                              rejections;
+
+	Replay(Record record, int length) {
+	    this.record = record;
+	    this.length = length;
+	}
+    }
+
+    private class Segment {
+	final long             sequence;
+	final File             file;
+	final int              capacity;
+	MappedByteBuffer       buffer;
+	int                    writePosition;
+	int                    ackPosition;
+
+	Segment(long sequence, int capacity) {
+	    this.sequence = sequence;
+	    this.file     = new File(directory, String.format("%020d%s", sequence, SUFFIX));
+	    this.capacity = capacity;
+	}
+
+	void open(boolean create) throws IOException {
+	    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+	    try {
+		if (create) raf.setLength(capacity);
+		buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+	    } finally {
+		raf.close();
+	    }
+	    if (create) {
+		buffer.putInt(0, MAGIC);
+		writePosition(HEADER_SIZE);
+		ackPosition(HEADER_SIZE);
+	    } else {
+		if (buffer.getInt(0) != MAGIC) throw new IOException("Not a spool segment: " + file);
+		writePosition = buffer.getInt(4);
+		ackPosition   = buffer.getInt(8);
+	    }
+	}
+
+	void writePosition(int position) {
+	    writePosition = position;
+	    buffer.putInt(4, position);
+	}
+
+	void ackPosition(int position) {
+	    ackPosition = position;
+	    buffer.putInt(8, position);
+	}
+
+	boolean fits(int length) {
+	    return writePosition + length <= buffer.capacity();
+	}
+
+	boolean exhausted() {
+	    return ackPosition >= writePosition;
+	}
+    }
+
+    private static Logger LOG = LoggerFactory.getLogger(WriteSpool.class);
+
+    private static final Charset UTF8        = Charset.forName("UTF-8");
+    private static final String  SUFFIX      = ".spool";
+    private static final int     MAGIC       = 0x56434453; // "VCDS"
+    private static final int     HEADER_SIZE = 12;
+    private static final String[] METHODS    = { "POST", "PUT", "DELETE" };
+
+    private static final String  DEAD_LETTERS = "dead-letters";
+    private static final String  LOCK         = "lock";
+
+    private static final long    MIN_BACKOFF = 100;
+    private static final long    MAX_BACKOFF = 10000;
+
+    /** Attempts at a record the server answers with an error before
+     * it is moved to the dead letter file. */
+    static final int MAX_REJECTIONS = 5;
+
+    /** Records sent at once while replaying. */
+    static final int REPLAY_WINDOW = 32;
+
+    private final File                directory;
+    private final int                 segmentSize;
+    private final int                 maxSegments;
+    private final Sender              sender;
+    private final LinkedList<Segment> segments = new LinkedList<Segment>();
+    private final FileChannel         lockFile;
+    private final FileLock            lock;
+    private final Thread              replayer;
+    private volatile boolean          running  = true;
+    private boolean                   closed;
+    private Segment                   cursor;
+    private int                       cursorPosition;
+
+    WriteSpool(File directory, int segmentSize, long maxBytes, Sender sender) throws IOException {
+	this.directory   = directory;
+	this.segmentSize = segmentSize;
+	this.maxSegments = (int) Math.max(2, maxBytes / segmentSize);
+	this.sender      = sender;
+	if (!directory.isDirectory() && !directory.mkdirs()) throw new IOException("Could not create spool directory " + directory);
+	this.lockFile = new RandomAccessFile(new File(directory, LOCK), "rw").getChannel();
+	FileLock locked = null;
+	try {
+	    locked = lockFile.tryLock();
+	} catch (OverlappingFileLockException e) {
+	    // held by another spool in this process
+	}
+	if (locked == null) {
+	    lockFile.close();
+	    throw new IOException("Spool in " + directory + " is already open");
+	}
+	this.lock = locked;
+	try {
+	    recover();
+	} catch (IOException | RuntimeException e) {
+	    unlock();
+	    throw e;
+	}
+	this.replayer = new Thread(new Runnable() {
+		public void run() {
+		    replay();
+		}
+	    }, "vayacondios-spool");
+	this.replayer.setDaemon(true);
+	this.replayer.start();
+    }
+
+    /**
+     * Append a write to the end of the log.
+     *
+     * @throws IOException if the spool is full or the write is larger than a segment
+     */
+    void append(String method, String path, String body) throws IOException {
+	byte[] bodyBytes = (body == null) ? new byte[0] : body.getBytes(UTF8);
+	append(method, path, bodyBytes, bodyBytes.length);
+    }
+
+    /**
+     * Append a write whose body is the first <code>bodyLength</code>
+     * bytes of <code>bodyBytes</code>.
+     *
+     * @throws IOException if the spool is full or the write is larger than a segment
+     */
+    void append(String method, String path, byte[] bodyBytes, int bodyLength) throws IOException {
+	byte[] pathBytes = path.getBytes(UTF8);
+	int    length    = 4 + 1 + 4 + pathBytes.length + bodyLength;
+	if (HEADER_SIZE + length > segmentSize) throw new IOException("Write of " + length + " bytes is larger than a spool segment");
+	synchronized (this) {
+	    if (closed) throw new IOException("Spool in " + directory + " is closed");
+	    Segment tail = segments.isEmpty() ? null : segments.getLast();
+	    if (tail == null || !tail.fits(length)) {
+		if (segments.size() >= maxSegments) throw new IOException("Spool is full (" + maxSegments + " segments in " + directory + ")");
+		if (tail != null) tail.buffer.force();
+		tail = new Segment(tail == null ? 0 : tail.sequence + 1, segmentSize);
+		tail.open(true);
+		segments.addLast(tail);
+	    }
+	    MappedByteBuffer buffer = tail.buffer;
+	    int position = tail.writePosition;
+	    buffer.position(position);
+	    buffer.putInt(length);
+	    buffer.put(methodCode(method));
+	    buffer.putInt(pathBytes.length);
+	    buffer.put(pathBytes);
+	    buffer.put(bodyBytes, 0, bodyLength);
+	    tail.writePosition(position + length);
+	    notifyAll();
+	}
+    }
+
+    /**
+     * Number of bytes of writes not yet acknowledged by the server.
+     */
+    synchronized long pending() {
+	long pending = 0;
+	for (Segment segment : segments) pending += segment.writePosition - segment.ackPosition;
+	return pending;
+    }
+
+    /**
+     * Wait for the log to be fully replayed, then stop replaying.
+     * Anything left unsent remains on disk and is replayed the next
+     * time a spool is opened on the same directory.
+     *
+     * @param timeout maximum time to wait in milliseconds
+     */
+    void close(long timeout) throws InterruptedException {
+	long deadline = System.currentTimeMillis() + timeout;
+	synchronized (this) {
+	    while (pending() > 0) {
+		long remaining = deadline - System.currentTimeMillis();
+		if (remaining <= 0) break;
+		wait(Math.min(remaining, MIN_BACKOFF));
+	    }
+	    running = false;
+	    notifyAll();
+	}
+	replayer.interrupt();
+	replayer.join(Math.max(1, deadline - System.currentTimeMillis()));
+	synchronized (this) {
+	    closed = true;
+	    if (pending() > 0) LOG.warn("Closing spool with " + pending() + " bytes of writes not yet sent; they will be sent when " + directory + " is next opened");
+	    for (Segment segment : segments) {
+		segment.buffer.force();
+		unmap(segment);
+	    }
+	    segments.clear();
+	    unlock();
+	}
+    }
+
+    private void unlock() {
+	if (!lock.isValid()) return;
+	try {
+	    lock.release();
+	    lockFile.close();
+	} catch (IOException e) {
+	    LOG.warn("Could not unlock spool in " + directory, e);
+	}
+    }
+
+    private void recover() throws IOException {
+	File[] files = directory.listFiles(new FilenameFilter() {
+		public boolean accept(File dir, String name) {
+		    return name.endsWith(SUFFIX);
+		}
+	    });
+	Arrays.sort(files);
+	for (File file : files) {
+	    String name    = file.getName();
+	    Segment segment = new Segment(Long.parseLong(name.substring(0, name.length() - SUFFIX.length())), segmentSize);
+	    segment.open(false);
+	    if (segment.exhausted() && file != files[files.length - 1]) {
+		unmap(segment);
+		delete(segment);
+	    } else {
+		segments.addLast(segment);
+	    }
+	}
+	if (!segments.isEmpty()) LOG.info("Recovered " + pending() + " bytes of spooled writes from " + directory);
+    }
+
+    private void replay() {
+	Deque<Replay> window  = new ArrayDeque<Replay>();
+	long          backoff = MIN_BACKOFF;
+	// while the oldest record keeps failing, send nothing newer
+	boolean       failing = false;
+	while (running) {
+	    List<Replay> read = new ArrayList<Replay>();
+	    synchronized (this) {
+		while (running && !closed && !ready(window, failing)) {
+		    try {
+			wait();
+		    } catch (InterruptedException e) {
+			// woken up to stop
+		    }
+		}
+		if (!running || closed) return;
+		Replay next;
+		while (!failing && window.size() < REPLAY_WINDOW && (next = read()) != null) {
+		    window.addLast(next);
+		    read.add(next);
+		}
+	    }
+	    for (Replay replay : read) send(replay);
+	    Replay head = window.peekFirst();
+	    if (head == null || !head.sent.isDone()) continue;
+	    Throwable failure = failure(head);
+	    if (failure == null) {
+		acknowledge(head);
+		window.removeFirst();
+		backoff = MIN_BACKOFF;
+		failing = false;
+		continue;
+	    }
+	    if (failure instanceof HttpResponseException && ++head.rejections >= MAX_REJECTIONS) {
+		LOG.error("Giving up on spooled " + head.record.method + " <" + head.record.path + "> after " + head.rejections + " attempts, moving it to " + new File(directory, DEAD_LETTERS), failure);
+		deadLetter(head.record);
+		acknowledge(head);
+		window.removeFirst();
+		backoff = MIN_BACKOFF;
+		failing = false;
+		continue;
+	    }
+	    failing = true;
+	    LOG.debug("Replaying spooled write failed, retrying in " + backoff + "ms", failure);
+	    try {
+		Thread.sleep(backoff);
+	    } catch (InterruptedException e) {
+		// woken up to stop
+	    }
+	    backoff = Math.min(backoff * 2, MAX_BACKOFF);
+	    for (Replay replay : window) {
+		if (replay.sent.isCompletedExceptionally()) send(replay);
+	    }
+	}
+    }
+
+    /** Whether the head of the window has been answered, or there's
+     * room in the window for a record waiting to be sent. */
+    private boolean ready(Deque<Replay> window, boolean failing) {
+	Replay head = window.peekFirst();
+	if (head != null && head.sent.isDone()) return true;
+	return !failing && window.size() < REPLAY_WINDOW && readable();
+    }
+
+    /** Whether there's a record after the last one read. */
+    private boolean readable() {
+	if (segments.isEmpty()) return false;
+	// start from the oldest record if nothing has been read, or the
+	// segment last read from has been acknowledged and deleted
+	if (cursor == null || cursor.buffer == null) {
+	    cursor         = segments.getFirst();
+	    cursorPosition = cursor.ackPosition;
+	}
+	return cursorPosition < cursor.writePosition || cursor != segments.getLast();
+    }
+
+    private void send(final Replay replay) {
+	CompletableFuture<Void> sent;
+	try {
+	    sent = sender.send(replay.record);
+	} catch (RuntimeException e) {
+	    sent = new CompletableFuture<Void>();
+	    sent.completeExceptionally(e);
+	}
+	replay.sent = sent;
+	sent.whenComplete((ignored, failure) -> {
+		synchronized (WriteSpool.this) {
+		    WriteSpool.this.notifyAll();
+		}
+	    });
+    }
+
+    private static Throwable failure(Replay replay) {
+	try {
+	    replay.sent.join();
+	    return null;
+	} catch (CompletionException | CancellationException e) {
+	    return (e.getCause() == null) ? e : e.getCause();
+	}
+    }
+
+    /** The record after the last one read, without acknowledging it,
+     * or <code>null</code> if every record has been read. */
+    private Replay read() {
+	if (!readable()) return null;
+	while (cursorPosition >= cursor.writePosition) {
+	    cursor         = segments.get(segments.indexOf(cursor) + 1);
+	    cursorPosition = cursor.ackPosition;
+	}
+	MappedByteBuffer buffer = cursor.buffer.duplicate();
+	buffer.position(cursorPosition);
+	int    length    = buffer.getInt();
+	String method    = METHODS[buffer.get()];
+	byte[] pathBytes = new byte[buffer.getInt()];
+	buffer.get(pathBytes);
+	byte[] bodyBytes = new byte[length - 9 - pathBytes.length];
+	buffer.get(bodyBytes);
+	Replay replay = new Replay(new Record(method, new String(pathBytes, UTF8), (bodyBytes.length == 0) ? null : new String(bodyBytes, UTF8)), length);
+	cursorPosition += length;
+	return replay;
+    }
+
+    /** Acknowledge the oldest record not yet acknowledged, which must
+     * be the given one. */
+    private synchronized void acknowledge(Replay replay) {
+	// the replayer outlived close() and the segments are unmapped:
+	// the record will be sent again when the spool is next opened
+	if (closed) return;
+	Segment head = segments.getFirst();
+	head.ackPosition(head.ackPosition + replay.length);
+	if (head.exhausted() && segments.size() > 1) delete(segments.removeFirst());
+	notifyAll();
+    }
+
+    /**
+     * Append a record the server won't accept to the dead letter
+     * file, so it isn't lost.
+     */
+    private void deadLetter(Record record) {
+	String line = record.method + " " + record.path + " " + ((record.body == null) ? "" : record.body) + "\n";
+	try {
+	    OutputStream out = new FileOutputStream(new File(directory, DEAD_LETTERS), true);
+	    try {
+		out.write(line.getBytes(UTF8));
+	    } finally {
+		out.close();
+	    }
+	} catch (IOException e) {
+	    LOG.error("Could not write dead letter, dropping spooled " + record.method + " <" + record.path + ">", e);
+	}
+    }
+
+    private void delete(Segment segment) {
+	unmap(segment);
+	if (!segment.file.delete()) LOG.warn("Could not delete spool segment " + segment.file);
+    }
+
+    /**
+     * Release a segment's mapping now rather than whenever its buffer
+     * is garbage collected, since a file can't be deleted while it is
+     * mapped on some platforms, and its disk space isn't freed on
+     * others.  The buffer must not be used again.
+     */
+    private static void unmap(Segment segment) {
+	MappedByteBuffer buffer = segment.buffer;
+	segment.buffer = null;
+	if (buffer == null) return;
+	try {
+	    // Java 9 and later
+	    Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+	    Method   clean       = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+	    Field    theUnsafe   = unsafeClass.getDeclaredField("theUnsafe");
+	    theUnsafe.setAccessible(true);
+	    clean.invoke(theUnsafe.get(null), buffer);
+	    return;
+	} catch (Exception e) {
+	    // fall through to Java 8
+	}
+	try {
+	    Method cleaner = buffer.getClass().getMethod("cleaner");
+	    cleaner.setAccessible(true);
+	    Object found = cleaner.invoke(buffer);
+	    if (found != null) found.getClass().getMethod("clean").invoke(found);
+	} catch (Exception e) {
+	    LOG.debug("Could not unmap spool segment " + segment.file + ", leaving it to the garbage collector", e);
+	}
+    }
+
+    private static byte methodCode(String method) {
+	for (byte i = 0; i < METHODS.length; i++) {
+	    if (METHODS[i].equals(method)) return i;
+	}
+	throw new IllegalArgumentException("Cannot spool " + method + " requests");
+    }
+}
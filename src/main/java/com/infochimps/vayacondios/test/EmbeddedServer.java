@@ -0,0 +1,713 @@
+package com.infochimps.vayacondios.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import com.infochimps.vayacondios.HTTPClient;
+import com.infochimps.vayacondios.HTTPClientOptions;
+
+/** A stand-in for the Vayacondios server which runs inside the JVM
+ * and keeps everything in memory.
+ * <p>
+ * Implements the routes used by {@link HTTPClient} -
+ * <code>event</code>, <code>events</code>, <code>stash</code>,
+ * <code>stashes</code>, and <code>stream</code> - closely enough to
+ * test and benchmark clients without a Ruby server or a database.  It
+ * starts in milliseconds on a free port:
+ *
+ * <blockquote><pre>{@code
+ * EmbeddedServer server = new EmbeddedServer().start();
+ * HTTPClient client = server.client("my_organization");
+ * client.announce("intrusions", event);
+ * ...
+ * client.close();
+ * server.close();
+ * }</pre></blockquote>
+ *
+ * Searches support equality matches on top-level fields along with
+ * the <code>limit</code>, <code>order</code>, and <code>sort</code>
+ * options, and the <code>from</code>, <code>after</code>,
+ * <code>upto</code>, and <code>before</code> time bounds for events,
+ * or the <code>fields</code> option for stashes.  Other query options
+ * are ignored.
+ * <p>
+ * Like the real server, it inflates gzipped request bodies and
+ * gzips responses of 1kB or more for clients which accept them.
+ * <p>
+ * Artificial latency and failures can be injected to see how clients
+ * behave against a slow or unreliable server:
+ *
+ * <blockquote><pre>{@code
+ * server.latency(20).errorRate(0.01);
+ * }</pre></blockquote>
+ *
+ * The JDK's HTTP server leaves Nagle's algorithm on unless the JVM
+ * is started with <code>-Dsun.net.httpserver.nodelay=true</code>.
+ * Without it, small responses sit out a delayed ACK, capping each
+ * keep-alive connection at ~25 requests a second, which matters when
+ * benchmarking.
+ */
+public class EmbeddedServer implements Closeable {
+
+    private static Logger LOG = LoggerFactory.getLogger(EmbeddedServer.class);
+
+    private static final Charset           UTF8    = Charset.forName("UTF-8");
+    private static final int               LIMIT   = 50;
+    private static final DateTimeFormatter ISO8601 = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'").withZone(ZoneOffset.UTC);
+    private static final String            CLOSED  = "";
+    private static final int               GZIP_THRESHOLD = 1024;
+
+    private final Gson serializer = new GsonBuilder().disableHtmlEscaping().serializeNulls().create();
+
+    // keyed by organization/topic
+    private final ConcurrentMap<String,LinkedHashMap<String,Map<String,Object>>> events  = new ConcurrentHashMap<String,LinkedHashMap<String,Map<String,Object>>>();
+    private final ConcurrentMap<String,Map<String,Object>>                       stashes = new ConcurrentHashMap<String,Map<String,Object>>();
+    private final ConcurrentMap<String,List<BlockingQueue<String>>>              streams = new ConcurrentHashMap<String,List<BlockingQueue<String>>>();
+
+    private final AtomicLong ids      = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    private Integer         _port;
+    private volatile long   _latency    = 0;
+    private volatile double _errorRate  = 0.0;
+    private volatile int    _errorStatus = 500;
+
+    private HttpServer      server;
+    private ExecutorService executor;
+
+    /**
+     * Create a new server which will listen on a free port.
+     */
+    public EmbeddedServer() {
+	this(0);
+    }
+
+    /**
+     * Create a new server which will listen on the given port.
+     *
+     * @param port the port, or 0 for any free port
+     */
+    public EmbeddedServer(Integer port) {
+	this._port = port;
+    }
+
+  //----------------------------------------------------------------------------
+  // Lifecycle
+  //----------------------------------------------------------------------------
+
+    /**
+     * Start listening.
+     *
+     * @return this server
+     * @throws IOException if the port cannot be bound
+     */
+    public EmbeddedServer start() throws IOException {
+	server   = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), _port), 0);
+	executor = Executors.newCachedThreadPool();
+	server.setExecutor(executor);
+	server.createContext("/", new HttpHandler() {
+		public void handle(HttpExchange exchange) throws IOException {
+		    try {
+			route(exchange);
+		    } finally {
+			exchange.close();
+		    }
+		}
+	    });
+	server.start();
+	_port = server.getAddress().getPort();
+	LOG.debug("Embedded Vayacondios server listening on port " + _port);
+	return this;
+    }
+
+    /**
+     * Stop listening, ending any open streams.
+     */
+    @Override
+    public void close() {
+	for (List<BlockingQueue<String>> subscribers : streams.values()) {
+	    for (BlockingQueue<String> subscriber : subscribers) subscriber.offer(CLOSED);
+	}
+	if (server != null) server.stop(0);
+	if (executor != null) executor.shutdownNow();
+    }
+
+    /**
+     * Discard every stored event and stash.
+     */
+    public void reset() {
+	events.clear();
+	stashes.clear();
+    }
+
+  //----------------------------------------------------------------------------
+  // Properties
+  //----------------------------------------------------------------------------
+
+    /**
+     * The host this server listens on.
+     *
+     * @return the host
+     */
+    public String host() { return InetAddress.getLoopbackAddress().getHostAddress(); }
+
+    /**
+     * The port this server listens on.  Only known after the server
+     * has been started when listening on any free port.
+     *
+     * @return the port
+     */
+    public Integer port() { return _port; }
+
+    /**
+     * Create a client for this server.
+     *
+     * @param organization name of the organization to read/write data for
+     * @return the client
+     */
+    public HTTPClient client(String organization) {
+	return new HTTPClient(host(), port(), organization);
+    }
+
+    /**
+     * Create a client for this server with the given tuning options.
+     *
+     * @param organization name of the organization to read/write data for
+     * @param options tuning options for the client
+     * @return the client
+     */
+    public HTTPClient client(String organization, HTTPClientOptions options) {
+	return new HTTPClient(host(), port(), organization, false, options);
+    }
+
+    /**
+     * Time each request is delayed before it is handled.
+     *
+     * @return the delay in milliseconds
+     */
+    public long latency() { return _latency; }
+
+    /**
+     * Delay each request before handling it.
+     *
+     * @param millis the delay in milliseconds
+     * @return this server
+     */
+    public EmbeddedServer latency(long millis) {
+	this._latency = millis;
+	return this;
+    }
+
+    /**
+     * Fraction of requests which fail without being handled.
+     *
+     * @return the fraction, between 0 and 1
+     */
+    public double errorRate() { return _errorRate; }
+
+    /**
+     * Fail the given fraction of requests, chosen at random.
+     *
+     * @param fraction the fraction, between 0 and 1
+     * @return this server
+     */
+    public EmbeddedServer errorRate(double fraction) {
+	this._errorRate = fraction;
+	return this;
+    }
+
+    /**
+     * HTTP status of injected failures.
+     *
+     * @return the status
+     */
+    public int errorStatus() { return _errorStatus; }
+
+    /**
+     * Set the HTTP status of injected failures.
+     *
+     * @param status the status, 500 by default
+     * @return this server
+     */
+    public EmbeddedServer errorStatus(int status) {
+	this._errorStatus = status;
+	return this;
+    }
+
+    /**
+     * Number of requests received.
+     *
+     * @return the number of requests
+     */
+    public long requests() { return requests.get(); }
+
+    /**
+     * Number of requests failed on purpose.
+     *
+     * @return the number of failures
+     */
+    public long failures() { return failures.get(); }
+
+  //----------------------------------------------------------------------------
+  // Routing
+  //----------------------------------------------------------------------------
+
+    private void route(HttpExchange exchange) throws IOException {
+	requests.incrementAndGet();
+	if (_latency > 0) {
+	    try {
+		Thread.sleep(_latency);
+	    } catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+		return;
+	    }
+	}
+	if (_errorRate > 0 && ThreadLocalRandom.current().nextDouble() < _errorRate) {
+	    failures.incrementAndGet();
+	    respond(exchange, _errorStatus, error("Injected failure"));
+	    return;
+	}
+
+	// /VERSION/ORGANIZATION/ROUTE[/TOPIC[/ID]]
+	String[] path = URI.create(exchange.getRequestURI().getRawPath()).getPath().replaceAll("^/+|/+$", "").split("/");
+	if (path.length == 1 && "status".equals(path[0])) {
+	    // the heartbeat clients check health with
+	    respond(exchange, 200, ok());
+	    return;
+	}
+	if (path.length < 3) {
+	    respond(exchange, 404, error("No route for " + exchange.getRequestURI()));
+	    return;
+	}
+	String organization = path[1];
+	String resource     = path[2];
+	String topic        = (path.length > 3) ? path[3] : null;
+	String id           = (path.length > 4) ? path[4] : null;
+	String method       = exchange.getRequestMethod();
+
+	Object body;
+	try {
+	    InputStream in = exchange.getRequestBody();
+	    if ("gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"))) in = new GZIPInputStream(in);
+	    body = serializer.fromJson(new InputStreamReader(in, UTF8), Object.class);
+	} catch (JsonParseException | ZipException e) {
+	    respond(exchange, 400, error("Invalid body: " + e.getMessage()));
+	    return;
+	}
+
+	try {
+	    if ("event".equals(resource) && topic != null) {
+		event(exchange, method, organization + "/" + topic, id, body);
+	    } else if ("events".equals(resource) && topic != null) {
+		events(exchange, method, organization + "/" + topic, body);
+	    } else if ("stash".equals(resource) && topic != null) {
+		stash(exchange, method, organization + "/" + topic, id, body);
+	    } else if ("stashes".equals(resource)) {
+		stashes(exchange, method, organization, body);
+	    } else if ("stream".equals(resource) && topic != null) {
+		stream(exchange, organization + "/" + topic, body);
+	    } else {
+		respond(exchange, 404, error("No route for " + exchange.getRequestURI()));
+	    }
+	} catch (IllegalArgumentException e) {
+	    respond(exchange, 400, error(e.getMessage()));
+	}
+    }
+
+    private void event(HttpExchange exchange, String method, String key, String id, Object body) throws IOException {
+	if ("POST".equals(method)) {
+	    respond(exchange, 200, announce(key, id, asMap(body, "Events must be Hash-like to create")));
+	} else if ("GET".equals(method)) {
+	    Map<String,Object> event = null;
+	    LinkedHashMap<String,Map<String,Object>> log = events.get(key);
+	    if (log != null && id != null) synchronized (log) { event = log.get(id); }
+	    if (event == null) {
+		respond(exchange, 404, error("Event with topic <" + key + "> and ID <" + id + "> not found"));
+	    } else {
+		respond(exchange, 200, event);
+	    }
+	} else if ("DELETE".equals(method) && id != null) {
+	    LinkedHashMap<String,Map<String,Object>> log = events.get(key);
+	    if (log != null) synchronized (log) { log.remove(id); }
+	    respond(exchange, 200, ok());
+	} else {
+	    respond(exchange, 405, error(method + " is not supported for an event"));
+	}
+    }
+
+    private void events(HttpExchange exchange, String method, String key, Object body) throws IOException {
+	if ("POST".equals(method)) {
+	    if (!(body instanceof List)) throw new IllegalArgumentException("Events must be an Array to create in bulk");
+	    List<Map<String,Object>> created = new ArrayList<Map<String,Object>>();
+	    for (Object event : (List) body) created.add(announce(key, null, asMap(event, "Events must be Hash-like to create")));
+	    respond(exchange, 200, created);
+	} else if ("GET".equals(method)) {
+	    respond(exchange, 200, searchEvents(key, query(body), false));
+	} else if ("DELETE".equals(method)) {
+	    searchEvents(key, query(body), true);
+	    respond(exchange, 200, ok());
+	} else {
+	    respond(exchange, 405, error(method + " is not supported for events"));
+	}
+    }
+
+    private void stash(HttpExchange exchange, String method, String key, String id, Object body) throws IOException {
+	String topic = key.substring(key.indexOf('/') + 1);
+	if ("GET".equals(method)) {
+	    Map<String,Object> stash = stashes.get(key);
+	    Object value = null;
+	    if (stash != null) synchronized (stash) { value = (id == null) ? new LinkedHashMap<String,Object>(stash) : stash.get(id); }
+	    if (value == null) {
+		respond(exchange, 404, error("Stash with topic <" + topic + "> not found"));
+	    } else {
+		respond(exchange, 200, value);
+	    }
+	} else if ("POST".equals(method) || "PUT".equals(method)) {
+	    boolean merge = "PUT".equals(method);
+	    if (id == null) {
+		Map<String,Object> value = asMap(body, "Stashes must be Hash-like");
+		Map<String,Object> stash = stashes.get(key);
+		if (stash == null || !merge) {
+		    stashes.put(key, new LinkedHashMap<String,Object>(value));
+		} else {
+		    synchronized (stash) { stash.putAll(value); }
+		}
+	    } else {
+		Map<String,Object> stash = stashes.get(key);
+		if (stash == null) {
+		    stashes.putIfAbsent(key, new LinkedHashMap<String,Object>());
+		    stash = stashes.get(key);
+		}
+		synchronized (stash) { stash.put(id, merge ? merged(stash.get(id), body) : body); }
+	    }
+	    respond(exchange, 200, body);
+	} else if ("DELETE".equals(method)) {
+	    if (id == null) {
+		stashes.remove(key);
+	    } else {
+		Map<String,Object> stash = stashes.get(key);
+		if (stash != null) synchronized (stash) { stash.remove(id); }
+	    }
+	    respond(exchange, 200, ok());
+	} else {
+	    respond(exchange, 405, error(method + " is not supported for a stash"));
+	}
+    }
+
+    private void stashes(HttpExchange exchange, String method, String organization, Object body) throws IOException {
+	Map<String,Object> query = query(body);
+	if ("GET".equals(method)) {
+	    respond(exchange, 200, searchStashes(organization, query, false));
+	} else if ("DELETE".equals(method)) {
+	    if (query.isEmpty()) throw new IllegalArgumentException("Query cannot be empty");
+	    searchStashes(organization, query, true);
+	    respond(exchange, 200, ok());
+	} else {
+	    respond(exchange, 405, error(method + " is not supported for stashes"));
+	}
+    }
+
+    private void stream(HttpExchange exchange, String key, Object body) throws IOException {
+	BlockingQueue<String> subscriber = new LinkedBlockingQueue<String>();
+	List<BlockingQueue<String>> subscribers = streams.get(key);
+	if (subscribers == null) {
+	    streams.putIfAbsent(key, new CopyOnWriteArrayList<BlockingQueue<String>>());
+	    subscribers = streams.get(key);
+	}
+	subscribers.add(subscriber);
+	try {
+	    Map<String,Object> query = query(body);
+	    if (query.containsKey("after") || query.containsKey("from")) {
+		List<Map<String,Object>> missed = searchEvents(key, query, false);
+		Collections.reverse(missed);
+		for (Map<String,Object> event : missed) subscriber.offer(serializer.toJson(event));
+	    }
+	    exchange.getResponseHeaders().set("Content-Type", "application/json");
+	    exchange.sendResponseHeaders(200, 0);
+	    OutputStream out = exchange.getResponseBody();
+	    while (true) {
+		String line = subscriber.take();
+		if (line == CLOSED) break;
+		out.write((line + "\n").getBytes(UTF8));
+		out.flush();
+	    }
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	} catch (IOException e) {
+	    // client went away
+	} finally {
+	    subscribers.remove(subscriber);
+	}
+    }
+
+  //----------------------------------------------------------------------------
+  // Storage
+  //----------------------------------------------------------------------------
+
+    private Map<String,Object> announce(String key, String id, Map<String,Object> body) {
+	Map<String,Object> event = new LinkedHashMap<String,Object>();
+	event.put("id", (id == null) ? String.format("%08x%016x", System.currentTimeMillis() / 1000, ids.incrementAndGet()) : id);
+	event.put("time", ISO8601.format(toInstant(body.remove("time"), Instant.now())));
+	event.putAll(body);
+	LinkedHashMap<String,Map<String,Object>> log = events.get(key);
+	if (log == null) {
+	    events.putIfAbsent(key, new LinkedHashMap<String,Map<String,Object>>());
+	    log = events.get(key);
+	}
+	synchronized (log) {
+	    log.remove(event.get("id"));
+	    log.put((String) event.get("id"), event);
+	}
+	List<BlockingQueue<String>> subscribers = streams.get(key);
+	if (subscribers != null) {
+	    String line = serializer.toJson(event);
+	    for (BlockingQueue<String> subscriber : subscribers) subscriber.offer(line);
+	}
+	return event;
+    }
+
+    private List<Map<String,Object>> searchEvents(String key, Map<String,Object> query, boolean remove) {
+	Map<String,Object> filter = new HashMap<String,Object>(query);
+	Options options = new Options(filter, "time", "desc");
+	Instant from = bound(filter, "after", "from", 1);
+	Instant upto = bound(filter, "before", "upto", -1);
+	List<Map<String,Object>> matched = new ArrayList<Map<String,Object>>();
+	LinkedHashMap<String,Map<String,Object>> log = events.get(key);
+	if (log == null) return matched;
+	synchronized (log) {
+	    for (Iterator<Map<String,Object>> i = log.values().iterator(); i.hasNext(); ) {
+		Map<String,Object> event = i.next();
+		Instant time = Instant.parse((String) event.get("time"));
+		if (from != null && time.isBefore(from)) continue;
+		if (upto != null && time.isAfter(upto)) continue;
+		if (!matches(event, filter)) continue;
+		if (remove) {
+		    i.remove();
+		} else {
+		    matched.add(event);
+		}
+	    }
+	}
+	return options.apply(matched);
+    }
+
+    private List<Map<String,Object>> searchStashes(String organization, Map<String,Object> query, boolean remove) {
+	Map<String,Object> filter = new HashMap<String,Object>(query);
+	Object fields   = filter.get("fields");
+	Options options = new Options(filter, "topic", "asc");
+	String prefix = organization + "/";
+	List<Map<String,Object>> matched = new ArrayList<Map<String,Object>>();
+	for (Map.Entry<String,Map<String,Object>> entry : stashes.entrySet()) {
+	    if (!entry.getKey().startsWith(prefix)) continue;
+	    Map<String,Object> stash = new LinkedHashMap<String,Object>();
+	    stash.put("topic", entry.getKey().substring(prefix.length()));
+	    synchronized (entry.getValue()) { stash.putAll(entry.getValue()); }
+	    if (!matches(stash, filter)) continue;
+	    if (remove) {
+		stashes.remove(entry.getKey());
+	    } else {
+		matched.add(stash);
+	    }
+	}
+	List<Map<String,Object>> found = options.apply(matched);
+	if (!(fields instanceof List)) return found;
+	Set<Object> projected = new HashSet<Object>((List) fields);
+	projected.add("topic");
+	for (Map<String,Object> stash : found) stash.keySet().retainAll(projected);
+	return found;
+    }
+
+    /** The limit, order, and sort options of a search. */
+    private static class Options {
+	final int     limit;
+	final String  sort;
+	final boolean ascending;
+
+	Options(Map<String,Object> query, String defaultSort, String defaultOrder) {
+	    Object limit = query.remove("limit");
+	    Object sort  = query.remove("sort");
+	    Object order = query.remove("order");
+	    query.remove("fields");
+	    if (sort instanceof List) sort = ((List) sort).isEmpty() ? null : ((List) sort).get(0);
+	    this.limit     = (limit instanceof Number) ? ((Number) limit).intValue() : LIMIT;
+	    this.sort      = (sort == null) ? defaultSort : sort.toString();
+	    this.ascending = "asc".equals((order == null) ? defaultOrder : order.toString());
+	}
+
+	List<Map<String,Object>> apply(List<Map<String,Object>> matched) {
+	    if (!ascending) Collections.reverse(matched); // newest first among ties
+	    Collections.sort(matched, new Comparator<Map<String,Object>>() {
+		    @SuppressWarnings("unchecked")
+		    public int compare(Map<String,Object> a, Map<String,Object> b) {
+			Object x = a.get(sort);
+			Object y = b.get(sort);
+			int c;
+			if (x == null || y == null) {
+			    c = (x == null ? 0 : 1) - (y == null ? 0 : 1);
+			} else if (x instanceof Comparable && x.getClass() == y.getClass()) {
+			    c = ((Comparable) x).compareTo(y);
+			} else {
+			    c = x.toString().compareTo(y.toString());
+			}
+			return ascending ? c : -c;
+		    }
+		});
+	    return (matched.size() > limit) ? new ArrayList<Map<String,Object>>(matched.subList(0, limit)) : matched;
+	}
+    }
+
+    private static boolean matches(Map<String,Object> document, Map<String,Object> filter) {
+	for (Map.Entry<String,Object> term : filter.entrySet()) {
+	    Object value = document.get(term.getKey());
+	    if (value == null ? term.getValue() != null : !value.equals(term.getValue())) return false;
+	}
+	return true;
+    }
+
+    private static Instant bound(Map<String,Object> query, String exclusive, String inclusive, int nudge) {
+	Object strict = query.remove(exclusive);
+	Object loose  = query.remove(inclusive);
+	if (strict != null) return toInstant(strict, null).plusMillis(nudge);
+	if (loose != null)  return toInstant(loose, null);
+	return null;
+    }
+
+    private static Instant toInstant(Object time, Instant otherwise) {
+	try {
+	    if (time instanceof Number) return Instant.ofEpochMilli((long) (((Number) time).doubleValue() * 1000));
+	    if (time instanceof String) return Instant.parse((String) time);
+	} catch (RuntimeException e) {
+	    // fall through
+	}
+	if (otherwise == null) throw new IllegalArgumentException("Invalid time: " + time);
+	return otherwise;
+    }
+
+    /**
+     * Merge two values the way the server does: Maps are merged
+     * recursively, Lists and Strings are concatenated, and numbers
+     * are added.  Anything else is replaced.
+     */
+    @SuppressWarnings("unchecked")
+    private static Object merged(Object current, Object update) {
+	if (current instanceof Map && update instanceof Map) {
+	    Map<String,Object> merged = new LinkedHashMap<String,Object>((Map<String,Object>) current);
+	    deepMerge(merged, (Map<String,Object>) update);
+	    return merged;
+	} else if (current instanceof List && update instanceof List) {
+	    List<Object> merged = new ArrayList<Object>((List<Object>) current);
+	    merged.addAll((List<Object>) update);
+	    return merged;
+	} else if (current instanceof String && update instanceof String) {
+	    return (String) current + update;
+	} else if (current instanceof Number && update instanceof Number) {
+	    return ((Number) current).doubleValue() + ((Number) update).doubleValue();
+	}
+	return update;
+    }
+
+    private static void deepMerge(Map<String,Object> current, Map<String,Object> update) {
+	for (Map.Entry<String,Object> entry : update.entrySet()) {
+	    current.put(entry.getKey(), merged(current.get(entry.getKey()), entry.getValue()));
+	}
+    }
+
+  //----------------------------------------------------------------------------
+  // Responses
+  //----------------------------------------------------------------------------
+
+    @SuppressWarnings("unchecked")
+    private static Map<String,Object> asMap(Object body, String message) {
+	if (!(body instanceof Map)) throw new IllegalArgumentException(message);
+	return new LinkedHashMap<String,Object>((Map<String,Object>) body);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String,Object> query(Object body) {
+	if (body == null) return new HashMap<String,Object>();
+	if (!(body instanceof Map)) throw new IllegalArgumentException("Queries must be Hash-like");
+	return (Map<String,Object>) body;
+    }
+
+    private static Map<String,Object> ok() {
+	Map<String,Object> ok = new HashMap<String,Object>();
+	ok.put("ok", true);
+	return ok;
+    }
+
+    private static Map<String,Object> error(String message) {
+	Map<String,Object> error = new HashMap<String,Object>();
+	error.put("error", message);
+	return error;
+    }
+
+    private static boolean acceptsGzip(HttpExchange exchange) {
+	String accepted = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+	if (accepted == null) return false;
+	for (String coding : accepted.split(",")) {
+	    if ("gzip".equalsIgnoreCase(coding.split(";")[0].trim())) return true;
+	}
+	return false;
+    }
+
+    private void respond(HttpExchange exchange, int status, Object body) throws IOException {
+	byte[] bytes = serializer.toJson(body).getBytes(UTF8);
+	exchange.getResponseHeaders().set("Content-Type", "application/json");
+	if (bytes.length >= GZIP_THRESHOLD && acceptsGzip(exchange)) {
+	    ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+	    try (GZIPOutputStream out = new GZIPOutputStream(gzipped)) {
+		out.write(bytes);
+	    }
+	    bytes = gzipped.toByteArray();
+	    exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+	}
+	exchange.sendResponseHeaders(status, bytes.length);
+	OutputStream out = exchange.getResponseBody();
+	out.write(bytes);
+	out.flush();
+    }
+}
@@ -0,0 +1,345 @@
+package com.infochimps.vayacondios.tools;
+
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.infochimps.vayacondios.HTTPClient;
+import com.infochimps.vayacondios.HTTPClientOptions;
+import com.infochimps.vayacondios.LatencyHistogram;
+import com.infochimps.vayacondios.RequestContext;
+import com.infochimps.vayacondios.RequestListener;
+import com.infochimps.vayacondios.test.EmbeddedServer;
+
+/** Drives load against a Vayacondios server and reports throughput
+ * and latency for each kind of request.
+ * <p>
+ * Runs a weighted mix of <code>announce</code>, <code>get</code>,
+ * <code>set</code>, <code>merge</code>, and <code>events</code>
+ * requests spread over a number of topics and IDs, either at a fixed
+ * target rate (open loop) or as fast as a fixed number of threads can
+ * go (closed loop):
+ *
+ * <blockquote><pre>
+ * java -jar vayacondios-VERSION-loadgen.jar --host vcd.example.com --rate 2000 --duration 60
+ * java -jar vayacondios-VERSION-loadgen.jar --concurrency 32 --mix announce=80,get=20
+ * java -jar vayacondios-VERSION-loadgen.jar --embedded --rate 500
+ * </pre></blockquote>
+ *
+ * At a target rate each request is timed from when it was
+ * <em>scheduled</em> to be sent rather than when it was actually
+ * sent, so a stalled server is charged for the requests queued up
+ * behind the stall instead of hiding them (coordinated omission).  In
+ * closed-loop mode, pass <code>--expected-interval</code> to have
+ * stalls corrected for in the same way.
+ * <p>
+ * Requests are made through the client's own operations, so latencies
+ * include everything the client adds on top of the server: balancing,
+ * retries, the circuit breaker, and parsing.  Reads block their
+ * thread; writes are sent asynchronously, as an application would
+ * send them, and are timed until a {@link RequestListener} hears that
+ * they completed or failed.  At most <code>--concurrency</code> writes
+ * are in flight at once.  Run with <code>--help</code> for every
+ * option.
+ */
+public class LoadGenerator {
+
+    private static final String[] OPERATIONS = { "announce", "get", "set", "merge", "events" };
+
+    private static final String USAGE =
+	"Usage: LoadGenerator [options]\n" +
+	"\n" +
+	"  --host HOST              server host (default " + HTTPClient.DEFAULT_HOST + ")\n" +
+	"  --port PORT              server port (default " + HTTPClient.DEFAULT_PORT + ")\n" +
+	"  --organization ORG       organization to write to (default loadgen)\n" +
+	"  --embedded               run against an in-memory server instead\n" +
+	"  --rate N                 target requests per second, 0 for as fast as possible (default 0)\n" +
+	"  --concurrency N          threads sending requests (default 16)\n" +
+	"  --duration SECONDS       how long to measure for (default 30)\n" +
+	"  --warmup SECONDS         how long to run before measuring (default 5)\n" +
+	"  --mix OP=WEIGHT,...      relative weights of announce, get, set, merge, events\n" +
+	"                           (default announce=50,get=30,set=10,merge=5,events=5)\n" +
+	"  --topics N               number of distinct topics (default 10)\n" +
+	"  --ids N                  number of distinct stash IDs per topic (default 100)\n" +
+	"  --expected-interval MS   in closed-loop mode, correct for stalls longer than this\n";
+
+    private static final String INTENDED = "loadgen.intended";
+
+    private final HTTPClient client;
+    private final int        rate;
+    private final int        concurrency;
+    private final long       duration;
+    private final long       warmup;
+    private final int[]      weights;
+    private final int        totalWeight;
+    private final int        topics;
+    private final int        ids;
+    private final long       expectedInterval;
+
+    private final Map<String,LatencyHistogram> latencies = new LinkedHashMap<String,LatencyHistogram>();
+    private final Map<String,AtomicLong>       requests  = new HashMap<String,AtomicLong>();
+    private final Map<String,AtomicLong>       errors    = new HashMap<String,AtomicLong>();
+    private final AtomicLong                   failures  = new AtomicLong();
+    private final ThreadLocal<Long>            sendAt    = new ThreadLocal<Long>();
+    private volatile boolean measuring = false;
+
+    LoadGenerator(HTTPClient client, Map<String,String> options) {
+	this.client           = client;
+	this.rate             = Integer.parseInt(option(options, "rate", "0"));
+	this.concurrency      = Integer.parseInt(option(options, "concurrency", "16"));
+	this.duration         = TimeUnit.SECONDS.toNanos(Long.parseLong(option(options, "duration", "30")));
+	this.warmup           = TimeUnit.SECONDS.toNanos(Long.parseLong(option(options, "warmup", "5")));
+	this.topics           = Integer.parseInt(option(options, "topics", "10"));
+	this.ids              = Integer.parseInt(option(options, "ids", "100"));
+	this.expectedInterval = TimeUnit.MILLISECONDS.toMicros(Long.parseLong(option(options, "expected-interval", "0")));
+	this.weights          = weights(option(options, "mix", "announce=50,get=30,set=10,merge=5,events=5"));
+	int total = 0;
+	for (int weight : weights) total += weight;
+	if (total <= 0) throw new IllegalArgumentException("--mix must give at least one operation a positive weight");
+	this.totalWeight = total;
+	for (String operation : OPERATIONS) {
+	    latencies.put(operation, new LatencyHistogram());
+	    requests.put(operation, new AtomicLong());
+	    errors.put(operation, new AtomicLong());
+	}
+	client.addListener(new RequestListener() {
+		public void requestStarted(RequestContext request) {
+		    request.attribute(INTENDED, sendAt.get());
+		}
+		public void requestCompleted(RequestContext request) {
+		    finished(request, false);
+		}
+		public void requestFailed(RequestContext request, Throwable failure) {
+		    finished(request, true);
+		}
+	    });
+    }
+
+    public static void main(String[] args) throws Exception {
+	Map<String,String> options = new HashMap<String,String>();
+	for (int i = 0; i < args.length; i++) {
+	    String arg = args[i];
+	    if (arg.equals("--help") || arg.equals("-h")) {
+		System.out.print(USAGE);
+		return;
+	    } else if (arg.equals("--embedded")) {
+		options.put("embedded", "true");
+	    } else if (arg.startsWith("--") && i + 1 < args.length) {
+		options.put(arg.substring(2), args[++i]);
+	    } else {
+		System.err.print("Unknown option: " + arg + "\n\n" + USAGE);
+		System.exit(1);
+	    }
+	}
+
+	EmbeddedServer server = null;
+	String  host = option(options, "host", HTTPClient.DEFAULT_HOST);
+	Integer port = Integer.parseInt(option(options, "port", HTTPClient.DEFAULT_PORT.toString()));
+	if (options.containsKey("embedded")) {
+	    // this process is ours: let the embedded server answer
+	    // without waiting on delayed ACKs
+	    if (System.getProperty("sun.net.httpserver.nodelay") == null) System.setProperty("sun.net.httpserver.nodelay", "true");
+	    server = new EmbeddedServer().start();
+	    host   = server.host();
+	    port   = server.port();
+	}
+	int concurrency = Integer.parseInt(option(options, "concurrency", "16"));
+	HTTPClient client = new HTTPClient(host, port, option(options, "organization", "loadgen"), false, new HTTPClientOptions()
+					   .maxConnections(concurrency)
+					   .maxConnectionsPerRoute(concurrency)
+					   .maxInFlightWrites(concurrency));
+	try {
+	    new LoadGenerator(client, options).run(System.out);
+	} finally {
+	    client.close();
+	    if (server != null) server.close();
+	}
+    }
+
+    /**
+     * Seed the stashes, run the warmup and measurement, then print
+     * the report.
+     */
+    void run(PrintStream out) throws InterruptedException {
+	out.println("Seeding " + topics + " topics with " + ids + " IDs each...");
+	for (int topic = 0; topic < topics; topic++) {
+	    for (int id = 0; id < ids; id++) {
+		send("set", topic, id);
+	    }
+	}
+	settle();
+	if (failures.get() > 0) throw new IllegalStateException("Could not seed stashes, is the server up?");
+
+	out.println("Warming up for " + TimeUnit.NANOSECONDS.toSeconds(warmup) + "s, then measuring for " + TimeUnit.NANOSECONDS.toSeconds(duration) + "s " +
+		    ((rate > 0) ? "at " + rate + " requests/s" : "as fast as possible") + " with " + concurrency + " threads...");
+	final long          start     = System.nanoTime();
+	final long          measure   = start + warmup;
+	final long          end       = measure + duration;
+	final AtomicLong    scheduled = new AtomicLong();
+	final CountDownLatch done     = new CountDownLatch(concurrency);
+	for (int i = 0; i < concurrency; i++) {
+	    Thread worker = new Thread(new Runnable() {
+		    public void run() {
+			try {
+			    work(start, end, scheduled);
+			} finally {
+			    done.countDown();
+			}
+		    }
+		}, "vayacondios-loadgen-" + i);
+	    worker.setDaemon(true);
+	    worker.start();
+	}
+	LockSupport.parkNanos(Math.max(0, measure - System.nanoTime()));
+	measuring = true;
+	done.await();
+	settle();
+	report(out, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - measure));
+    }
+
+    private void work(long start, long end, AtomicLong scheduled) {
+	long interval = (rate > 0) ? TimeUnit.SECONDS.toNanos(1) / rate : 0;
+	while (true) {
+	    long intended;
+	    if (interval > 0) {
+		// each request has a slot on a fixed schedule, shared by all threads
+		intended = start + scheduled.getAndIncrement() * interval;
+		if (intended >= end) return;
+		long wait = intended - System.nanoTime();
+		if (wait > 0) LockSupport.parkNanos(wait);
+	    } else {
+		intended = System.nanoTime();
+		if (intended >= end) return;
+	    }
+	    sendAt.set(intended);
+	    send(pick(), ThreadLocalRandom.current().nextInt(topics), ThreadLocalRandom.current().nextInt(ids));
+	}
+    }
+
+    /**
+     * Time a request the client has finished, from when it was
+     * scheduled to be sent.
+     */
+    private void finished(RequestContext request, boolean failed) {
+	if (failed) failures.incrementAndGet();
+	Long intended = (Long) request.attribute(INTENDED);
+	if (intended == null || !measuring) return;
+	String           operation = request.operation().name().toLowerCase();
+	LatencyHistogram histogram = latencies.get(operation);
+	if (histogram == null) return;
+	long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - intended);
+	histogram.record(micros, (rate > 0) ? 0 : expectedInterval);
+	requests.get(operation).incrementAndGet();
+	if (failed) errors.get(operation).incrementAndGet();
+    }
+
+    /** Wait for the writes still in flight to finish. */
+    private void settle() {
+	while (client.inFlightWrites() > 0) {
+	    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+	}
+    }
+
+    private String pick() {
+	int choice = ThreadLocalRandom.current().nextInt(totalWeight);
+	for (int i = 0; i < OPERATIONS.length; i++) {
+	    choice -= weights[i];
+	    if (choice < 0) return OPERATIONS[i];
+	}
+	return OPERATIONS[OPERATIONS.length - 1];
+    }
+
+    private void send(String operation, int topic, int id) {
+	String topicName = "topic" + topic;
+	String idName    = "id" + id;
+	if ("announce".equals(operation)) {
+	    client.announce(topicName, event());
+	} else if ("get".equals(operation)) {
+	    client.getMap(topicName, idName);
+	} else if ("set".equals(operation)) {
+	    client.set(topicName, idName, stash());
+	} else if ("merge".equals(operation)) {
+	    client.merge(topicName, idName, stash());
+	} else {
+	    Map<String,Object> query = new HashMap<String,Object>();
+	    query.put("limit", 10);
+	    client.events(topicName, query);
+	}
+    }
+
+    private Map<String,Object> event() {
+	ThreadLocalRandom random = ThreadLocalRandom.current();
+	Map<String,Object> event = new HashMap<String,Object>();
+	event.put("ip", "10.0." + random.nextInt(256) + "." + random.nextInt(256));
+	event.put("port", random.nextInt(65536));
+	event.put("status", (random.nextInt(100) < 95) ? 200 : 500);
+	event.put("latency", random.nextDouble() * 100);
+	return event;
+    }
+
+    private Map<String,Object> stash() {
+	ThreadLocalRandom random = ThreadLocalRandom.current();
+	Map<String,Object> stash = new HashMap<String,Object>();
+	stash.put("count", random.nextInt(1000));
+	stash.put("name", "value" + random.nextInt(1000));
+	return stash;
+    }
+
+    private void report(PrintStream out, long elapsedMillis) {
+	out.println();
+	out.println(String.format("%-10s %10s %8s %12s %10s %10s %10s %10s %10s",
+				  "operation", "requests", "errors", "requests/s", "mean ms", "p50 ms", "p99 ms", "p99.9 ms", "max ms"));
+	for (Map.Entry<String,LatencyHistogram> entry : latencies.entrySet()) {
+	    LatencyHistogram histogram = entry.getValue();
+	    long             sent      = requests.get(entry.getKey()).get();
+	    if (sent == 0) continue;
+	    out.println(String.format("%-10s %10d %8d %12.1f %10.2f %10.2f %10.2f %10.2f %10.2f",
+				      entry.getKey(),
+				      sent,
+				      errors.get(entry.getKey()).get(),
+				      sent * 1000.0 / elapsedMillis,
+				      histogram.mean() / 1000.0,
+				      histogram.percentile(0.5) / 1000.0,
+				      histogram.percentile(0.99) / 1000.0,
+				      histogram.percentile(0.999) / 1000.0,
+				      histogram.max() / 1000.0));
+	}
+	out.println();
+	if (rate > 0) {
+	    out.println("Latencies are measured from when each request was scheduled to be sent.");
+	} else if (expectedInterval > 0) {
+	    out.println("Latencies include requests which would have been sent during stalls longer than " + TimeUnit.MICROSECONDS.toMillis(expectedInterval) + "ms.");
+	} else {
+	    out.println("Latencies are not corrected for coordinated omission; pass --rate or --expected-interval to correct them.");
+	}
+    }
+
+    private static int[] weights(String mix) {
+	int[] weights = new int[OPERATIONS.length];
+	for (String term : mix.split(",")) {
+	    String[] pair = term.split("=");
+	    int i = indexOf(pair[0].trim());
+	    if (i < 0 || pair.length != 2) throw new IllegalArgumentException("Invalid --mix term: " + term);
+	    weights[i] = Integer.parseInt(pair[1].trim());
+	}
+	return weights;
+    }
+
+    private static int indexOf(String operation) {
+	for (int i = 0; i < OPERATIONS.length; i++) {
+	    if (OPERATIONS[i].equals(operation)) return i;
+	}
+	return -1;
+    }
+
+    private static String option(Map<String,String> options, String name, String otherwise) {
+	String value = options.get(name);
+	return (value == null) ? otherwise : value;
+    }
+}
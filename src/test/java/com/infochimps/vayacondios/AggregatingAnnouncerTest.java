@@ -0,0 +1,115 @@
+package com.infochimps.vayacondios;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+@RunWith(JUnit4.class)
+public class AggregatingAnnouncerTest {
+
+    private static class RecordingClient extends BaseClient {
+	final List<String>             topics = Collections.synchronizedList(new ArrayList<String>());
+	final List<Map<String,Object>> events = Collections.synchronizedList(new ArrayList<Map<String,Object>>());
+
+	RecordingClient() {
+	    super("organization");
+	}
+
+	@Override
+	protected void performAnnounce(String topic, Map<String,Object> event) {
+	    topics.add(topic);
+	    events.add(event);
+	}
+    }
+
+    private RecordingClient client;
+
+    private Map<String,Object> map(Object... pairs) {
+	Map<String,Object> m = new HashMap<String,Object>();
+	for (int i = 0; i < pairs.length; i += 2) m.put((String) pairs[i], pairs[i + 1]);
+	return m;
+    }
+
+    @Before
+    public void createClient() {
+	client = new RecordingClient();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void summarizesEachBucket() {
+	AggregatingAnnouncer a = new AggregatingAnnouncer(client, 1000, 4, false);
+	a.add("web", map("impressions", 1, "errors", 0, "path", "/", "latency", map("db", 10)), 60000);
+	a.add("web", map("impressions", 1, "errors", 1, "latency", map("db", 30)), 60500);
+	a.add("web", "latency.render", 5.0, 60999);
+	a.announce(60999, false);
+	assertEquals(0, client.events.size());
+	a.add("web", map("impressions", 1), 61000);
+	a.announce(61000, false);
+	assertEquals(1, client.events.size());
+	Map<String,Object> summary = client.events.get(0);
+	assertEquals("1970-01-01T00:01:00.000Z", summary.get("time"));
+	assertEquals(1.0, summary.get("bucket"));
+	assertEquals(3L, summary.get("events"));
+	assertEquals(map("count", 2L, "sum", 2.0, "min", 1.0, "max", 1.0), summary.get("impressions"));
+	assertEquals(map("count", 2L, "sum", 1.0, "min", 0.0, "max", 1.0), summary.get("errors"));
+	assertFalse(summary.containsKey("path"));
+	Map<String,Object> latency = (Map<String,Object>) summary.get("latency");
+	assertEquals(map("count", 2L, "sum", 40.0, "min", 10.0, "max", 30.0), latency.get("db"));
+	assertEquals(map("count", 1L, "sum", 5.0, "min", 5.0, "max", 5.0), latency.get("render"));
+	a.close();
+	assertEquals(2, client.events.size());
+	assertEquals("1970-01-01T00:01:01.000Z", client.events.get(1).get("time"));
+    }
+
+    @Test
+    public void keepsTopicsApart() {
+	AggregatingAnnouncer a = new AggregatingAnnouncer(client, 1000, 4, false);
+	a.add("a", "n", 1, 0);
+	a.add("b", "n", 2, 0);
+	a.add("b", "n", 3, 0);
+	a.close();
+	assertEquals(2, client.events.size());
+	int first = client.topics.indexOf("a"), second = client.topics.indexOf("b");
+	assertEquals(1L, client.events.get(first).get("events"));
+	assertEquals(2L, client.events.get(second).get("events"));
+    }
+
+    @Test
+    public void losesNothingAcrossThreads() throws InterruptedException {
+	final AggregatingAnnouncer a = new AggregatingAnnouncer(client, 5, 4, false);
+	final int threads = 8, adds = 20000;
+	final CountDownLatch done = new CountDownLatch(threads);
+	for (int t = 0; t < threads; t++) {
+	    new Thread(new Runnable() {
+		    public void run() {
+			for (int i = 0; i < adds; i++) a.add("topic", "n", 1.0);
+			done.countDown();
+		    }
+		}).start();
+	}
+	while (done.getCount() > 0) {
+	    a.flush();
+	    Thread.sleep(1);
+	}
+	a.close();
+	long events = 0;
+	double sum  = 0;
+	for (Map<String,Object> summary : client.events) {
+	    events += (Long) summary.get("events");
+	    sum    += (Double) ((Map) summary.get("n")).get("sum");
+	}
+	assertEquals((long) threads * adds, events);
+	assertEquals(threads * adds, sum, 0.0);
+    }
+}
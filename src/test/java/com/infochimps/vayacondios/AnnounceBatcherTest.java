@@ -0,0 +1,94 @@
+package com.infochimps.vayacondios;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.io.IOException;
+
+import com.google.gson.Gson;
+
+import org.junit.Before;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import static org.junit.Assert.assertEquals;
+
+@RunWith(JUnit4.class)
+public class AnnounceBatcherTest {
+
+    private List<String> sent;
+
+    private AnnounceBatcher batcher(int maxSize, int maxBytes, long maxDelay) {
+	return new AnnounceBatcher(new AnnounceBatcher.Sink() {
+		public void send(String topic, BufferPool.Buffer body) {
+		    sent.add(topic + " " + body);
+		    body.release();
+		}
+	    }, new BufferPool(4, 64, 1024), new Gson(), maxSize, maxBytes, maxDelay);
+    }
+
+    private Map<String,Object> event(String key, Object value) {
+	Map<String,Object> event = new HashMap<String,Object>();
+	event.put(key, value);
+	return event;
+    }
+
+    @Before
+    public void resetSent() {
+	sent = Collections.synchronizedList(new ArrayList<String>());
+    }
+
+    @Test
+    public void sendsWhenFull() throws IOException {
+	AnnounceBatcher b = batcher(2, 1024, 60000);
+	b.add("topic", event("a", 1));
+	assertEquals(0, sent.size());
+	b.add("topic", event("a", 2));
+	assertEquals(1, sent.size());
+	assertEquals("topic [{\"a\":1},{\"a\":2}]", sent.get(0));
+	b.close();
+    }
+
+    @Test
+    public void sendsWhenTooLarge() throws IOException {
+	AnnounceBatcher b = batcher(100, 10, 60000);
+	b.add("topic", event("a", "hello"));
+	assertEquals(1, sent.size());
+	b.close();
+    }
+
+    @Test
+    public void keepsTopicsSeparate() throws IOException {
+	AnnounceBatcher b = batcher(2, 1024, 60000);
+	b.add("foo", 1);
+	b.add("bar", 2);
+	assertEquals(0, sent.size());
+	b.add("foo", 3);
+	assertEquals("foo [1,3]", sent.get(0));
+	b.close();
+    }
+
+    @Test
+    public void sendsWhenOld() throws IOException, InterruptedException {
+	AnnounceBatcher b = batcher(100, 1024, 20);
+	b.add("topic", 1);
+	Thread.sleep(200);
+	assertEquals(1, sent.size());
+	assertEquals("topic [1]", sent.get(0));
+	b.close();
+	assertEquals(1, sent.size());
+    }
+
+    @Test
+    public void closeDrainsPendingBatches() throws IOException {
+	AnnounceBatcher b = batcher(100, 1024, 60000);
+	b.add("foo", 1);
+	b.add("bar", 2);
+	b.close();
+	assertEquals(2, sent.size());
+    }
+
+}
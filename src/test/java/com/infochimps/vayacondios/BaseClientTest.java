@@ -2,6 +2,11 @@ package com.infochimps.vayacondios;
 
 import java.util.Map;
 import java.util.HashMap;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.io.IOException;
 
 import org.junit.Before;
 import org.junit.After;
@@ -46,5 +51,129 @@ public class BaseClientTest {
     public void defaultDryRunFalse() {
 	assertEquals(client.dryRun(), false);
     }
+
+    @Test
+    public void dryRunAsyncReadsCompleteWithNull() {
+	assertEquals(null, dryClient.getMapAsync(topic, id).join());
+	assertEquals(null, dryClient.eventsAsync(topic, new HashMap<String,Object>()).join());
+    }
+
+    @Test
+    public void recordsRequestsIntoMetrics() {
+	BaseClient failing = new BaseClient(organization) {
+		@Override
+		protected Map<String,Object> performGetMap(String topic, String id) throws IOException {
+		    throw new IOException("refused");
+		}
+	    };
+	ClientMetrics metrics = new ClientMetrics();
+	failing.metrics(metrics);
+	failing.announce(topic, new HashMap<String,Object>());
+	assertEquals(null, failing.getMap(topic, id));
+	assertEquals(1, metrics.stats(Operation.ANNOUNCE, topic).getSuccesses());
+	assertEquals(1, metrics.stats(Operation.GET, topic).getFailures());
+	assertEquals(0, metrics.stats(Operation.GET).getInFlight());
+    }
+
+    @Test(expected = WriteRejectedException.class)
+    public void rejectedWritesReachTheCaller() {
+	BaseClient full = new BaseClient(organization) {
+		@Override
+		protected void performAnnounce(String topic, Map<String,Object> event) throws IOException {
+		    throw new WriteRejectedException("full");
+		}
+	    };
+	full.announce(topic, new HashMap<String,Object>());
+    }
+
+    @Test
+    public void dryRunRecordsNothing() {
+	ClientMetrics metrics = new ClientMetrics();
+	dryClient.metrics(metrics);
+	dryClient.announce(topic, new HashMap<String,Object>());
+	assertEquals(0, metrics.stats(Operation.ANNOUNCE).getRequests());
+    }
+
+    @Test
+    public void reportsEachRequestToListeners() {
+	final List<String> seen = new ArrayList<String>();
+	BaseClient client = new BaseClient(organization) {
+		@Override
+		protected Map<String,Object> performGetMap(String topic, String id) throws IOException {
+		    currentRequest().sent(12);
+		    currentRequest().received(200, 34);
+		    currentRequest().parsed();
+		    return new HashMap<String,Object>();
+		}
+		@Override
+		protected void performDelete(String topic, String id) throws IOException {
+		    throw new IOException("refused");
+		}
+	    };
+	client.addListener(new RequestListener() {
+		public void requestStarted(RequestContext request)   { seen.add("started " + request); }
+		public void requestSent(RequestContext request)      { seen.add("sent " + request.bytesSent()); }
+		public void responseReceived(RequestContext request) { seen.add("received " + request.status() + " " + request.bytesReceived()); }
+		public void responseParsed(RequestContext request)   { seen.add("parsed"); }
+		public void requestCompleted(RequestContext request) { seen.add("completed"); }
+		public void requestFailed(RequestContext request, Throwable failure) { seen.add("failed " + failure.getMessage()); }
+	    });
+	client.getMap(topic, id);
+	client.delete(topic, id);
+	assertEquals(Arrays.asList("started GET <topic/id>", "sent 12", "received 200 34", "parsed", "completed",
+				   "started DELETE <topic/id>", "failed refused"), seen);
+    }
+
+    @Test
+    public void requestsAreUntrackedWithoutListeners() {
+	final List<RequestContext> current = new ArrayList<RequestContext>();
+	BaseClient client = new BaseClient(organization) {
+		@Override
+		protected void performAnnounce(String topic, Map<String,Object> event) throws IOException {
+		    current.add(currentRequest());
+		}
+	    };
+	client.announce(topic, new HashMap<String,Object>());
+	client.metrics(new ClientMetrics());
+	client.metrics(null);
+	client.announce(topic, new HashMap<String,Object>());
+	assertEquals(Arrays.asList(null, null), current);
+	assertEquals(0, client.listeners().size());
+    }
+
+    @Test
+    public void asynchronousReadsUseTheSynchronousHooks() {
+	final Map<String,Object> value = new HashMap<String,Object>();
+	value.put("name", "a");
+	final List<Map<String,Object>> events = new ArrayList<Map<String,Object>>();
+	events.add(value);
+	BaseClient synchronous = new BaseClient(organization) {
+		@Override
+		protected Map<String,Object> performGetMap(String topic, String id) throws IOException {
+		    if (id.equals("down")) throw new IOException("refused");
+		    return id.equals("id") ? value : null;
+		}
+		@Override
+		protected List<Map<String,Object>> performEvents(String topic, Map<String,Object> query) throws IOException {
+		    return events;
+		}
+	    };
+	assertEquals(value,  synchronous.getMapAsync(topic, id).join());
+	assertEquals(null,   synchronous.getMapAsync(topic, "down").join());
+	assertEquals(events, synchronous.eventsAsync(topic, new HashMap<String,Object>()).join());
+	GetManyResult many = synchronous.getMany(topic, Arrays.asList(id, "missing", "down"));
+	assertEquals(value, many.get(id));
+	assertEquals(Collections.singleton("missing"), many.missing());
+	assertEquals("refused", many.errors().get("down").getMessage());
+	EventPager pager = synchronous.eventsPager(topic, new HashMap<String,Object>(), 10);
+	assertEquals(value, pager.next());
+	assertEquals(events, synchronous.eventsParallel(topic, new HashMap<String,Object>(), 1, 1));
+    }
+
+    @Test
+    public void dryRunPrimitiveReadsReturnDefault() {
+	assertEquals(2.5, dryClient.getDoubleValue(topic, id, 2.5), 0.0);
+	assertEquals(7L, dryClient.getLongValue(topic, id, 7L));
+    }
     
 }
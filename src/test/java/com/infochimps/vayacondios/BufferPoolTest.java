@@ -0,0 +1,93 @@
+package com.infochimps.vayacondios;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertArrayEquals;
+
+@RunWith(JUnit4.class)
+public class BufferPoolTest {
+
+    private byte[] written(BufferPool.Buffer buffer) throws IOException {
+	ByteArrayOutputStream out = new ByteArrayOutputStream();
+	buffer.writeEntity(out);
+	return out.toByteArray();
+    }
+
+    @Test
+    public void encodesUtf8() throws IOException {
+	String text = "plain, caf\u00e9, \u20ac5, \ud83d\ude00, and a lone \ud83d!";
+	BufferPool.Buffer buffer = new BufferPool(1, 4, 1024).acquire();
+	buffer.write(text);
+	assertArrayEquals(text.getBytes(HTTPClient.UTF8), written(buffer));
+	assertEquals("plain, caf\u00e9, \u20ac5, \ud83d\ude00, and a lone ?!", buffer.toString());
+    }
+
+    @Test
+    public void keepsSurrogatePairsSplitAcrossWrites() throws IOException {
+	BufferPool.Buffer buffer = new BufferPool(1, 4, 1024).acquire();
+	buffer.write('\ud83d');
+	buffer.write('\ude00');
+	assertArrayEquals("\ud83d\ude00".getBytes(HTTPClient.UTF8), written(buffer));
+    }
+
+    @Test
+    public void reusesReleasedBuffers() throws IOException {
+	BufferPool pool = new BufferPool(1, 4, 1024);
+	BufferPool.Buffer buffer = pool.acquire();
+	buffer.write("{\"a\":1}");
+	buffer.release();
+	buffer.release();
+	assertEquals(1, pool.idle());
+	assertSame(buffer, pool.acquire());
+	assertEquals(0, buffer.length());
+	assertNotSame(buffer, pool.acquire());
+    }
+
+    @Test
+    public void dropsOversizedBuffers() throws IOException {
+	BufferPool pool = new BufferPool(1, 4, 16);
+	BufferPool.Buffer buffer = pool.acquire();
+	char[] large = new char[100];
+	Arrays.fill(large, 'x');
+	buffer.write(large);
+	buffer.release();
+	assertEquals(0, pool.idle());
+    }
+
+    @Test
+    public void truncatesPartialValues() throws IOException {
+	BufferPool.Buffer buffer = new BufferPool(1, 4, 1024).acquire();
+	buffer.write("[1");
+	int mark = buffer.length();
+	buffer.write(",{\"broken\":");
+	buffer.truncate(mark);
+	buffer.write("]");
+	assertEquals("[1]", buffer.toString());
+    }
+
+    @Test
+    public void gzipsIntoAnotherBuffer() throws IOException {
+	BufferPool pool = new BufferPool(2, 4, 1024);
+	BufferPool.Buffer plain = pool.acquire();
+	for (int i = 0; i < 200; i++) plain.write("{\"i\":" + i + "},");
+	BufferPool.Buffer gzipped = pool.acquire();
+	plain.gzipInto(gzipped);
+	assertTrue(gzipped.length() < plain.length());
+	GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(written(gzipped)));
+	ByteArrayOutputStream out = new ByteArrayOutputStream();
+	byte[] chunk = new byte[256];
+	for (int n; (n = in.read(chunk)) > 0; ) out.write(chunk, 0, n);
+	assertArrayEquals(written(plain), out.toByteArray());
+    }
+}
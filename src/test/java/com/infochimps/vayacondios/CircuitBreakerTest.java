@@ -0,0 +1,57 @@
+package com.infochimps.vayacondios;
+
+import java.io.IOException;
+
+import org.apache.http.client.HttpResponseException;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertFalse;
+
+@RunWith(JUnit4.class)
+public class CircuitBreakerTest {
+
+    @Test
+    public void opensAfterConsecutiveFailures() {
+	CircuitBreaker breaker = new CircuitBreaker(3, 60000);
+	breaker.failed();
+	breaker.failed();
+	breaker.succeeded();
+	breaker.failed();
+	breaker.failed();
+	assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+	breaker.failed();
+	assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+	assertFalse(breaker.allowRequest());
+    }
+
+    @Test
+    public void probesOnceOpenTimeHasPassed() throws InterruptedException {
+	CircuitBreaker breaker = new CircuitBreaker(1, 20);
+	breaker.failed();
+	assertFalse(breaker.allowRequest());
+	Thread.sleep(30);
+	assertTrue(breaker.allowRequest());
+	assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.state());
+	assertFalse(breaker.allowRequest());
+	breaker.failed();
+	assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+	Thread.sleep(30);
+	assertTrue(breaker.allowRequest());
+	breaker.succeeded();
+	assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+	assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    public void clientErrorsDontCount() {
+	CircuitBreaker breaker = new CircuitBreaker(1, 60000);
+	breaker.record(new HttpResponseException(404, "Not Found"));
+	assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+	breaker.record(new IOException("refused"));
+	assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+    }
+}
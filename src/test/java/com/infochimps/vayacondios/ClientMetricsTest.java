@@ -0,0 +1,86 @@
+package com.infochimps.vayacondios;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(JUnit4.class)
+public class ClientMetricsTest {
+
+    @Test
+    public void countsOutcomes() {
+	ClientMetrics metrics = new ClientMetrics();
+	metrics.finish(Operation.GET, "topic", metrics.start(Operation.GET, "topic"), null);
+	metrics.finish(Operation.GET, "topic", metrics.start(Operation.GET, "topic"), new IOException("refused"));
+	metrics.finish(Operation.GET, "topic", metrics.start(Operation.GET, "topic"), new SocketTimeoutException());
+	metrics.finish(Operation.GET, "topic", metrics.start(Operation.GET, "topic"), new CompletionException(new TimeoutException()));
+	OperationStats stats = metrics.stats(Operation.GET);
+	assertEquals(4, stats.getRequests());
+	assertEquals(1, stats.getSuccesses());
+	assertEquals(1, stats.getFailures());
+	assertEquals(2, stats.getTimeouts());
+	assertEquals(4, metrics.stats(Operation.GET, "topic").getRequests());
+	assertEquals(0, metrics.stats(Operation.EVENTS).getRequests());
+    }
+
+    @Test
+    public void tracksRequestsInFlight() {
+	ClientMetrics metrics = new ClientMetrics();
+	long first  = metrics.start(Operation.ANNOUNCE, "topic");
+	long second = metrics.start(Operation.ANNOUNCE, "topic");
+	assertEquals(2, metrics.stats(Operation.ANNOUNCE).getInFlight());
+	metrics.finish(Operation.ANNOUNCE, "topic", first, null);
+	assertEquals(1, metrics.stats(Operation.ANNOUNCE, "topic").getInFlight());
+	metrics.finish(Operation.ANNOUNCE, "topic", second, null);
+	assertEquals(0, metrics.stats(Operation.ANNOUNCE).getInFlight());
+    }
+
+    @Test
+    public void boundsTopicsTracked() {
+	ClientMetrics metrics = new ClientMetrics(2);
+	for (String topic : new String[] { "a", "b", "c" }) metrics.finish(Operation.SET, topic, metrics.start(Operation.SET, topic), null);
+	assertEquals(2, metrics.topics().size());
+	assertNull(metrics.stats(Operation.SET, "c"));
+	assertEquals(3, metrics.stats(Operation.SET).getRequests());
+    }
+
+    @Test
+    public void tracksOnlyTheOperationsUsedInATopic() {
+	ClientMetrics metrics = new ClientMetrics();
+	metrics.finish(Operation.ANNOUNCE, "topic", metrics.start(Operation.ANNOUNCE, "topic"), null);
+	assertEquals(1, metrics.stats(Operation.ANNOUNCE, "topic").getRequests());
+	assertNull(metrics.stats(Operation.GET, "topic"));
+	assertEquals(0, metrics.stats(Operation.GET).getRequests());
+    }
+
+    @Test
+    public void registersMXBeans() throws Exception {
+	MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+	ObjectName total = new ObjectName("com.infochimps.vayacondios:type=ClientMetrics,client=\"test\",operation=EVENTS");
+	ObjectName topic = new ObjectName("com.infochimps.vayacondios:type=ClientMetrics,client=\"test\",operation=EVENTS,topic=\"intrusions\"");
+	ClientMetrics metrics = new ClientMetrics();
+	metrics.register("test");
+	try {
+	    metrics.finish(Operation.EVENTS, "intrusions", metrics.start(Operation.EVENTS, "intrusions"), null);
+	    assertEquals(1L, server.getAttribute(total, "Successes"));
+	    assertTrue(server.isRegistered(topic));
+	} finally {
+	    metrics.unregister();
+	}
+	assertFalse(server.isRegistered(total));
+	assertFalse(server.isRegistered(topic));
+    }
+}
@@ -0,0 +1,151 @@
+package com.infochimps.vayacondios;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(JUnit4.class)
+public class EventPagerTest {
+
+    /** Answers searches the way the server does, from events held
+     * in ascending order of time. */
+    private static class PagingClient extends BaseClient {
+	private final List<Map<String,Object>>   events;
+	private final List<Map<String,Object>>   queries = new ArrayList<Map<String,Object>>();
+	private CompletableFuture<List<Map<String,Object>>> answer;
+
+	PagingClient(List<Map<String,Object>> events) {
+	    super("org");
+	    this.events = events;
+	}
+
+	@Override
+	protected CompletableFuture<List<Map<String,Object>>> performEventsAsync(String topic, Map<String,Object> query) {
+	    queries.add(query);
+	    if (answer != null) return answer;
+	    String from  = (String) query.get("from");
+	    int    limit = (Integer) query.get("limit");
+	    List<Map<String,Object>> page = new ArrayList<Map<String,Object>>();
+	    for (Map<String,Object> event : events) {
+		if (from != null && ((String) event.get("time")).compareTo(from) < 0) continue;
+		if (page.size() == limit) break;
+		page.add(event);
+	    }
+	    return CompletableFuture.completedFuture(page);
+	}
+    }
+
+    private static Map<String,Object> event(int id, int second) {
+	Map<String,Object> event = new HashMap<String,Object>();
+	event.put("id",   String.valueOf(id));
+	event.put("time", String.format("2013-06-20T00:00:%02d.000Z", second));
+	return event;
+    }
+
+    private static List<String> ids(EventPager pager) {
+	List<String> ids = new ArrayList<String>();
+	while (pager.hasNext()) ids.add((String) pager.next().get("id"));
+	return ids;
+    }
+
+    private static List<String> ids(int n) {
+	List<String> ids = new ArrayList<String>();
+	for (int i = 0; i < n; i++) ids.add(String.valueOf(i));
+	return ids;
+    }
+
+    @Test
+    public void asksForTheFieldsItPagesBy() {
+	List<Map<String,Object>> events = new ArrayList<Map<String,Object>>();
+	for (int i = 0; i < 10; i++) events.add(event(i, i));
+	PagingClient client = new PagingClient(events);
+	EventPager pager = client.eventsPager("topic", new Query().fields("type", "id"), 3);
+	assertEquals(ids(10), ids(pager));
+	assertEquals(Arrays.asList("type", "id", "time"), client.queries.get(0).get("fields"));
+	assertEquals(5, pager.pages());
+    }
+
+    @Test
+    public void walksEveryEventOnce() {
+	List<Map<String,Object>> events = new ArrayList<Map<String,Object>>();
+	for (int i = 0; i < 10; i++) events.add(event(i, i / 2));
+	PagingClient client = new PagingClient(events);
+	EventPager pager = client.eventsPager("topic", Collections.<String,Object>singletonMap("limit", 3), 3);
+	assertEquals(ids(10), ids(pager));
+	assertEquals("asc", client.queries.get(0).get("order"));
+	assertEquals(3,     client.queries.get(0).get("limit"));
+	assertEquals("2013-06-20T00:00:01.000Z", client.queries.get(1).get("from"));
+    }
+
+    @Test
+    public void getsPastPagesOfOneTimestamp() {
+	List<Map<String,Object>> events = new ArrayList<Map<String,Object>>();
+	for (int i = 0; i < 7; i++) events.add(event(i, 0));
+	events.add(event(7, 1));
+	PagingClient client = new PagingClient(events);
+	EventPager pager = client.eventsPager("topic", null, 2);
+	assertEquals(ids(8), ids(pager));
+	assertEquals(8, client.queries.get(2).get("limit"));
+	assertEquals(2, client.queries.get(3).get("limit"));
+    }
+
+    @Test
+    public void prefetchesTheNextPage() {
+	List<Map<String,Object>> events = new ArrayList<Map<String,Object>>();
+	for (int i = 0; i < 4; i++) events.add(event(i, i));
+	PagingClient client = new PagingClient(events);
+	EventPager pager = client.eventsPager("topic", null, 2);
+	assertEquals(1, client.queries.size());
+	pager.next();
+	assertEquals(2, client.queries.size());
+	assertEquals(1, pager.pages());
+    }
+
+    @Test
+    public void stopsAtAShortPage() {
+	PagingClient client = new PagingClient(Collections.singletonList(event(0, 0)));
+	EventPager pager = client.eventsPager("topic", null);
+	assertEquals(ids(1), ids(pager));
+	assertEquals(1, client.queries.size());
+	assertFalse(pager.hasNext());
+    }
+
+    @Test
+    public void throwsFailedSearches() {
+	PagingClient client = new PagingClient(Collections.<Map<String,Object>>emptyList());
+	client.answer = new CompletableFuture<List<Map<String,Object>>>();
+	client.answer.completeExceptionally(new IOException("down"));
+	EventPager pager = client.eventsPager("topic", null);
+	try {
+	    pager.hasNext();
+	    fail();
+	} catch (UncheckedIOException e) {
+	    assertEquals("down", e.getCause().getMessage());
+	}
+	assertFalse(pager.hasNext());
+    }
+
+    @Test
+    public void closingAbandonsThePendingPage() {
+	PagingClient client = new PagingClient(Collections.<Map<String,Object>>emptyList());
+	client.answer = new CompletableFuture<List<Map<String,Object>>>();
+	EventPager pager = client.eventsPager("topic", null);
+	pager.close();
+	assertTrue(client.answer.isCancelled());
+	assertFalse(pager.hasNext());
+    }
+}
@@ -0,0 +1,213 @@
+package com.infochimps.vayacondios;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.google.gson.Gson;
+import com.ning.http.client.AsyncHandler;
+
+import org.junit.Before;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(JUnit4.class)
+public class EventStreamTest {
+
+    /** A connection the stream asked for. */
+    private static class Connection {
+	final Map<String,Object>  query;
+	final EventStream.Handler handler;
+
+	Connection(Map<String,Object> query, AsyncHandler handler) {
+	    this.query   = query;
+	    this.handler = (EventStream.Handler) handler;
+	}
+    }
+
+    private BlockingQueue<Connection> connections;
+    private List<Long>                delays;
+    private ScheduledThreadPoolExecutor scheduler;
+
+    private EventStream stream(Map<String,Object> query, EventStream.Listener listener) {
+	EventStream stream = new EventStream("intrusions", query, new EventStream.Connector() {
+		public Future connect(Map<String,Object> query, AsyncHandler handler) {
+		    connections.add(new Connection(query, handler));
+		    return new CompletableFuture<Object>();
+		}
+	    }, new Gson(), scheduler, listener);
+	stream.start();
+	return stream;
+    }
+
+    private EventStream stream(Map<String,Object> query) {
+	return stream(query, new EventStream.Listener() {
+		public void onEvent(Map<String,Object> event) {}
+	    });
+    }
+
+    private Connection connection() throws InterruptedException {
+	Connection connection = connections.poll(5, TimeUnit.SECONDS);
+	assertTrue("stream should have connected", connection != null);
+	return connection;
+    }
+
+    private byte[] lines(int first, int last) {
+	StringBuilder body = new StringBuilder();
+	for (int i = first; i <= last; i++) body.append("{\"time\":\"t" + i + "\",\"n\":" + i + "}\n");
+	return body.toString().getBytes(HTTPClient.UTF8);
+    }
+
+    @Before
+    public void setUp() {
+	connections = new LinkedBlockingQueue<Connection>();
+	delays      = Collections.synchronizedList(new ArrayList<Long>());
+	// reconnect at once, remembering how long the stream asked to wait
+	scheduler   = new ScheduledThreadPoolExecutor(1) {
+		@Override
+		public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+		    delays.add(unit.toMillis(delay));
+		    return super.schedule(command, 0, unit);
+		}
+	    };
+    }
+
+    @After
+    public void tearDown() {
+	scheduler.shutdownNow();
+    }
+
+    @Test
+    public void resumesAfterTheLastEvent() throws InterruptedException {
+	Map<String,Object> query = new HashMap<String,Object>();
+	query.put("from", "t0");
+	query.put("limit", 5);
+	EventStream stream = stream(query);
+
+	Connection first = connection();
+	assertEquals("t0", first.query.get("from"));
+	assertNull(first.query.get("after"));
+	assertEquals(AsyncHandler.STATE.CONTINUE, first.handler.status(200));
+	assertEquals(AsyncHandler.STATE.CONTINUE, first.handler.received(lines(1, 2)));
+	first.handler.onThrowable(new IOException("connection reset"));
+
+	Connection second = connection();
+	assertFalse(second.query.containsKey("from"));
+	assertEquals("t2", second.query.get("after"));
+	assertEquals(5, second.query.get("limit"));
+	stream.close();
+    }
+
+    @Test
+    public void splitsLinesAcrossBodyParts() throws InterruptedException {
+	final List<Map<String,Object>> events = Collections.synchronizedList(new ArrayList<Map<String,Object>>());
+	EventStream stream = stream(null, new EventStream.Listener() {
+		public void onEvent(Map<String,Object> event) {
+		    events.add(event);
+		}
+	    });
+	Connection connection = connection();
+	byte[] body = lines(1, 2);
+	byte[] head = new byte[10];
+	byte[] tail = new byte[body.length - head.length];
+	System.arraycopy(body, 0, head, 0, head.length);
+	System.arraycopy(body, head.length, tail, 0, tail.length);
+	connection.handler.received(head);
+	assertEquals(0, events.size());
+	connection.handler.received(tail);
+	assertEquals(2, events.size());
+	assertEquals("t1", events.get(0).get("time"));
+	assertEquals("t2", events.get(1).get("time"));
+	stream.close();
+    }
+
+    @Test
+    public void pausesWhileTheIteratorIsBehind() throws InterruptedException {
+	EventStream stream = stream(null, null);
+	Connection first = connection();
+	// one more than the stream will queue
+	assertEquals(AsyncHandler.STATE.ABORT, first.handler.received(lines(1, 10001)));
+	first.handler.onThrowable(new IOException("aborted"));
+	Thread.sleep(100);
+	assertTrue("a paused stream shouldn't reconnect", connections.isEmpty());
+
+	for (int i = 1; i < 5000; i++) assertEquals("t" + i, stream.next().get("time"));
+	assertTrue("a stream more than half full shouldn't reconnect", connections.isEmpty());
+	assertEquals("t5000", stream.next().get("time"));
+
+	Connection second = connection();
+	assertEquals("t10000", second.query.get("after"));
+	assertTrue("resuming isn't a failure", delays.isEmpty());
+	stream.close();
+	assertFalse(stream.hasNext());
+    }
+
+    @Test
+    public void closesWhenTheServerRefuses() throws InterruptedException {
+	EventStream stream = stream(null, null);
+	Connection connection = connection();
+	assertEquals(AsyncHandler.STATE.ABORT, connection.handler.status(404));
+	connection.handler.onThrowable(new IOException("aborted"));
+	assertFalse(stream.hasNext());
+	Thread.sleep(100);
+	assertTrue("a refused stream shouldn't reconnect", connections.isEmpty());
+    }
+
+    @Test
+    public void retriesServerErrors() throws InterruptedException {
+	EventStream stream = stream(null);
+	Connection connection = connection();
+	assertEquals(AsyncHandler.STATE.ABORT, connection.handler.status(503));
+	connection.handler.onThrowable(new IOException("aborted"));
+	connection();
+	stream.close();
+    }
+
+    @Test
+    public void backsOffUntilAnEventArrives() throws InterruptedException {
+	EventStream stream = stream(null);
+	Connection connection = connection();
+	for (int i = 0; i < 3; i++) {
+	    connection.handler.onThrowable(new IOException("connection refused"));
+	    connection = connection();
+	}
+	connection.handler.received(lines(1, 1));
+	connection.handler.onCompleted();
+	connection();
+	assertEquals(4, delays.size());
+	assertEquals(100L,  (long) delays.get(0));
+	assertEquals(200L,  (long) delays.get(1));
+	assertEquals(400L,  (long) delays.get(2));
+	assertEquals(100L,  (long) delays.get(3));
+	stream.close();
+    }
+
+    @Test
+    public void ignoresConnectionsItHasReplaced() throws InterruptedException {
+	EventStream stream = stream(null);
+	Connection first = connection();
+	first.handler.onThrowable(new IOException("connection reset"));
+	connection();
+	// a late callback from the first connection
+	first.handler.onCompleted();
+	Thread.sleep(100);
+	assertTrue("a superseded connection shouldn't reconnect", connections.isEmpty());
+	stream.close();
+    }
+}
@@ -0,0 +1,80 @@
+package com.infochimps.vayacondios;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(JUnit4.class)
+public class HTTPClientFactoryTest {
+
+    private HTTPClientFactory factory;
+
+    @Before
+    public void createFactory() {
+	factory = new HTTPClientFactory("localhost", 9000, new HTTPClientOptions().batchAnnouncements(true).recordMetrics(true));
+    }
+
+    @After
+    public void closeFactory() {
+	factory.close(0);
+    }
+
+    @Test
+    public void reusesOneClientPerOrganization() {
+	HTTPClient website = factory.client("website");
+	assertSame(website, factory.client("website"));
+	assertNotSame(website, factory.client("billing"));
+	assertEquals("website", website.organization());
+	assertTrue(website.url("event", "topic").endsWith("/" + BaseClient.VERSION + "/website/event/topic"));
+	assertTrue(factory.client("billing").url("event", "topic").endsWith("/" + BaseClient.VERSION + "/billing/event/topic"));
+	assertEquals(2, factory.clients().size());
+    }
+
+    @Test
+    public void clientsShareTheTransport() {
+	HTTPClient website = factory.client("website");
+	HTTPClient billing = factory.client("billing");
+	assertSame(website.synchronousClient(), billing.synchronousClient());
+	assertSame(website.asynchronousClient(), billing.asynchronousClient());
+	assertSame(factory.synchronousClient(), website.synchronousClient());
+	assertSame(website.endpoints().get(0), billing.endpoints().get(0));
+	assertNotSame(website.metrics(), billing.metrics());
+    }
+
+    @Test
+    public void dryRunClientsDontSpool() throws IOException {
+	File directory = Files.createTempDirectory("vayacondios-spool").toFile();
+	HTTPClientFactory spooling = new HTTPClientFactory("localhost", 9000, new HTTPClientOptions().spoolDirectory(directory));
+	try {
+	    spooling.client("website");
+	    spooling.dryRunClient("website").close(0);
+	    assertTrue(new File(new File(directory, "website"), "lock").exists());
+	} finally {
+	    spooling.close(0);
+	    for (File file : new File(directory, "website").listFiles()) file.delete();
+	    new File(directory, "website").delete();
+	    directory.delete();
+	}
+    }
+
+    @Test
+    public void closingAClientLeavesTheOthersOpen() {
+	HTTPClient website = factory.client("website");
+	HTTPClient billing = factory.client("billing");
+	website.close(0);
+	assertEquals(1, factory.clients().size());
+	assertSame(billing, factory.clients().get(0));
+	assertNotSame(website, factory.client("website"));
+	assertTrue(factory.client("website").url("stash", "topic").startsWith("http://localhost:9000/"));
+    }
+}
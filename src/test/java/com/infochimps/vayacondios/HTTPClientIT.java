@@ -5,6 +5,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Set;
+import java.util.Collections;
 
 import java.net.UnknownHostException;
 
@@ -55,6 +56,11 @@ public class HTTPClientIT {
 	return s;
     }
     
+    public static class Event {
+	String foo;
+	double baz;
+    }
+
     private Map query() {
 	Map q = new HashMap();
 	q.put("foo", "bar");
@@ -110,6 +116,16 @@ public class HTTPClientIT {
 	assertEquals(3, client.events(topic, query()).size());
     }
     
+    @Test
+    public void eventsTyped() {
+	client.announce(topic, event());
+	client.flush();
+	List<Event> events = client.events(topic, query(), Event.class);
+	assertEquals(1, events.size());
+	assertEquals("bar", events.get(0).foo);
+	assertEquals(12.0, events.get(0).baz, 0.0);
+    }
+    
     @Test
     public void announceWithId() {
 	client.announce(topic, event(), "1");
@@ -118,6 +134,18 @@ public class HTTPClientIT {
 	assertEquals(2, client.events(topic, query()).size());
     }
 
+    @Test
+    public void streamDeliversAnnouncedEvents() throws InterruptedException {
+	EventStream stream = client.stream(topic, query());
+	try {
+	    client.announce(topic, event());
+	    Map e = stream.next();
+	    assertEquals("bar", e.get("foo"));
+	} finally {
+	    stream.close();
+	}
+    }
+
     @Test
     public void get() {
 	client.set(topic, stash());
@@ -133,6 +161,32 @@ public class HTTPClientIT {
 	assertEquals("bar", e.get("foo"));
     }
 
+    @Test
+    public void getMapTyped() {
+	client.set(topic, stash());
+	Event e = client.getMap(topic, "map", Event.class);
+	assertEquals("bar", e.foo);
+	assertEquals(null, client.getMap(topic, "missing", Event.class));
+    }
+
+    @Test
+    public void getMapConcurrently() throws InterruptedException {
+	client.set(topic, stash());
+	final List<Object> results = Collections.synchronizedList(new ArrayList<Object>());
+	List<Thread> threads = new ArrayList<Thread>();
+	for (int i = 0; i < 8; i++) {
+	    threads.add(new Thread(new Runnable() {
+		    public void run() {
+			for (int j = 0; j < 10; j++) results.add(client.getMap(topic, "map").get("foo"));
+		    }
+		}));
+	}
+	for (Thread t : threads) t.start();
+	for (Thread t : threads) t.join();
+	assertEquals(80, results.size());
+	for (Object result : results) assertEquals("bar", result);
+    }
+
     @Test
     public void getList() {
 	client.set(topic, stash());
@@ -155,6 +209,15 @@ public class HTTPClientIT {
 	assertEquals((Double) 3.1415, d);
     }
 
+    @Test
+    public void getPrimitives() {
+	client.set(topic, stash());
+	assertEquals(3.1415, client.getDoubleValue(topic, "double", 0.0), 0.0);
+	assertEquals(-1.0, client.getDoubleValue(topic, "string", -1.0), 0.0);
+	assertEquals(-1L, client.getLongValue(topic, "double", -1L));
+	assertEquals(-1L, client.getLongValue(topic, "missing", -1L));
+    }
+
     @Test
     public void setOverwrites() {
 	client.set(topic, stash());
@@ -0,0 +1,58 @@
+package com.infochimps.vayacondios;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(JUnit4.class)
+public class LatencyHistogramTest {
+
+    @Test
+    public void exactBelow128() {
+	LatencyHistogram histogram = new LatencyHistogram();
+	for (long i = 1; i <= 100; i++) histogram.record(i);
+	assertEquals(50, histogram.percentile(0.5));
+	assertEquals(99, histogram.percentile(0.99));
+	assertEquals(100, histogram.max());
+	assertEquals(50.5, histogram.mean(), 0.0);
+    }
+
+    @Test
+    public void withinTwoPercentAbove128() {
+	for (long value = 128; value < (1L << 35); value = value * 3 + 7) {
+	    LatencyHistogram histogram = new LatencyHistogram();
+	    histogram.record(value);
+	    histogram.record(value * 2);
+	    long p50 = histogram.percentile(0.5);
+	    assertTrue(value + " reported as " + p50, p50 >= value && p50 <= value * 1.02);
+	}
+    }
+
+    @Test
+    public void bucketsAreContiguous() {
+	for (int i = 0; i < LatencyHistogram.BUCKETS - 1; i++) {
+	    assertEquals(i, LatencyHistogram.index(LatencyHistogram.highest(i)));
+	    assertEquals(i + 1, LatencyHistogram.index(LatencyHistogram.highest(i) + 1));
+	}
+    }
+
+    @Test
+    public void countsTheLongestInTheLastBucket() {
+	LatencyHistogram histogram = new LatencyHistogram();
+	histogram.record(1L << 40);
+	assertEquals(1L << 40, histogram.percentile(0.5));
+	assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.index((1L << 36) - 1));
+    }
+
+    @Test
+    public void correctsForCoordinatedOmission() {
+	LatencyHistogram histogram = new LatencyHistogram();
+	for (int i = 0; i < 99; i++) histogram.record(10, 10);
+	histogram.record(1000, 10);
+	// the stalled request plus the 99 that would have queued behind it
+	assertEquals(199, histogram.count());
+	assertTrue(histogram.percentile(0.75) > 500);
+    }
+}
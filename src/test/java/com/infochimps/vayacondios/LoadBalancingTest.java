@@ -0,0 +1,60 @@
+package com.infochimps.vayacondios;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+@RunWith(JUnit4.class)
+public class LoadBalancingTest {
+
+    private Endpoint[] endpoints(int n) {
+	Endpoint[] endpoints = new Endpoint[n];
+	for (int i = 0; i < n; i++) endpoints[i] = Endpoint.parse("host" + i + ":" + (9000 + i), 80, new CircuitBreaker(1, 60000));
+	return endpoints;
+    }
+
+    @Test
+    public void parsesEndpoints() {
+	Endpoint plain = Endpoint.parse("example.com", 80, null);
+	assertEquals("example.com", plain.host());
+	assertEquals(80, plain.port());
+	Endpoint ipv6 = Endpoint.parse("[::1]:9000", 80, null);
+	assertEquals("::1", ipv6.host());
+	assertEquals(9000, ipv6.port());
+	assertEquals("http://[::1]:9000/v2", ipv6.url("/v2"));
+    }
+
+    @Test
+    public void choosesLeastOutstanding() {
+	Endpoint[] endpoints = endpoints(3);
+	endpoints[0].sending();
+	endpoints[2].sending();
+	for (int i = 0; i < 20; i++) assertSame(endpoints[1], LoadBalancing.LEAST_OUTSTANDING.select(endpoints, null));
+	endpoints[1].sending();
+	endpoints[1].sending();
+	for (int i = 0; i < 20; i++) assertNotSame(endpoints[1], LoadBalancing.POWER_OF_TWO_CHOICES.select(endpoints, null));
+    }
+
+    @Test
+    public void passesOverUnavailableEndpoints() {
+	Endpoint[] endpoints = endpoints(3);
+	endpoints[0].healthy(false);
+	endpoints[1].circuitBreaker().failed();
+	for (LoadBalancing balancing : LoadBalancing.values()) {
+	    for (int i = 0; i < 20; i++) assertSame(endpoints[2], balancing.select(endpoints, null));
+	}
+    }
+
+    @Test
+    public void avoidsTheLastEndpointTried() {
+	Endpoint[] endpoints = endpoints(2);
+	for (LoadBalancing balancing : LoadBalancing.values()) {
+	    for (int i = 0; i < 20; i++) assertSame(endpoints[1], balancing.select(endpoints, endpoints[0]));
+	}
+	endpoints[1].healthy(false);
+	assertSame(endpoints[0], LoadBalancing.LEAST_OUTSTANDING.select(endpoints, endpoints[0]));
+    }
+}
@@ -0,0 +1,106 @@
+package com.infochimps.vayacondios;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+import org.apache.http.client.HttpResponseException;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+@RunWith(JUnit4.class)
+public class ManyGetterTest {
+
+    /** A stash, fetched from the way the server would, or left for
+     * the test to answer. */
+    private static class Stash {
+	private final Map<String,Object> values = new HashMap<String,Object>();
+	private boolean                  answering  = true;
+	private final List<String>             fetches  = new ArrayList<String>();
+	private final List<CompletableFuture<Map<String,Object>>> pending = new ArrayList<CompletableFuture<Map<String,Object>>>();
+
+	final Function<String,CompletableFuture<Map<String,Object>>> fetch = id -> {
+	    fetches.add(id);
+	    CompletableFuture<Map<String,Object>> value = new CompletableFuture<Map<String,Object>>();
+	    pending.add(value);
+	    if (answering) answer(value, id);
+	    return value;
+	};
+
+	@SuppressWarnings("unchecked")
+	void answer(CompletableFuture<Map<String,Object>> future, String id) {
+	    Object value = values.get(id);
+	    if (value == null) {
+		future.completeExceptionally(new HttpResponseException(404, "Not Found"));
+	    } else if (value instanceof IOException) {
+		future.completeExceptionally((IOException) value);
+	    } else {
+		future.complete((Map<String,Object>) value);
+	    }
+	}
+
+	Stash with(String id, Object value) {
+	    values.put(id, value);
+	    return this;
+	}
+    }
+
+    private static Map<String,Object> screen(String name) {
+	return Collections.<String,Object>singletonMap("name", name);
+    }
+
+    @Test
+    public void fetchesEachValueOnce() {
+	Stash stash = new Stash().with("home", screen("Home")).with("a.b", screen("A")).with("c", new IOException("down"));
+	GetManyResult result = new ManyGetter(Arrays.asList("home", "a.b", "c", "d", "home"), 4, stash.fetch).start().join();
+	assertEquals(Arrays.asList("home", "a.b", "c", "d"), stash.fetches);
+	assertEquals(screen("Home"), result.get("home"));
+	assertEquals(screen("A"),    result.get("a.b"));
+	assertEquals(Collections.singleton("d"), result.missing());
+	assertEquals("down", result.errors().get("c").getMessage());
+	assertFalse(result.complete());
+    }
+
+    @Test
+    public void boundsTheFetchesInFlight() {
+	Stash stash = new Stash();
+	stash.answering = false;
+	List<String> ids = new ArrayList<String>();
+	for (int i = 0; i < 10; i++) {
+	    ids.add("screen." + i);
+	    stash.with("screen." + i, screen("Screen " + i));
+	}
+	CompletableFuture<GetManyResult> result = new ManyGetter(ids, 3, stash.fetch).start();
+	for (int i = 0; i < 10; i++) {
+	    assertEquals(Math.min(10, i + 3), stash.pending.size());
+	    stash.answer(stash.pending.get(i), stash.fetches.get(i));
+	}
+	assertEquals(10, result.join().values().size());
+    }
+
+    @Test
+    public void readsThroughTheClientsCache() {
+	final Stash stash = new Stash().with("home", screen("Home")).with("about", screen("About"));
+	BaseClient client = new BaseClient("org") {
+		@Override
+		protected CompletableFuture<Map<String,Object>> performGetMapAsync(String topic, String id) {
+		    return stash.fetch.apply(id);
+		}
+	    };
+	client.cache(new StashCache(100, 60000));
+	assertEquals(2, client.getMany("screens", Arrays.asList("home", "about")).values().size());
+	GetManyResult again = client.getMany("screens", Arrays.asList("home", "about"));
+	assertEquals(screen("About"), again.get("about"));
+	assertEquals(Arrays.asList("home", "about"), stash.fetches);
+    }
+}
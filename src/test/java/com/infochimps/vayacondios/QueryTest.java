@@ -0,0 +1,84 @@
+package com.infochimps.vayacondios;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.google.gson.Gson;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(JUnit4.class)
+public class QueryTest {
+
+    @Test
+    public void buildsTheSameMapAsByHand() {
+	Query query = new Query()
+	    .where("ip", "10.123.123.123")
+	    .from(1370754000)
+	    .upto("2013-06-09T23:59:59Z")
+	    .fields("type", "priority")
+	    .sort("priority").ascending()
+	    .limit(1000);
+	Map<String,Object> expected = new HashMap<String,Object>();
+	expected.put("ip",     "10.123.123.123");
+	expected.put("from",   1370754000);
+	expected.put("upto",   "2013-06-09T23:59:59Z");
+	expected.put("fields", Arrays.asList("type", "priority"));
+	expected.put("sort",   "priority");
+	expected.put("order",  "asc");
+	expected.put("limit",  1000);
+	assertEquals(expected, query);
+    }
+
+    @Test
+    public void neverChanges() {
+	Query base   = new Query().where("ip", "10.123.123.123");
+	Query recent = base.from("2013-06-09T00:00:00Z");
+	assertEquals(1, base.size());
+	assertEquals(2, recent.size());
+	assertFalse(base.containsKey("from"));
+	try {
+	    recent.put("limit", 1);
+	} catch (UnsupportedOperationException e) {
+	    assertEquals(2, recent.size());
+	    return;
+	}
+	throw new AssertionError("query was changed");
+    }
+
+    @Test
+    public void replacesOneBoundWithAnother() {
+	Query query = new Query().from("2013-06-09T00:00:00Z").after("2013-06-10T00:00:00Z").before(new Date(0));
+	assertFalse(query.containsKey("from"));
+	assertEquals("2013-06-10T00:00:00Z", query.get("after"));
+	assertEquals("1970-01-01T00:00:00Z", query.get("before"));
+	assertTrue(query.upto(1).containsKey("upto"));
+	assertFalse(query.upto(1).containsKey("before"));
+    }
+
+    @Test
+    public void reusesItsBody() {
+	Gson  serializer = new Gson();
+	Query query      = new Query().where("ip", "10.123.123.123").limit(5);
+	String body      = query.json(serializer);
+	assertEquals(serializer.toJson(new LinkedHashMap<String,Object>(query)), body);
+	assertSame(body, query.json(serializer));
+	assertNotSame(body, query.json(new Gson()));
+	HTTPClient client = new HTTPClient("org");
+	try {
+	    assertSame(client.toJson(query), client.toJson(query));
+	} finally {
+	    client.close(0);
+	}
+    }
+}
@@ -0,0 +1,59 @@
+package com.infochimps.vayacondios;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.gson.Gson;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(JUnit4.class)
+public class ResultIteratorTest {
+
+    private final AtomicInteger aborted = new AtomicInteger();
+
+    private ResultIterator<Map<String,Object>> iterator(String json) throws IOException {
+	InputStream body = new ByteArrayInputStream(json.getBytes(HTTPClient.UTF8));
+	return new ResultIterator<Map<String,Object>>(body, new Gson(), Map.class, new Runnable() {
+		public void run() {
+		    aborted.incrementAndGet();
+		}
+	    });
+    }
+
+    @Test
+    public void iteratesOverEachElement() throws IOException {
+	ResultIterator<Map<String,Object>> events = iterator("[{\"a\":1},{\"b\":{\"c\":[2,3]}}]");
+	assertTrue(events.hasNext());
+	assertEquals(1.0, events.next().get("a"));
+	assertTrue(events.hasNext());
+	assertTrue(events.next().containsKey("b"));
+	assertFalse(events.hasNext());
+	assertEquals(0, aborted.get());
+    }
+
+    @Test
+    public void emptyForEmptyOrNullBodies() throws IOException {
+	assertFalse(iterator("[]").hasNext());
+	assertFalse(iterator("null").hasNext());
+	assertFalse(ResultIterator.<Map<String,Object>>empty().hasNext());
+    }
+
+    @Test
+    public void abortsWhenClosedEarly() throws IOException {
+	ResultIterator<Map<String,Object>> events = iterator("[{\"a\":1},{\"a\":2}]");
+	events.next();
+	events.close();
+	events.close();
+	assertFalse(events.hasNext());
+	assertEquals(1, aborted.get());
+    }
+}
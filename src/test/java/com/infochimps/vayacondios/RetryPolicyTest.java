@@ -0,0 +1,61 @@
+package com.infochimps.vayacondios;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+
+import org.apache.http.client.HttpResponseException;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertFalse;
+
+@RunWith(JUnit4.class)
+public class RetryPolicyTest {
+
+    @Test
+    public void backsOffExponentiallyUpToMax() {
+	RetryPolicy policy = new RetryPolicy().backoff(100, 500).jitter(0);
+	assertEquals(100, policy.delay(1));
+	assertEquals(200, policy.delay(2));
+	assertEquals(400, policy.delay(3));
+	assertEquals(500, policy.delay(4));
+	assertEquals(500, policy.delay(20));
+    }
+
+    @Test
+    public void jitterShortensDelays() {
+	RetryPolicy policy = new RetryPolicy().backoff(1000, 1000).jitter(0.25);
+	for (int i = 0; i < 1000; i++) {
+	    long delay = policy.delay(1);
+	    assertTrue(delay >= 750 && delay <= 1000);
+	}
+    }
+
+    @Test
+    public void retriesOnlyTransientFailures() {
+	RetryPolicy policy = new RetryPolicy();
+	assertTrue(policy.retries(new ConnectException("refused")));
+	assertTrue(policy.retries(new SocketTimeoutException()));
+	assertTrue(policy.retries(new HttpResponseException(503, "Service Unavailable")));
+	assertTrue(policy.retries(new HttpResponseException(429, "Too Many Requests")));
+	assertTrue(policy.retries(new CompletionException(new IOException("reset"))));
+	assertFalse(policy.retries(new HttpResponseException(404, "Not Found")));
+	assertFalse(policy.retries(new CircuitOpenException("open")));
+	assertFalse(policy.retries(new WriteRejectedException("full")));
+	assertFalse(policy.retries(new InterruptedIOException()));
+	assertFalse(policy.retries(new CancellationException()));
+	assertFalse(policy.retries(new IllegalStateException()));
+    }
+
+    @Test
+    public void noneMakesOneAttempt() {
+	assertEquals(1, RetryPolicy.none().maxAttempts());
+    }
+}
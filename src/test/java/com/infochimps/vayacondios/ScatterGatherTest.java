@@ -0,0 +1,197 @@
+package com.infochimps.vayacondios;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(JUnit4.class)
+public class ScatterGatherTest {
+
+    private static final long START = Instant.parse("2013-06-20T00:00:00Z").toEpochMilli();
+    private static final long HOUR  = 3600 * 1000;
+
+    /** Answers searches the way the server does, from a fixed set
+     * of events, or leaves them for the test to answer. */
+    private static class Server implements Function<Map<String,Object>,CompletableFuture<List<Map<String,Object>>>> {
+	private final List<Map<String,Object>> events;
+	private final boolean                  answering;
+	private final List<Map<String,Object>> queries = new ArrayList<Map<String,Object>>();
+	private final List<CompletableFuture<List<Map<String,Object>>>> pending = new ArrayList<CompletableFuture<List<Map<String,Object>>>>();
+
+	Server(List<Map<String,Object>> events, boolean answering) {
+	    this.events    = events;
+	    this.answering = answering;
+	}
+
+	public CompletableFuture<List<Map<String,Object>>> apply(Map<String,Object> query) {
+	    queries.add(query);
+	    CompletableFuture<List<Map<String,Object>>> future = new CompletableFuture<List<Map<String,Object>>>();
+	    pending.add(future);
+	    if (answering) future.complete(search(query));
+	    return future;
+	}
+
+	List<Map<String,Object>> search(Map<String,Object> query) {
+	    long from = query.containsKey("from") ? ScatterGather.millis(query.get("from")) : ScatterGather.millis(query.get("after")) + 1;
+	    long upto = query.containsKey("upto") ? ScatterGather.millis(query.get("upto")) : ScatterGather.millis(query.get("before")) - 1;
+	    final String  sort      = query.containsKey("sort") ? (String) query.get("sort") : "time";
+	    final boolean ascending = "asc".equals(query.get("order"));
+	    List<Map<String,Object>> matched = new ArrayList<Map<String,Object>>();
+	    for (Map<String,Object> event : events) {
+		long time = ScatterGather.millis(event.get("time"));
+		if (time >= from && time <= upto) matched.add(event);
+	    }
+	    Collections.sort(matched, new Comparator<Map<String,Object>>() {
+		    public int compare(Map<String,Object> a, Map<String,Object> b) {
+			int c = a.get(sort).toString().compareTo(b.get(sort).toString());
+			return ascending ? c : -c;
+		    }
+		});
+	    int limit = ((Number) query.get("limit")).intValue();
+	    return (matched.size() > limit) ? matched.subList(0, limit) : matched;
+	}
+    }
+
+    private static Map<String,Object> event(String id, long time, String host) {
+	Map<String,Object> event = new HashMap<String,Object>();
+	event.put("id",   id);
+	event.put("time", Instant.ofEpochMilli(time).toString());
+	event.put("host", host);
+	return event;
+    }
+
+    /** One event every ten minutes for a day. */
+    private static List<Map<String,Object>> day() {
+	List<Map<String,Object>> events = new ArrayList<Map<String,Object>>();
+	for (int i = 0; i < 144; i++) events.add(event(String.valueOf(i), START + i * 600 * 1000, "host-" + (i * 37 % 144)));
+	return events;
+    }
+
+    private static Map<String,Object> query(Object... pairs) {
+	Map<String,Object> query = new HashMap<String,Object>();
+	query.put("from", "2013-06-20T00:00:00Z");
+	query.put("upto", Instant.ofEpochMilli(START + 24 * HOUR).toString());
+	for (int i = 0; i < pairs.length; i += 2) query.put((String) pairs[i], pairs[i + 1]);
+	return query;
+    }
+
+    private static List<Object> ids(List<Map<String,Object>> events) {
+	List<Object> ids = new ArrayList<Object>();
+	for (Map<String,Object> event : events) ids.add(event.get("id"));
+	return ids;
+    }
+
+    @Test
+    public void splitsTheWindowWithoutOverlap() {
+	Server server = new Server(day(), true);
+	ScatterGather search = new ScatterGather(server, query(), 4, 1, START);
+	List<Map<String,Object>> windows = search.windows();
+	assertEquals(4, windows.size());
+	// newest first, as events are sorted newest first
+	assertEquals(query().get("upto"),             windows.get(0).get("upto"));
+	assertEquals("2013-06-20T18:00:00Z",          windows.get(0).get("from"));
+	assertEquals("2013-06-20T18:00:00Z",          windows.get(1).get("before"));
+	assertEquals("2013-06-20T00:00:00Z",          windows.get(3).get("from"));
+	assertFalse(windows.get(3).containsKey("upto"));
+	assertEquals(ScatterGather.LIMIT,             windows.get(0).get("limit"));
+    }
+
+    @Test
+    public void returnsWhatOneSearchWould() {
+	Server server = new Server(day(), true);
+	for (String order : new String[] { "asc", "desc" }) {
+	    for (String sort : new String[] { "time", "host" }) {
+		Map<String,Object> query = query("order", order, "sort", sort, "limit", 30);
+		assertEquals(ids(server.search(query)), ids(new ScatterGather(server, query, 7, 3, START).start().join()));
+	    }
+	}
+	Map<String,Object> everything = query("limit", 1000);
+	assertEquals(ids(server.search(everything)), ids(new ScatterGather(server, everything, 24, 4, START).start().join()));
+    }
+
+    @Test
+    public void boundsTheSearchesInFlight() {
+	Server server = new Server(day(), false);
+	CompletableFuture<List<Map<String,Object>>> events = new ScatterGather(server, query("limit", 1000), 6, 2, START).start();
+	assertEquals(2, server.pending.size());
+	server.pending.get(1).complete(server.search(server.queries.get(1)));
+	assertEquals(3, server.pending.size());
+	for (int i = 0; i < 6; i++) {
+	    assertTrue(server.pending.size() <= Math.min(6, i + 3));
+	    server.pending.get(i).complete(server.search(server.queries.get(i)));
+	}
+	assertEquals(6, server.pending.size());
+	assertEquals(144, events.join().size());
+    }
+
+    @Test
+    public void abandonsSearchesOnceTheLimitIsIn() {
+	Server server = new Server(day(), false);
+	CompletableFuture<List<Map<String,Object>>> events = new ScatterGather(server, query("order", "asc", "limit", 10), 12, 3, START).start();
+	assertEquals(3, server.pending.size());
+	server.pending.get(0).complete(server.search(server.queries.get(0)));
+	assertTrue(events.isDone());
+	assertEquals(ids(server.search(query("order", "asc", "limit", 10))), ids(events.join()));
+	assertTrue(server.pending.get(1).isCancelled());
+	assertTrue(server.pending.get(2).isCancelled());
+	assertEquals(3, server.pending.size());
+    }
+
+    @Test
+    public void failsWhenASearchFails() {
+	Server server = new Server(day(), false);
+	CompletableFuture<List<Map<String,Object>>> events = new ScatterGather(server, query(), 4, 2, START).start();
+	server.pending.get(1).completeExceptionally(new IOException("down"));
+	assertTrue(server.pending.get(0).isCancelled());
+	assertEquals(2, server.pending.size());
+	try {
+	    events.join();
+	    fail();
+	} catch (CompletionException e) {
+	    assertEquals("down", e.getCause().getMessage());
+	}
+    }
+
+    @Test
+    public void mergesByNestedFields() {
+	Server server = new Server(day(), false);
+	CompletableFuture<List<Map<String,Object>>> events = new ScatterGather(server, query("sort", "geo.rank", "order", "asc", "limit", 4), 2, 2, START).start();
+	server.pending.get(0).complete(ranked("a", 1.0, "c", 3.0));
+	server.pending.get(1).complete(ranked("b", 2.0, "d", 4.0));
+	assertEquals(ids(ranked("a", 1.0, "b", 2.0, "c", 3.0, "d", 4.0)), ids(events.join()));
+    }
+
+    private static List<Map<String,Object>> ranked(Object... pairs) {
+	List<Map<String,Object>> events = new ArrayList<Map<String,Object>>();
+	for (int i = 0; i < pairs.length; i += 2) {
+	    Map<String,Object> event = event((String) pairs[i], START, "host");
+	    event.put("geo", Collections.singletonMap("rank", pairs[i + 1]));
+	    events.add(event);
+	}
+	return events;
+    }
+
+    @Test
+    public void searchesTheLastHourByDefault() {
+	Server server = new Server(day(), true);
+	ScatterGather search = new ScatterGather(server, null, 2, 2, START + 24 * HOUR);
+	assertEquals("2013-06-20T23:30:00Z", search.windows().get(0).get("from"));
+	assertEquals(6, search.start().join().size());
+    }
+}
@@ -0,0 +1,143 @@
+package com.infochimps.vayacondios;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+@RunWith(JUnit4.class)
+public class StashCacheTest {
+
+    private StashCache cache;
+
+    private class CountingClient extends BaseClient {
+	int reads = 0;
+
+	CountingClient() {
+	    super("organization");
+	}
+
+	@Override
+	protected String performGetString(String topic, String id) throws IOException {
+	    reads += 1;
+	    return (id.equals("missing")) ? null : "value";
+	}
+
+	@Override
+	protected Double performGetDouble(String topic, String id) throws IOException {
+	    reads += 1;
+	    return (id.equals("missing")) ? null : 2.5;
+	}
+
+	@Override
+	protected double performGetDoubleValue(String topic, String id, double defaultValue) throws IOException {
+	    reads += 1;
+	    return (id.equals("missing")) ? defaultValue : 2.5;
+	}
+
+	@Override
+	protected long performGetLongValue(String topic, String id, long defaultValue) throws IOException {
+	    reads += 1;
+	    return (id.equals("missing")) ? defaultValue : 7L;
+	}
+    }
+
+    @Before
+    public void createCache() {
+	cache = new StashCache(2, 60000);
+    }
+
+    @Test
+    public void missesThenHits() {
+	assertSame(StashCache.MISS, cache.lookup("String", "topic", "id"));
+	cache.store("String", "topic", "id", "value", cache.generation("topic", "id"));
+	assertEquals("value", cache.lookup("String", "topic", "id"));
+	assertEquals(1, cache.hits());
+	assertEquals(1, cache.misses());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+	cache.store("String", "topic", "a", "a", cache.generation("topic", "a"));
+	cache.store("String", "topic", "b", "b", cache.generation("topic", "b"));
+	cache.lookup("String", "topic", "a");
+	cache.store("String", "topic", "c", "c", cache.generation("topic", "c"));
+	assertEquals(2, cache.size());
+	assertEquals(1, cache.evictions());
+	assertSame(StashCache.MISS, cache.lookup("String", "topic", "b"));
+	assertEquals("a", cache.lookup("String", "topic", "a"));
+    }
+
+    @Test
+    public void expiresPerTopic() {
+	cache.ttl("fast", 0);
+	cache.store("String", "fast", "id", "value", cache.generation("fast", "id"));
+	assertSame(StashCache.MISS, cache.lookup("String", "fast", "id"));
+	assertEquals(0, cache.ttl("fast"));
+	assertEquals(60000, cache.ttl("slow"));
+    }
+
+    @Test
+    public void invalidatesIdAndWholeStash() {
+	cache.store("Stash", "topic", null, new HashMap(), cache.generation("topic", null));
+	cache.store("String", "topic", "id", "value", cache.generation("topic", "id"));
+	cache.store("String", "other", "id", "value", cache.generation("other", "id"));
+	cache.invalidate("topic", "id");
+	assertEquals(1, cache.size());
+	cache.invalidate("other");
+	assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void ignoresReadsRacingInvalidation() {
+	long generation = cache.generation("topic", "id");
+	long stash      = cache.generation("topic", null);
+	long other      = cache.generation("topic", "other");
+	cache.invalidate("topic", "id");
+	cache.store("String", "topic", "id", "stale", generation);
+	cache.store("Stash", "topic", null, new HashMap(), stash);
+	assertEquals(0, cache.size());
+	cache.store("String", "topic", "other", "fresh", other);
+	assertEquals("fresh", cache.lookup("String", "topic", "other"));
+	long topic = cache.generation("topic", "other");
+	cache.invalidate("topic");
+	cache.store("String", "topic", "other", "stale", topic);
+	assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void clientReadsThroughCache() {
+	CountingClient client = new CountingClient();
+	client.cache(cache);
+	assertEquals("value", client.getString("topic", "id"));
+	assertEquals("value", client.getString("topic", "id"));
+	assertEquals(null, client.getString("topic", "missing"));
+	assertEquals(null, client.getString("topic", "missing"));
+	assertEquals(2, client.reads);
+	client.set("topic", "id", "new");
+	client.getString("topic", "id");
+	assertEquals(3, client.reads);
+    }
+
+    @Test
+    public void primitiveReadsShareTheCache() {
+	CountingClient client = new CountingClient();
+	client.cache(new StashCache(10, 60000));
+	assertEquals(2.5, client.getDouble("topic", "id"), 0.0);
+	assertEquals(2.5, client.getDoubleValue("topic", "id", 0.0), 0.0);
+	assertEquals(1.5, client.getDoubleValue("topic", "missing", 1.5), 0.0);
+	assertEquals(1.5, client.getDoubleValue("topic", "missing", 1.5), 0.0);
+	assertEquals(7L, client.getLongValue("topic", "id", 0L));
+	assertEquals(7L, client.getLongValue("topic", "id", 0L));
+	assertEquals(4, client.reads);
+	client.set("topic", "id", 3);
+	client.getLongValue("topic", "id", 0L);
+	assertEquals(5, client.reads);
+    }
+}
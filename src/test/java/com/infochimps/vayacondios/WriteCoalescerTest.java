@@ -0,0 +1,168 @@
+package com.infochimps.vayacondios;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.io.IOException;
+
+import com.google.gson.Gson;
+
+import org.junit.Before;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(JUnit4.class)
+public class WriteCoalescerTest {
+
+    private final Gson               serializer = new Gson();
+    private List<String>             sent;
+    private List<CompletableFuture<Void>> answers;
+    private ScheduledExecutorService timer;
+
+    private WriteCoalescer coalescer(long window) {
+	return new WriteCoalescer(new WriteCoalescer.Sink() {
+		public CompletableFuture<?> send(String topic, String id, String method, Object value) {
+		    sent.add(method + " " + topic + ((id == null) ? "" : "/" + id) + " " + serializer.toJson(value));
+		    CompletableFuture<Void> answer = new CompletableFuture<Void>();
+		    answers.add(answer);
+		    return answer;
+		}
+	    }, serializer, window, timer);
+    }
+
+    private Map<String,Object> map(Object... pairs) {
+	Map<String,Object> m = new LinkedHashMap<String,Object>();
+	for (int i = 0; i < pairs.length; i += 2) m.put((String) pairs[i], pairs[i + 1]);
+	return m;
+    }
+
+    @Before
+    public void setUp() {
+	sent    = Collections.synchronizedList(new ArrayList<String>());
+	answers = Collections.synchronizedList(new ArrayList<CompletableFuture<Void>>());
+	timer = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @After
+    public void tearDown() {
+	timer.shutdownNow();
+    }
+
+    @Test
+    public void collapsesSetsToTheLast() throws IOException {
+	WriteCoalescer c = coalescer(60000);
+	Map<String,Object> progress = map("done", 1);
+	c.set("job", "progress", progress);
+	progress.put("done", 2);
+	c.set("job", "progress", progress);
+	progress.put("done", 3);
+	assertEquals(0, sent.size());
+	c.close();
+	assertEquals(Collections.singletonList("POST job/progress {\"done\":2}"), sent);
+    }
+
+    @Test
+    public void mergesLocallyLikeTheServer() throws IOException {
+	WriteCoalescer c = coalescer(60000);
+	c.merge("job", "count", 1);
+	c.merge("job", "count", 2);
+	c.merge("job", null, map("log", "a", "tags", Collections.singletonList("x")));
+	c.merge("job", null, map("log", "b", "tags", Collections.singletonList("y")));
+	c.set("job", "status", map("state", "running"));
+	c.merge("job", "status", map("state", "!", "done", 4));
+	c.close();
+	assertEquals(3, sent.size());
+	assertEquals("PUT job/count 3", sent.get(0));
+	assertEquals("PUT job {\"log\":\"b\",\"tags\":[\"y\"]}", sent.get(1));
+	assertEquals("POST job/status {\"state\":\"running!\",\"done\":4}", sent.get(2));
+    }
+
+    @Test
+    public void laysMergesOnTopOfWholeStashes() throws IOException {
+	WriteCoalescer c = coalescer(60000);
+	c.merge("job", null, map("count", 1, "status", map("state", "running")));
+	c.merge("job", null, map("count", 1, "status", map("done", 4)));
+	c.flush("job");
+	c.set("job", null, map("count", 1, "log", "a"));
+	c.merge("job", null, map("log", "b"));
+	c.close();
+	assertEquals(2, sent.size());
+	assertEquals("PUT job {\"count\":1,\"status\":{\"done\":4}}", sent.get(0));
+	assertEquals("POST job {\"count\":1,\"log\":\"b\"}", sent.get(1));
+    }
+
+    @Test
+    public void keepsIntegersIntegral() {
+	assertEquals(3L,   WriteCoalescer.merged(1, 2L));
+	assertEquals(3.5,  WriteCoalescer.merged(1, 2.5));
+	assertEquals(Long.MAX_VALUE + 1.0, WriteCoalescer.merged(Long.MAX_VALUE, 1));
+    }
+
+    @Test
+    public void flushingWaitsForWritesInFlight() throws IOException {
+	WriteCoalescer c = coalescer(60000);
+	c.set("job", "a", 1);
+	c.flush("job");
+	c.set("job", "b", 2);
+	CompletableFuture<Void> flushed = c.flush("job");
+	assertEquals(2, sent.size());
+	assertFalse(flushed.isDone());
+	answers.get(1).complete(null);
+	assertFalse(flushed.isDone());
+	answers.get(0).completeExceptionally(new IOException("down"));
+	assertTrue(flushed.isDone());
+	assertTrue(c.flush("other").isDone());
+	c.close();
+    }
+
+    @Test
+    public void sendsMergesWhichCantBeCombined() throws IOException {
+	WriteCoalescer c = coalescer(60000);
+	c.merge("job", "value", 1);
+	c.merge("job", "value", "a");
+	c.close();
+	assertEquals(2, sent.size());
+	assertEquals("PUT job/value 1", sent.get(0));
+	assertEquals("PUT job/value \"a\"", sent.get(1));
+    }
+
+    @Test
+    public void neverReordersWholeStashesAndValues() throws IOException {
+	WriteCoalescer c = coalescer(60000);
+	c.set("job", "a", 1);
+	c.set("job", null, map("b", 2));
+	c.set("job", "c", 3);
+	assertEquals(2, sent.size());
+	assertEquals("POST job/a 1", sent.get(0));
+	assertEquals("POST job {\"b\":2}", sent.get(1));
+	c.flush("job");
+	assertEquals("POST job/c 3", sent.get(2));
+    }
+
+    @Test
+    public void sendsAfterTheWindow() throws IOException, InterruptedException {
+	WriteCoalescer c = coalescer(50);
+	c.set("job", "a", 1);
+	c.set("job", "a", 2);
+	c.set("other", "a", 3);
+	long deadline = System.currentTimeMillis() + 5000;
+	while (sent.size() < 2 && System.currentTimeMillis() < deadline) Thread.sleep(10);
+	assertEquals(2, sent.size());
+	c.set("job", "a", 4);
+	deadline = System.currentTimeMillis() + 5000;
+	while (sent.size() < 3 && System.currentTimeMillis() < deadline) Thread.sleep(10);
+	assertEquals("POST job/a 4", sent.get(2));
+	c.close();
+	assertEquals(3, sent.size());
+    }
+}
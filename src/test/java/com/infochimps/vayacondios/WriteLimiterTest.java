@@ -0,0 +1,107 @@
+package com.infochimps.vayacondios;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertFalse;
+
+@RunWith(JUnit4.class)
+public class WriteLimiterTest {
+
+    private FutureTask<Object> future() {
+	return new FutureTask<Object>(new Callable<Object>() {
+		public Object call() { return null; }
+	    });
+    }
+
+    @Test
+    public void unlimitedCountsInFlight() throws IOException {
+	WriteLimiter limiter = new WriteLimiter(0, OverflowPolicy.FAIL);
+	WriteLimiter.Slot a = limiter.acquire();
+	WriteLimiter.Slot b = limiter.acquire();
+	assertEquals(2, limiter.inFlight());
+	limiter.release(a);
+	limiter.release(b);
+	assertEquals(0, limiter.inFlight());
+    }
+
+    @Test
+    public void releaseIsIdempotent() throws IOException {
+	WriteLimiter limiter = new WriteLimiter(1, OverflowPolicy.FAIL);
+	WriteLimiter.Slot a = limiter.acquire();
+	limiter.release(a);
+	limiter.release(a);
+	assertEquals(0, limiter.inFlight());
+	assertNotNull(limiter.acquire());
+	assertEquals(1, limiter.inFlight());
+    }
+
+    @Test
+    public void dropNewestDropsWhenFull() throws IOException {
+	WriteLimiter limiter = new WriteLimiter(1, OverflowPolicy.DROP_NEWEST);
+	assertNotNull(limiter.acquire());
+	assertNull(limiter.acquire());
+	assertEquals(1, limiter.dropped());
+    }
+
+    @Test(expected = WriteRejectedException.class)
+    public void failRejectsWhenFull() throws IOException {
+	WriteLimiter limiter = new WriteLimiter(1, OverflowPolicy.FAIL);
+	limiter.acquire();
+	try {
+	    limiter.acquire();
+	} finally {
+	    assertEquals(1, limiter.rejected());
+	}
+    }
+
+    @Test
+    public void dropOldestCancelsOldest() throws IOException {
+	WriteLimiter limiter = new WriteLimiter(2, OverflowPolicy.DROP_OLDEST);
+	FutureTask<Object> first  = future();
+	FutureTask<Object> second = future();
+	limiter.started(limiter.acquire(), first);
+	limiter.started(limiter.acquire(), second);
+	assertNotNull(limiter.acquire());
+	assertTrue(first.isCancelled());
+	assertFalse(second.isCancelled());
+	assertEquals(1, limiter.dropped());
+	assertEquals(2, limiter.inFlight());
+    }
+
+    @Test
+    public void drainWaitsForInFlightWrites() throws Exception {
+	final WriteLimiter limiter = new WriteLimiter(0, OverflowPolicy.BLOCK);
+	final WriteLimiter.Slot slot = limiter.acquire();
+	assertFalse(limiter.drain(10));
+	new Thread(new Runnable() {
+		public void run() {
+		    try { Thread.sleep(20); } catch (InterruptedException e) {}
+		    limiter.release(slot);
+		}
+	    }).start();
+	assertTrue(limiter.drain(5000));
+    }
+
+    @Test
+    public void blockWaitsForRoom() throws Exception {
+	final WriteLimiter limiter = new WriteLimiter(1, OverflowPolicy.BLOCK);
+	final WriteLimiter.Slot slot = limiter.acquire();
+	new Thread(new Runnable() {
+		public void run() {
+		    try { Thread.sleep(20); } catch (InterruptedException e) {}
+		    limiter.release(slot);
+		}
+	    }).start();
+	assertNotNull(limiter.acquire());
+	assertEquals(1, limiter.inFlight());
+    }
+}
@@ -0,0 +1,187 @@
+package com.infochimps.vayacondios;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.client.HttpResponseException;
+
+import org.junit.Before;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(JUnit4.class)
+public class WriteSpoolTest {
+
+    private File         directory;
+    private List<String> sent;
+
+    private class RecordingSender implements WriteSpool.Sender {
+	public CompletableFuture<Void> send(WriteSpool.Record record) {
+	    sent.add(record.method + " " + record.path + " " + record.body);
+	    return CompletableFuture.completedFuture(null);
+	}
+    }
+
+    private class FailingSender extends RecordingSender {
+	private final AtomicInteger failures;
+
+	FailingSender(int failures) {
+	    this.failures = new AtomicInteger(failures);
+	}
+
+	public CompletableFuture<Void> send(WriteSpool.Record record) {
+	    if (failures.getAndDecrement() > 0) return failed(new IOException("server is down"));
+	    return super.send(record);
+	}
+    }
+
+    private static CompletableFuture<Void> failed(Throwable failure) {
+	CompletableFuture<Void> future = new CompletableFuture<Void>();
+	future.completeExceptionally(failure);
+	return future;
+    }
+
+    @Before
+    public void createDirectory() throws IOException {
+	directory = File.createTempFile("vayacondios-spool", "");
+	directory.delete();
+	sent = Collections.synchronizedList(new ArrayList<String>());
+    }
+
+    @After
+    public void deleteDirectory() {
+	File[] files = directory.listFiles();
+	if (files != null) for (File file : files) file.delete();
+	directory.delete();
+    }
+
+    @Test
+    public void replaysInOrder() throws Exception {
+	WriteSpool spool = new WriteSpool(directory, 1024, 1024 * 1024, new RecordingSender());
+	spool.append("POST", "event/topic", "{\"a\":1}");
+	spool.append("PUT", "stash/topic/id", "2");
+	spool.append("DELETE", "stash/topic", null);
+	spool.close(5000);
+	assertEquals(3, sent.size());
+	assertEquals("POST event/topic {\"a\":1}", sent.get(0));
+	assertEquals("PUT stash/topic/id 2", sent.get(1));
+	assertEquals("DELETE stash/topic null", sent.get(2));
+    }
+
+    @Test
+    public void setsAsideWritesTheServerKeepsRejecting() throws Exception {
+	WriteSpool spool = new WriteSpool(directory, 1024, 1024 * 1024, new RecordingSender() {
+		public CompletableFuture<Void> send(WriteSpool.Record record) {
+		    if ("1".equals(record.body)) return failed(new HttpResponseException(500, "Internal Server Error"));
+		    return super.send(record);
+		}
+	    });
+	spool.append("POST", "event/topic", "1");
+	spool.append("POST", "event/topic", "2");
+	spool.close(5000);
+	assertEquals(Collections.singletonList("POST event/topic 2"), sent);
+	assertEquals("POST event/topic 1\n", new String(Files.readAllBytes(new File(directory, "dead-letters").toPath()), "UTF-8"));
+    }
+
+    @Test
+    public void sendsSeveralAtOnceButAcknowledgesInOrder() throws Exception {
+	final List<CompletableFuture<Void>> answers = Collections.synchronizedList(new ArrayList<CompletableFuture<Void>>());
+	WriteSpool spool = new WriteSpool(directory, 1024, 1024 * 1024, new RecordingSender() {
+		public CompletableFuture<Void> send(WriteSpool.Record record) {
+		    super.send(record);
+		    CompletableFuture<Void> answer = new CompletableFuture<Void>();
+		    answers.add(answer);
+		    return answer;
+		}
+	    });
+	for (int i = 0; i < 3; i++) spool.append("POST", "event/topic", String.valueOf(i));
+	for (int i = 0; i < 100 && answers.size() < 3; i++) Thread.sleep(10);
+	assertEquals(3, answers.size());
+	long pending = spool.pending();
+	answers.get(1).complete(null);
+	Thread.sleep(50);
+	assertEquals(pending, spool.pending());
+	answers.get(0).complete(null);
+	answers.get(2).complete(null);
+	for (int i = 0; i < 100 && spool.pending() > 0; i++) Thread.sleep(10);
+	assertEquals(0, spool.pending());
+	spool.close(0);
+	assertEquals(3, sent.size());
+    }
+
+    @Test
+    public void retriesUntilServerRecovers() throws Exception {
+	WriteSpool spool = new WriteSpool(directory, 1024, 1024 * 1024, new FailingSender(2));
+	spool.append("POST", "event/topic", "1");
+	spool.append("POST", "event/topic", "2");
+	spool.close(5000);
+	assertEquals(2, sent.size());
+	assertEquals("POST event/topic 1", sent.get(0));
+    }
+
+    @Test
+    public void deletesAcknowledgedSegments() throws Exception {
+	WriteSpool spool = new WriteSpool(directory, 64, 1024 * 1024, new RecordingSender());
+	for (int i = 0; i < 20; i++) spool.append("POST", "event/topic", "{\"i\":" + i + "}");
+	spool.close(5000);
+	assertEquals(20, sent.size());
+	assertEquals(1, segments());
+    }
+
+    @Test
+    public void keepsUnsentWritesForNextSpool() throws Exception {
+	WriteSpool down = new WriteSpool(directory, 1024, 1024 * 1024, new FailingSender(Integer.MAX_VALUE));
+	down.append("POST", "event/topic", "1");
+	down.append("POST", "event/topic", "2");
+	down.close(50);
+	assertEquals(0, sent.size());
+
+	WriteSpool up = new WriteSpool(directory, 1024, 1024 * 1024, new RecordingSender());
+	up.close(5000);
+	assertEquals(2, sent.size());
+	assertEquals("POST event/topic 2", sent.get(1));
+    }
+
+    @Test
+    public void boundsDiskUsage() throws Exception {
+	WriteSpool spool = new WriteSpool(directory, 64, 128, new FailingSender(Integer.MAX_VALUE));
+	IOException full = null;
+	try {
+	    for (int i = 0; i < 100; i++) spool.append("POST", "event/topic", "{\"i\":" + i + "}");
+	} catch (IOException e) {
+	    full = e;
+	}
+	assertTrue(full != null);
+	assertEquals(2, segments());
+	spool.close(0);
+    }
+
+    @Test
+    public void refusesASecondSpoolOnTheSameDirectory() throws Exception {
+	WriteSpool spool = new WriteSpool(directory, 1024, 1024 * 1024, new RecordingSender());
+	try {
+	    new WriteSpool(directory, 1024, 1024 * 1024, new RecordingSender());
+	    fail();
+	} catch (IOException e) {
+	    assertTrue(e.getMessage().contains("already open"));
+	} finally {
+	    spool.close(0);
+	}
+	new WriteSpool(directory, 1024, 1024 * 1024, new RecordingSender()).close(0);
+    }
+
+    private int segments() {
+	return directory.listFiles((dir, name) -> name.endsWith(".spool")).length;
+    }
+}
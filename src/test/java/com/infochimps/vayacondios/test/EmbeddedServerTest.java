@@ -0,0 +1,181 @@
+package com.infochimps.vayacondios.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.infochimps.vayacondios.EventPager;
+import com.infochimps.vayacondios.HTTPClient;
+import com.infochimps.vayacondios.HTTPClientOptions;
+import com.infochimps.vayacondios.RequestContext;
+import com.infochimps.vayacondios.RequestListener;
+import com.infochimps.vayacondios.RetryPolicy;
+
+@RunWith(JUnit4.class)
+public class EmbeddedServerTest {
+
+    private EmbeddedServer server;
+    private HTTPClient     client;
+
+    private Map<String,Object> map(Object... pairs) {
+	Map<String,Object> m = new HashMap<String,Object>();
+	for (int i = 0; i < pairs.length; i += 2) m.put((String) pairs[i], pairs[i + 1]);
+	return m;
+    }
+
+    private void settle() throws InterruptedException {
+	while (client.inFlightWrites() > 0) Thread.sleep(5);
+    }
+
+    @Before
+    public void startServer() throws IOException {
+	server = new EmbeddedServer().start();
+	client = server.client("organization");
+    }
+
+    @After
+    public void stopServer() {
+	client.close();
+	server.close();
+    }
+
+    @Test
+    public void announcesAndSearchesEvents() throws InterruptedException {
+	// one at a time, so the server sees them in this order
+	client.announce("topic", map("foo", "bar"));
+	settle();
+	client.announce("topic", map("foo", "baz"));
+	settle();
+	client.announce("topic", map("foo", "bar"), "1");
+	settle();
+	client.announce("topic", map("foo", "bar"), "1");
+	settle();
+	assertEquals(2, client.events("topic", map("foo", "bar")).size());
+	List<Map<String,Object>> limited = client.events("topic", map("limit", 1));
+	assertEquals(1, limited.size());
+	assertEquals("1", limited.get(0).get("id"));
+    }
+
+    @Test
+    public void setsMergesAndDeletesStashes() throws InterruptedException {
+	client.set("topic", map("count", 1.0, "name", "a"));
+	settle();
+	client.merge("topic", "count", 2.0);
+	client.merge("topic", "name", "b");
+	settle();
+	assertEquals((Double) 3.0, client.getDouble("topic", "count"));
+	assertEquals("ab", client.getString("topic", "name"));
+	assertEquals(1, client.stashes(map("name", "ab")).size());
+	client.delete("topic");
+	settle();
+	assertEquals(null, client.get("topic"));
+    }
+
+    @Test
+    public void readsAsynchronously() throws InterruptedException {
+	client.set("topic", "id", map("name", "a"));
+	client.announce("topic", map("foo", "bar"));
+	settle();
+	CompletableFuture<Map<String,Object>>       value  = client.getMapAsync("topic", "id");
+	CompletableFuture<List<Map<String,Object>>> events = client.eventsAsync("topic", map());
+	assertEquals(map("name", "a"), value.join());
+	assertEquals("bar", events.join().get(0).get("foo"));
+	assertEquals(null, client.getMapAsync("topic", "missing").join());
+    }
+
+    @Test
+    public void recoversAsynchronousFailuresToNull() {
+	server.errorRate(1.0);
+	assertEquals(null, client.getAsync("topic").join());
+	assertEquals(null, client.eventsAsync("topic", map()).join());
+	assertTrue(server.failures() > 0);
+    }
+
+    @Test
+    public void parsesAsynchronousReadsOnTheParserPool() throws InterruptedException {
+	final List<String> parsedOn = new CopyOnWriteArrayList<String>();
+	client.addListener(new RequestListener() {
+		public void responseParsed(RequestContext request) {
+		    parsedOn.add(Thread.currentThread().getName());
+		}
+	    });
+	client.set("topic", map("name", "a"));
+	settle();
+	assertEquals(map("name", "a"), client.getAsync("topic").join());
+	assertEquals(Collections.singletonList("vayacondios-parser"), parsedOn);
+    }
+
+    @Test
+    public void injectsFailures() {
+	server.errorRate(1.0);
+	assertEquals(null, client.get("topic"));
+	assertEquals(RetryPolicy.DEFAULT_MAX_ATTEMPTS, server.failures());
+    }
+
+    @Test
+    public void stopsRetryingCancelledReads() throws InterruptedException {
+	server.errorRate(1.0).latency(100);
+	EventPager events = client.eventsPager("topic", map(), 10);
+	Thread.sleep(50);
+	events.close();
+	Thread.sleep(500);
+	assertTrue(server.failures() <= 1);
+    }
+
+    @Test
+    public void spoolsWritesTheServerFails() throws Exception {
+	File directory = Files.createTempDirectory("vayacondios-spool").toFile();
+	HTTPClient spooling = server.client("organization", new HTTPClientOptions().spoolDirectory(directory));
+	try {
+	    spooling.set("topic", "sent", map("name", "a"));
+	    server.errorRate(1.0);
+	    spooling.set("topic", "spooled", map("name", "b"));
+	    while (spooling.inFlightWrites() > 0) Thread.sleep(5);
+	    server.errorRate(0.0);
+	    // replayed several at a time, so either may land first
+	    for (int i = 0; i < 100 && (client.getMap("topic", "sent") == null || client.getMap("topic", "spooled") == null); i++) Thread.sleep(50);
+	    assertEquals(map("name", "a"), client.getMap("topic", "sent"));
+	    assertEquals(map("name", "b"), client.getMap("topic", "spooled"));
+	} finally {
+	    spooling.close();
+	    for (File file : directory.listFiles()) file.delete();
+	    directory.delete();
+	}
+    }
+
+    @Test
+    public void failsOverToAnotherServer() throws IOException {
+	EmbeddedServer down = new EmbeddedServer().start().errorRate(1.0);
+	HTTPClient both = new HTTPClient(Arrays.asList(server.host() + ":" + server.port(), down.host() + ":" + down.port()), "organization", false, new HTTPClientOptions().healthCheckInterval(0));
+	try {
+	    for (int i = 0; i < 20; i++) assertEquals(0, both.events("topic", map()).size());
+	    assertTrue(down.failures() > 0);
+	} finally {
+	    both.close();
+	    down.close();
+	}
+    }
+
+    @Test
+    public void injectsLatency() {
+	server.latency(50);
+	long start = System.currentTimeMillis();
+	client.get("topic");
+	assertTrue(System.currentTimeMillis() - start >= 50);
+    }
+}